@@ -0,0 +1,70 @@
+package ch.gbrain.gwtstorage.benchmark;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ch.gbrain.gwtstorage.model.StorageItem;
+
+import com.google.gwt.json.client.JSONValue;
+
+/**
+ * An item holding its json as plain string, it is never converted to a
+ * JSONValue on the JVM. The BenchmarkStorageManager stores and fills the
+ * payload directly.
+ */
+public class BenchmarkItem extends StorageItem
+{
+
+  private String payload;
+
+  public BenchmarkItem(String id)
+  {
+    this.setId(id);
+  }
+
+  public BenchmarkItem(String id, String payload)
+  {
+    this.setId(id);
+    this.payload = payload;
+  }
+
+  public String getPayload()
+  {
+    return payload;
+  }
+
+  public void setPayload(String payload)
+  {
+    this.payload = payload;
+  }
+
+  @Override
+  public JSONValue toJson()
+  {
+    return null;
+  }
+
+  @Override
+  public void fromJson(JSONValue json)
+  {
+  }
+
+}
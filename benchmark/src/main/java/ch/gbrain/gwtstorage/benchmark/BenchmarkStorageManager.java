@@ -0,0 +1,166 @@
+package ch.gbrain.gwtstorage.benchmark;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.gbrain.gwtstorage.manager.CachedResourceEntry;
+import ch.gbrain.gwtstorage.manager.StorageItemCacheEntry;
+import ch.gbrain.gwtstorage.manager.StorageItemValidators;
+import ch.gbrain.gwtstorage.manager.StorageManager;
+import ch.gbrain.gwtstorage.model.StorageItem;
+import ch.gbrain.gwtstorage.model.StorageResource;
+
+import com.google.gwt.json.client.JSONValue;
+import com.google.gwt.storage.client.Storage;
+import com.googlecode.gwtphonegap.client.PhoneGap;
+
+/**
+ * A StorageManager which runs on the JVM. The PhoneGap API is replaced by a
+ * fake which is no device, the LocalStorage values and the cached resources
+ * are kept in memory only. The items are BenchmarkItems which carry their json
+ * as string, thus the JSNI json conversion is bypassed. The logging is
+ * switched off to measure the storage logic only.
+ */
+public class BenchmarkStorageManager extends StorageManager
+{
+
+  private Map<String, CachedResourceEntry> cachedResources = new HashMap<String, CachedResourceEntry>();
+  private Map<String, String> localStorageValues = new HashMap<String, String>();
+
+  public BenchmarkStorageManager()
+  {
+    super(createPhoneGap(), createLogger());
+  }
+
+  private static Logger createLogger()
+  {
+    Logger logger = Logger.getLogger("BenchmarkStorageManager");
+    logger.setLevel(Level.OFF);
+    return logger;
+  }
+
+  /**
+   * @return A PhoneGap which answers false or null to everything, thus it is no
+   *         device and has no file system
+   */
+  private static PhoneGap createPhoneGap()
+  {
+    return (PhoneGap) Proxy.newProxyInstance(PhoneGap.class.getClassLoader(), new Class<?>[] { PhoneGap.class }, new InvocationHandler()
+    {
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+      }
+    });
+  }
+
+  @Override
+  public Storage getLocalStorage()
+  {
+    return null;
+  }
+
+  @Override
+  protected String getLocalStorageValue(String key)
+  {
+    return localStorageValues.get(key);
+  }
+
+  @Override
+  protected void setLocalStorageValue(String key, String value)
+  {
+    localStorageValues.put(key, value);
+  }
+
+  @Override
+  protected void removeLocalStorageValue(String key)
+  {
+    localStorageValues.remove(key);
+  }
+
+  /**
+   * @return The number of values in the LocalStorage replacement
+   */
+  public int getLocalStorageSize()
+  {
+    return localStorageValues.size();
+  }
+
+  @Override
+  protected String toStorageItemPayload(StorageItem item, JSONValue json)
+  {
+    return ((BenchmarkItem) item).getPayload();
+  }
+
+  @Override
+  protected void fillStorageItem(StorageItem item, StorageItemCacheEntry entry)
+  {
+    ((BenchmarkItem) item).setPayload(entry.getPayload());
+  }
+
+  /**
+   * There is no event loop on the JVM, the key index is kept in memory only.
+   */
+  @Override
+  protected void scheduleStorageKeyIndexPersist()
+  {
+  }
+
+  @Override
+  public boolean readStorageItemFromLocalStorage(StorageItem item, int expectedVersion, int cacheTime)
+  {
+    return super.readStorageItemFromLocalStorage(item, expectedVersion, cacheTime);
+  }
+
+  @Override
+  public boolean storeStorageItem(StorageItem item, StorageItemValidators validators)
+  {
+    return super.storeStorageItem(item, validators);
+  }
+
+  @Override
+  protected Map<String, CachedResourceEntry> getCachedResources()
+  {
+    return cachedResources;
+  }
+
+  /**
+   * Register the resource as cached in the given version
+   */
+  public void addCachedResource(String relativeUrl, Integer version)
+  {
+    cachedResources.put(relativeUrl, new CachedResourceEntry(version, "file:///cache/" + convertFilePathToFileName(relativeUrl)));
+  }
+
+  public Boolean isResourceVersionCached(StorageResource resource)
+  {
+    return checkResourceVersion(resource);
+  }
+
+}
@@ -0,0 +1,168 @@
+package ch.gbrain.gwtstorage.benchmark;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.gbrain.gwtstorage.manager.MemoryStorageBackend;
+import ch.gbrain.gwtstorage.manager.StorageError;
+import ch.gbrain.gwtstorage.manager.StorageItemEnvelope;
+import ch.gbrain.gwtstorage.model.StorageItem;
+
+import com.google.gwt.core.client.Callback;
+
+/**
+ * Measures the write and read of an item by the StorageManager, with the item
+ * in the memory cache and without, where it is loaded from the stored envelope
+ * in the LocalStorage replacement or from a MemoryStorageBackend. The time
+ * check reads items which are stored longer than the valid time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class StorageItemReadWriteBenchmark
+{
+
+  private static int ITEMCOUNT = 1000;
+  private static int VALIDTIME = 3600;
+
+  @Param({ "false", "true" })
+  public boolean compressed;
+
+  @Param({ "256", "4096" })
+  public int payloadSize;
+
+  private BenchmarkStorageManager cachedManager;
+  private BenchmarkStorageManager uncachedManager;
+  private BenchmarkStorageManager backendManager;
+  private BenchmarkItem[] items;
+  private BenchmarkItem[] expiredItems;
+  private int next = 0;
+  private boolean found;
+
+  private Callback<StorageItem, StorageError> readCallback = new Callback<StorageItem, StorageError>()
+  {
+    public void onSuccess(StorageItem item)
+    {
+      found = true;
+    }
+
+    public void onFailure(StorageError error)
+    {
+      found = false;
+    }
+  };
+
+  private BenchmarkStorageManager createManager(int cacheSize)
+  {
+    BenchmarkStorageManager manager = new BenchmarkStorageManager();
+    manager.setStorageItemCacheSize(cacheSize);
+    manager.setStorageItemCompressionEnabled(compressed);
+    manager.setStorageItemCompressionThreshold(0);
+    return manager;
+  }
+
+  @Setup
+  public void setup()
+  {
+    Random random = new Random(42);
+    StringBuilder json = new StringBuilder("{\"id\":\"1\",\"values\":[");
+    while (json.length() < payloadSize)
+    {
+      json.append("{\"text\":\"value").append(random.nextInt(100)).append("\",\"number\":").append(random.nextInt(10000)).append("},");
+    }
+    json.setLength(json.length() - 1);
+    String payload = json.append("]}").toString();
+    cachedManager = createManager(ITEMCOUNT);
+    uncachedManager = createManager(0);
+    backendManager = createManager(0);
+    backendManager.setStorageBackend(new MemoryStorageBackend());
+    long expiredTime = new Date().getTime() - 2000L * VALIDTIME;
+    items = new BenchmarkItem[ITEMCOUNT];
+    expiredItems = new BenchmarkItem[ITEMCOUNT];
+    for (int i = 0; i < ITEMCOUNT; i++)
+    {
+      items[i] = new BenchmarkItem(Integer.toString(i), payload);
+      cachedManager.storeStorageItem(items[i], null);
+      uncachedManager.storeStorageItem(items[i], null);
+      backendManager.storeStorageItem(items[i], null);
+      expiredItems[i] = new BenchmarkItem("expired" + i, payload);
+      uncachedManager.setLocalStorageValue(expiredItems[i].getStorageItemIdKey(), StorageItemEnvelope.wrap(expiredTime, 1, payload));
+    }
+  }
+
+  private int nextIndex()
+  {
+    next = (next + 1) % ITEMCOUNT;
+    return next;
+  }
+
+  @Benchmark
+  public boolean writeItem()
+  {
+    return cachedManager.storeStorageItem(items[nextIndex()], null);
+  }
+
+  @Benchmark
+  public boolean readItemCached()
+  {
+    return cachedManager.readStorageItemFromLocalStorage(items[nextIndex()], 1, VALIDTIME);
+  }
+
+  @Benchmark
+  public boolean readItemUncached()
+  {
+    return uncachedManager.readStorageItemFromLocalStorage(items[nextIndex()], 1, VALIDTIME);
+  }
+
+  @Benchmark
+  public boolean readItemBackend()
+  {
+    found = false;
+    backendManager.readStorageItem(items[nextIndex()], true, 1, VALIDTIME, readCallback);
+    return found;
+  }
+
+  @Benchmark
+  public boolean checkItemTime()
+  {
+    return uncachedManager.readStorageItemFromLocalStorage(expiredItems[nextIndex()], 1, VALIDTIME);
+  }
+
+}
@@ -0,0 +1,116 @@
+package ch.gbrain.gwtstorage.benchmark;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.gbrain.gwtstorage.manager.StorageManager;
+import ch.gbrain.gwtstorage.model.StorageItem;
+import ch.gbrain.gwtstorage.model.StorageResource;
+
+/**
+ * Measures the key generation of the items, the conversion of the resource
+ * paths to cache file names and back and the version check of the cached
+ * resources.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class StorageKeyBenchmark
+{
+
+  private static int RESOURCECOUNT = 1000;
+
+  private BenchmarkStorageManager storageManager;
+  private BenchmarkItem item;
+  private StorageResource[] resources;
+  private String cacheFileName;
+  private int next = 0;
+
+  @Setup
+  public void setup()
+  {
+    storageManager = new BenchmarkStorageManager();
+    item = new BenchmarkItem("4711");
+    resources = new StorageResource[RESOURCECOUNT];
+    for (int i = 0; i < RESOURCECOUNT; i++)
+    {
+      String url = "media/images/gallery" + (i % 10) + "/image" + i + ".png";
+      // every fourth resource is not cached and every fourth is outdated
+      if (i % 4 != 0) storageManager.addCachedResource(url, i % 4 == 1 ? 1 : 2);
+      resources[i] = new StorageResource(url, 2, null);
+    }
+    cacheFileName = StorageManager.convertFilePathToFileName(resources[0].getResourceUrl());
+  }
+
+  @Benchmark
+  public String itemIdKey()
+  {
+    return item.getStorageItemIdKey();
+  }
+
+  @Benchmark
+  public String itemTimeKey()
+  {
+    return item.getStorageItemTimeKey();
+  }
+
+  @Benchmark
+  public String itemTypeNameFromKey()
+  {
+    return StorageItem.getStorageItemTypeName(item.getStorageItemIdKey());
+  }
+
+  @Benchmark
+  public String convertFilePathToFileName()
+  {
+    return StorageManager.convertFilePathToFileName(resources[0].getResourceUrl());
+  }
+
+  @Benchmark
+  public String extractFileNameFromCacheFile()
+  {
+    return StorageManager.extractFileNameFromCacheFile(cacheFileName);
+  }
+
+  @Benchmark
+  public Boolean checkResourceVersion()
+  {
+    next = (next + 1) % RESOURCECOUNT;
+    return storageManager.isResourceVersionCached(resources[next]);
+  }
+
+}
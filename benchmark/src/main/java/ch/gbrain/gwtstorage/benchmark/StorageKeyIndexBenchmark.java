@@ -0,0 +1,146 @@
+package ch.gbrain.gwtstorage.benchmark;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.gbrain.gwtstorage.manager.StorageKeyIndex;
+import ch.gbrain.gwtstorage.model.StorageItem;
+
+/**
+ * Measures StorageManager.clearStorageItems, the persisting of the key index
+ * and the least recently used ordering. The items to be cleared are written
+ * through the StorageManager again before each clear.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class StorageKeyIndexBenchmark
+{
+
+  private static String TYPENAME = BenchmarkItem.class.getCanonicalName();
+  private static int KEYCOUNT = 10000;
+
+  private StorageKeyIndex index;
+  private String indexValue;
+
+  private static String[] createKeys()
+  {
+    String[] keys = new String[KEYCOUNT];
+    for (int i = 0; i < KEYCOUNT; i++)
+    {
+      keys[i] = StorageItem.getStorageItemIdKey(TYPENAME, Integer.toString(i));
+    }
+    return keys;
+  }
+
+  private static StorageKeyIndex createIndex(String[] keys)
+  {
+    StorageKeyIndex index = new StorageKeyIndex();
+    for (int i = 0; i < keys.length; i++)
+    {
+      // accessed in a different order than added
+      index.setItem(keys[i], 512, (i * 7919L) % keys.length);
+    }
+    return index;
+  }
+
+  /**
+   * The items to be cleared, filled again before each invocation
+   */
+  @State(Scope.Thread)
+  public static class StoredItems
+  {
+    private BenchmarkItem[] items;
+    private BenchmarkStorageManager storageManager;
+
+    @Setup(Level.Trial)
+    public void setupItems()
+    {
+      items = new BenchmarkItem[KEYCOUNT];
+      for (int i = 0; i < KEYCOUNT; i++)
+      {
+        items[i] = new BenchmarkItem(Integer.toString(i), "{}");
+      }
+    }
+
+    @Setup(Level.Invocation)
+    public void fill()
+    {
+      storageManager = new BenchmarkStorageManager();
+      storageManager.setStorageItemCacheSize(KEYCOUNT);
+      for (int i = 0; i < KEYCOUNT; i++)
+      {
+        storageManager.storeStorageItem(items[i], null);
+      }
+    }
+  }
+
+  @Setup
+  public void setup()
+  {
+    index = createIndex(createKeys());
+    indexValue = index.toStorageValue();
+  }
+
+  @Benchmark
+  public int clearStorageItems(StoredItems items)
+  {
+    items.storageManager.clearStorageItems(TYPENAME);
+    return items.storageManager.getLocalStorageSize();
+  }
+
+  @Benchmark
+  public String persistIndex()
+  {
+    return index.toStorageValue();
+  }
+
+  @Benchmark
+  public StorageKeyIndex loadIndex()
+  {
+    return StorageKeyIndex.fromStorageValue(indexValue);
+  }
+
+  @Benchmark
+  public List<String> leastRecentlyUsedItemKeys()
+  {
+    return index.getLeastRecentlyUsedItemKeys();
+  }
+
+}
@@ -0,0 +1,64 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The registered version and local file url of a cached resource, kept in
+ * memory to resolve resource urls without accessing the LocalStorage.
+ */
+public class CachedResourceEntry
+{
+  private Integer version;
+  private String localUrl;
+
+  /**
+   * @param version The version of the cached file, null if unknown
+   * @param localUrl The url of the file in the cache directory
+   */
+  public CachedResourceEntry(Integer version, String localUrl)
+  {
+    this.version = version;
+    this.localUrl = localUrl;
+  }
+
+  public Integer getVersion()
+  {
+    return version;
+  }
+
+  public String getLocalUrl()
+  {
+    return localUrl;
+  }
+
+  /**
+   * @param requestedVersion The requested version, any version matches if null
+   *          or 0
+   * @return true if the cached file has the requested version
+   */
+  public boolean isVersionValid(Integer requestedVersion)
+  {
+    if (requestedVersion == null || requestedVersion.intValue() == 0) return true;
+    return version != null && version.intValue() == requestedVersion.intValue();
+  }
+
+}
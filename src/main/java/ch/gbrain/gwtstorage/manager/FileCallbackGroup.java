@@ -0,0 +1,70 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.googlecode.gwtphonegap.client.file.FileCallback;
+
+/**
+ * Collects the callbacks waiting for the same pending file system request and
+ * notifies all of them with the result, thus the request is only invoked once.
+ * 
+ * @param <T> The type of the requested file system handle
+ */
+public class FileCallbackGroup<T> implements FileCallback<T, StorageError>
+{
+  private List<FileCallback<T, StorageError>> callbacks = new ArrayList<FileCallback<T, StorageError>>();
+
+  /**
+   * @param callback Is notified with the result, ignored if null
+   */
+  public void add(FileCallback<T, StorageError> callback)
+  {
+    if (callback != null) callbacks.add(callback);
+  }
+
+  public int size()
+  {
+    return callbacks.size();
+  }
+
+  @Override
+  public void onSuccess(T result)
+  {
+    for (FileCallback<T, StorageError> callback : new ArrayList<FileCallback<T, StorageError>>(callbacks))
+    {
+      callback.onSuccess(result);
+    }
+  }
+
+  @Override
+  public void onFailure(StorageError error)
+  {
+    for (FileCallback<T, StorageError> callback : new ArrayList<FileCallback<T, StorageError>>(callbacks))
+    {
+      callback.onFailure(error);
+    }
+  }
+
+}
@@ -0,0 +1,396 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.client.Callback;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArrayString;
+import com.googlecode.gwtphonegap.client.file.FileError;
+
+/**
+ * A StorageBackend on top of the IndexedDB of the browser. The values are kept
+ * in one object store of the given database, which is opened on the first
+ * operation. Operations requested while the database is opening are queued.
+ * IndexedDB works asynchronously and is not restricted to the few MB of the
+ * LocalStorage.
+ */
+public class IndexedDbStorageBackend implements StorageBackend
+{
+
+  private static String STORENAME = "items";
+  private static int DATABASEVERSION = 1;
+
+  private Logger logger = Logger.getLogger("IndexedDbStorageBackend");
+
+  private String databaseName;
+  private JavaScriptObject database;
+  private boolean opening = false;
+  private List<Callback<JavaScriptObject, StorageError>> waitingForDatabase = new ArrayList<Callback<JavaScriptObject, StorageError>>();
+
+  /**
+   * @param databaseName The name of the IndexedDB database to be used
+   */
+  public IndexedDbStorageBackend(String databaseName)
+  {
+    this.databaseName = databaseName;
+  }
+
+  /**
+   * @return true if the browser supports IndexedDB
+   */
+  public static native boolean isSupported()
+  /*-{
+		return !!$wnd.indexedDB;
+  }-*/;
+
+  public String getDatabaseName()
+  {
+    return databaseName;
+  }
+
+  public void get(final String key, final Callback<String, StorageError> callback)
+  {
+    withDatabase(new Callback<JavaScriptObject, StorageError>()
+    {
+      public void onSuccess(JavaScriptObject db)
+      {
+        nativeGet(db, STORENAME, key, callback);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        callback.onFailure(error);
+      }
+    });
+  }
+
+  public void getAll(final List<String> keys, final Callback<Map<String, String>, StorageError> callback)
+  {
+    withDatabase(new Callback<JavaScriptObject, StorageError>()
+    {
+      public void onSuccess(JavaScriptObject db)
+      {
+        nativeGetAll(db, STORENAME, toJsArray(keys), new HashMap<String, String>(), callback);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        callback.onFailure(error);
+      }
+    });
+  }
+
+  public void put(String key, String value, Callback<Void, StorageError> callback)
+  {
+    Map<String, String> values = new HashMap<String, String>();
+    values.put(key, value);
+    putAll(values, callback);
+  }
+
+  public void putAll(Map<String, String> values, final Callback<Void, StorageError> callback)
+  {
+    final List<String> keys = new ArrayList<String>(values.keySet());
+    final List<String> vals = new ArrayList<String>();
+    for (String key : keys)
+    {
+      vals.add(values.get(key));
+    }
+    withDatabase(new Callback<JavaScriptObject, StorageError>()
+    {
+      public void onSuccess(JavaScriptObject db)
+      {
+        nativePutAll(db, STORENAME, toJsArray(keys), toJsArray(vals), callback);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (callback != null) callback.onFailure(error);
+      }
+    });
+  }
+
+  public void delete(String key, Callback<Void, StorageError> callback)
+  {
+    List<String> keys = new ArrayList<String>();
+    keys.add(key);
+    deleteAll(keys, callback);
+  }
+
+  public void deleteAll(final List<String> keys, final Callback<Void, StorageError> callback)
+  {
+    withDatabase(new Callback<JavaScriptObject, StorageError>()
+    {
+      public void onSuccess(JavaScriptObject db)
+      {
+        nativeDeleteAll(db, STORENAME, toJsArray(keys), callback);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (callback != null) callback.onFailure(error);
+      }
+    });
+  }
+
+  public void iterate(final String prefix, final StorageBackendVisitor visitor, final Callback<Void, StorageError> callback)
+  {
+    withDatabase(new Callback<JavaScriptObject, StorageError>()
+    {
+      public void onSuccess(JavaScriptObject db)
+      {
+        nativeIterate(db, STORENAME, prefix, visitor, callback);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (callback != null) callback.onFailure(error);
+      }
+    });
+  }
+
+  /**
+   * Invoke the callback with the opened database, open it first if not done
+   * yet.
+   */
+  private void withDatabase(Callback<JavaScriptObject, StorageError> callback)
+  {
+    if (database != null)
+    {
+      callback.onSuccess(database);
+      return;
+    }
+    waitingForDatabase.add(callback);
+    if (opening) return;
+    opening = true;
+    try
+    {
+      nativeOpen(databaseName, DATABASEVERSION, STORENAME);
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception opening IndexedDB " + databaseName, ex);
+      onDatabaseFailed("ABORT", String.valueOf(ex.getMessage()));
+    }
+  }
+
+  private void onDatabaseOpened(JavaScriptObject db)
+  {
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "IndexedDB opened " + databaseName);
+    database = db;
+    opening = false;
+    List<Callback<JavaScriptObject, StorageError>> waiting = waitingForDatabase;
+    waitingForDatabase = new ArrayList<Callback<JavaScriptObject, StorageError>>();
+    for (Callback<JavaScriptObject, StorageError> callback : waiting)
+    {
+      callback.onSuccess(db);
+    }
+  }
+
+  private void onDatabaseFailed(String name, String message)
+  {
+    if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure opening IndexedDB " + databaseName + " : " + message);
+    opening = false;
+    List<Callback<JavaScriptObject, StorageError>> waiting = waitingForDatabase;
+    waitingForDatabase = new ArrayList<Callback<JavaScriptObject, StorageError>>();
+    for (Callback<JavaScriptObject, StorageError> callback : waiting)
+    {
+      callback.onFailure(getStorageError(name, message));
+    }
+  }
+
+  private static JsArrayString toJsArray(List<String> values)
+  {
+    JsArrayString array = JavaScriptObject.createArray().cast();
+    for (String value : values)
+    {
+      array.push(value);
+    }
+    return array;
+  }
+
+  /**
+   * Map the name of a DOMException to the corresponding FileError
+   */
+  private static StorageError getStorageError(String name, String message)
+  {
+    if ("QuotaExceededError".equals(name))
+    {
+      return new StorageError(FileError.QUOTA_EXCEEDED_ERR, message);
+    }
+    if ("NotFoundError".equals(name))
+    {
+      return new StorageError(FileError.NOT_FOUND_ERR, message);
+    }
+    return new StorageError(FileError.ABORT_ERR, message);
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private static void succeed(Callback callback, Object result)
+  {
+    if (callback != null) callback.onSuccess(result);
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private static void fail(Callback callback, String name, String message)
+  {
+    if (callback != null) callback.onFailure(getStorageError(name, message));
+  }
+
+  private static void putResult(Map<String, String> result, String key, String value)
+  {
+    result.put(key, value);
+  }
+
+  private native void nativeOpen(String name, int version, String storeName)
+  /*-{
+		var self = this;
+		var request = $wnd.indexedDB.open(name, version);
+		request.onupgradeneeded = function(event) {
+			var db = event.target.result;
+			if (!db.objectStoreNames.contains(storeName)) {
+				db.createObjectStore(storeName);
+			}
+		};
+		request.onsuccess = $entry(function(event) {
+			self.@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::onDatabaseOpened(Lcom/google/gwt/core/client/JavaScriptObject;)(event.target.result);
+		});
+		request.onerror = $entry(function(event) {
+			var error = request.error || {};
+			self.@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::onDatabaseFailed(Ljava/lang/String;Ljava/lang/String;)(String(error.name), String(error.message));
+		});
+  }-*/;
+
+  private static native void nativeGet(JavaScriptObject db, String storeName, String key, Callback<String, StorageError> callback)
+  /*-{
+		try {
+			var request = db.transaction(storeName, "readonly").objectStore(storeName).get(key);
+			request.onsuccess = $entry(function() {
+				var value = request.result;
+				@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::succeed(Lcom/google/gwt/core/client/Callback;Ljava/lang/Object;)(callback, value == null ? null : String(value));
+			});
+			request.onerror = $entry(function() {
+				var error = request.error || {};
+				@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::fail(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;Ljava/lang/String;)(callback, String(error.name), String(error.message));
+			});
+		} catch (e) {
+			@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::fail(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;Ljava/lang/String;)(callback, String(e.name), String(e.message));
+		}
+  }-*/;
+
+  private static native void nativeGetAll(JavaScriptObject db, String storeName, JsArrayString keys, Map<String, String> result, Callback<Map<String, String>, StorageError> callback)
+  /*-{
+		try {
+			var tx = db.transaction(storeName, "readonly");
+			var store = tx.objectStore(storeName);
+			var read = function(key) {
+				var request = store.get(key);
+				request.onsuccess = function() {
+					if (request.result != null) {
+						@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::putResult(Ljava/util/Map;Ljava/lang/String;Ljava/lang/String;)(result, key, String(request.result));
+					}
+				};
+			};
+			for (var i = 0; i < keys.length; i++) {
+				read(keys[i]);
+			}
+			tx.oncomplete = $entry(function() {
+				@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::succeed(Lcom/google/gwt/core/client/Callback;Ljava/lang/Object;)(callback, result);
+			});
+			tx.onabort = $entry(function() {
+				var error = tx.error || {};
+				@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::fail(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;Ljava/lang/String;)(callback, String(error.name), String(error.message));
+			});
+		} catch (e) {
+			@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::fail(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;Ljava/lang/String;)(callback, String(e.name), String(e.message));
+		}
+  }-*/;
+
+  private static native void nativePutAll(JavaScriptObject db, String storeName, JsArrayString keys, JsArrayString values, Callback<Void, StorageError> callback)
+  /*-{
+		try {
+			var tx = db.transaction(storeName, "readwrite");
+			var store = tx.objectStore(storeName);
+			for (var i = 0; i < keys.length; i++) {
+				store.put(values[i], keys[i]);
+			}
+			tx.oncomplete = $entry(function() {
+				@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::succeed(Lcom/google/gwt/core/client/Callback;Ljava/lang/Object;)(callback, null);
+			});
+			tx.onabort = $entry(function() {
+				var error = tx.error || {};
+				@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::fail(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;Ljava/lang/String;)(callback, String(error.name), String(error.message));
+			});
+		} catch (e) {
+			@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::fail(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;Ljava/lang/String;)(callback, String(e.name), String(e.message));
+		}
+  }-*/;
+
+  private static native void nativeDeleteAll(JavaScriptObject db, String storeName, JsArrayString keys, Callback<Void, StorageError> callback)
+  /*-{
+		try {
+			var tx = db.transaction(storeName, "readwrite");
+			var store = tx.objectStore(storeName);
+			for (var i = 0; i < keys.length; i++) {
+				store["delete"](keys[i]);
+			}
+			tx.oncomplete = $entry(function() {
+				@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::succeed(Lcom/google/gwt/core/client/Callback;Ljava/lang/Object;)(callback, null);
+			});
+			tx.onabort = $entry(function() {
+				var error = tx.error || {};
+				@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::fail(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;Ljava/lang/String;)(callback, String(error.name), String(error.message));
+			});
+		} catch (e) {
+			@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::fail(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;Ljava/lang/String;)(callback, String(e.name), String(e.message));
+		}
+  }-*/;
+
+  private static native void nativeIterate(JavaScriptObject db, String storeName, String prefix, StorageBackendVisitor visitor, Callback<Void, StorageError> callback)
+  /*-{
+		try {
+			var store = db.transaction(storeName, "readonly").objectStore(storeName);
+			var range = prefix ? $wnd.IDBKeyRange.bound(prefix, prefix + String.fromCharCode(0xffff)) : null;
+			var request = store.openCursor(range);
+			request.onsuccess = $entry(function() {
+				var cursor = request.result;
+				if (cursor && visitor.@ch.gbrain.gwtstorage.manager.StorageBackendVisitor::visit(Ljava/lang/String;Ljava/lang/String;)(String(cursor.key), String(cursor.value))) {
+					cursor["continue"]();
+				} else {
+					@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::succeed(Lcom/google/gwt/core/client/Callback;Ljava/lang/Object;)(callback, null);
+				}
+			});
+			request.onerror = $entry(function() {
+				var error = request.error || {};
+				@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::fail(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;Ljava/lang/String;)(callback, String(error.name), String(error.message));
+			});
+		} catch (e) {
+			@ch.gbrain.gwtstorage.manager.IndexedDbStorageBackend::fail(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;Ljava/lang/String;)(callback, String(e.name), String(e.message));
+		}
+  }-*/;
+
+}
@@ -0,0 +1,134 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Counts durations in fixed buckets, thus recording is cheap and the memory
+ * used is constant. Percentiles are approximated by the upper bound of the
+ * bucket they fall into.
+ */
+public class LatencyHistogram
+{
+  /**
+   * The upper bounds of the buckets in millis, the last bucket takes all
+   * longer durations
+   */
+  private static long[] BUCKETBOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000 };
+
+  private long[] counts = new long[BUCKETBOUNDS.length + 1];
+  private long count = 0;
+  private long sum = 0;
+  private long max = 0;
+
+  public void record(long millis)
+  {
+    if (millis < 0) millis = 0;
+    int bucket = 0;
+    while (bucket < BUCKETBOUNDS.length && millis > BUCKETBOUNDS[bucket])
+    {
+      bucket++;
+    }
+    counts[bucket]++;
+    count++;
+    sum += millis;
+    if (millis > max) max = millis;
+  }
+
+  public long getCount()
+  {
+    return count;
+  }
+
+  public long getMax()
+  {
+    return max;
+  }
+
+  /**
+   * @return The average duration in millis, 0 if nothing recorded
+   */
+  public long getMean()
+  {
+    return count > 0 ? sum / count : 0;
+  }
+
+  /**
+   * @param percentile eg. 0.95
+   * @return The upper bound of the bucket containing the percentile, the
+   *         maximum for the last bucket
+   */
+  public long getPercentile(double percentile)
+  {
+    if (count == 0) return 0;
+    long rank = (long) Math.ceil(percentile * count);
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length; bucket++)
+    {
+      seen += counts[bucket];
+      if (seen >= rank && counts[bucket] > 0)
+      {
+        return bucket < BUCKETBOUNDS.length ? Math.min(BUCKETBOUNDS[bucket], max) : max;
+      }
+    }
+    return max;
+  }
+
+  /**
+   * @return The upper bounds of the buckets in millis
+   */
+  public static long[] getBucketBounds()
+  {
+    return copyOf(BUCKETBOUNDS);
+  }
+
+  /**
+   * @return The number of durations per bucket, one more than the bounds
+   */
+  public long[] getBucketCounts()
+  {
+    return copyOf(counts);
+  }
+
+  public LatencyHistogram copy()
+  {
+    LatencyHistogram copy = new LatencyHistogram();
+    copy.counts = copyOf(counts);
+    copy.count = count;
+    copy.sum = sum;
+    copy.max = max;
+    return copy;
+  }
+
+  private static long[] copyOf(long[] values)
+  {
+    long[] copy = new long[values.length];
+    System.arraycopy(values, 0, copy, 0, values.length);
+    return copy;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "n:" + count + " mean:" + getMean() + " p50:" + getPercentile(0.5) + " p95:" + getPercentile(0.95) + " max:" + max;
+  }
+
+}
@@ -0,0 +1,163 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gwt.core.client.Callback;
+import com.google.gwt.storage.client.Storage;
+import com.googlecode.gwtphonegap.client.file.FileError;
+
+/**
+ * A StorageBackend on top of the html5 LocalStorage. The LocalStorage is
+ * synchronous, thus all operations complete immediately.
+ * <p>
+ * It is meant as a tier of the TieredStorageBackend and for tests. The values
+ * are written as they are, without the key index and the byte budget of the
+ * StorageManager. Without any backend configured, the StorageManager writes to
+ * the LocalStorage directly and keeps both up to date.
+ */
+public class LocalStorageBackend implements StorageBackend
+{
+
+  private Storage storage;
+
+  /**
+   * @param storage The LocalStorage to be used
+   */
+  public LocalStorageBackend(Storage storage)
+  {
+    this.storage = storage;
+  }
+
+  public Storage getStorage()
+  {
+    return storage;
+  }
+
+  public void get(String key, Callback<String, StorageError> callback)
+  {
+    String value;
+    try
+    {
+      value = storage.getItem(key);
+    } catch (Exception ex)
+    {
+      callback.onFailure(new StorageError(FileError.NOT_READABLE_ERR, ex.getMessage()));
+      return;
+    }
+    callback.onSuccess(value);
+  }
+
+  public void getAll(List<String> keys, Callback<Map<String, String>, StorageError> callback)
+  {
+    Map<String, String> result = new HashMap<String, String>();
+    try
+    {
+      for (String key : keys)
+      {
+        String value = storage.getItem(key);
+        if (value != null)
+        {
+          result.put(key, value);
+        }
+      }
+    } catch (Exception ex)
+    {
+      callback.onFailure(new StorageError(FileError.NOT_READABLE_ERR, ex.getMessage()));
+      return;
+    }
+    callback.onSuccess(result);
+  }
+
+  public void put(String key, String value, Callback<Void, StorageError> callback)
+  {
+    Map<String, String> values = new HashMap<String, String>();
+    values.put(key, value);
+    putAll(values, callback);
+  }
+
+  public void putAll(Map<String, String> values, Callback<Void, StorageError> callback)
+  {
+    try
+    {
+      for (Map.Entry<String, String> entry : values.entrySet())
+      {
+        storage.setItem(entry.getKey(), entry.getValue());
+      }
+    } catch (Exception ex)
+    {
+      if (callback != null) callback.onFailure(new StorageError(isQuotaExceeded(ex) ? FileError.QUOTA_EXCEEDED_ERR : FileError.INVALID_MODIFICATION_ERR, ex.getMessage()));
+      return;
+    }
+    if (callback != null) callback.onSuccess(null);
+  }
+
+  public void delete(String key, Callback<Void, StorageError> callback)
+  {
+    storage.removeItem(key);
+    if (callback != null) callback.onSuccess(null);
+  }
+
+  public void deleteAll(List<String> keys, Callback<Void, StorageError> callback)
+  {
+    for (String key : keys)
+    {
+      storage.removeItem(key);
+    }
+    if (callback != null) callback.onSuccess(null);
+  }
+
+  public void iterate(String prefix, StorageBackendVisitor visitor, Callback<Void, StorageError> callback)
+  {
+    // collect the keys first, the visitor might modify the storage
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < storage.getLength(); i++)
+    {
+      String key = storage.key(i);
+      if (key != null && key.startsWith(prefix))
+      {
+        keys.add(key);
+      }
+    }
+    for (String key : keys)
+    {
+      String value = storage.getItem(key);
+      if (value != null && !visitor.visit(key, value)) break;
+    }
+    if (callback != null) callback.onSuccess(null);
+  }
+
+  /**
+   * Evaluate if the given exception of a LocalStorage write signals an
+   * exceeded storage quota
+   */
+  public static boolean isQuotaExceeded(Exception ex)
+  {
+    String msg = String.valueOf(ex.getMessage()).toLowerCase();
+    return msg.contains("quota") || msg.contains("exceeded");
+  }
+
+}
@@ -0,0 +1,1069 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.client.Callback;
+import com.google.gwt.core.client.Scheduler;
+import com.googlecode.gwtphonegap.client.file.DirectoryEntry;
+import com.googlecode.gwtphonegap.client.file.EntryBase;
+import com.googlecode.gwtphonegap.client.file.FileCallback;
+import com.googlecode.gwtphonegap.client.file.FileEntry;
+import com.googlecode.gwtphonegap.client.file.FileError;
+import com.googlecode.gwtphonegap.client.file.FileObject;
+import com.googlecode.gwtphonegap.client.file.FileReader;
+import com.googlecode.gwtphonegap.client.file.FileWriter;
+import com.googlecode.gwtphonegap.client.file.Flags;
+import com.googlecode.gwtphonegap.client.file.ReaderCallback;
+import com.googlecode.gwtphonegap.client.file.WriterCallback;
+import com.googlecode.gwtphonegap.collection.shared.LightArray;
+
+/**
+ * A StorageBackend which appends the values to segment files in a local
+ * directory instead of writing one file per item. The position of the current
+ * value of each key is kept in an in memory index, which is rebuilt by reading
+ * the segments once the store is opened. All writes which arrive within the
+ * same event loop tick are appended with one write operation. Once the live
+ * records of a segment fall below the compaction ratio, they are appended
+ * again and the segment is removed in the background, the segment with the
+ * most dead records first. The delete records are appended again as well as
+ * long as an older segment might still hold a value of the removed key.
+ * 
+ * Record format: "P" + key length + ":" + key + value length + ":" + value +
+ * "\n" for a value, "D" + key length + ":" + key + "\n" for a removed key. The
+ * lengths are in characters. A record which is not complete, eg. due to a
+ * crash during the write, ends the segment.
+ */
+public class LogStructuredFileStore implements StorageBackend
+{
+
+  private static String SEGMENTPREFIX = "segment-";
+  private static String SEGMENTSUFFIX = ".log";
+  private static char PUTRECORD = 'P';
+  private static char DELETERECORD = 'D';
+  private static int COMPACTIONDELAY = 2000;
+
+  private Logger logger = Logger.getLogger("LogStructuredFileStore");
+
+  private StorageManager storageManager;
+  private String directory;
+  private int maxSegmentLength = 512 * 1024;
+  private double compactionRatio = 0.5;
+
+  private DirectoryEntry directoryEntry;
+  private TreeMap<String, Location> index = new TreeMap<String, Location>();
+  private TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+  private Segment activeSegment;
+  private StringBuilder activeSegmentText;
+  private FileWriter activeWriter;
+  private Map<Integer, String> segmentTexts = new LinkedHashMap<Integer, String>(4, 0.75f, true)
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest)
+    {
+      return size() > 4;
+    }
+  };
+
+  private boolean opened = false;
+  private boolean opening = false;
+  private List<Callback<Void, StorageError>> waitingForOpen = new ArrayList<Callback<Void, StorageError>>();
+
+  private Map<String, Record> pendingRecords = new HashMap<String, Record>();
+  private List<Record> queuedRecords = new ArrayList<Record>();
+  private List<Record> flushingRecords = null;
+  private String flushingChunk = null;
+  private boolean flushScheduled = false;
+
+  private boolean compacting = false;
+  private boolean compactionScheduled = false;
+
+  /**
+   * @param storageManager The manager providing the access to the local file
+   *          system
+   * @param directory The directory holding the segment files
+   */
+  public LogStructuredFileStore(StorageManager storageManager, String directory)
+  {
+    this.storageManager = storageManager;
+    this.directory = directory;
+  }
+
+  /**
+   * Define the size in characters from which on a new segment is started
+   */
+  public void setMaxSegmentLength(int maxSegmentLength)
+  {
+    this.maxSegmentLength = maxSegmentLength;
+  }
+
+  public int getMaxSegmentLength()
+  {
+    return maxSegmentLength;
+  }
+
+  /**
+   * Define the share of live records below which the oldest segment is
+   * compacted
+   * 
+   * @param compactionRatio Between 0 and 1, default 0.5
+   */
+  public void setCompactionRatio(double compactionRatio)
+  {
+    this.compactionRatio = compactionRatio;
+  }
+
+  public double getCompactionRatio()
+  {
+    return compactionRatio;
+  }
+
+  /**
+   * @return The number of keys with a value
+   */
+  public int size()
+  {
+    int size = index.size();
+    for (Record record : pendingRecords.values())
+    {
+      boolean indexed = index.containsKey(record.key);
+      if (record.value != null && !indexed) size++;
+      if (record.value == null && indexed) size--;
+    }
+    return size;
+  }
+
+  /**
+   * @return The number of segment files
+   */
+  public int getSegmentCount()
+  {
+    return segments.size();
+  }
+
+  public void get(final String key, final Callback<String, StorageError> callback)
+  {
+    List<String> keys = new ArrayList<String>();
+    keys.add(key);
+    getAll(keys, new Callback<Map<String, String>, StorageError>()
+    {
+      public void onSuccess(Map<String, String> result)
+      {
+        callback.onSuccess(result.get(key));
+      }
+
+      public void onFailure(StorageError error)
+      {
+        callback.onFailure(error);
+      }
+    });
+  }
+
+  public void getAll(final List<String> keys, final Callback<Map<String, String>, StorageError> callback)
+  {
+    open(new Callback<Void, StorageError>()
+    {
+      public void onSuccess(Void result)
+      {
+        readValues(keys, callback);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        callback.onFailure(error);
+      }
+    });
+  }
+
+  public void put(String key, String value, Callback<Void, StorageError> callback)
+  {
+    Map<String, String> values = new HashMap<String, String>();
+    values.put(key, value);
+    putAll(values, callback);
+  }
+
+  public void putAll(Map<String, String> values, Callback<Void, StorageError> callback)
+  {
+    List<Record> records = new ArrayList<Record>();
+    for (Map.Entry<String, String> entry : values.entrySet())
+    {
+      records.add(new Record(entry.getKey(), entry.getValue()));
+    }
+    appendRecords(records, callback);
+  }
+
+  public void delete(String key, Callback<Void, StorageError> callback)
+  {
+    List<String> keys = new ArrayList<String>();
+    keys.add(key);
+    deleteAll(keys, callback);
+  }
+
+  public void deleteAll(List<String> keys, Callback<Void, StorageError> callback)
+  {
+    List<Record> records = new ArrayList<Record>();
+    for (String key : keys)
+    {
+      records.add(new Record(key, null));
+    }
+    appendRecords(records, callback);
+  }
+
+  public void iterate(final String prefix, final StorageBackendVisitor visitor, final Callback<Void, StorageError> callback)
+  {
+    open(new Callback<Void, StorageError>()
+    {
+      public void onSuccess(Void result)
+      {
+        TreeSet<String> keys = new TreeSet<String>();
+        for (String key : index.tailMap(prefix).keySet())
+        {
+          if (!key.startsWith(prefix)) break;
+          keys.add(key);
+        }
+        for (Record record : pendingRecords.values())
+        {
+          if (record.key.startsWith(prefix)) keys.add(record.key);
+        }
+        final List<String> sortedKeys = new ArrayList<String>(keys);
+        readValues(sortedKeys, new Callback<Map<String, String>, StorageError>()
+        {
+          public void onSuccess(Map<String, String> values)
+          {
+            for (String key : sortedKeys)
+            {
+              String value = values.get(key);
+              if (value != null && !visitor.visit(key, value)) break;
+            }
+            if (callback != null) callback.onSuccess(null);
+          }
+
+          public void onFailure(StorageError error)
+          {
+            if (callback != null) callback.onFailure(error);
+          }
+        });
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (callback != null) callback.onFailure(error);
+      }
+    });
+  }
+
+  /****************************************************************************************************************
+   * Opening, rebuild of the index
+   ****************************************************************************************************************/
+
+  private void open(Callback<Void, StorageError> callback)
+  {
+    if (opened)
+    {
+      callback.onSuccess(null);
+      return;
+    }
+    waitingForOpen.add(callback);
+    if (opening) return;
+    opening = true;
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Open log structured store " + directory);
+    boolean invoked = storageManager.getLocalDirectoryEntry(directory, new FileCallback<DirectoryEntry, StorageError>()
+    {
+      @Override
+      public void onSuccess(DirectoryEntry entry)
+      {
+        directoryEntry = entry;
+        entry.createReader().readEntries(new FileCallback<LightArray<EntryBase>, FileError>()
+        {
+          @Override
+          public void onSuccess(LightArray<EntryBase> entries)
+          {
+            for (int i = 0; i < entries.length(); i++)
+            {
+              EntryBase entry = entries.get(i);
+              if (!entry.isFile()) continue;
+              FileEntry fileEntry = entry.getAsFileEntry();
+              int id = getSegmentId(fileEntry.getName());
+              if (id >= 0)
+              {
+                segments.put(id, new Segment(id, fileEntry));
+              }
+            }
+            replaySegments(new ArrayList<Segment>(segments.values()), 0);
+          }
+
+          @Override
+          public void onFailure(FileError error)
+          {
+            openFailed(new StorageError(error));
+          }
+        });
+      }
+
+      @Override
+      public void onFailure(StorageError error)
+      {
+        openFailed(error);
+      }
+    });
+    if (!invoked && opening)
+    {
+      openFailed(new StorageError(FileError.NOT_FOUND_ERR, "Local file system not available"));
+    }
+  }
+
+  /**
+   * Read the segments one after the other in the order they were written and
+   * rebuild the index from their records.
+   */
+  private void replaySegments(final List<Segment> toReplay, final int position)
+  {
+    if (position >= toReplay.size())
+    {
+      openCompleted();
+      return;
+    }
+    final Segment segment = toReplay.get(position);
+    readSegmentText(segment, new Callback<String, StorageError>()
+    {
+      public void onSuccess(String text)
+      {
+        segment.length = replaySegment(segment, text);
+        segment.appendable = segment.length == text.length();
+        if (!segment.appendable)
+        {
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Incomplete record at " + segment.length + " in segment " + segment.getName());
+        }
+        replaySegments(toReplay, position + 1);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure reading segment " + segment.getName() + " : " + error.getErrorCode());
+        segment.appendable = false;
+        segment.failed = true;
+        replaySegments(toReplay, position + 1);
+      }
+    });
+  }
+
+  /**
+   * Apply the records of the segment to the index
+   * 
+   * @return The length of the complete records read
+   */
+  private int replaySegment(final Segment segment, String text)
+  {
+    return parseRecords(text, new RecordHandler()
+    {
+      public void onRecord(String key, int valueOffset, int valueLength, int recordLength)
+      {
+        if (valueOffset >= 0)
+        {
+          applyPut(key, new Location(segment.id, valueOffset, valueLength, recordLength));
+        } else
+        {
+          applyDelete(key);
+        }
+      }
+    });
+  }
+
+  private void openCompleted()
+  {
+    Segment last = segments.isEmpty() ? null : segments.get(segments.lastKey());
+    String lastText = last != null ? segmentTexts.get(last.id) : null;
+    if (last != null && last.appendable && last.length < maxSegmentLength && lastText != null && lastText.length() == last.length)
+    { // continue to append to the last segment, its text is kept in memory
+      activeSegment = last;
+      activeSegmentText = new StringBuilder(lastText);
+      segmentTexts.remove(last.id);
+    } else
+    {
+      startSegment(last != null ? last.id + 1 : 1);
+    }
+    opened = true;
+    opening = false;
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Log structured store opened with " + index.size() + " keys in " + segments.size() + " segments");
+    List<Callback<Void, StorageError>> waiting = waitingForOpen;
+    waitingForOpen = new ArrayList<Callback<Void, StorageError>>();
+    for (Callback<Void, StorageError> callback : waiting)
+    {
+      callback.onSuccess(null);
+    }
+    scheduleCompaction();
+  }
+
+  private void openFailed(StorageError error)
+  {
+    if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure opening log structured store " + directory + " : " + error.getErrorCode());
+    opening = false;
+    List<Callback<Void, StorageError>> waiting = waitingForOpen;
+    waitingForOpen = new ArrayList<Callback<Void, StorageError>>();
+    for (Callback<Void, StorageError> callback : waiting)
+    {
+      callback.onFailure(error);
+    }
+  }
+
+  /****************************************************************************************************************
+   * Reading
+   ****************************************************************************************************************/
+
+  /**
+   * Read the current values of the keys, each segment involved is read once
+   */
+  private void readValues(final List<String> keys, final Callback<Map<String, String>, StorageError> callback)
+  {
+    final Map<String, String> values = new HashMap<String, String>();
+    final Map<String, Location> locations = new HashMap<String, Location>();
+    List<Segment> needed = new ArrayList<Segment>();
+    for (String key : keys)
+    {
+      Record record = pendingRecords.get(key);
+      if (record != null)
+      {
+        if (record.value != null) values.put(key, record.value);
+        continue;
+      }
+      Location location = index.get(key);
+      if (location == null) continue;
+      locations.put(key, location);
+      Segment segment = segments.get(location.segmentId);
+      if (!needed.contains(segment)) needed.add(segment);
+    }
+    readSegmentTexts(needed, 0, new HashMap<Integer, String>(), new Callback<Map<Integer, String>, StorageError>()
+    {
+      public void onSuccess(Map<Integer, String> texts)
+      {
+        for (Map.Entry<String, Location> entry : locations.entrySet())
+        {
+          Location location = entry.getValue();
+          String text = texts.get(location.segmentId);
+          values.put(entry.getKey(), text.substring(location.offset, location.offset + location.length));
+        }
+        callback.onSuccess(values);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        callback.onFailure(error);
+      }
+    });
+  }
+
+  private void readSegmentTexts(final List<Segment> needed, final int position, final Map<Integer, String> texts, final Callback<Map<Integer, String>, StorageError> callback)
+  {
+    if (position >= needed.size())
+    {
+      callback.onSuccess(texts);
+      return;
+    }
+    final Segment segment = needed.get(position);
+    readSegmentText(segment, new Callback<String, StorageError>()
+    {
+      public void onSuccess(String text)
+      {
+        texts.put(segment.id, text);
+        readSegmentTexts(needed, position + 1, texts, callback);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        callback.onFailure(error);
+      }
+    });
+  }
+
+  /**
+   * Retrieve the text of the segment, from memory if available
+   */
+  private void readSegmentText(final Segment segment, final Callback<String, StorageError> callback)
+  {
+    if (segment == activeSegment)
+    {
+      callback.onSuccess(activeSegmentText.toString());
+      return;
+    }
+    String text = segmentTexts.get(segment.id);
+    if (text != null)
+    {
+      callback.onSuccess(text);
+      return;
+    }
+    segment.fileEntry.getFile(new FileCallback<FileObject, FileError>()
+    {
+      @Override
+      public void onSuccess(FileObject file)
+      {
+        FileReader reader = storageManager.getPhonegap().getFile().createReader();
+        reader.setOnloadCallback(new ReaderCallback<FileReader>()
+        {
+          @Override
+          public void onCallback(FileReader result)
+          {
+            String text = result.getResult() != null ? result.getResult() : "";
+            segmentTexts.put(segment.id, text);
+            callback.onSuccess(text);
+          }
+        });
+        reader.setOnErrorCallback(new ReaderCallback<FileReader>()
+        {
+          @Override
+          public void onCallback(FileReader result)
+          {
+            callback.onFailure(new StorageError(result.getError()));
+          }
+        });
+        reader.readAsText(file);
+      }
+
+      @Override
+      public void onFailure(FileError error)
+      {
+        callback.onFailure(new StorageError(error));
+      }
+    });
+  }
+
+  /****************************************************************************************************************
+   * Writing, group commit
+   ****************************************************************************************************************/
+
+  private void appendRecords(final List<Record> records, final Callback<Void, StorageError> callback)
+  {
+    if (records.isEmpty())
+    {
+      if (callback != null) callback.onSuccess(null);
+      return;
+    }
+    // the last record of the batch reports the result of all
+    records.get(records.size() - 1).callback = callback;
+    open(new Callback<Void, StorageError>()
+    {
+      public void onSuccess(Void result)
+      {
+        for (Record record : records)
+        {
+          queuedRecords.add(record);
+          pendingRecords.put(record.key, record);
+        }
+        scheduleFlush();
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (callback != null) callback.onFailure(error);
+      }
+    });
+  }
+
+  private void scheduleFlush()
+  {
+    if (flushScheduled || flushingRecords != null) return;
+    flushScheduled = true;
+    Scheduler.get().scheduleFinally(new Scheduler.ScheduledCommand()
+    {
+      public void execute()
+      {
+        flushScheduled = false;
+        flush();
+      }
+    });
+  }
+
+  /**
+   * Append all queued records with one write to the active segment
+   */
+  private void flush()
+  {
+    if (flushingRecords != null || queuedRecords.isEmpty()) return;
+    if (!activeSegment.appendable || activeSegment.length >= maxSegmentLength)
+    {
+      startSegment(activeSegment.id + 1);
+    }
+    flushingRecords = queuedRecords;
+    queuedRecords = new ArrayList<Record>();
+    StringBuilder chunk = new StringBuilder();
+    for (Record record : flushingRecords)
+    {
+      int start = chunk.length();
+      if (record.value != null)
+      {
+        chunk.append(PUTRECORD).append(record.key.length()).append(':').append(record.key).append(record.value.length()).append(':');
+        int valueOffset = activeSegment.length + chunk.length();
+        chunk.append(record.value).append('\n');
+        record.location = new Location(activeSegment.id, valueOffset, record.value.length(), chunk.length() - start);
+      } else
+      {
+        chunk.append(DELETERECORD).append(record.key.length()).append(':').append(record.key).append('\n');
+      }
+    }
+    flushingChunk = chunk.toString();
+    getActiveWriter(new Callback<FileWriter, StorageError>()
+    {
+      public void onSuccess(FileWriter writer)
+      {
+        writer.write(flushingChunk);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        flushFailed(error);
+      }
+    });
+  }
+
+  private void flushCompleted()
+  {
+    activeSegmentText.append(flushingChunk);
+    activeSegment.length += flushingChunk.length();
+    List<Record> records = flushingRecords;
+    flushingRecords = null;
+    flushingChunk = null;
+    for (Record record : records)
+    {
+      if (record.value != null)
+      {
+        applyPut(record.key, record.location);
+      } else
+      {
+        applyDelete(record.key);
+      }
+      if (pendingRecords.get(record.key) == record)
+      {
+        pendingRecords.remove(record.key);
+      }
+    }
+    if (StorageLogging.isLoggable(logger, Level.FINE)) logger.log(Level.FINE, "Appended " + records.size() + " records to segment " + activeSegment.getName());
+    for (Record record : records)
+    {
+      if (record.callback != null) record.callback.onSuccess(null);
+    }
+    flush();
+    scheduleCompaction();
+  }
+
+  private void flushFailed(StorageError error)
+  {
+    if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure appending to segment " + activeSegment.getName() + " : " + error.getErrorCode());
+    // the segment might end with an incomplete record now
+    activeSegment.appendable = false;
+    activeWriter = null;
+    List<Record> records = flushingRecords;
+    flushingRecords = null;
+    flushingChunk = null;
+    for (Record record : records)
+    {
+      if (pendingRecords.get(record.key) == record)
+      {
+        pendingRecords.remove(record.key);
+      }
+    }
+    for (Record record : records)
+    {
+      if (record.callback != null) record.callback.onFailure(error);
+    }
+    scheduleFlush();
+  }
+
+  /**
+   * Retrieve the writer of the active segment, it is created once per segment
+   * and positioned at the end of the file.
+   */
+  private void getActiveWriter(final Callback<FileWriter, StorageError> callback)
+  {
+    if (activeWriter != null)
+    {
+      callback.onSuccess(activeWriter);
+      return;
+    }
+    final Segment segment = activeSegment;
+    directoryEntry.getFile(segment.getName(), new Flags(true, false), new FileCallback<FileEntry, FileError>()
+    {
+      @Override
+      public void onSuccess(FileEntry entry)
+      {
+        segment.fileEntry = entry;
+        entry.createWriter(new FileCallback<FileWriter, FileError>()
+        {
+          @Override
+          public void onSuccess(final FileWriter writer)
+          {
+            writer.setOnWriteEndCallback(new WriterCallback<FileWriter>()
+            {
+              @Override
+              public void onCallback(FileWriter result)
+              {
+                if (writer == activeWriter && flushingRecords != null) flushCompleted();
+              }
+            });
+            writer.setOnErrorCallback(new WriterCallback<FileWriter>()
+            {
+              @Override
+              public void onCallback(FileWriter result)
+              {
+                if (writer == activeWriter && flushingRecords != null) flushFailed(new StorageError(result.getError()));
+              }
+            });
+            activeWriter = writer;
+            writer.seek(writer.getLength());
+            callback.onSuccess(writer);
+          }
+
+          @Override
+          public void onFailure(FileError error)
+          {
+            callback.onFailure(new StorageError(error));
+          }
+        });
+      }
+
+      @Override
+      public void onFailure(FileError error)
+      {
+        callback.onFailure(new StorageError(error));
+      }
+    });
+  }
+
+  private void startSegment(int id)
+  {
+    if (activeSegment != null && activeSegment.fileEntry == null)
+    { // never written
+      segments.remove(activeSegment.id);
+    } else if (activeSegment != null)
+    {
+      segmentTexts.put(activeSegment.id, activeSegmentText.toString());
+    }
+    activeSegment = new Segment(id, null);
+    activeSegmentText = new StringBuilder();
+    activeWriter = null;
+    segments.put(id, activeSegment);
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Start segment " + activeSegment.getName());
+  }
+
+  private void applyPut(String key, Location location)
+  {
+    applyDelete(key);
+    index.put(key, location);
+    segments.get(location.segmentId).liveLength += location.recordLength;
+  }
+
+  private void applyDelete(String key)
+  {
+    Location old = index.remove(key);
+    if (old != null)
+    {
+      Segment segment = segments.get(old.segmentId);
+      if (segment != null) segment.liveLength -= old.recordLength;
+    }
+  }
+
+  /****************************************************************************************************************
+   * Compaction
+   ****************************************************************************************************************/
+
+  private void scheduleCompaction()
+  {
+    if (compacting || compactionScheduled || getCompactionCandidate() == null) return;
+    compactionScheduled = true;
+    Scheduler.get().scheduleFixedDelay(new Scheduler.RepeatingCommand()
+    {
+      public boolean execute()
+      {
+        compactionScheduled = false;
+        compact();
+        return false;
+      }
+    }, COMPACTIONDELAY);
+  }
+
+  /**
+   * @return The segment with the most dead records of the ones below the
+   *         compaction ratio, segments which couldn't be read are skipped
+   */
+  private Segment getCompactionCandidate()
+  {
+    Segment candidate = null;
+    for (Segment segment : segments.values())
+    {
+      if (segment == activeSegment || segment.fileEntry == null || segment.failed) continue;
+      if (segment.liveLength > segment.length * compactionRatio) continue;
+      if (candidate == null || segment.length - segment.liveLength > candidate.length - candidate.liveLength)
+      {
+        candidate = segment;
+      }
+    }
+    return candidate;
+  }
+
+  private void compact()
+  {
+    final Segment segment = getCompactionCandidate();
+    if (compacting || segment == null) return;
+    compacting = true;
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Compact segment " + segment.getName() + " with " + segment.liveLength + " of " + segment.length + " live");
+    readSegmentText(segment, new Callback<String, StorageError>()
+    {
+      public void onSuccess(String text)
+      {
+        final List<Record> live = new ArrayList<Record>();
+        for (Map.Entry<String, Location> entry : index.entrySet())
+        {
+          Location location = entry.getValue();
+          if (location.segmentId == segment.id && !pendingRecords.containsKey(entry.getKey()))
+          {
+            live.add(new Record(entry.getKey(), text.substring(location.offset, location.offset + location.length)));
+          }
+        }
+        if (segments.firstKey() < segment.id)
+        { // an older segment might still hold a value of a removed key
+          final Set<String> removed = new LinkedHashSet<String>();
+          parseRecords(text, new RecordHandler()
+          {
+            public void onRecord(String key, int valueOffset, int valueLength, int recordLength)
+            {
+              if (valueOffset < 0 && !index.containsKey(key) && !pendingRecords.containsKey(key))
+              {
+                removed.add(key);
+              }
+            }
+          });
+          for (String key : removed)
+          {
+            live.add(new Record(key, null));
+          }
+        }
+        appendRecords(live, new Callback<Void, StorageError>()
+        {
+          public void onSuccess(Void result)
+          {
+            removeSegment(segment);
+          }
+
+          public void onFailure(StorageError error)
+          {
+            if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure compacting segment " + segment.getName() + " : " + error.getErrorCode());
+            compacting = false;
+          }
+        });
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure reading segment for compaction " + segment.getName() + " : " + error.getErrorCode());
+        segment.failed = true;
+        compacting = false;
+      }
+    });
+  }
+
+  private void removeSegment(final Segment segment)
+  {
+    for (Location location : index.values())
+    {
+      if (location.segmentId == segment.id)
+      { // still referenced, eg. a newer write of the key failed
+        compacting = false;
+        return;
+      }
+    }
+    segments.remove(segment.id);
+    segmentTexts.remove(segment.id);
+    segment.fileEntry.remove(new FileCallback<Boolean, FileError>()
+    {
+      @Override
+      public void onSuccess(Boolean result)
+      {
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Removed compacted segment " + segment.getName());
+        compacting = false;
+        scheduleCompaction();
+      }
+
+      @Override
+      public void onFailure(FileError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure removing compacted segment " + segment.getName() + " : " + error.getErrorCode());
+        compacting = false;
+      }
+    });
+  }
+
+  /****************************************************************************************************************
+   * Record format
+   ****************************************************************************************************************/
+
+  /**
+   * Read the records of a segment text
+   * 
+   * @param text The segment text
+   * @param visitor Is called for each record in the order written, with a null
+   *          value for a removed key
+   * @return The length of the complete records read
+   */
+  public static int readRecords(final String text, final StorageBackendVisitor visitor)
+  {
+    return parseRecords(text, new RecordHandler()
+    {
+      public void onRecord(String key, int valueOffset, int valueLength, int recordLength)
+      {
+        visitor.visit(key, valueOffset >= 0 ? text.substring(valueOffset, valueOffset + valueLength) : null);
+      }
+    });
+  }
+
+  /**
+   * Encode one record, a null value records the removal of the key
+   */
+  public static String writeRecord(String key, String value)
+  {
+    if (value == null) return DELETERECORD + String.valueOf(key.length()) + ":" + key + "\n";
+    return PUTRECORD + String.valueOf(key.length()) + ":" + key + value.length() + ":" + value + "\n";
+  }
+
+  private static int parseRecords(String text, RecordHandler handler)
+  {
+    int complete = 0;
+    int pos = 0;
+    try
+    {
+      while (pos < text.length())
+      {
+        char type = text.charAt(pos++);
+        if (type != PUTRECORD && type != DELETERECORD) break;
+        int colon = text.indexOf(':', pos);
+        if (colon < 0) break;
+        int keyLength = Integer.parseInt(text.substring(pos, colon));
+        pos = colon + 1;
+        if (pos + keyLength > text.length()) break;
+        String key = text.substring(pos, pos + keyLength);
+        pos += keyLength;
+        int valueOffset = -1;
+        int valueLength = 0;
+        if (type == PUTRECORD)
+        {
+          colon = text.indexOf(':', pos);
+          if (colon < 0) break;
+          valueLength = Integer.parseInt(text.substring(pos, colon));
+          valueOffset = colon + 1;
+          pos = valueOffset + valueLength;
+        }
+        if (pos >= text.length() || text.charAt(pos) != '\n') break;
+        pos++;
+        handler.onRecord(key, valueOffset, valueLength, pos - complete);
+        complete = pos;
+      }
+    } catch (NumberFormatException ex)
+    {
+      // incomplete length, ends the segment
+    }
+    return complete;
+  }
+
+  private static int getSegmentId(String fileName)
+  {
+    if (fileName == null || !fileName.startsWith(SEGMENTPREFIX) || !fileName.endsWith(SEGMENTSUFFIX)) return -1;
+    try
+    {
+      return Integer.parseInt(fileName.substring(SEGMENTPREFIX.length(), fileName.length() - SEGMENTSUFFIX.length()));
+    } catch (NumberFormatException ex)
+    {
+      return -1;
+    }
+  }
+
+  private interface RecordHandler
+  {
+    void onRecord(String key, int valueOffset, int valueLength, int recordLength);
+  }
+
+  private static class Segment
+  {
+    private int id;
+    private FileEntry fileEntry;
+    private int length = 0;
+    private int liveLength = 0;
+    private boolean appendable = true;
+    private boolean failed = false;
+
+    Segment(int id, FileEntry fileEntry)
+    {
+      this.id = id;
+      this.fileEntry = fileEntry;
+    }
+
+    String getName()
+    {
+      String number = String.valueOf(id);
+      while (number.length() < 6)
+      {
+        number = "0" + number;
+      }
+      return SEGMENTPREFIX + number + SEGMENTSUFFIX;
+    }
+  }
+
+  private static class Location
+  {
+    private int segmentId;
+    private int offset;
+    private int length;
+    private int recordLength;
+
+    Location(int segmentId, int offset, int length, int recordLength)
+    {
+      this.segmentId = segmentId;
+      this.offset = offset;
+      this.length = length;
+      this.recordLength = recordLength;
+    }
+  }
+
+  private static class Record
+  {
+    private String key;
+    private String value;
+    private Location location;
+    private Callback<Void, StorageError> callback;
+
+    Record(String key, String value)
+    {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+}
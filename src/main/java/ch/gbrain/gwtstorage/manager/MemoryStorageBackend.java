@@ -0,0 +1,116 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gwt.core.client.Callback;
+
+/**
+ * A StorageBackend which holds the values in memory only. All operations
+ * complete immediately, thus it is useful to run the StorageManager in tests
+ * or to keep values for the lifetime of the application only.
+ */
+public class MemoryStorageBackend implements StorageBackend
+{
+
+  private TreeMap<String, String> values = new TreeMap<String, String>();
+
+  public void get(String key, Callback<String, StorageError> callback)
+  {
+    callback.onSuccess(values.get(key));
+  }
+
+  public void getAll(List<String> keys, Callback<Map<String, String>, StorageError> callback)
+  {
+    Map<String, String> result = new HashMap<String, String>();
+    for (String key : keys)
+    {
+      String value = values.get(key);
+      if (value != null)
+      {
+        result.put(key, value);
+      }
+    }
+    callback.onSuccess(result);
+  }
+
+  public void put(String key, String value, Callback<Void, StorageError> callback)
+  {
+    values.put(key, value);
+    if (callback != null) callback.onSuccess(null);
+  }
+
+  public void putAll(Map<String, String> values, Callback<Void, StorageError> callback)
+  {
+    this.values.putAll(values);
+    if (callback != null) callback.onSuccess(null);
+  }
+
+  public void delete(String key, Callback<Void, StorageError> callback)
+  {
+    values.remove(key);
+    if (callback != null) callback.onSuccess(null);
+  }
+
+  public void deleteAll(List<String> keys, Callback<Void, StorageError> callback)
+  {
+    for (String key : keys)
+    {
+      values.remove(key);
+    }
+    if (callback != null) callback.onSuccess(null);
+  }
+
+  public void iterate(String prefix, StorageBackendVisitor visitor, Callback<Void, StorageError> callback)
+  {
+    // take a copy, the visitor might modify the values
+    List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>(values.tailMap(prefix).entrySet());
+    for (Map.Entry<String, String> entry : entries)
+    {
+      if (!entry.getKey().startsWith(prefix)) break;
+      if (!visitor.visit(entry.getKey(), entry.getValue())) break;
+    }
+    if (callback != null) callback.onSuccess(null);
+  }
+
+  /**
+   * @return The number of stored values
+   */
+  public int size()
+  {
+    return values.size();
+  }
+
+  /**
+   * Remove all values
+   */
+  public void clear()
+  {
+    values.clear();
+  }
+
+}
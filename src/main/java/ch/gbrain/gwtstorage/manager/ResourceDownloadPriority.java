@@ -0,0 +1,42 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The priority of a resource download, downloads with a higher priority are
+ * started first.
+ */
+public enum ResourceDownloadPriority
+{
+  /**
+   * Resources the user is waiting for
+   */
+  HIGH,
+  /**
+   * The default priority
+   */
+  NORMAL,
+  /**
+   * Prefetching of resources which might be needed later
+   */
+  LOW
+}
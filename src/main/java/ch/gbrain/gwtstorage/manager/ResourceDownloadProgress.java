@@ -0,0 +1,64 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.googlecode.gwtphonegap.client.file.FileTransferProgressEvent;
+
+/**
+ * The progress of a resource download which is not run by the PhoneGap
+ * FileTransfer, eg. a resumed one.
+ */
+public class ResourceDownloadProgress implements FileTransferProgressEvent
+{
+
+  private long loadedBytes;
+  private long totalBytes;
+
+  /**
+   * @param loadedBytes
+   * @param totalBytes <=0 if unknown
+   */
+  public ResourceDownloadProgress(long loadedBytes, long totalBytes)
+  {
+    this.loadedBytes = loadedBytes;
+    this.totalBytes = totalBytes;
+  }
+
+  @Override
+  public boolean isLengthComputable()
+  {
+    return totalBytes > 0;
+  }
+
+  @Override
+  public long getLoadedBytes()
+  {
+    return loadedBytes;
+  }
+
+  @Override
+  public long getTotalBytes()
+  {
+    return totalBytes;
+  }
+
+}
@@ -0,0 +1,400 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.gbrain.gwtstorage.model.StorageResource;
+
+import com.google.gwt.core.client.Scheduler;
+import com.googlecode.gwtphonegap.client.file.FileDownloadCallback;
+import com.googlecode.gwtphonegap.client.file.FileEntry;
+import com.googlecode.gwtphonegap.client.file.FileTransferError;
+import com.googlecode.gwtphonegap.client.file.FileTransferProgressEvent;
+
+/**
+ * Queues the resources to be cached and runs at most the configured number of
+ * downloads at the same time, the ones with the highest priority first and in
+ * the order requested within the same priority. A resource which is already
+ * queued or downloading is not requested again, the further callbacks are
+ * notified with the result of the pending download. If another version of a
+ * resource is requested while it is downloading, a follow-up download is queued
+ * once the running one completed.
+ */
+public class ResourceDownloadScheduler
+{
+
+  /**
+   * The error code reported to the callbacks of a cancelled download
+   */
+  public static int ABORT_ERR = 4;
+
+  private Logger logger;
+  private StorageManager storageManager;
+  private int maxConcurrentDownloads = 3;
+  private long sequence = 0;
+
+  private Map<String, Download> downloads = new HashMap<String, Download>();
+  private List<Download> queue = new ArrayList<Download>();
+  private int running = 0;
+
+  public ResourceDownloadScheduler(StorageManager storageManager)
+  {
+    this.storageManager = storageManager;
+    this.logger = storageManager.getLogger();
+  }
+
+  /**
+   * Define the number of downloads which are run at the same time
+   */
+  public void setMaxConcurrentDownloads(int maxConcurrentDownloads)
+  {
+    this.maxConcurrentDownloads = Math.max(1, maxConcurrentDownloads);
+    startDownloads();
+  }
+
+  public int getMaxConcurrentDownloads()
+  {
+    return maxConcurrentDownloads;
+  }
+
+  /**
+   * @return The number of downloads waiting to be started
+   */
+  public int getQueuedCount()
+  {
+    return queue.size();
+  }
+
+  /**
+   * @return The number of downloads running
+   */
+  public int getRunningCount()
+  {
+    return running;
+  }
+
+  /**
+   * @return true if the resource is queued or downloading
+   */
+  public boolean isPending(String relativeUrl)
+  {
+    return downloads.containsKey(relativeUrl);
+  }
+
+  /**
+   * Queue the resource to be cached. If it is already queued or downloading in
+   * a compatible version, the callback is attached to the pending download and
+   * the priority is raised if requested.
+   * 
+   * @param relativeUrl
+   * @param version
+   * @param priority
+   * @param callback Is notified with the result of the download, might be
+   *          null
+   */
+  public void enqueue(String relativeUrl, Integer version, ResourceDownloadPriority priority, FileDownloadCallback callback)
+  {
+    enqueue(relativeUrl, version, -1, null, priority, callback);
+  }
+
+  /**
+   * Queue the resource to be cached, the downloaded file must match the
+   * expected size and hash.
+   * 
+   * @param relativeUrl
+   * @param version
+   * @param expectedSize The size in bytes, -1 if unknown
+   * @param expectedHash The hex encoded SHA-256 hash, null if unknown
+   * @param priority
+   * @param callback
+   */
+  public void enqueue(String relativeUrl, Integer version, long expectedSize, String expectedHash, ResourceDownloadPriority priority, FileDownloadCallback callback)
+  {
+    Download download = downloads.get(relativeUrl);
+    if (download != null && download.started && !download.isVersionCompatible(version))
+    { // the running download delivers another version, continue afterwards
+      if (download.followUp == null)
+      {
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Resource downloading in version " + download.version + ", queue follow-up : " + relativeUrl + " version:" + version);
+        download.followUp = createDownload(relativeUrl, version, expectedSize, expectedHash, priority, callback);
+        return;
+      }
+      download = download.followUp;
+    }
+    if (download != null)
+    {
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Resource download already pending, attach : " + relativeUrl);
+      if (callback != null) download.callbacks.add(callback);
+      if (!download.started)
+      {
+        if (priority.ordinal() < download.priority.ordinal()) download.priority = priority;
+        if (version != null && (download.version == null || version.intValue() > download.version.intValue()))
+        {
+          download.version = version;
+          download.expectedSize = expectedSize;
+          download.expectedHash = expectedHash;
+        }
+      }
+      return;
+    }
+    download = createDownload(relativeUrl, version, expectedSize, expectedHash, priority, callback);
+    downloads.put(relativeUrl, download);
+    queue.add(download);
+    startDownloads();
+  }
+
+  private Download createDownload(String relativeUrl, Integer version, long expectedSize, String expectedHash, ResourceDownloadPriority priority, FileDownloadCallback callback)
+  {
+    Download download = new Download(relativeUrl, version, priority, sequence++);
+    download.expectedSize = expectedSize;
+    download.expectedHash = expectedHash;
+    if (callback != null) download.callbacks.add(callback);
+    return download;
+  }
+
+  /**
+   * Change the priority of a queued download, a running download is not
+   * affected.
+   * 
+   * @return true if the download was queued
+   */
+  public boolean reprioritize(String relativeUrl, ResourceDownloadPriority priority)
+  {
+    Download download = downloads.get(relativeUrl);
+    if (download != null && download.started) download = download.followUp;
+    if (download == null) return false;
+    download.priority = priority;
+    return true;
+  }
+
+  /**
+   * Cancel the download of the resource for all callbacks, a running download
+   * is aborted. The callbacks are notified with ABORT_ERR.
+   * 
+   * @return true if the download was pending
+   */
+  public boolean cancel(String relativeUrl)
+  {
+    Download download = downloads.remove(relativeUrl);
+    if (download == null) return false;
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Resource download cancelled : " + relativeUrl);
+    if (download.started)
+    {
+      download.cancelled = true;
+      if (download.collector != null) download.collector.abort();
+      downloadCompleted(download);
+    } else
+    {
+      queue.remove(download);
+    }
+    download.notifyFailure(new TransferError(ABORT_ERR, "Download cancelled"));
+    if (download.followUp != null) download.followUp.notifyFailure(new TransferError(ABORT_ERR, "Download cancelled"));
+    return true;
+  }
+
+  /**
+   * Detach the callback from the pending download, the download itself is
+   * cancelled if no callback is left.
+   * 
+   * @return true if the callback was attached to a pending download
+   */
+  public boolean cancel(String relativeUrl, FileDownloadCallback callback)
+  {
+    Download download = downloads.get(relativeUrl);
+    if (download == null) return false;
+    if (download.followUp != null && download.followUp.callbacks.remove(callback))
+    {
+      callback.onFailure(new TransferError(ABORT_ERR, "Download cancelled"));
+      if (download.followUp.callbacks.isEmpty()) download.followUp = null;
+      return true;
+    }
+    if (!download.callbacks.remove(callback)) return false;
+    callback.onFailure(new TransferError(ABORT_ERR, "Download cancelled"));
+    if (download.callbacks.isEmpty())
+    {
+      if (download.followUp != null && download.started)
+      { // just abort the running download, the follow-up is still requested
+        download.cancelled = true;
+        if (download.collector != null) download.collector.abort();
+        downloadFinished(download);
+      } else
+      {
+        cancel(relativeUrl);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Start queued downloads as long as there are free slots
+   */
+  private void startDownloads()
+  {
+    while (running < maxConcurrentDownloads && !queue.isEmpty())
+    {
+      Download next = queue.get(0);
+      for (Download download : queue)
+      {
+        if (download.priority.ordinal() < next.priority.ordinal() || (download.priority == next.priority && download.sequence < next.sequence))
+        {
+          next = download;
+        }
+      }
+      queue.remove(next);
+      start(next);
+    }
+  }
+
+  private void start(final Download download)
+  {
+    download.started = true;
+    running++;
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Start resource download " + download.relativeUrl + " priority:" + download.priority + " running:" + running + " queued:" + queue.size());
+    StorageResource resource = new StorageResource(download.relativeUrl, download.version, download.expectedSize, download.expectedHash, new FileDownloadCallback()
+    {
+      public void onSuccess(FileEntry entry)
+      {
+        if (download.cancelled) return;
+        downloadFinished(download);
+        download.notifySuccess(entry);
+      }
+
+      public void onProgress(FileTransferProgressEvent progress)
+      {
+        if (download.cancelled) return;
+        download.notifyProgress(progress);
+      }
+
+      public void onFailure(FileTransferError error)
+      {
+        if (download.cancelled) return;
+        downloadFinished(download);
+        download.notifyFailure(error);
+      }
+    });
+    download.collector = startCollector(resource);
+  }
+
+  /**
+   * Run the download of the resource, overridden by the tests
+   * 
+   * @return The collector to abort the download, might be null
+   */
+  protected StorageResourceCollector startCollector(StorageResource resource)
+  {
+    StorageResourceCollector collector = new StorageResourceCollector(storageManager, resource);
+    Scheduler.get().scheduleDeferred(collector);
+    return collector;
+  }
+
+  /**
+   * Remove the finished download, its follow-up takes its place in the queue
+   */
+  private void downloadFinished(Download download)
+  {
+    if (download.followUp != null)
+    {
+      downloads.put(download.relativeUrl, download.followUp);
+      queue.add(download.followUp);
+    } else
+    {
+      downloads.remove(download.relativeUrl);
+    }
+    downloadCompleted(download);
+  }
+
+  private void downloadCompleted(Download download)
+  {
+    if (download.completed) return;
+    download.completed = true;
+    running--;
+    startDownloads();
+  }
+
+  /**
+   * A queued or running download with all its callbacks
+   */
+  private static class Download
+  {
+    private String relativeUrl;
+    private Integer version;
+    private long expectedSize = -1;
+    private String expectedHash;
+    private ResourceDownloadPriority priority;
+    private long sequence;
+    private List<FileDownloadCallback> callbacks = new ArrayList<FileDownloadCallback>();
+    private StorageResourceCollector collector;
+    private Download followUp;
+    private boolean started = false;
+    private boolean completed = false;
+    private boolean cancelled = false;
+
+    Download(String relativeUrl, Integer version, ResourceDownloadPriority priority, long sequence)
+    {
+      this.relativeUrl = relativeUrl;
+      this.version = version;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    /**
+     * @return true if the download delivers the requested version, null or 0
+     *         accept any version
+     */
+    boolean isVersionCompatible(Integer requestedVersion)
+    {
+      if (requestedVersion == null || requestedVersion.intValue() == 0) return true;
+      return version != null && version.intValue() == requestedVersion.intValue();
+    }
+
+    void notifySuccess(FileEntry entry)
+    {
+      for (FileDownloadCallback callback : new ArrayList<FileDownloadCallback>(callbacks))
+      {
+        callback.onSuccess(entry);
+      }
+    }
+
+    void notifyProgress(FileTransferProgressEvent progress)
+    {
+      for (FileDownloadCallback callback : new ArrayList<FileDownloadCallback>(callbacks))
+      {
+        callback.onProgress(progress);
+      }
+    }
+
+    void notifyFailure(FileTransferError error)
+    {
+      for (FileDownloadCallback callback : new ArrayList<FileDownloadCallback>(callbacks))
+      {
+        callback.onFailure(error);
+      }
+    }
+  }
+
+}
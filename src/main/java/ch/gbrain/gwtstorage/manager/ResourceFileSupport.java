@@ -0,0 +1,492 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.gwt.core.client.Callback;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.googlecode.gwtphonegap.client.file.DirectoryEntry;
+import com.googlecode.gwtphonegap.client.file.FileCallback;
+import com.googlecode.gwtphonegap.client.file.FileEntry;
+import com.googlecode.gwtphonegap.client.file.FileError;
+import com.googlecode.gwtphonegap.client.file.FileObject;
+import com.googlecode.gwtphonegap.client.file.FileWriter;
+import com.googlecode.gwtphonegap.client.file.js.DirectoryEntryJsImpl;
+import com.googlecode.gwtphonegap.client.file.js.FileEntryJsImpl;
+import com.googlecode.gwtphonegap.client.file.js.FileWriterJsImpl;
+
+/**
+ * File operations on the PhoneGap file system which are not available through
+ * the gwtphonegap interfaces, eg. writing binary data. They work on the
+ * underlying javascript objects, thus only with the PhoneGap implementations.
+ */
+public class ResourceFileSupport
+{
+
+  /**
+   * The suffix of the file a resource is downloaded to before it is verified
+   * and moved into place
+   */
+  public static String PARTIALFILESUFFIX = ".part";
+
+  /**
+   * The number of bytes read at once to hash a file
+   */
+  private static int HASHSLICESIZE = 1024 * 1024;
+
+  /**
+   * @return true if binary data could be written with the writer
+   */
+  public static boolean isSupported(FileWriter writer)
+  {
+    return writer instanceof FileWriterJsImpl;
+  }
+
+  /**
+   * Append the binary data to the end of the file
+   * 
+   * @param writer
+   * @param data An ArrayBuffer or Blob
+   * @param callback
+   */
+  public static void append(FileWriter writer, JavaScriptObject data, Callback<Void, StorageError> callback)
+  {
+    nativeAppend(((FileWriterJsImpl) writer).getWriter(), data, callback);
+  }
+
+  /**
+   * Truncate the file to the given length
+   */
+  public static void truncate(FileWriter writer, double length, Callback<Void, StorageError> callback)
+  {
+    nativeTruncate(((FileWriterJsImpl) writer).getWriter(), length, callback);
+  }
+
+  /**
+   * Move the file to the directory under the given name, an existing file
+   * with this name is replaced.
+   * 
+   * @param entry The file to be moved
+   * @param directory The target directory
+   * @param name The new name of the file
+   * @param callback Receives the moved file
+   */
+  public static void replace(final FileEntry entry, final DirectoryEntry directory, final String name, final Callback<FileEntry, StorageError> callback)
+  {
+    if (!(entry instanceof FileEntryJsImpl) || !(directory instanceof DirectoryEntryJsImpl))
+    {
+      entry.moveTo(directory, name, new FileCallback<FileEntry, FileError>()
+      {
+        @Override
+        public void onSuccess(FileEntry result)
+        {
+          callback.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(FileError error)
+        {
+          callback.onFailure(new StorageError(error));
+        }
+      });
+      return;
+    }
+    nativeReplace(((FileEntryJsImpl) entry).getEntry(), ((DirectoryEntryJsImpl) directory).getEntry(), name, callback);
+  }
+
+  /**
+   * Check the size and the SHA-256 hash of the file. The file is hashed in a
+   * Web Worker off the UI thread, which reads it in slices, thus large files
+   * are not loaded into memory at once. If the WebView has no workers or the
+   * file can't be passed to one, eg. an older Cordova File, the slices are
+   * hashed on the UI thread between the asynchronous reads instead. The hash
+   * is computed in javascript as the WebCrypto API can't hash incrementally
+   * and is often not available in the WebView anyway.
+   * 
+   * @param entry
+   * @param expectedSize The expected size in bytes, not checked if negative
+   * @param expectedHash The expected hex encoded SHA-256 hash, not checked if
+   *          null
+   * @param callback Fails with FileError.INVALID_STATE_ERR if the file
+   *          doesn't match or the hash can't be checked
+   */
+  public static void verify(FileEntry entry, final long expectedSize, String expectedHash, final Callback<Void, StorageError> callback)
+  {
+    if (expectedSize < 0 && expectedHash == null)
+    {
+      callback.onSuccess(null);
+      return;
+    }
+    if (!(entry instanceof FileEntryJsImpl))
+    {
+      if (expectedHash != null)
+      { // don't install a file which was supposed to be checked
+        verifyFailed(callback, "Hash not verifiable");
+        return;
+      }
+      entry.getFile(new FileCallback<FileObject, FileError>()
+      {
+        @Override
+        public void onSuccess(FileObject file)
+        {
+          if (file.size() != expectedSize)
+          {
+            verifyFailed(callback, "Size " + file.size() + " expected " + expectedSize);
+          } else
+          {
+            succeed(callback);
+          }
+        }
+
+        @Override
+        public void onFailure(FileError error)
+        {
+          verifyFailed(callback, "File not found");
+        }
+      });
+      return;
+    }
+    nativeVerify(((FileEntryJsImpl) entry).getEntry(), expectedSize, expectedHash != null ? expectedHash.toLowerCase() : null, HASHSLICESIZE, callback);
+  }
+
+  private static void verifyFailed(Callback<Void, StorageError> callback, String reason)
+  {
+    callback.onFailure(new StorageError(FileError.INVALID_STATE_ERR, reason));
+  }
+
+  private static void succeed(Callback<Void, StorageError> callback)
+  {
+    callback.onSuccess(null);
+  }
+
+  private static void moved(Callback<FileEntry, StorageError> callback, JavaScriptObject entry)
+  {
+    callback.onSuccess(new FileEntryJsImpl(entry));
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private static void fail(Callback callback, int code)
+  {
+    callback.onFailure(new StorageError(code > 0 ? code : FileError.INVALID_MODIFICATION_ERR));
+  }
+
+  private static native void nativeAppend(JavaScriptObject writer, JavaScriptObject data, Callback<Void, StorageError> callback)
+  /*-{
+		writer.onwriteend = $entry(function() {
+			writer.onwriteend = null;
+			writer.onerror = null;
+			@ch.gbrain.gwtstorage.manager.ResourceFileSupport::succeed(Lcom/google/gwt/core/client/Callback;)(callback);
+		});
+		writer.onerror = $entry(function() {
+			writer.onwriteend = null;
+			writer.onerror = null;
+			@ch.gbrain.gwtstorage.manager.ResourceFileSupport::fail(Lcom/google/gwt/core/client/Callback;I)(callback, writer.error ? writer.error.code : 0);
+		});
+		writer.seek(writer.length);
+		writer.write($wnd.Blob && !(data instanceof $wnd.Blob) ? new $wnd.Blob([ data ]) : data);
+  }-*/;
+
+  private static native void nativeTruncate(JavaScriptObject writer, double length, Callback<Void, StorageError> callback)
+  /*-{
+		writer.onwriteend = $entry(function() {
+			writer.onwriteend = null;
+			writer.onerror = null;
+			@ch.gbrain.gwtstorage.manager.ResourceFileSupport::succeed(Lcom/google/gwt/core/client/Callback;)(callback);
+		});
+		writer.onerror = $entry(function() {
+			writer.onwriteend = null;
+			writer.onerror = null;
+			@ch.gbrain.gwtstorage.manager.ResourceFileSupport::fail(Lcom/google/gwt/core/client/Callback;I)(callback, writer.error ? writer.error.code : 0);
+		});
+		writer.truncate(length);
+  }-*/;
+
+  private static native void nativeVerify(JavaScriptObject entry, double expectedSize, String expectedHash, int sliceSize, Callback<Void, StorageError> callback)
+  /*-{
+		var fail = $entry(function(reason) {
+			@ch.gbrain.gwtstorage.manager.ResourceFileSupport::verifyFailed(Lcom/google/gwt/core/client/Callback;Ljava/lang/String;)(callback, reason);
+		});
+		var succeed = $entry(function() {
+			@ch.gbrain.gwtstorage.manager.ResourceFileSupport::succeed(Lcom/google/gwt/core/client/Callback;)(callback);
+		});
+		var check = function(hash) {
+			if (hash == expectedHash) {
+				succeed();
+			} else {
+				fail("Hash " + hash + " expected " + expectedHash);
+			}
+		};
+		entry.file(function(file) {
+			if (expectedSize >= 0 && file.size != expectedSize) {
+				fail("Size " + file.size + " expected " + expectedSize);
+				return;
+			}
+			if (expectedHash == null) {
+				succeed();
+				return;
+			}
+			var hashOnMainThread = function() {
+				var sha256 = @ch.gbrain.gwtstorage.manager.ResourceFileSupport::createSha256()();
+				var offset = 0;
+				var readSlice = function() {
+					if (offset >= file.size) {
+						check(sha256.digest());
+						return;
+					}
+					var end = Math.min(offset + sliceSize, file.size);
+					var reader = new FileReader();
+					reader.onloadend = function() {
+						if (!reader.result || reader.result.byteLength != end - offset) {
+							fail("File not readable at " + offset);
+							return;
+						}
+						sha256.update(new Uint8Array(reader.result));
+						offset = end;
+						readSlice();
+					};
+					reader.readAsArrayBuffer(file.slice(offset, end));
+				};
+				readSlice();
+			};
+			var worker = @ch.gbrain.gwtstorage.manager.ResourceFileSupport::createHashWorker()();
+			if (!worker) {
+				hashOnMainThread();
+				return;
+			}
+			worker.onmessage = function(event) {
+				worker.terminate();
+				if (event.data && event.data.hash) {
+					check(event.data.hash);
+				} else {
+					hashOnMainThread();
+				}
+			};
+			worker.onerror = function(event) {
+				if (event && event.preventDefault) event.preventDefault();
+				worker.terminate();
+				hashOnMainThread();
+			};
+			try {
+				worker.postMessage({
+					file : file,
+					sliceSize : sliceSize
+				});
+			} catch (ex) { // the file can't be cloned into the worker
+				worker.terminate();
+				hashOnMainThread();
+			}
+		}, function() {
+			fail("File not found");
+		});
+  }-*/;
+
+  /**
+   * Create a Web Worker which hashes the posted file in slices and answers
+   * with the hash or an error.
+   * 
+   * @return The worker or null if workers are not supported
+   */
+  private static native JavaScriptObject createHashWorker()
+  /*-{
+		if (!$wnd.Worker || !$wnd.Blob || !$wnd.URL || !$wnd.URL.createObjectURL) return null;
+		var source = "var createSha256 = "
+				+ @ch.gbrain.gwtstorage.manager.ResourceFileSupport::getSha256Factory()().toString()
+				+ ";\n"
+				+ "onmessage = function(event) {\n"
+				+ "  try {\n"
+				+ "    var file = event.data.file, sliceSize = event.data.sliceSize;\n"
+				+ "    var reader = new FileReaderSync(), sha256 = createSha256();\n"
+				+ "    for (var offset = 0; offset < file.size; offset += sliceSize) {\n"
+				+ "      sha256.update(new Uint8Array(reader.readAsArrayBuffer(file.slice(offset, Math.min(offset + sliceSize, file.size)))));\n"
+				+ "    }\n"
+				+ "    postMessage({ hash : sha256.digest() });\n"
+				+ "  } catch (ex) {\n"
+				+ "    postMessage({ error : String(ex) });\n"
+				+ "  }\n"
+				+ "};\n";
+		try {
+			var url = $wnd.URL.createObjectURL(new $wnd.Blob([ source ], {
+				type : "application/javascript"
+			}));
+			var worker = new $wnd.Worker(url);
+			var terminate = worker.terminate;
+			worker.terminate = function() {
+				terminate.call(worker);
+				$wnd.URL.revokeObjectURL(url);
+			};
+			return worker;
+		} catch (ex) {
+			return null;
+		}
+  }-*/;
+
+  /**
+   * Hash the bytes with the same incremental SHA-256 as the files, passed to
+   * it in slices of the given size.
+   * 
+   * @param bytes An Uint8Array
+   * @param sliceSize The number of bytes passed at once
+   * @return The lower case hex encoded hash
+   */
+  public static native String sha256(JavaScriptObject bytes, int sliceSize)
+  /*-{
+		var sha256 = @ch.gbrain.gwtstorage.manager.ResourceFileSupport::createSha256()();
+		for (var offset = 0; offset < bytes.length; offset += sliceSize) {
+			sha256.update(bytes.subarray(offset, Math.min(offset + sliceSize, bytes.length)));
+		}
+		return sha256.digest();
+  }-*/;
+
+  /**
+   * Create an incremental SHA-256 hash with update(Uint8Array) and digest()
+   * returning the lower case hex encoded hash.
+   */
+  private static native JavaScriptObject createSha256()
+  /*-{
+		return @ch.gbrain.gwtstorage.manager.ResourceFileSupport::getSha256Factory()()();
+  }-*/;
+
+  /**
+   * @return The function creating the incremental SHA-256, it references
+   *         nothing outside of itself, thus its source runs in a worker too
+   */
+  private static native JavaScriptObject getSha256Factory()
+  /*-{
+		return function() {
+			var K = [ 0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b,
+					0x59f111f1, 0x923f82a4, 0xab1c5ed5, 0xd807aa98, 0x12835b01,
+					0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7,
+					0xc19bf174, 0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc,
+					0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da, 0x983e5152,
+					0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147,
+					0x06ca6351, 0x14292967, 0x27b70a85, 0x2e1b2138, 0x4d2c6dfc,
+					0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+					0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819,
+					0xd6990624, 0xf40e3585, 0x106aa070, 0x19a4c116, 0x1e376c08,
+					0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f,
+					0x682e6ff3, 0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208,
+					0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2 ];
+			var H = [ 0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f,
+					0x9b05688c, 0x1f83d9ab, 0x5be0cd19 ];
+			var W = new Array(64);
+			var tail = new Uint8Array(0);
+			var length = 0;
+			var block = function(bytes, pos) {
+				var t;
+				for (t = 0; t < 16; t++) {
+					var p = pos + t * 4;
+					W[t] = (bytes[p] << 24) | (bytes[p + 1] << 16) | (bytes[p + 2] << 8) | bytes[p + 3];
+				}
+				for (t = 16; t < 64; t++) {
+					var x = W[t - 15], y = W[t - 2];
+					var s0 = ((x >>> 7) | (x << 25)) ^ ((x >>> 18) | (x << 14)) ^ (x >>> 3);
+					var s1 = ((y >>> 17) | (y << 15)) ^ ((y >>> 19) | (y << 13)) ^ (y >>> 10);
+					W[t] = (W[t - 16] + s0 + W[t - 7] + s1) | 0;
+				}
+				var a = H[0], b = H[1], c = H[2], d = H[3], e = H[4], f = H[5], g = H[6], h = H[7];
+				for (t = 0; t < 64; t++) {
+					var S1 = ((e >>> 6) | (e << 26)) ^ ((e >>> 11) | (e << 21)) ^ ((e >>> 25) | (e << 7));
+					var t1 = (h + S1 + ((e & f) ^ (~e & g)) + K[t] + W[t]) | 0;
+					var S0 = ((a >>> 2) | (a << 30)) ^ ((a >>> 13) | (a << 19)) ^ ((a >>> 22) | (a << 10));
+					var t2 = (S0 + ((a & b) ^ (a & c) ^ (b & c))) | 0;
+					h = g;
+					g = f;
+					f = e;
+					e = (d + t1) | 0;
+					d = c;
+					c = b;
+					b = a;
+					a = (t1 + t2) | 0;
+				}
+				H[0] = (H[0] + a) | 0;
+				H[1] = (H[1] + b) | 0;
+				H[2] = (H[2] + c) | 0;
+				H[3] = (H[3] + d) | 0;
+				H[4] = (H[4] + e) | 0;
+				H[5] = (H[5] + f) | 0;
+				H[6] = (H[6] + g) | 0;
+				H[7] = (H[7] + h) | 0;
+			};
+			return {
+				update : function(bytes) {
+					length += bytes.length;
+					var pos = 0;
+					if (tail.length > 0) {
+						var buffer = new Uint8Array(Math.min(64, tail.length + bytes.length));
+						buffer.set(tail);
+						pos = buffer.length - tail.length;
+						buffer.set(bytes.subarray(0, pos), tail.length);
+						if (buffer.length < 64) {
+							tail = buffer;
+							return;
+						}
+						block(buffer, 0);
+					}
+					for (; pos + 64 <= bytes.length; pos += 64) {
+						block(bytes, pos);
+					}
+					tail = new Uint8Array(bytes.subarray(pos));
+				},
+				digest : function() {
+					var padded = new Uint8Array(tail.length < 56 ? 64 : 128);
+					padded.set(tail);
+					padded[tail.length] = 0x80;
+					var high = Math.floor(length / 0x20000000), low = (length * 8) >>> 0;
+					var end = padded.length;
+					padded[end - 8] = high >>> 24;
+					padded[end - 7] = (high >>> 16) & 0xff;
+					padded[end - 6] = (high >>> 8) & 0xff;
+					padded[end - 5] = high & 0xff;
+					padded[end - 4] = low >>> 24;
+					padded[end - 3] = (low >>> 16) & 0xff;
+					padded[end - 2] = (low >>> 8) & 0xff;
+					padded[end - 1] = low & 0xff;
+					for (var pos = 0; pos < end; pos += 64) {
+						block(padded, pos);
+					}
+					var hash = "";
+					for (var i = 0; i < 8; i++) {
+						hash += ("0000000" + (H[i] >>> 0).toString(16)).slice(-8);
+					}
+					return hash;
+				}
+			};
+		};
+  }-*/;
+
+  private static native void nativeReplace(JavaScriptObject entry, JavaScriptObject directory, String name, Callback<FileEntry, StorageError> callback)
+  /*-{
+		var fail = $entry(function(error) {
+			@ch.gbrain.gwtstorage.manager.ResourceFileSupport::fail(Lcom/google/gwt/core/client/Callback;I)(callback, error ? error.code : 0);
+		});
+		var move = function() {
+			entry.moveTo(directory, name, $entry(function(moved) {
+				@ch.gbrain.gwtstorage.manager.ResourceFileSupport::moved(Lcom/google/gwt/core/client/Callback;Lcom/google/gwt/core/client/JavaScriptObject;)(callback, moved);
+			}), fail);
+		};
+		directory.getFile(name, {
+			create : false
+		}, function(existing) {
+			existing.remove(move, fail);
+		}, move);
+  }-*/;
+
+}
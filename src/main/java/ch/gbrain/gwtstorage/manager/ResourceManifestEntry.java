@@ -0,0 +1,68 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * An entry of the resource manifest of the server
+ */
+public class ResourceManifestEntry
+{
+  private String url;
+  private Integer version;
+  private long size;
+  private String hash;
+
+  /**
+   * @param url The relative url of the resource
+   * @param version The version of the resource
+   * @param size The size in bytes, -1 if unknown
+   * @param hash The hex encoded SHA-256 hash, null if unknown
+   */
+  public ResourceManifestEntry(String url, Integer version, long size, String hash)
+  {
+    this.url = url;
+    this.version = version;
+    this.size = size;
+    this.hash = hash;
+  }
+
+  public String getUrl()
+  {
+    return url;
+  }
+
+  public Integer getVersion()
+  {
+    return version;
+  }
+
+  public long getSize()
+  {
+    return size;
+  }
+
+  public String getHash()
+  {
+    return hash;
+  }
+
+}
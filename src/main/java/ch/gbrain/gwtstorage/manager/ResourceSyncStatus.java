@@ -0,0 +1,153 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The state of a resource synchronization, given with each progress
+ * notification and the final result.
+ */
+public class ResourceSyncStatus
+{
+  private int resourceCount = 0;
+  private int upToDateCount = 0;
+  private int queuedCount = 0;
+  private int downloadedCount = 0;
+  private int failedCount = 0;
+  private int removedCount = 0;
+  private long totalBytes = 0;
+  private long loadedBytes = 0;
+
+  /**
+   * @return The number of resources in the manifest
+   */
+  public int getResourceCount()
+  {
+    return resourceCount;
+  }
+
+  void setResourceCount(int resourceCount)
+  {
+    this.resourceCount = resourceCount;
+  }
+
+  /**
+   * @return The number of resources which were already cached in the manifest
+   *         version
+   */
+  public int getUpToDateCount()
+  {
+    return upToDateCount;
+  }
+
+  void setUpToDateCount(int upToDateCount)
+  {
+    this.upToDateCount = upToDateCount;
+  }
+
+  /**
+   * @return The number of new or changed resources queued for download
+   */
+  public int getQueuedCount()
+  {
+    return queuedCount;
+  }
+
+  void setQueuedCount(int queuedCount)
+  {
+    this.queuedCount = queuedCount;
+  }
+
+  public int getDownloadedCount()
+  {
+    return downloadedCount;
+  }
+
+  void setDownloadedCount(int downloadedCount)
+  {
+    this.downloadedCount = downloadedCount;
+  }
+
+  public int getFailedCount()
+  {
+    return failedCount;
+  }
+
+  void setFailedCount(int failedCount)
+  {
+    this.failedCount = failedCount;
+  }
+
+  /**
+   * @return The number of cached resources removed as they are not in the
+   *         manifest anymore
+   */
+  public int getRemovedCount()
+  {
+    return removedCount;
+  }
+
+  void setRemovedCount(int removedCount)
+  {
+    this.removedCount = removedCount;
+  }
+
+  /**
+   * @return The sum of the manifest sizes of the queued resources
+   */
+  public long getTotalBytes()
+  {
+    return totalBytes;
+  }
+
+  void setTotalBytes(long totalBytes)
+  {
+    this.totalBytes = totalBytes;
+  }
+
+  /**
+   * @return The bytes loaded so far by the queued resources
+   */
+  public long getLoadedBytes()
+  {
+    return loadedBytes;
+  }
+
+  void setLoadedBytes(long loadedBytes)
+  {
+    this.loadedBytes = loadedBytes;
+  }
+
+  /**
+   * @return true if all queued downloads completed or failed
+   */
+  public boolean isComplete()
+  {
+    return downloadedCount + failedCount >= queuedCount;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "resources:" + resourceCount + " upToDate:" + upToDateCount + " queued:" + queuedCount + " downloaded:" + downloadedCount + " failed:" + failedCount + " removed:" + removedCount + " bytes:" + loadedBytes + "/" + totalBytes;
+  }
+
+}
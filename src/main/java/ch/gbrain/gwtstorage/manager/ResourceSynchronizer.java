@@ -0,0 +1,246 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fusesource.restygwt.client.JsonCallback;
+import org.fusesource.restygwt.client.Method;
+import org.fusesource.restygwt.client.Resource;
+
+import ch.gbrain.gwtstorage.model.StorageResource;
+
+import com.google.gwt.json.client.JSONArray;
+import com.google.gwt.json.client.JSONNumber;
+import com.google.gwt.json.client.JSONObject;
+import com.google.gwt.json.client.JSONString;
+import com.google.gwt.json.client.JSONValue;
+import com.googlecode.gwtphonegap.client.file.FileDownloadCallback;
+import com.googlecode.gwtphonegap.client.file.FileEntry;
+import com.googlecode.gwtphonegap.client.file.FileError;
+import com.googlecode.gwtphonegap.client.file.FileTransferError;
+import com.googlecode.gwtphonegap.client.file.FileTransferProgressEvent;
+
+/**
+ * Synchronizes the cached resources with a manifest of the server. The
+ * manifest is a JSON array, or an object with a "resources" array, of entries
+ * with the relative "url", the "version" and optionally the "size" and the
+ * SHA-256 "hash" of the resource. Only resources not cached in the manifest
+ * version are queued for download, cached resources which are not listed
+ * anymore are removed.
+ */
+public class ResourceSynchronizer
+{
+  private Logger logger;
+  private StorageManager storageManager;
+  private String manifestUrl;
+  private ResourceDownloadPriority priority;
+  private ResourceSyncCallback callback;
+
+  private ResourceSyncStatus status = new ResourceSyncStatus();
+  private Map<String, Long> loadedBytes = new HashMap<String, Long>();
+  private boolean completed = false;
+
+  /**
+   * @param storageManager
+   * @param manifestUrl The absolute url of the manifest
+   * @param priority The priority of the queued downloads
+   * @param callback
+   */
+  public ResourceSynchronizer(StorageManager storageManager, String manifestUrl, ResourceDownloadPriority priority, ResourceSyncCallback callback)
+  {
+    this.storageManager = storageManager;
+    this.logger = storageManager.getLogger();
+    this.manifestUrl = manifestUrl;
+    this.priority = priority;
+    this.callback = callback;
+  }
+
+  public void execute()
+  {
+    Resource resource = new Resource(manifestUrl);
+    Method method = resource.get();
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Read resource manifest from url:" + manifestUrl);
+    method.send(new JsonCallback()
+    {
+      public void onSuccess(Method method, JSONValue response)
+      {
+        List<ResourceManifestEntry> manifest = parseManifest(response);
+        if (manifest == null)
+        {
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Invalid resource manifest : " + manifestUrl);
+          if (callback != null) callback.onFailure(new StorageError(FileError.ENCODING_ERR, "Invalid resource manifest"));
+          return;
+        }
+        synchronize(manifest);
+      }
+
+      public void onFailure(Method method, Throwable exception)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure reading resource manifest : " + manifestUrl, exception);
+        if (callback != null) callback.onFailure(new StorageError(FileError.NOT_FOUND_ERR, "Resource manifest not available"));
+      }
+    });
+  }
+
+  /**
+   * Remove the cached resources missing in the manifest and queue the new or
+   * changed ones
+   */
+  public void synchronize(List<ResourceManifestEntry> manifest)
+  {
+    status.setResourceCount(manifest.size());
+    Set<String> manifestUrls = new HashSet<String>();
+    List<ResourceManifestEntry> downloads = new ArrayList<ResourceManifestEntry>();
+    for (ResourceManifestEntry entry : manifest)
+    {
+      manifestUrls.add(entry.getUrl());
+      Boolean versionCheck = storageManager.checkResourceVersion(new StorageResource(entry.getUrl(), entry.getVersion(), null));
+      if (versionCheck != null && versionCheck)
+      {
+        status.setUpToDateCount(status.getUpToDateCount() + 1);
+      } else
+      {
+        downloads.add(entry);
+      }
+    }
+    for (String key : storageManager.getStorageKeyIndex().getResourceKeys())
+    {
+      String url = StorageResource.getResourceUrl(key);
+      if (!manifestUrls.contains(url) && storageManager.removeCachedResource(url))
+      {
+        status.setRemovedCount(status.getRemovedCount() + 1);
+      }
+    }
+    status.setQueuedCount(downloads.size());
+    long totalBytes = 0;
+    for (ResourceManifestEntry entry : downloads)
+    {
+      if (entry.getSize() > 0) totalBytes += entry.getSize();
+    }
+    status.setTotalBytes(totalBytes);
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Synchronize resources " + status.toString());
+    if (downloads.isEmpty())
+    {
+      complete();
+      return;
+    }
+    for (ResourceManifestEntry entry : downloads)
+    {
+      enqueue(entry);
+    }
+  }
+
+  private void enqueue(final ResourceManifestEntry entry)
+  {
+    FileDownloadCallback downloadCallback = new FileDownloadCallback()
+    {
+      public void onSuccess(FileEntry result)
+      {
+        status.setDownloadedCount(status.getDownloadedCount() + 1);
+        if (entry.getSize() > 0) setLoadedBytes(entry, entry.getSize());
+        downloadCompleted();
+      }
+
+      public void onProgress(FileTransferProgressEvent progress)
+      {
+        setLoadedBytes(entry, progress.getLoadedBytes());
+        if (callback != null) callback.onProgress(status);
+      }
+
+      public void onFailure(FileTransferError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Resource synchronization failed for : " + entry.getUrl() + " code:" + error.getCode());
+        status.setFailedCount(status.getFailedCount() + 1);
+        downloadCompleted();
+      }
+    };
+    if (!storageManager.addResourceToCache(entry.getUrl(), entry.getVersion(), entry.getSize(), entry.getHash(), priority, downloadCallback))
+    {
+      status.setFailedCount(status.getFailedCount() + 1);
+      downloadCompleted();
+    }
+  }
+
+  private void setLoadedBytes(ResourceManifestEntry entry, long bytes)
+  {
+    Long previous = loadedBytes.put(entry.getUrl(), bytes);
+    status.setLoadedBytes(status.getLoadedBytes() + bytes - (previous != null ? previous : 0));
+  }
+
+  private void downloadCompleted()
+  {
+    if (callback != null) callback.onProgress(status);
+    if (status.isComplete()) complete();
+  }
+
+  private void complete()
+  {
+    if (completed) return;
+    completed = true;
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Resources synchronized " + status.toString());
+    if (callback != null) callback.onSuccess(status);
+  }
+
+  /**
+   * @return The entries of the manifest or null if the manifest is not valid,
+   *         entries without url are skipped
+   */
+  public static List<ResourceManifestEntry> parseManifest(JSONValue json)
+  {
+    if (json == null) return null;
+    JSONArray array = json.isArray();
+    if (array == null && json.isObject() != null && json.isObject().get("resources") != null)
+    {
+      array = json.isObject().get("resources").isArray();
+    }
+    if (array == null) return null;
+    List<ResourceManifestEntry> entries = new ArrayList<ResourceManifestEntry>();
+    for (int i = 0; i < array.size(); i++)
+    {
+      JSONObject object = array.get(i).isObject();
+      if (object == null) continue;
+      String url = getString(object, "url");
+      if (url == null || url.isEmpty()) continue;
+      JSONNumber version = object.get("version") != null ? object.get("version").isNumber() : null;
+      JSONNumber size = object.get("size") != null ? object.get("size").isNumber() : null;
+      entries.add(new ResourceManifestEntry(url, version != null ? Integer.valueOf((int) version.doubleValue()) : null, size != null ? (long) size.doubleValue() : -1, getString(object, "hash")));
+    }
+    return entries;
+  }
+
+  private static String getString(JSONObject object, String key)
+  {
+    JSONValue value = object.get(key);
+    if (value == null) return null;
+    JSONString string = value.isString();
+    return string != null ? string.stringValue() : null;
+  }
+
+}
@@ -0,0 +1,660 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.gbrain.gwtstorage.model.StorageResource;
+
+import com.google.gwt.core.client.Callback;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.storage.client.Storage;
+import com.googlecode.gwtphonegap.client.file.FileCallback;
+import com.googlecode.gwtphonegap.client.file.FileDownloadCallback;
+import com.googlecode.gwtphonegap.client.file.FileEntry;
+import com.googlecode.gwtphonegap.client.file.FileError;
+import com.googlecode.gwtphonegap.client.file.FileTransferError;
+import com.googlecode.gwtphonegap.client.file.FileWriter;
+
+/**
+ * Downloads a resource in chunks with HTTP Range requests into a partial file
+ * next to the cache file. After each chunk the progress is recorded in the
+ * LocalStorage, thus an interrupted download continues where it stopped the
+ * next time the resource is requested. The validator (ETag or Last-Modified)
+ * of the first response is sent with If-Range, if the resource changed in the
+ * meantime the server answers with the whole resource and the download starts
+ * over. Once complete, the partial file is handed over to be verified and
+ * moved into place. If the server doesn't support ranges, the fallback is
+ * invoked instead. The same happens if the first request fails without a
+ * status or the Content-Range header is not readable, as it is the case for a
+ * cross origin server without CORS headers. A download without a validator is
+ * never resumed in a later session, it could not detect a changed resource.
+ * <p>
+ * Once the first chunk confirmed the Range support, several chunks could be
+ * requested in parallel, they are written in order as they line up.
+ */
+public class ResumableResourceDownload
+{
+
+  private static String RECORDDELIMITER = "\n";
+
+  private Logger logger;
+  private StorageManager storageManager;
+  private StorageResource resource;
+  private String sourceUrl;
+  private String fileName;
+  private FileDownloadCallback callback;
+  private ScheduledCommand fallback;
+  private int chunkSize = 1024 * 1024;
+
+  private FileEntry partialEntry;
+  private FileWriter writer;
+  private double offset = 0;
+  private double total = -1;
+  private String validator = null;
+  private double requestOffset = 0;
+  private int parallelSegments = 1;
+  private int generation = 0;
+  private Map<Double, JavaScriptObject> requests = new HashMap<Double, JavaScriptObject>();
+  private Map<Double, Chunk> chunks = new HashMap<Double, Chunk>();
+  private boolean writing = false;
+  private boolean restartPending = false;
+  private boolean aborted = false;
+  private boolean rangeConfirmed = false;
+
+  /**
+   * A received chunk waiting to be written
+   */
+  private static class Chunk
+  {
+    private JavaScriptObject data;
+    private double length;
+
+    private Chunk(JavaScriptObject data, double length)
+    {
+      this.data = data;
+      this.length = length;
+    }
+  }
+
+  /**
+   * @param storageManager
+   * @param resource The resource to be downloaded
+   * @param sourceUrl The url to download from
+   * @param fileName The name of the cache file
+   * @param callback Is notified with the complete partial file
+   * @param fallback Is invoked instead if the download can't be run in
+   *          chunks
+   */
+  public ResumableResourceDownload(StorageManager storageManager, StorageResource resource, String sourceUrl, String fileName, FileDownloadCallback callback, ScheduledCommand fallback)
+  {
+    this.storageManager = storageManager;
+    this.logger = storageManager.getLogger();
+    this.resource = resource;
+    this.sourceUrl = sourceUrl;
+    this.fileName = fileName;
+    this.callback = callback;
+    this.fallback = fallback;
+  }
+
+  /**
+   * Define the number of bytes requested at once, default 1MB
+   */
+  public void setChunkSize(int chunkSize)
+  {
+    this.chunkSize = chunkSize;
+  }
+
+  public int getChunkSize()
+  {
+    return chunkSize;
+  }
+
+  /**
+   * Define the number of chunks requested at the same time once the server
+   * confirmed the Range support and the total length is known, default 1
+   */
+  public void setParallelSegments(int parallelSegments)
+  {
+    this.parallelSegments = Math.max(1, parallelSegments);
+  }
+
+  public int getParallelSegments()
+  {
+    return parallelSegments;
+  }
+
+  public void start()
+  {
+    storageManager.getLocalFileReference(storageManager.getCacheDirectory(), fileName + ResourceFileSupport.PARTIALFILESUFFIX, true, new FileCallback<FileEntry, StorageError>()
+    {
+      @Override
+      public void onSuccess(FileEntry entry)
+      {
+        partialEntry = entry;
+        entry.createWriter(new FileCallback<FileWriter, FileError>()
+        {
+          @Override
+          public void onSuccess(FileWriter result)
+          {
+            if (!ResourceFileSupport.isSupported(result))
+            {
+              runFallback();
+              return;
+            }
+            writer = result;
+            resume();
+          }
+
+          @Override
+          public void onFailure(FileError error)
+          {
+            fail(FileTransferError.FILE_NOT_FOUND_ERR, "Partial file writer not available : " + error.getErrorCode());
+          }
+        });
+      }
+
+      @Override
+      public void onFailure(StorageError error)
+      {
+        fail(FileTransferError.FILE_NOT_FOUND_ERR, "Partial file not available : " + error.getErrorCode());
+      }
+    });
+  }
+
+  /**
+   * Abort the download, the partial file is kept to be resumed later
+   */
+  public void abort()
+  {
+    aborted = true;
+    abortRequests();
+  }
+
+  /**
+   * Abort all running chunk requests and drop the chunks not written yet, the
+   * responses of aborted requests are ignored.
+   */
+  private void abortRequests()
+  {
+    generation++;
+    for (JavaScriptObject request : requests.values())
+    {
+      abortChunkRequest(request);
+    }
+    requests.clear();
+    chunks.clear();
+  }
+
+  /**
+   * Continue with the recorded progress if it matches the partial file, else
+   * start over.
+   */
+  protected void resume()
+  {
+    String[] record = readProgress();
+    double length = getPartialFileLength();
+    if (record != null && !record[1].isEmpty() && Double.parseDouble(record[2]) == length && length > 0)
+    { // without a validator the partial file might belong to another version
+      validator = record[1];
+      offset = Double.parseDouble(record[2]);
+      requestOffset = offset;
+      total = Double.parseDouble(record[3]);
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Resume download of " + resource.getResourceUrl() + " at " + (long) offset + " of " + (long) total);
+      requestChunks();
+      return;
+    }
+    restart();
+  }
+
+  /**
+   * Start over with an empty partial file. If a chunk is being appended right
+   * now, the truncate waits until the append finished, the writer handles one
+   * operation at a time.
+   */
+  private void restart()
+  {
+    abortRequests();
+    offset = 0;
+    requestOffset = 0;
+    total = -1;
+    validator = null;
+    clearProgress();
+    if (writing)
+    {
+      restartPending = true;
+      return;
+    }
+    truncate();
+  }
+
+  private void truncate()
+  {
+    restartPending = false;
+    if (getPartialFileLength() == 0)
+    {
+      requestChunks();
+      return;
+    }
+    truncatePartialFile(new Callback<Void, StorageError>()
+    {
+      public void onSuccess(Void result)
+      {
+        requestChunks();
+      }
+
+      public void onFailure(StorageError error)
+      {
+        fail(FileTransferError.FILE_NOT_FOUND_ERR, "Partial file not truncated : " + error.getErrorCode());
+      }
+    });
+  }
+
+  /**
+   * Start the next chunk requests. As long as the total length is unknown only
+   * one chunk is requested at once, afterwards up to the number of parallel
+   * segments. Chunks received ahead of the write position are kept in memory,
+   * they count against the segments as well.
+   */
+  private void requestChunks()
+  {
+    if (aborted) return;
+    while (requests.size() + chunks.size() < (total > 0 ? parallelSegments : 1))
+    {
+      if (total > 0 && requestOffset >= total) return;
+      if (total <= 0 && requestOffset > offset) return;
+      double start = requestOffset;
+      double end = start + chunkSize - 1;
+      if (total > 0) end = Math.min(end, total - 1);
+      requestOffset = end + 1;
+      requests.put(start, sendChunkRequest(generation, start, end, start > 0 ? validator : null));
+    }
+  }
+
+  /**
+   * Evaluate the response headers of a chunk request
+   * 
+   * @return false if the request must be aborted
+   */
+  protected boolean onResponseHeaders(int id, double start, int status, String contentRange, String etag, String lastModified)
+  {
+    if (id != generation) return false;
+    if (status == 206)
+    {
+      String responseValidator = etag != null && !etag.isEmpty() ? etag : lastModified;
+      if (start == 0)
+      {
+        if (contentRange == null || contentRange.isEmpty())
+        { // the headers are not exposed to us, eg. no CORS headers
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Content-Range not readable for " + resource.getResourceUrl());
+          abortRequests();
+          runFallback();
+          return false;
+        }
+        validator = responseValidator;
+        total = getContentRangeTotal(contentRange);
+      } else if (validator != null && responseValidator != null && !validator.equals(responseValidator))
+      {
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Resource changed, restart download of " + resource.getResourceUrl());
+        restart();
+        return false;
+      }
+      rangeConfirmed = true;
+      return true;
+    }
+    if (status == 200)
+    {
+      if (start > 0)
+      { // If-Range didn't match, the resource changed
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Resource changed, restart download of " + resource.getResourceUrl());
+        restart();
+      } else
+      {
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Range requests not supported for " + resource.getResourceUrl());
+        abortRequests();
+        runFallback();
+      }
+      return false;
+    }
+    if (status == 416 && start > 0 && start == offset)
+    { // the previous chunk ended exactly at the end of the resource
+      abortRequests();
+      complete();
+      return false;
+    }
+    return true;
+  }
+
+  protected void onChunkLoaded(int id, double start, JavaScriptObject data, double length)
+  {
+    if (id != generation) return;
+    requests.remove(start);
+    if (total > 0 && length != Math.min(chunkSize, total - start))
+    { // the chunks must line up to be written
+      abortRequests();
+      fail(FileTransferError.CONNECTION_ERR, "Unexpected chunk length " + (long) length + " at " + (long) start);
+      return;
+    }
+    chunks.put(start, new Chunk(data, length));
+    writeChunks();
+    requestChunks();
+  }
+
+  /**
+   * Append the chunk at the write position if already received, one chunk at a
+   * time.
+   */
+  private void writeChunks()
+  {
+    if (writing || restartPending || aborted) return;
+    final Chunk chunk = chunks.remove(offset);
+    if (chunk == null) return;
+    writing = true;
+    final int id = generation;
+    appendToPartialFile(chunk.data, new Callback<Void, StorageError>()
+    {
+      public void onSuccess(Void result)
+      {
+        writing = false;
+        if (aborted) return;
+        if (restartPending)
+        { // restarted meanwhile, the file can be truncated now
+          truncate();
+          return;
+        }
+        if (id != generation) return;
+        offset += chunk.length;
+        saveProgress();
+        if (callback != null) callback.onProgress(new ResourceDownloadProgress((long) getLoadedBytes(), (long) total));
+        if ((total > 0 && offset >= total) || (total <= 0 && chunk.length < chunkSize))
+        {
+          complete();
+        } else if (chunk.length == 0)
+        {
+          abortRequests();
+          fail(FileTransferError.CONNECTION_ERR, "Empty chunk received");
+        } else
+        {
+          writeChunks();
+          requestChunks();
+        }
+      }
+
+      public void onFailure(StorageError error)
+      {
+        writing = false;
+        if (aborted) return;
+        if (restartPending)
+        { // the chunk belonged to the content which is dropped anyway
+          truncate();
+          return;
+        }
+        abortRequests();
+        fail(FileTransferError.FILE_NOT_FOUND_ERR, "Chunk not written : " + error.getErrorCode());
+      }
+    });
+  }
+
+  /**
+   * @return The bytes written plus the bytes received ahead of the write
+   *         position
+   */
+  private double getLoadedBytes()
+  {
+    double loaded = offset;
+    for (Chunk chunk : chunks.values())
+    {
+      loaded += chunk.length;
+    }
+    return loaded;
+  }
+
+  protected void onRequestFailed(int id, double start, int status)
+  {
+    if (id != generation) return;
+    requests.remove(start);
+    abortRequests();
+    if (status == 404 || status == 410)
+    {
+      clearProgress();
+      fail(FileTransferError.FILE_NOT_FOUND_ERR, "Resource not found : " + status);
+      return;
+    }
+    if (status == 0 && !rangeConfirmed)
+    { // the request was refused before any range was served, eg. a cross
+      // origin server without CORS headers, the FileTransfer isn't affected
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Range request refused for " + resource.getResourceUrl());
+      runFallback();
+      return;
+    }
+    // keep the partial file to resume later
+    fail(FileTransferError.CONNECTION_ERR, "Download interrupted at " + (long) offset + " : " + status);
+  }
+
+  /**
+   * Hand over the complete partial file
+   */
+  private void complete()
+  {
+    clearProgress();
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Download complete " + resource.getResourceUrl() + " : " + (long) offset + " bytes");
+    if (callback != null) callback.onSuccess(partialEntry);
+  }
+
+  /**
+   * Remove the partial file and run the fallback, which downloads to the same
+   * partial file path, thus it is started only once the remove completed.
+   */
+  private void runFallback()
+  {
+    clearProgress();
+    if (partialEntry == null)
+    {
+      if (!aborted) fallback.execute();
+      return;
+    }
+    storageManager.forgetLocalFileReference(storageManager.getCacheDirectory(), fileName + ResourceFileSupport.PARTIALFILESUFFIX);
+    partialEntry.remove(new FileCallback<Boolean, FileError>()
+    {
+      @Override
+      public void onSuccess(Boolean result)
+      {
+        if (!aborted) fallback.execute();
+      }
+
+      @Override
+      public void onFailure(FileError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Partial file not removed " + resource.getResourceUrl() + " : " + error.getErrorCode());
+        if (!aborted) fallback.execute();
+      }
+    });
+  }
+
+  private void fail(int code, String reason)
+  {
+    if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Download failure " + resource.getResourceUrl() + " : " + reason);
+    if (!aborted && callback != null) callback.onFailure(new TransferError(code, reason));
+  }
+
+  /****************************************************************************************************************
+   * Progress record: version, validator, offset, total
+   ****************************************************************************************************************/
+
+  private String[] readProgress()
+  {
+    Storage storage = storageManager.getLocalStorage();
+    String value = storage != null ? storage.getItem(resource.getResourceDownloadKey()) : null;
+    String[] record = parseProgressRecord(value);
+    if (record == null) return null;
+    String version = resource.getVersion() != null ? resource.getVersion().toString() : "";
+    if (!version.equals(record[0])) return null;
+    return record;
+  }
+
+  private void saveProgress()
+  {
+    Storage storage = storageManager.getLocalStorage();
+    if (storage == null) return;
+    try
+    {
+      storage.setItem(resource.getResourceDownloadKey(), createProgressRecord(resource.getVersion(), validator, offset, total));
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Download progress not recorded " + resource.getResourceUrl(), ex);
+    }
+  }
+
+  private void clearProgress()
+  {
+    Storage storage = storageManager.getLocalStorage();
+    if (storage != null) storage.removeItem(resource.getResourceDownloadKey());
+  }
+
+  /**
+   * Build the stored progress record of a download
+   */
+  public static String createProgressRecord(Integer version, String validator, double offset, double total)
+  {
+    return (version != null ? version.toString() : "") + RECORDDELIMITER + (validator != null ? validator : "") + RECORDDELIMITER + (long) offset + RECORDDELIMITER + (long) total;
+  }
+
+  /**
+   * @return The version, validator, offset and total of the record or null if
+   *         the record is not valid
+   */
+  public static String[] parseProgressRecord(String value)
+  {
+    if (value == null) return null;
+    String[] record = value.split(RECORDDELIMITER, -1);
+    if (record.length != 4) return null;
+    try
+    {
+      Double.parseDouble(record[2]);
+      Double.parseDouble(record[3]);
+    } catch (NumberFormatException ex)
+    {
+      return null;
+    }
+    return record;
+  }
+
+  /**
+   * Evaluate the total length from a Content-Range header eg. "bytes
+   * 0-1023/4096"
+   * 
+   * @return The total length or -1 if unknown
+   */
+  public static double getContentRangeTotal(String contentRange)
+  {
+    if (contentRange == null) return -1;
+    int pos = contentRange.lastIndexOf('/');
+    if (pos < 0) return -1;
+    try
+    {
+      return Double.parseDouble(contentRange.substring(pos + 1).trim());
+    } catch (NumberFormatException ex)
+    {
+      return -1;
+    }
+  }
+
+  /****************************************************************************************************************
+   * Access to the network and the partial file, overridden by the tests
+   ****************************************************************************************************************/
+
+  /**
+   * Send the Range request of a chunk, the response is passed to
+   * onResponseHeaders and then onChunkLoaded or onRequestFailed.
+   * 
+   * @return The request to be aborted
+   */
+  protected JavaScriptObject sendChunkRequest(int id, double start, double end, String ifRange)
+  {
+    return nativeRequest(sourceUrl, id, start, end, ifRange);
+  }
+
+  protected void abortChunkRequest(JavaScriptObject request)
+  {
+    nativeAbort(request);
+  }
+
+  protected double getPartialFileLength()
+  {
+    return writer.getLength();
+  }
+
+  protected void appendToPartialFile(JavaScriptObject data, Callback<Void, StorageError> callback)
+  {
+    ResourceFileSupport.append(writer, data, callback);
+  }
+
+  protected void truncatePartialFile(Callback<Void, StorageError> callback)
+  {
+    ResourceFileSupport.truncate(writer, 0, callback);
+  }
+
+  private native JavaScriptObject nativeRequest(String url, int id, double start, double end, String ifRange)
+  /*-{
+		var self = this;
+		var xhr = new XMLHttpRequest();
+		xhr.open("GET", url, true);
+		xhr.responseType = "arraybuffer";
+		xhr.setRequestHeader("Range", "bytes=" + start + "-" + end);
+		if (ifRange) {
+			xhr.setRequestHeader("If-Range", ifRange);
+		}
+		var headersChecked = false;
+		xhr.onreadystatechange = $entry(function() {
+			if (xhr.readyState >= 2 && !headersChecked) {
+				headersChecked = true;
+				var proceed = self.@ch.gbrain.gwtstorage.manager.ResumableResourceDownload::onResponseHeaders(IDILjava/lang/String;Ljava/lang/String;Ljava/lang/String;)(id, start, xhr.status, xhr.getResponseHeader("Content-Range"), xhr.getResponseHeader("ETag"), xhr.getResponseHeader("Last-Modified"));
+				if (!proceed) {
+					xhr.abort();
+				}
+			}
+		});
+		xhr.onload = $entry(function() {
+			if (xhr.status == 206 && xhr.response) {
+				self.@ch.gbrain.gwtstorage.manager.ResumableResourceDownload::onChunkLoaded(IDLcom/google/gwt/core/client/JavaScriptObject;D)(id, start, xhr.response, xhr.response.byteLength);
+			} else {
+				self.@ch.gbrain.gwtstorage.manager.ResumableResourceDownload::onRequestFailed(IDI)(id, start, xhr.status);
+			}
+		});
+		xhr.onerror = $entry(function() {
+			self.@ch.gbrain.gwtstorage.manager.ResumableResourceDownload::onRequestFailed(IDI)(id, start, 0);
+		});
+		xhr.ontimeout = xhr.onerror;
+		xhr.send();
+		return xhr;
+  }-*/;
+
+  private static native void nativeAbort(JavaScriptObject request)
+  /*-{
+		request.abort();
+  }-*/;
+
+}
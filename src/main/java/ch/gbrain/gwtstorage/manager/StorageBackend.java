@@ -0,0 +1,102 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.gwt.core.client.Callback;
+
+/**
+ * A key/value store for the cached StorageItems. All operations are
+ * asynchronous, implementations might complete them immediately though. The
+ * callbacks of the write operations might be null if the caller doesn't care
+ * about the result.
+ */
+public interface StorageBackend
+{
+
+  /**
+   * Read the value stored under the key
+   * 
+   * @param key
+   * @param callback Receives the value or null if nothing is stored
+   */
+  void get(String key, Callback<String, StorageError> callback);
+
+  /**
+   * Read the values of several keys at once
+   * 
+   * @param keys
+   * @param callback Receives the values by key, keys without a value are
+   *          missing in the map
+   */
+  void getAll(List<String> keys, Callback<Map<String, String>, StorageError> callback);
+
+  /**
+   * Store the value under the key, replacing any former value
+   * 
+   * @param key
+   * @param value
+   * @param callback Is called once the value is stored or failed, might be
+   *          null
+   */
+  void put(String key, String value, Callback<Void, StorageError> callback);
+
+  /**
+   * Store several values at once, if supported by the implementation as one
+   * transaction.
+   * 
+   * @param values The values by key
+   * @param callback Is called once the values are stored or failed, might be
+   *          null
+   */
+  void putAll(Map<String, String> values, Callback<Void, StorageError> callback);
+
+  /**
+   * Remove the value stored under the key
+   * 
+   * @param key
+   * @param callback Is called once the value is removed or failed, might be
+   *          null
+   */
+  void delete(String key, Callback<Void, StorageError> callback);
+
+  /**
+   * Remove the values of several keys at once
+   * 
+   * @param keys
+   * @param callback Is called once the values are removed or failed, might be
+   *          null
+   */
+  void deleteAll(List<String> keys, Callback<Void, StorageError> callback);
+
+  /**
+   * Visit all entries whose key starts with the given prefix
+   * 
+   * @param prefix The key prefix, all entries are visited if empty
+   * @param visitor Is called for each entry until it returns false
+   * @param callback Is called once the iteration completed or failed
+   */
+  void iterate(String prefix, StorageBackendVisitor visitor, Callback<Void, StorageError> callback);
+
+}
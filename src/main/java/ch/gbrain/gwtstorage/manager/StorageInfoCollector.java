@@ -62,6 +62,7 @@ public class StorageInfoCollector implements Command
   private Logger logger;
   private PhoneGap phonegap;
   private Storage storage;
+  private long traceHandle = -1;
 
   /**
    * 
@@ -92,43 +93,45 @@ public class StorageInfoCollector implements Command
     String versionKey = StorageResource.getResourceVersionKey(storageKey);
     version = storage.getItem(versionKey);
     fileUrl = storage.getItem(storageKey);
+    traceHandle = storageManager.getStorageTrace().begin(StorageTrace.OP_STORAGEINFO, storageKey, StorageStatistics.TIER_FILE);
     // now resolve the file asynch
     phonegap.getFile().resolveLocalFileSystemURI(fileUrl, new FileCallback<EntryBase, FileError>()
     {
       @Override
       public void onSuccess(EntryBase entry)
       {
-        if (logger!=null)logger.log(Level.INFO, logBaseInfo() + "ResolveLocalFileSystemUri success");
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, logBaseInfo() + "ResolveLocalFileSystemUri success");
         fileEntry = entry.getAsFileEntry();
         fileEntry.getFile(new FileCallback<FileObject, FileError>()
         {
           @Override
           public void onSuccess(FileObject entry)
           {
-            if (logger!=null)logger.log(Level.INFO, logBaseInfo() + "FileEntry located : " + entry.getFullPath() + " name:" + entry.getName());
+            if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, logBaseInfo() + "FileEntry located : " + entry.getFullPath() + " name:" + entry.getName());
             fileName = entry.getName();
             filePath = entry.getFullPath();
             fileSize = entry.size();
+            storageManager.updateCachedResourceSize(storageKey, fileSize);
             try
             { // might throw an exception (unknown method in Phonegap .....
               // lastModificationDate = entry.getLastModifiedDate(); -> take
               // it from Metadata instead
             } catch (Exception ex)
             {
-              if (logger!=null)logger.log(Level.FINEST, logBaseInfo() + "Failure in File Modification Date evaluation", ex);
+              if (StorageLogging.isLoggable(logger, Level.FINEST)) logger.log(Level.FINEST, logBaseInfo() + "Failure in File Modification Date evaluation", ex);
             }
             fileEntry.getMetadata(new FileCallback<Metadata, FileError>()
             {
               @Override
               public void onSuccess(Metadata metadata)
               {
-                if (logger!=null)logger.log(Level.INFO, logBaseInfo() + "Successful FileMetadata located");
+                if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, logBaseInfo() + "Successful FileMetadata located");
                 try
                 {
                   lastModificationDate = metadata.getModificationTime();
                 } catch (Exception ex)
                 {
-                  if (logger!=null)logger.log(Level.FINEST, logBaseInfo() + "Failure in Metadata Modification Date evaluation", ex);
+                  if (StorageLogging.isLoggable(logger, Level.FINEST)) logger.log(Level.FINEST, logBaseInfo() + "Failure in Metadata Modification Date evaluation", ex);
                 }
                 invokeSuccessCallback();
               }
@@ -136,7 +139,7 @@ public class StorageInfoCollector implements Command
               @Override
               public void onFailure(FileError error)
               {
-                if (logger!=null)logger.log(Level.WARNING, logBaseInfo() + "Failure cache FileEntry Metadata retrieval with error : " + error.toString());
+                if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, logBaseInfo() + "Failure cache FileEntry Metadata retrieval with error : " + error.toString());
                 // anyhow signal success even if we don't have the Metadata, but we have the FileObject data already
                 invokeSuccessCallback();
               }
@@ -146,7 +149,8 @@ public class StorageInfoCollector implements Command
           @Override
           public void onFailure(FileError error)
           {
-            if (logger!=null)logger.log(Level.SEVERE, logBaseInfo() + "Failure cache FileEntry info retrieval with error : " + error.toString());
+            if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, logBaseInfo() + "Failure cache FileEntry info retrieval with error : " + error.toString());
+            storageManager.getStorageTrace().end(traceHandle, false, error.getErrorCode());
             callback.onFailure(error);
           }
         });
@@ -155,7 +159,8 @@ public class StorageInfoCollector implements Command
       @Override
       public void onFailure(FileError error)
       {
-        if (logger!=null)logger.log(Level.WARNING, logBaseInfo() + "Unable to locate cache File information with error : " + error.getErrorCode());
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, logBaseInfo() + "Unable to locate cache File information with error : " + error.getErrorCode());
+        storageManager.getStorageTrace().end(traceHandle, false, error.getErrorCode());
         if (callback != null)
         {
           callback.onFailure(error);
@@ -174,6 +179,7 @@ public class StorageInfoCollector implements Command
     info.setLastModificationDate(lastModificationDate);
     info.setStorageKey(storageKey);
     info.setVersion(version);
+    storageManager.getStorageTrace().end(traceHandle, true, 0);
     callback.onSuccess(info);
   }
 
@@ -0,0 +1,272 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.gbrain.gwtstorage.model.StorageItem;
+
+import com.google.gwt.core.client.Callback;
+import com.google.gwt.json.client.JSONArray;
+import com.google.gwt.json.client.JSONNull;
+import com.google.gwt.json.client.JSONString;
+import com.google.gwt.json.client.JSONValue;
+import com.googlecode.gwtphonegap.client.file.FileError;
+
+/**
+ * Reads a list of StorageItems with as few requests as possible. Items which
+ * are valid in the cache are taken from there, with a StorageBackend set by
+ * one read of the backend. The others are requested at
+ * once from the bundle endpoint of the storage. The endpoint receives a JSON
+ * array with the json file names of the items and must answer with a JSON
+ * array of the items in the same order, null for unknown items. If the bundle
+ * endpoint is not configured or fails, the items are read one by one with a
+ * bounded number of parallel requests. The batch fails as a whole if any item
+ * could not be read, the items read are filled in and cached nevertheless.
+ */
+public class StorageItemBatchReader
+{
+  private Logger logger;
+  private StorageManager storageManager;
+  private List<? extends StorageItem> items;
+  private boolean useCache;
+  private int expectedVersion;
+  private int validTime;
+  private Callback<List<StorageItem>, StorageError> callback;
+
+  private LinkedList<StorageItem> singleReadQueue = new LinkedList<StorageItem>();
+  private int openReads = 0;
+  private int failedReads = 0;
+  private StorageError lastError = null;
+  private boolean completed = false;
+
+  public StorageItemBatchReader(StorageManager storageManager, List<? extends StorageItem> items, boolean useCache, int expectedVersion, int validTime, Callback<List<StorageItem>, StorageError> callback)
+  {
+    this.storageManager = storageManager;
+    this.logger = storageManager.getLogger();
+    this.items = items;
+    this.useCache = useCache;
+    this.expectedVersion = expectedVersion;
+    this.validTime = validTime;
+    this.callback = callback;
+  }
+
+  public void execute()
+  {
+    try
+    {
+      final List<StorageItem> requestedItems = new ArrayList<StorageItem>();
+      for (StorageItem item : items)
+      {
+        if (item != null) requestedItems.add(item);
+      }
+      if (!useCache || !storageManager.getCacheEnabled())
+      {
+        readMissingItems(requestedItems);
+      } else if (storageManager.getStorageBackend() != null)
+      { // the items are kept in the backend, read them with one access
+        storageManager.readStorageItemsFromBackend(requestedItems, expectedVersion, validTime, new Callback<List<StorageItem>, StorageError>()
+        {
+          public void onSuccess(List<StorageItem> missingItems)
+          {
+            readMissingItems(missingItems);
+          }
+
+          public void onFailure(StorageError error)
+          {
+            readMissingItems(requestedItems);
+          }
+        });
+      } else
+      {
+        List<StorageItem> missingItems = new ArrayList<StorageItem>();
+        for (StorageItem item : requestedItems)
+        {
+          if (!storageManager.readStorageItemFromLocalStorage(item, expectedVersion, validTime))
+          {
+            missingItems.add(item);
+          }
+        }
+        readMissingItems(missingItems);
+      }
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception readStorageItems", ex);
+      if (callback != null)
+      {
+        callback.onFailure(new StorageError(FileError.ABORT_ERR));
+      }
+    }
+  }
+
+  /**
+   * Read the items which were not found valid in the cache from the
+   * application
+   */
+  private void readMissingItems(List<StorageItem> missingItems)
+  {
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "readStorageItems total:" + items.size() + " missing:" + missingItems.size());
+    if (missingItems.isEmpty())
+    {
+      complete();
+      return;
+    }
+    String bundleUrl = storageManager.getStorageBundleUrl();
+    if (bundleUrl == null)
+    {
+      readSingleItems(missingItems);
+    } else
+    {
+      readBundle(bundleUrl, missingItems);
+    }
+  }
+
+  /**
+   * Request all given items with one call from the bundle endpoint
+   */
+  private void readBundle(String bundleUrl, final List<StorageItem> bundleItems)
+  {
+    JSONArray request = new JSONArray();
+    for (int i = 0; i < bundleItems.size(); i++)
+    {
+      request.set(i, new JSONString(bundleItems.get(i).getJsonFileName()));
+    }
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Read bundle from url:" + bundleUrl + " items:" + bundleItems.size());
+    storageManager.requestStorageItemBundle(bundleUrl, request, new Callback<JSONValue, StorageError>()
+    {
+      public void onSuccess(JSONValue response)
+      {
+        JSONArray result = response != null ? response.isArray() : null;
+        if (result == null)
+        {
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Invalid bundle response, read items single");
+          readSingleItems(bundleItems);
+          return;
+        }
+        List<StorageItem> notFoundItems = new ArrayList<StorageItem>();
+        for (int i = 0; i < bundleItems.size(); i++)
+        {
+          StorageItem item = bundleItems.get(i);
+          JSONValue value = i < result.size() ? result.get(i) : null;
+          if (value == null || value instanceof JSONNull)
+          {
+            notFoundItems.add(item);
+            continue;
+          }
+          try
+          {
+            item.fromJson(value);
+            storageManager.storeStorageItem(item, null);
+          } catch (Exception ex)
+          {
+            if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure decoding bundle item" + item.getLogId(), ex);
+            notFoundItems.add(item);
+          }
+        }
+        if (notFoundItems.isEmpty())
+        {
+          complete();
+        } else
+        {
+          readSingleItems(notFoundItems);
+        }
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure bundle read, read items single : " + error.getErrorReason());
+        readSingleItems(bundleItems);
+      }
+    });
+  }
+
+  /**
+   * Read the given items one by one with a limited number of parallel requests
+   */
+  private void readSingleItems(List<StorageItem> singleItems)
+  {
+    singleReadQueue.addAll(singleItems);
+    startSingleReads();
+  }
+
+  private void startSingleReads()
+  {
+    int parallelism = Math.max(1, storageManager.getStorageItemReadParallelism());
+    while (openReads < parallelism && !singleReadQueue.isEmpty())
+    {
+      final StorageItem item = singleReadQueue.removeFirst();
+      openReads++;
+      storageManager.readStorageItemFromApplication(item, null, new Callback<StorageItem, StorageError>()
+      {
+        public void onSuccess(StorageItem result)
+        {
+          singleReadCompleted();
+        }
+
+        public void onFailure(StorageError error)
+        {
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure readStorageItems single read" + item.getLogId());
+          failedReads++;
+          lastError = error;
+          singleReadCompleted();
+        }
+      });
+    }
+    if (openReads == 0 && singleReadQueue.isEmpty())
+    {
+      complete();
+    }
+  }
+
+  private void singleReadCompleted()
+  {
+    openReads--;
+    startSingleReads();
+  }
+
+  private void complete()
+  {
+    if (completed) return;
+    completed = true;
+    if (callback == null) return;
+    if (failedReads > 0)
+    {
+      String reason = failedReads + " of " + items.size() + " StorageItems could not be read";
+      if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "readStorageItems " + reason);
+      callback.onFailure(new StorageError(lastError != null ? lastError.getErrorCode() : FileError.NOT_FOUND_ERR, reason));
+    } else
+    {
+      // the null entries of the given list are skipped and not read
+      List<StorageItem> readItems = new ArrayList<StorageItem>(items.size());
+      for (StorageItem item : items)
+      {
+        if (item != null) readItems.add(item);
+      }
+      callback.onSuccess(readItems);
+    }
+  }
+
+}
@@ -0,0 +1,137 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gwt.json.client.JSONValue;
+
+/**
+ * A bounded in memory LRU cache of already parsed StorageItems. It sits in
+ * front of the LocalStorage and allows to answer the version and cache time
+ * checks of repeatedly read items without reading and parsing the JSON string
+ * again.
+ */
+public class StorageItemCache
+{
+
+  private int maxSize;
+
+  private LinkedHashMap<String, StorageItemCacheEntry> entries = new LinkedHashMap<String, StorageItemCacheEntry>(16, 0.75f, true)
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, StorageItemCacheEntry> eldest)
+    {
+      return size() > maxSize;
+    }
+  };
+
+  /**
+   * @param maxSize The maximum number of items kept in memory, 0 disables the
+   *          cache.
+   */
+  public StorageItemCache(int maxSize)
+  {
+    this.maxSize = maxSize;
+  }
+
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  /**
+   * Change the maximum number of items, the least recently used ones are
+   * dropped if there are more items cached already.
+   * 
+   * @param maxSize The maximum number of items kept in memory, 0 disables the
+   *          cache.
+   */
+  public void setMaxSize(int maxSize)
+  {
+    this.maxSize = Math.max(0, maxSize);
+    while (entries.size() > this.maxSize)
+    {
+      entries.remove(entries.keySet().iterator().next());
+    }
+  }
+
+  public boolean isEnabled()
+  {
+    return maxSize > 0;
+  }
+
+  /**
+   * Retrieve the cached entry and mark it as recently used.
+   * 
+   * @param key The StorageItemIdKey
+   * @return The entry or null if not cached
+   */
+  public StorageItemCacheEntry get(String key)
+  {
+    if (key == null) return null;
+    return entries.get(key);
+  }
+
+  /**
+   * Add or replace the entry for the given key.
+   * 
+   * @return The new entry, null if the cache is disabled
+   */
+  public StorageItemCacheEntry put(String key, JSONValue json, String payload, int version, long storeTime)
+  {
+    if (key == null || !isEnabled()) return null;
+    return put(new StorageItemCacheEntry(key, json, payload, version, storeTime));
+  }
+
+  /**
+   * Add or replace the given entry
+   * 
+   * @return The entry, null if the cache is disabled
+   */
+  public StorageItemCacheEntry put(StorageItemCacheEntry entry)
+  {
+    if (entry == null || entry.getKey() == null || !isEnabled()) return null;
+    entries.put(entry.getKey(), entry);
+    return entry;
+  }
+
+  public void remove(String key)
+  {
+    if (key == null) return;
+    entries.remove(key);
+  }
+
+  public void clear()
+  {
+    entries.clear();
+  }
+
+  public int size()
+  {
+    return entries.size();
+  }
+
+}
@@ -0,0 +1,135 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.gwt.json.client.JSONParser;
+import com.google.gwt.json.client.JSONValue;
+
+/**
+ * Holds one StorageItem within the in memory StorageItemCache together with
+ * the informations needed to evaluate the version and the cache time without
+ * accessing the LocalStorage again. The JSON payload is decompressed and
+ * parsed on the first request only, thus entries which fail the version or
+ * time check are never parsed.
+ */
+public class StorageItemCacheEntry
+{
+
+  private String key;
+  private JSONValue json;
+  private String payload;
+  private int version;
+  private long storeTime;
+
+  /**
+   * @param key The StorageItemIdKey of the cached item
+   * @param json The already parsed json value of the item or null if not
+   *          parsed yet
+   * @param payload The json string of the item, might be compressed by the
+   *          StorageItemCompressor or null if the json value is given
+   * @param version The version of the item as it was stored
+   * @param storeTime The time in millis when the item was stored, <=0 if
+   *          unknown
+   */
+  public StorageItemCacheEntry(String key, JSONValue json, String payload, int version, long storeTime)
+  {
+    this.key = key;
+    this.json = json;
+    this.payload = payload;
+    this.version = version;
+    this.storeTime = storeTime;
+  }
+
+  public String getKey()
+  {
+    return key;
+  }
+
+  /**
+   * @return The json value of the item, parsed from the payload on the first
+   *         call
+   */
+  public JSONValue getJson()
+  {
+    if (json == null && payload != null)
+    {
+      json = JSONParser.parseStrict(getPayload());
+    }
+    return json;
+  }
+
+  /**
+   * @return The json string of the item
+   */
+  public String getPayload()
+  {
+    if (payload == null && json != null)
+    {
+      payload = json.toString();
+    } else if (StorageItemCompressor.isCompressed(payload))
+    {
+      payload = StorageItemCompressor.decode(payload);
+    }
+    return payload;
+  }
+
+  public int getVersion()
+  {
+    return version;
+  }
+
+  public long getStoreTime()
+  {
+    return storeTime;
+  }
+
+  public void setStoreTime(long storeTime)
+  {
+    this.storeTime = storeTime;
+  }
+
+  /**
+   * Check if the cached item version is at least the expected one.
+   * 
+   * @param expectedVersion The minimum item version, not checked if <=0
+   * @return true if the version is ok
+   */
+  public boolean isVersionValid(int expectedVersion)
+  {
+    if (expectedVersion <= 0) return true;
+    return version >= expectedVersion;
+  }
+
+  /**
+   * Check if the cache time of the item is not elapsed yet.
+   * 
+   * @param cacheTime The maximum age in seconds, not checked if <=0
+   * @param now The current time in millis
+   * @return true if the item is still valid or the store time is unknown
+   */
+  public boolean isTimeValid(int cacheTime, long now)
+  {
+    if (cacheTime <= 0 || storeTime <= 0) return true;
+    return now - (cacheTime * 1000L) <= storeTime;
+  }
+
+}
@@ -0,0 +1,342 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compresses the payload of cached StorageItems with an LZ based algorithm
+ * (compatible with the compressToUTF16 format of lz-string). The compressed
+ * data uses 15 bits per character shifted into a range without surrogates, so
+ * it stays a valid string for the LocalStorage. Compressed values are marked
+ * with a prefix which could never start a JSON value, thus uncompressed values
+ * are recognized and read as they are.
+ */
+public class StorageItemCompressor
+{
+
+  private static String COMPRESSEDPREFIX = "~";
+  private static int BITSPERCHAR = 15;
+  private static int CHAROFFSET = 32;
+
+  /**
+   * @return true if the value was compressed by encode
+   */
+  public static boolean isCompressed(String value)
+  {
+    return value != null && value.startsWith(COMPRESSEDPREFIX);
+  }
+
+  /**
+   * Compress the value and mark it as compressed
+   * 
+   * @param value The value to be compressed
+   * @return The marked compressed value
+   */
+  public static String encode(String value)
+  {
+    return COMPRESSEDPREFIX + compress(value);
+  }
+
+  /**
+   * Decompress the value if it is marked as compressed
+   * 
+   * @param value The stored value
+   * @return The original value, or the given value if it is not compressed
+   */
+  public static String decode(String value)
+  {
+    if (!isCompressed(value)) return value;
+    return decompress(value.substring(COMPRESSEDPREFIX.length()));
+  }
+
+  /**
+   * Compress the given string to the UTF-16 safe representation
+   */
+  public static String compress(String uncompressed)
+  {
+    if (uncompressed == null) return "";
+    BitWriter out = new BitWriter();
+    Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    Set<String> dictionaryToCreate = new HashSet<String>();
+    String w = "";
+    int enlargeIn = 2;
+    int dictSize = 3;
+    int numBits = 2;
+    for (int i = 0; i < uncompressed.length(); i++)
+    {
+      String c = String.valueOf(uncompressed.charAt(i));
+      if (!dictionary.containsKey(c))
+      {
+        dictionary.put(c, dictSize++);
+        dictionaryToCreate.add(c);
+      }
+      String wc = w + c;
+      if (dictionary.containsKey(wc))
+      {
+        w = wc;
+        continue;
+      }
+      if (dictionaryToCreate.remove(w))
+      {
+        writeLiteral(out, w.charAt(0), numBits);
+        enlargeIn--;
+        if (enlargeIn == 0)
+        {
+          enlargeIn = 1 << numBits;
+          numBits++;
+        }
+      } else
+      {
+        out.write(dictionary.get(w), numBits);
+      }
+      enlargeIn--;
+      if (enlargeIn == 0)
+      {
+        enlargeIn = 1 << numBits;
+        numBits++;
+      }
+      dictionary.put(wc, dictSize++);
+      w = c;
+    }
+    if (!w.isEmpty())
+    {
+      if (dictionaryToCreate.remove(w))
+      {
+        writeLiteral(out, w.charAt(0), numBits);
+        enlargeIn--;
+        if (enlargeIn == 0)
+        {
+          enlargeIn = 1 << numBits;
+          numBits++;
+        }
+      } else
+      {
+        out.write(dictionary.get(w), numBits);
+      }
+      enlargeIn--;
+      if (enlargeIn == 0)
+      {
+        numBits++;
+      }
+    }
+    // mark the end of the stream
+    out.write(2, numBits);
+    return out.finish() + " ";
+  }
+
+  /**
+   * Write a character not yet in the dictionary, 8 bit characters are marked
+   * with 0, 16 bit ones with 1.
+   */
+  private static void writeLiteral(BitWriter out, char literal, int numBits)
+  {
+    if (literal < 256)
+    {
+      out.write(0, numBits);
+      out.write(literal, 8);
+    } else
+    {
+      out.write(1, numBits);
+      out.write(literal, 16);
+    }
+  }
+
+  /**
+   * Decompress a string created by compress
+   * 
+   * @return The original string or null if the data is corrupt
+   */
+  public static String decompress(String compressed)
+  {
+    if (compressed == null) return "";
+    if (compressed.isEmpty()) return null;
+    BitReader in = new BitReader(compressed);
+    List<String> dictionary = new ArrayList<String>();
+    for (int i = 0; i < 3; i++)
+    {
+      dictionary.add(null);
+    }
+    int enlargeIn = 4;
+    int numBits = 3;
+    String c;
+    switch (in.read(2))
+    {
+      case 0:
+        c = String.valueOf((char) in.read(8));
+        break;
+      case 1:
+        c = String.valueOf((char) in.read(16));
+        break;
+      case 2:
+        return "";
+      default:
+        return null;
+    }
+    dictionary.add(c);
+    String w = c;
+    StringBuilder result = new StringBuilder(c);
+    while (true)
+    {
+      if (in.isExhausted()) return null;
+      int code = in.read(numBits);
+      switch (code)
+      {
+        case 0:
+          dictionary.add(String.valueOf((char) in.read(8)));
+          code = dictionary.size() - 1;
+          enlargeIn--;
+          break;
+        case 1:
+          dictionary.add(String.valueOf((char) in.read(16)));
+          code = dictionary.size() - 1;
+          enlargeIn--;
+          break;
+        case 2:
+          return result.toString();
+      }
+      if (enlargeIn == 0)
+      {
+        enlargeIn = 1 << numBits;
+        numBits++;
+      }
+      String entry;
+      if (code < dictionary.size() && dictionary.get(code) != null)
+      {
+        entry = dictionary.get(code);
+      } else if (code == dictionary.size())
+      {
+        entry = w + w.charAt(0);
+      } else
+      {
+        return null;
+      }
+      result.append(entry);
+      dictionary.add(w + entry.charAt(0));
+      enlargeIn--;
+      w = entry;
+      if (enlargeIn == 0)
+      {
+        enlargeIn = 1 << numBits;
+        numBits++;
+      }
+    }
+  }
+
+  /**
+   * Collects the bits, least significant first per value, into characters of
+   * 15 bits each.
+   */
+  private static class BitWriter
+  {
+    private StringBuilder data = new StringBuilder();
+    private int value = 0;
+    private int position = 0;
+
+    void write(int bits, int numBits)
+    {
+      for (int i = 0; i < numBits; i++)
+      {
+        value = (value << 1) | (bits & 1);
+        bits >>= 1;
+        if (position == BITSPERCHAR - 1)
+        {
+          position = 0;
+          data.append((char) (value + CHAROFFSET));
+          value = 0;
+        } else
+        {
+          position++;
+        }
+      }
+    }
+
+    String finish()
+    {
+      while (true)
+      {
+        value = value << 1;
+        if (position == BITSPERCHAR - 1)
+        {
+          data.append((char) (value + CHAROFFSET));
+          break;
+        }
+        position++;
+      }
+      return data.toString();
+    }
+  }
+
+  /**
+   * Reads back the bits written by the BitWriter
+   */
+  private static class BitReader
+  {
+    private static int RESETVALUE = 1 << (BITSPERCHAR - 1);
+    private String data;
+    private int value;
+    private int position = RESETVALUE;
+    private int index = 1;
+
+    BitReader(String data)
+    {
+      this.data = data;
+      this.value = next(0);
+    }
+
+    private int next(int i)
+    {
+      return i < data.length() ? data.charAt(i) - CHAROFFSET : 0;
+    }
+
+    boolean isExhausted()
+    {
+      return index > data.length();
+    }
+
+    int read(int numBits)
+    {
+      int bits = 0;
+      int maxPower = 1 << numBits;
+      int power = 1;
+      while (power != maxPower)
+      {
+        int bit = value & position;
+        position >>= 1;
+        if (position == 0)
+        {
+          position = RESETVALUE;
+          value = next(index++);
+        }
+        if (bit > 0) bits |= power;
+        power <<= 1;
+      }
+      return bits;
+    }
+  }
+
+}
@@ -0,0 +1,129 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The single record format a StorageItem is stored with in the LocalStorage.
+ * A short header holding the store time in epoch millis and the item version
+ * is followed by the payload (the JSON of the item):
+ * 
+ * <pre>
+ * #1:&lt;storeTime&gt;:&lt;version&gt;:&lt;payload&gt;
+ * </pre>
+ * 
+ * The header could be evaluated without touching the payload, thus version
+ * and cache time checks are possible without parsing the JSON. Values not
+ * starting with the prefix are items stored in the former format with a
+ * separate time key.
+ */
+public class StorageItemEnvelope
+{
+
+  private static String ENVELOPEPREFIX = "#1:";
+  private static char HEADERDELIMITER = ':';
+
+  private String value;
+  private long storeTime;
+  private int version;
+  private int payloadOffset;
+
+  private StorageItemEnvelope(String value, long storeTime, int version, int payloadOffset)
+  {
+    this.value = value;
+    this.storeTime = storeTime;
+    this.version = version;
+    this.payloadOffset = payloadOffset;
+  }
+
+  /**
+   * Build the stored value for the given item data
+   * 
+   * @param storeTime The store time in millis
+   * @param version The version of the item
+   * @param payload The JSON string of the item
+   * @return The value to be stored
+   */
+  public static String wrap(long storeTime, int version, String payload)
+  {
+    return ENVELOPEPREFIX + storeTime + HEADERDELIMITER + version + HEADERDELIMITER + payload;
+  }
+
+  /**
+   * @return true if the stored value is in the envelope format
+   */
+  public static boolean isEnvelope(String value)
+  {
+    return value != null && value.startsWith(ENVELOPEPREFIX);
+  }
+
+  /**
+   * Evaluate the header of the stored value, the payload is not touched.
+   * 
+   * @param value The stored value
+   * @return The envelope or null if the value is not in the envelope format or
+   *         the header is corrupt
+   */
+  public static StorageItemEnvelope parse(String value)
+  {
+    if (!isEnvelope(value)) return null;
+    try
+    {
+      int timeEnd = value.indexOf(HEADERDELIMITER, ENVELOPEPREFIX.length());
+      if (timeEnd < 0) return null;
+      int versionEnd = value.indexOf(HEADERDELIMITER, timeEnd + 1);
+      if (versionEnd < 0) return null;
+      long storeTime = Long.parseLong(value.substring(ENVELOPEPREFIX.length(), timeEnd));
+      int version = Integer.parseInt(value.substring(timeEnd + 1, versionEnd));
+      return new StorageItemEnvelope(value, storeTime, version, versionEnd + 1);
+    } catch (NumberFormatException ex)
+    {
+      return null;
+    }
+  }
+
+  public long getStoreTime()
+  {
+    return storeTime;
+  }
+
+  public int getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * @return The payload, extracted from the stored value on request
+   */
+  public String getPayload()
+  {
+    return value.substring(payloadOffset);
+  }
+
+  /**
+   * @return The stored value with the same payload but a new store time
+   */
+  public String withStoreTime(long newStoreTime)
+  {
+    return wrap(newStoreTime, version, getPayload());
+  }
+
+}
@@ -0,0 +1,175 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Holds the HTTP cache validators (ETag / Last-Modified) of a StorageItem for
+ * one url request. The validators of the locally cached copy are sent as
+ * conditional request headers, the ones of the response replace them. If the
+ * server answers with 304 Not Modified the cached entry is still valid and
+ * only its store time must be refreshed.
+ */
+public class StorageItemValidators
+{
+
+  private static String VALIDATORDELIMITER = "\n";
+
+  private String etag;
+  private String lastModified;
+  private StorageItemCacheEntry cachedEntry;
+  private boolean notModified = false;
+  private boolean responseReceived = false;
+  private String responseEtag;
+  private String responseLastModified;
+
+  public StorageItemValidators()
+  {
+  }
+
+  /**
+   * @param etag The ETag of the cached copy or null
+   * @param lastModified The Last-Modified value of the cached copy or null
+   * @param cachedEntry The cached copy which is revalidated, null if there is
+   *          nothing to revalidate
+   */
+  public StorageItemValidators(String etag, String lastModified, StorageItemCacheEntry cachedEntry)
+  {
+    this.etag = etag;
+    this.lastModified = lastModified;
+    this.cachedEntry = cachedEntry;
+  }
+
+  public String getEtag()
+  {
+    return etag;
+  }
+
+  public void setEtag(String etag)
+  {
+    this.etag = etag;
+  }
+
+  public String getLastModified()
+  {
+    return lastModified;
+  }
+
+  public void setLastModified(String lastModified)
+  {
+    this.lastModified = lastModified;
+  }
+
+  public StorageItemCacheEntry getCachedEntry()
+  {
+    return cachedEntry;
+  }
+
+  /**
+   * @return true if a cached copy exists which could be revalidated by a
+   *         conditional request
+   */
+  public boolean isRevalidation()
+  {
+    return cachedEntry != null && !isEmpty();
+  }
+
+  public boolean isEmpty()
+  {
+    return (etag == null || etag.isEmpty()) && (lastModified == null || lastModified.isEmpty());
+  }
+
+  public boolean isNotModified()
+  {
+    return notModified;
+  }
+
+  public void setNotModified(boolean notModified)
+  {
+    this.notModified = notModified;
+  }
+
+  /**
+   * Take over the answer of the server. A 304 Not Modified answer to a
+   * conditional request marks the cached copy as still valid. The validators
+   * of any other answer are kept aside until the received item is stored, see
+   * commitResponse, thus they never describe content the cache doesn't hold.
+   *
+   * @param statusCode The HTTP status code of the response
+   * @param etag The ETag header of the response or null
+   * @param lastModified The Last-Modified header of the response or null
+   * @return true if the cached copy is not modified and the response has no
+   *         body to be read
+   */
+  public boolean applyResponse(int statusCode, String etag, String lastModified)
+  {
+    if (statusCode == 304 && isRevalidation())
+    {
+      notModified = true;
+      return true;
+    }
+    notModified = false;
+    responseReceived = true;
+    responseEtag = etag;
+    responseLastModified = lastModified;
+    return false;
+  }
+
+  /**
+   * Replace the validators with the ones of the last response, to be called
+   * once the item received with it is stored.
+   */
+  public void commitResponse()
+  {
+    if (!responseReceived) return;
+    etag = responseEtag;
+    lastModified = responseLastModified;
+    responseReceived = false;
+    responseEtag = null;
+    responseLastModified = null;
+  }
+
+  /**
+   * Convert the validators to the value stored in the key-value storage
+   */
+  public String toStorageValue()
+  {
+    return (etag != null ? etag : "") + VALIDATORDELIMITER + (lastModified != null ? lastModified : "");
+  }
+
+  /**
+   * Create the validators from a value stored in the key-value storage
+   * 
+   * @param value The stored value, might be null
+   * @param cachedEntry The cached copy the validators belong to
+   * @return The validators, empty ones if nothing was stored
+   */
+  public static StorageItemValidators fromStorageValue(String value, StorageItemCacheEntry cachedEntry)
+  {
+    if (value == null) return new StorageItemValidators(null, null, cachedEntry);
+    int pos = value.indexOf(VALIDATORDELIMITER);
+    if (pos < 0) return new StorageItemValidators(value, null, cachedEntry);
+    String etag = value.substring(0, pos);
+    String lastModified = value.substring(pos + VALIDATORDELIMITER.length());
+    return new StorageItemValidators(etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified, cachedEntry);
+  }
+
+}
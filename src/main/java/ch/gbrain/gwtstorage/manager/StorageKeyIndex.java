@@ -0,0 +1,558 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.gbrain.gwtstorage.model.StorageItem;
+import ch.gbrain.gwtstorage.model.StorageResource;
+
+/**
+ * Keeps track of all StorageItem and StorageResource keys written to the
+ * LocalStorage, the items grouped by their type. This allows to enumerate and
+ * clear the cached entries without walking through all keys of the
+ * LocalStorage. For each key the used size and the last access time are
+ * recorded, which allows to evict the least recently used entries. The sum of
+ * the sizes is kept up to date and the items are kept in the order of their
+ * access, thus the budget checks and evictions don't walk through all entries.
+ * The index is persisted itself as one compact value within the LocalStorage.
+ */
+public class StorageKeyIndex
+{
+
+  /**
+   * The key under which the index is persisted in the LocalStorage
+   */
+  public static String STORAGEKEYINDEXKEY = "gwtstorage-keyindex";
+
+  private static char GROUPDELIMITER = '\n';
+  private static char KEYDELIMITER = '\u001f';
+  private static char INFODELIMITER = '\u001e';
+  private static char ITEMGROUP = 'I';
+  private static char RESOURCEGROUP = 'R';
+
+  private Map<String, Map<String, StorageKeyIndexEntry>> items = new LinkedHashMap<String, Map<String, StorageKeyIndexEntry>>();
+  private Map<String, StorageKeyIndexEntry> resources = new LinkedHashMap<String, StorageKeyIndexEntry>();
+  private Map<String, StorageKeyIndexEntry> itemAccessOrder = new LinkedHashMap<String, StorageKeyIndexEntry>();
+  private boolean itemAccessOrderSorted = true;
+  private long lastItemAccess = 0;
+  private long itemBytes = 0;
+  private long resourceBytes = 0;
+  private boolean dirty = false;
+  private boolean accessDirty = false;
+
+  /**
+   * Register the key of a written StorageItem
+   * 
+   * @return true if the key was not known yet
+   */
+  public boolean addItem(String typeName, String id)
+  {
+    return putItem(typeName, id, 0, 0) == null;
+  }
+
+  /**
+   * Register a StorageItem by its StorageItemIdKey
+   * 
+   * @return true if the key was not known yet
+   */
+  public boolean addItemKey(String itemIdKey)
+  {
+    String typeName = StorageItem.getStorageItemTypeName(itemIdKey);
+    if (typeName == null) return false;
+    return addItem(typeName, StorageItem.getStorageItemId(itemIdKey));
+  }
+
+  /**
+   * Register or update a StorageItem with its size and access time
+   * 
+   * @param itemIdKey The StorageItemIdKey
+   * @param size The size in bytes used in the storage
+   * @param lastAccess The time in millis of the last access
+   */
+  public void setItem(String itemIdKey, long size, long lastAccess)
+  {
+    String typeName = StorageItem.getStorageItemTypeName(itemIdKey);
+    if (typeName == null) return;
+    String id = StorageItem.getStorageItemId(itemIdKey);
+    StorageKeyIndexEntry entry = getItemEntry(typeName, id);
+    if (entry == null)
+    {
+      putItem(typeName, id, size, lastAccess);
+      return;
+    }
+    if (entry.getSize() != size) dirty = true;
+    itemBytes += size - entry.getSize();
+    entry.setSize(size);
+    touchItem(entry, lastAccess);
+  }
+
+  private StorageKeyIndexEntry putItem(String typeName, String id, long size, long lastAccess)
+  {
+    Map<String, StorageKeyIndexEntry> ids = items.get(typeName);
+    if (ids == null)
+    {
+      ids = new LinkedHashMap<String, StorageKeyIndexEntry>();
+      items.put(typeName, ids);
+    }
+    StorageKeyIndexEntry existing = ids.get(id);
+    if (existing == null)
+    {
+      StorageKeyIndexEntry entry = new StorageKeyIndexEntry(StorageItem.getStorageItemIdKey(typeName, id), size, lastAccess);
+      ids.put(id, entry);
+      addItemAccess(entry);
+      itemBytes += size;
+      dirty = true;
+    }
+    return existing;
+  }
+
+  private StorageKeyIndexEntry getItemEntry(String typeName, String id)
+  {
+    Map<String, StorageKeyIndexEntry> ids = items.get(typeName);
+    if (ids == null) return null;
+    return ids.get(id);
+  }
+
+  /**
+   * @param itemIdKey The StorageItemIdKey
+   * @return The registered size and access time or null if not registered
+   */
+  public StorageKeyIndexEntry getItem(String itemIdKey)
+  {
+    String typeName = StorageItem.getStorageItemTypeName(itemIdKey);
+    if (typeName == null) return null;
+    return getItemEntry(typeName, StorageItem.getStorageItemId(itemIdKey));
+  }
+
+  /**
+   * Record an access to the given item
+   */
+  public void touchItem(String itemIdKey, long now)
+  {
+    StorageKeyIndexEntry entry = getItem(itemIdKey);
+    if (entry != null) touchItem(entry, now);
+  }
+
+  private void touchItem(StorageKeyIndexEntry entry, long now)
+  {
+    if (entry.getLastAccess() == now) return;
+    touch(entry, now);
+    itemAccessOrder.remove(entry.getKey());
+    addItemAccess(entry);
+  }
+
+  /**
+   * Append the entry to the access order, which must be sorted again if the
+   * entry was accessed before the last one.
+   */
+  private void addItemAccess(StorageKeyIndexEntry entry)
+  {
+    if (itemAccessOrderSorted && !itemAccessOrder.isEmpty() && entry.getLastAccess() < lastItemAccess) itemAccessOrderSorted = false;
+    itemAccessOrder.put(entry.getKey(), entry);
+    lastItemAccess = Math.max(lastItemAccess, entry.getLastAccess());
+  }
+
+  private void touch(StorageKeyIndexEntry entry, long now)
+  {
+    if (entry.getLastAccess() == now) return;
+    entry.setLastAccess(now);
+    accessDirty = true;
+  }
+
+  public boolean removeItem(String typeName, String id)
+  {
+    Map<String, StorageKeyIndexEntry> ids = items.get(typeName);
+    if (ids == null) return false;
+    StorageKeyIndexEntry entry = ids.remove(id);
+    if (entry == null) return false;
+    if (ids.isEmpty()) items.remove(typeName);
+    itemAccessOrder.remove(entry.getKey());
+    itemBytes -= entry.getSize();
+    dirty = true;
+    return true;
+  }
+
+  public boolean removeItemKey(String itemIdKey)
+  {
+    String typeName = StorageItem.getStorageItemTypeName(itemIdKey);
+    if (typeName == null) return false;
+    return removeItem(typeName, StorageItem.getStorageItemId(itemIdKey));
+  }
+
+  /**
+   * @return The names of all StorageItem types with registered items
+   */
+  public List<String> getItemTypeNames()
+  {
+    return new ArrayList<String>(items.keySet());
+  }
+
+  /**
+   * @param typeName The StorageItem type name, all types if null
+   * @return The StorageItemIdKeys of the registered items of the given type
+   */
+  public List<String> getItemKeys(String typeName)
+  {
+    List<String> keys = new ArrayList<String>();
+    for (StorageKeyIndexEntry entry : getItemEntries(typeName))
+    {
+      keys.add(entry.getKey());
+    }
+    return keys;
+  }
+
+  private List<StorageKeyIndexEntry> getItemEntries(String typeName)
+  {
+    List<StorageKeyIndexEntry> entries = new ArrayList<StorageKeyIndexEntry>();
+    for (Map.Entry<String, Map<String, StorageKeyIndexEntry>> group : items.entrySet())
+    {
+      if (typeName != null && !typeName.equals(group.getKey())) continue;
+      entries.addAll(group.getValue().values());
+    }
+    return entries;
+  }
+
+  /**
+   * @return The StorageItemIdKeys of all items, the least recently used first
+   */
+  public List<String> getLeastRecentlyUsedItemKeys()
+  {
+    return new ArrayList<String>(getItemsByAccess().keySet());
+  }
+
+  /**
+   * @return The items by their StorageItemIdKeys, the least recently used
+   *         first. Must not be modified while iterating.
+   */
+  public Map<String, StorageKeyIndexEntry> getItemsByAccess()
+  {
+    if (!itemAccessOrderSorted)
+    {
+      List<StorageKeyIndexEntry> entries = new ArrayList<StorageKeyIndexEntry>(itemAccessOrder.values());
+      sortByLastAccess(entries);
+      itemAccessOrder.clear();
+      for (StorageKeyIndexEntry entry : entries)
+      {
+        itemAccessOrder.put(entry.getKey(), entry);
+      }
+      itemAccessOrderSorted = true;
+    }
+    return Collections.unmodifiableMap(itemAccessOrder);
+  }
+
+  /**
+   * @return The sum of the registered item sizes in bytes
+   */
+  public long getItemBytes()
+  {
+    return itemBytes;
+  }
+
+  /**
+   * Remove all items of the given type from the index
+   * 
+   * @param typeName The StorageItem type name, all types if null
+   */
+  public void clearItems(String typeName)
+  {
+    if (typeName == null)
+    {
+      dirty |= !items.isEmpty();
+      items.clear();
+      itemAccessOrder.clear();
+      itemAccessOrderSorted = true;
+      itemBytes = 0;
+    } else
+    {
+      Map<String, StorageKeyIndexEntry> ids = items.remove(typeName);
+      if (ids == null) return;
+      for (StorageKeyIndexEntry entry : ids.values())
+      {
+        itemAccessOrder.remove(entry.getKey());
+        itemBytes -= entry.getSize();
+      }
+      dirty = true;
+    }
+  }
+
+  public int getItemCount()
+  {
+    int count = 0;
+    for (Map<String, StorageKeyIndexEntry> ids : items.values())
+    {
+      count += ids.size();
+    }
+    return count;
+  }
+
+  /**
+   * Register the ResourceIdKey of a cached resource
+   * 
+   * @return true if the key was not known yet
+   */
+  public boolean addResourceKey(String resourceIdKey)
+  {
+    if (resources.containsKey(resourceIdKey)) return false;
+    resources.put(resourceIdKey, new StorageKeyIndexEntry(resourceIdKey, 0, 0));
+    dirty = true;
+    return true;
+  }
+
+  /**
+   * Register or update a cached resource with the size of its file and the
+   * access time
+   * 
+   * @param resourceIdKey The ResourceIdKey
+   * @param size The file size in bytes
+   * @param lastAccess The time in millis of the last access
+   */
+  public void setResource(String resourceIdKey, long size, long lastAccess)
+  {
+    StorageKeyIndexEntry entry = resources.get(resourceIdKey);
+    if (entry == null)
+    {
+      resources.put(resourceIdKey, new StorageKeyIndexEntry(resourceIdKey, size, lastAccess));
+      resourceBytes += size;
+      dirty = true;
+      return;
+    }
+    if (entry.getSize() != size) dirty = true;
+    resourceBytes += size - entry.getSize();
+    entry.setSize(size);
+    touch(entry, lastAccess);
+  }
+
+  /**
+   * @return The registered size and access time or null if not registered
+   */
+  public StorageKeyIndexEntry getResource(String resourceIdKey)
+  {
+    return resources.get(resourceIdKey);
+  }
+
+  /**
+   * Record an access to the given resource
+   */
+  public void touchResource(String resourceIdKey, long now)
+  {
+    StorageKeyIndexEntry entry = resources.get(resourceIdKey);
+    if (entry != null) touch(entry, now);
+  }
+
+  /**
+   * @return The sum of the registered resource file sizes in bytes
+   */
+  public long getResourceBytes()
+  {
+    return resourceBytes;
+  }
+
+  /**
+   * @return The ResourceIdKeys of all resources, the least recently used first
+   */
+  public List<String> getLeastRecentlyUsedResourceKeys()
+  {
+    List<StorageKeyIndexEntry> entries = new ArrayList<StorageKeyIndexEntry>(resources.values());
+    sortByLastAccess(entries);
+    List<String> keys = new ArrayList<String>(entries.size());
+    for (StorageKeyIndexEntry entry : entries)
+    {
+      keys.add(entry.getKey());
+    }
+    return keys;
+  }
+
+  public boolean removeResourceKey(String resourceIdKey)
+  {
+    StorageKeyIndexEntry entry = resources.remove(resourceIdKey);
+    if (entry == null) return false;
+    resourceBytes -= entry.getSize();
+    dirty = true;
+    return true;
+  }
+
+  /**
+   * @return The ResourceIdKeys of all registered resources
+   */
+  public List<String> getResourceKeys()
+  {
+    return new ArrayList<String>(resources.keySet());
+  }
+
+  public void clearResources()
+  {
+    dirty |= !resources.isEmpty();
+    resources.clear();
+    resourceBytes = 0;
+  }
+
+  private static void sortByLastAccess(List<StorageKeyIndexEntry> entries)
+  {
+    Collections.sort(entries, new Comparator<StorageKeyIndexEntry>()
+    {
+      @Override
+      public int compare(StorageKeyIndexEntry e1, StorageKeyIndexEntry e2)
+      {
+        return e1.getLastAccess() < e2.getLastAccess() ? -1 : (e1.getLastAccess() == e2.getLastAccess() ? 0 : 1);
+      }
+    });
+  }
+
+  /**
+   * @return true if keys were added or removed since the index was persisted
+   *         the last time
+   */
+  public boolean isDirty()
+  {
+    return dirty;
+  }
+
+  /**
+   * @return true if only access times changed since the index was persisted
+   *         the last time
+   */
+  public boolean isAccessDirty()
+  {
+    return accessDirty;
+  }
+
+  public void setDirty(boolean dirty)
+  {
+    this.dirty = dirty;
+    this.accessDirty = dirty;
+  }
+
+  /**
+   * Register the given key if it is a StorageItemIdKey or a ResourceIdKey,
+   * other keys are ignored. Used to build up the index from an existing
+   * storage.
+   */
+  public void addKey(String key)
+  {
+    if (StorageItem.isStorageItemIdKey(key))
+    {
+      addItemKey(key);
+    } else if (StorageResource.isResourceIdKey(key))
+    {
+      addResourceKey(key);
+    }
+  }
+
+  /**
+   * Convert the index to the compact value stored in the LocalStorage. Each
+   * group is written on its own line, the items grouped by type with only the
+   * ids.
+   */
+  public String toStorageValue()
+  {
+    StringBuilder value = new StringBuilder();
+    for (Map.Entry<String, Map<String, StorageKeyIndexEntry>> group : items.entrySet())
+    {
+      value.append(ITEMGROUP).append(group.getKey());
+      for (Map.Entry<String, StorageKeyIndexEntry> id : group.getValue().entrySet())
+      {
+        value.append(KEYDELIMITER);
+        appendEntry(value, id.getKey(), id.getValue());
+      }
+      value.append(GROUPDELIMITER);
+    }
+    if (!resources.isEmpty())
+    {
+      value.append(RESOURCEGROUP);
+      for (StorageKeyIndexEntry entry : resources.values())
+      {
+        value.append(KEYDELIMITER);
+        appendEntry(value, entry.getKey(), entry);
+      }
+      value.append(GROUPDELIMITER);
+    }
+    return value.toString();
+  }
+
+  private static void appendEntry(StringBuilder value, String name, StorageKeyIndexEntry entry)
+  {
+    value.append(name);
+    if (entry.getSize() > 0 || entry.getLastAccess() > 0)
+    {
+      value.append(INFODELIMITER).append(entry.getSize()).append(INFODELIMITER).append(entry.getLastAccess());
+    }
+  }
+
+  /**
+   * Create the index from the value stored in the LocalStorage
+   */
+  public static StorageKeyIndex fromStorageValue(String value)
+  {
+    StorageKeyIndex index = new StorageKeyIndex();
+    if (value == null) return index;
+    int lineStart = 0;
+    while (lineStart < value.length())
+    {
+      int lineEnd = value.indexOf(GROUPDELIMITER, lineStart);
+      if (lineEnd < 0) lineEnd = value.length();
+      if (lineEnd == lineStart)
+      {
+        lineStart++;
+        continue;
+      }
+      String[] parts = value.substring(lineStart + 1, lineEnd).split(String.valueOf(KEYDELIMITER), -1);
+      char group = value.charAt(lineStart);
+      for (int i = 1; i < parts.length; i++)
+      {
+        String name = parts[i];
+        long size = 0;
+        long lastAccess = 0;
+        int infoPos = name.indexOf(INFODELIMITER);
+        if (infoPos >= 0)
+        {
+          int accessPos = name.indexOf(INFODELIMITER, infoPos + 1);
+          try
+          {
+            size = Long.parseLong(name.substring(infoPos + 1, accessPos));
+            lastAccess = Long.parseLong(name.substring(accessPos + 1));
+          } catch (Exception ex)
+          {
+            // keep the entry without informations
+          }
+          name = name.substring(0, infoPos);
+        }
+        if (group == ITEMGROUP)
+        {
+          index.putItem(parts[0], name, size, lastAccess);
+        } else if (group == RESOURCEGROUP)
+        {
+          index.setResource(name, size, lastAccess);
+        }
+      }
+      lineStart = lineEnd + 1;
+    }
+    index.setDirty(false);
+    return index;
+  }
+
+}
@@ -0,0 +1,74 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The size and last access time of one key registered in the StorageKeyIndex
+ */
+public class StorageKeyIndexEntry
+{
+
+  private String key;
+  private long size;
+  private long lastAccess;
+
+  /**
+   * @param key The registered key
+   * @param size The size in bytes used by the key, 0 if unknown
+   * @param lastAccess The time in millis of the last access, 0 if unknown
+   */
+  public StorageKeyIndexEntry(String key, long size, long lastAccess)
+  {
+    this.key = key;
+    this.size = size;
+    this.lastAccess = lastAccess;
+  }
+
+  public String getKey()
+  {
+    return key;
+  }
+
+  public long getSize()
+  {
+    return size;
+  }
+
+  /**
+   * Only changed by the StorageKeyIndex, which keeps the sum of the sizes
+   */
+  void setSize(long size)
+  {
+    this.size = size;
+  }
+
+  public long getLastAccess()
+  {
+    return lastAccess;
+  }
+
+  public void setLastAccess(long lastAccess)
+  {
+    this.lastAccess = lastAccess;
+  }
+
+}
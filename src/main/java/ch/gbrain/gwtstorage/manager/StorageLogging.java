@@ -0,0 +1,59 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.shared.GWT;
+
+/**
+ * Decides if a log message of the library is logged at all. The log
+ * statements are guarded by isLoggable, thus neither the message nor its
+ * arguments are evaluated if not. The implementation is selected at compile
+ * time with the property gwtstorage.logging of the module:
+ * <ul>
+ * <li>gated : Logged according the level of the logger at runtime (default)</li>
+ * <li>warning : Only warnings and severe messages, according the level of the
+ * logger at runtime</li>
+ * <li>none : Nothing is logged, the log statements are removed by the compiler</li>
+ * </ul>
+ */
+public class StorageLogging
+{
+
+  private static final StorageLogging instance = GWT.isClient() ? (StorageLogging) GWT.create(StorageLogging.class) : new StorageLogging();
+
+  /**
+   * @return true if the message with the given level should be logged
+   */
+  public static boolean isLoggable(Logger logger, Level level)
+  {
+    return instance.isEnabled(logger, level);
+  }
+
+  protected boolean isEnabled(Logger logger, Level level)
+  {
+    return logger != null && logger.isLoggable(level);
+  }
+
+}
@@ -0,0 +1,40 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs only the warnings and severe messages of the library, selected with
+ * gwtstorage.logging=warning
+ */
+public class StorageLoggingWarning extends StorageLogging
+{
+
+  @Override
+  protected boolean isEnabled(Logger logger, Level level)
+  {
+    return level.intValue() >= Level.WARNING.intValue() && logger != null && logger.isLoggable(level);
+  }
+
+}
@@ -20,7 +20,14 @@ package ch.gbrain.gwtstorage.manager;
  * #L%
  */
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,8 +42,11 @@ import ch.gbrain.gwtstorage.model.StorageResource;
 import com.google.gwt.core.client.Callback;
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.http.client.Response;
 import com.google.gwt.i18n.shared.DateTimeFormat;
 import com.google.gwt.i18n.shared.DateTimeFormat.PredefinedFormat;
+import com.google.gwt.json.client.JSONArray;
+import com.google.gwt.json.client.JSONParser;
 import com.google.gwt.json.client.JSONValue;
 import com.google.gwt.storage.client.Storage;
 import com.googlecode.gwtphonegap.client.PhoneGap;
@@ -47,6 +57,7 @@ import com.googlecode.gwtphonegap.client.file.FileCallback;
 import com.googlecode.gwtphonegap.client.file.FileDownloadCallback;
 import com.googlecode.gwtphonegap.client.file.FileEntry;
 import com.googlecode.gwtphonegap.client.file.FileError;
+import com.googlecode.gwtphonegap.client.file.FileObject;
 import com.googlecode.gwtphonegap.client.file.FileReader;
 import com.googlecode.gwtphonegap.client.file.FileSystem;
 import com.googlecode.gwtphonegap.client.file.FileWriter;
@@ -77,7 +88,7 @@ public class StorageManager
   public void setRemoteAppBaseUrl(String baseUrl)
   {
     this.remoteAppBaseUrl = baseUrl;
-    logger.log(Level.INFO, "SetRemoteAppBaseUrl:" + baseUrl);
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "SetRemoteAppBaseUrl:" + baseUrl);
   }
 
   /**
@@ -104,7 +115,87 @@ public class StorageManager
   public void setStorageUrl(String storageUrl)
   {
     this.storageUrl = storageUrl;
-    logger.log(Level.INFO, "SetStorageUrl:" + storageUrl);
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "SetStorageUrl:" + storageUrl);
+  }
+
+  /**
+   * The name of the bundle endpoint relative to the storage url, which
+   * delivers many StorageItems with one request. Not used if null.
+   */
+  private String storageBundleName = null;
+
+  public String getStorageBundleName()
+  {
+    return storageBundleName;
+  }
+
+  /**
+   * Define the bundle endpoint relative to the storage url which is used to
+   * read many StorageItems at once.
+   * 
+   * @param storageBundleName eg. "bundle" or null if no bundle endpoint is
+   *          available
+   */
+  public void setStorageBundleName(String storageBundleName)
+  {
+    this.storageBundleName = storageBundleName;
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "SetStorageBundleName:" + storageBundleName);
+  }
+
+  /**
+   * Evaluate the full url of the bundle endpoint based on the current runtime
+   * 
+   * @return The url or null if no bundle endpoint is configured
+   */
+  protected String getStorageBundleUrl()
+  {
+    if (storageBundleName == null || storageBundleName.isEmpty()) return null;
+    if (phonegap.isPhoneGapDevice())
+    {
+      return getRemoteStorageUrl() + storageBundleName;
+    }
+    return getLocalStorageUrl() + storageBundleName;
+  }
+
+  /**
+   * Post the json file names of the items to the bundle endpoint.
+   * 
+   * @param bundleUrl
+   * @param fileNames The json file names of the requested items
+   * @param callback Receives the answer of the endpoint
+   */
+  protected void requestStorageItemBundle(String bundleUrl, JSONArray fileNames, final Callback<JSONValue, StorageError> callback)
+  {
+    Resource resource = new Resource(bundleUrl);
+    Method method = resource.post().json(fileNames);
+    method.send(new JsonCallback()
+    {
+      public void onSuccess(Method method, JSONValue response)
+      {
+        callback.onSuccess(response);
+      }
+
+      public void onFailure(Method method, Throwable exception)
+      {
+        callback.onFailure(new StorageError(FileError.NOT_READABLE_ERR, exception.getMessage()));
+      }
+    });
+  }
+
+  /**
+   * The maximum number of parallel requests when reading many StorageItems one
+   * by one.
+   */
+  private int storageItemReadParallelism = 4;
+
+  public int getStorageItemReadParallelism()
+  {
+    return storageItemReadParallelism;
+  }
+
+  public void setStorageItemReadParallelism(int storageItemReadParallelism)
+  {
+    this.storageItemReadParallelism = storageItemReadParallelism;
   }
 
   /**
@@ -125,7 +216,7 @@ public class StorageManager
                                                             // before
     this.cacheDirectory = cacheDirectory;
     this.cacheDirectoryEntry = null;
-    logger.log(Level.INFO, "SetCacheDirectory:" + cacheDirectory);
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "SetCacheDirectory:" + cacheDirectory);
   }
 
   /**
@@ -160,13 +251,287 @@ public class StorageManager
     return this.wlanEnabled;
   }
 
+  /**
+   * Keeps the most recently used StorageItems parsed in memory in front of the
+   * LocalStorage.
+   */
+  private StorageItemCache storageItemCache = new StorageItemCache(200);
+
+  /**
+   * Define how many parsed StorageItems are kept in memory for fast cache
+   * access.
+   * 
+   * @param size The maximum number of items, 0 disables the in memory cache
+   */
+  public void setStorageItemCacheSize(int size)
+  {
+    storageItemCache.setMaxSize(size);
+  }
+
+  public int getStorageItemCacheSize()
+  {
+    return storageItemCache.getMaxSize();
+  }
+
+  /**
+   * The maximum number of bytes the cached StorageItems may use within the
+   * LocalStorage, 0 means no limit apart from the storage quota.
+   */
+  private long storageItemByteBudget = 0;
+
+  /**
+   * Define the maximum number of bytes the cached StorageItems may use within
+   * the LocalStorage. The least recently used items are evicted once the
+   * budget would be exceeded. The persisted key index counts against the
+   * budget as well. Independent of the budget, items are evicted if the quota
+   * of the LocalStorage is reached.
+   * 
+   * @param storageItemByteBudget The budget in bytes, 0 for no limit
+   */
+  public void setStorageItemByteBudget(long storageItemByteBudget)
+  {
+    this.storageItemByteBudget = storageItemByteBudget;
+  }
+
+  public long getStorageItemByteBudget()
+  {
+    return storageItemByteBudget;
+  }
+
+  private long storageItemEvictions = 0;
+  private long storageItemEvictedBytes = 0;
+
+  /**
+   * @return The number of StorageItems evicted from the LocalStorage since the
+   *         StorageManager was created
+   */
+  public long getStorageItemEvictions()
+  {
+    return storageItemEvictions;
+  }
+
+  /**
+   * @return The number of bytes freed by evicting StorageItems since the
+   *         StorageManager was created
+   */
+  public long getStorageItemEvictedBytes()
+  {
+    return storageItemEvictedBytes;
+  }
+
+  /**
+   * @return The number of bytes currently used by cached StorageItems within
+   *         the LocalStorage
+   */
+  public long getStorageItemBytesInUse()
+  {
+    return getStorageKeyIndex().getItemBytes();
+  }
+
+  /**
+   * The maximum number of bytes the cached resource files may use, 0 means no
+   * limit.
+   */
+  private long resourceByteBudget = 0;
+  private Set<String> pinnedResources = new HashSet<String>();
+  private long resourceEvictions = 0;
+  private long resourceEvictedBytes = 0;
+
+  /**
+   * Define the maximum number of bytes the cached resource files may use in
+   * the cache directory. The least recently used resources which are not
+   * pinned are evicted once a download would exceed the budget.
+   * 
+   * @param resourceByteBudget The budget in bytes, 0 for no limit
+   */
+  public void setResourceByteBudget(long resourceByteBudget)
+  {
+    this.resourceByteBudget = resourceByteBudget;
+  }
+
+  public long getResourceByteBudget()
+  {
+    return resourceByteBudget;
+  }
+
+  /**
+   * Protect the resource from being evicted to keep the byte budget. The pins
+   * are not persisted, they must be set again after each start.
+   * 
+   * @param relativeUrl
+   */
+  public void pinResource(String relativeUrl)
+  {
+    pinnedResources.add(relativeUrl);
+  }
+
+  public void unpinResource(String relativeUrl)
+  {
+    pinnedResources.remove(relativeUrl);
+  }
+
+  public boolean isResourcePinned(String relativeUrl)
+  {
+    return pinnedResources.contains(relativeUrl);
+  }
+
+  /**
+   * @return The number of resources evicted since the StorageManager was
+   *         created
+   */
+  public long getResourceEvictions()
+  {
+    return resourceEvictions;
+  }
+
+  /**
+   * @return The number of bytes freed by evicting resources since the
+   *         StorageManager was created
+   */
+  public long getResourceEvictedBytes()
+  {
+    return resourceEvictedBytes;
+  }
+
+  /**
+   * @return The number of bytes currently used by the cached resource files as
+   *         far as their size is known
+   */
+  public long getResourceBytesInUse()
+  {
+    return getStorageKeyIndex().getResourceBytes();
+  }
+
+  /**
+   * Compression of the cached StorageItem payloads, disabled by default
+   */
+  private boolean storageItemCompressionEnabled = false;
+  private Map<String, Boolean> storageItemCompressionTypes = new HashMap<String, Boolean>();
+  private int storageItemCompressionThreshold = 1024;
+
+  /**
+   * Enable the compression of the StorageItems written to the LocalStorage for
+   * all types which are not configured individually. Items stored before
+   * remain readable either way.
+   * 
+   * @param enabled
+   */
+  public void setStorageItemCompressionEnabled(boolean enabled)
+  {
+    this.storageItemCompressionEnabled = enabled;
+  }
+
+  public boolean isStorageItemCompressionEnabled()
+  {
+    return storageItemCompressionEnabled;
+  }
+
+  /**
+   * Enable or disable the compression for the StorageItems of the given type,
+   * overriding the general setting.
+   * 
+   * @param typeName The type name of the StorageItems as used in their keys
+   * @param enabled
+   */
+  public void setStorageItemCompressionEnabled(String typeName, boolean enabled)
+  {
+    storageItemCompressionTypes.put(typeName, enabled);
+  }
+
+  /**
+   * @param typeName The type name of the StorageItems as used in their keys
+   * @return true if items of the given type are compressed when written
+   */
+  public boolean isStorageItemCompressionEnabled(String typeName)
+  {
+    Boolean enabled = storageItemCompressionTypes.get(typeName);
+    return enabled != null ? enabled : storageItemCompressionEnabled;
+  }
+
+  /**
+   * Define the minimal length of the json payload to be compressed, smaller
+   * payloads are stored as they are since the gain would not pay off the
+   * effort.
+   * 
+   * @param storageItemCompressionThreshold The minimal number of characters
+   */
+  public void setStorageItemCompressionThreshold(int storageItemCompressionThreshold)
+  {
+    this.storageItemCompressionThreshold = storageItemCompressionThreshold;
+  }
+
+  public int getStorageItemCompressionThreshold()
+  {
+    return storageItemCompressionThreshold;
+  }
+
+  /**
+   * The backend keeping the cached StorageItems, null to use the LocalStorage
+   * directly
+   */
+  private StorageBackend storageBackend = null;
+
+  /**
+   * Define the backend which keeps the cached StorageItems, eg. an
+   * IndexedDbStorageBackend for large item sets. The items are then read
+   * asynchronously by readStorageItem and readStorageItemStaleWhileRevalidate
+   * and the items read from the application are written through to the
+   * backend. The synchronous LocalStorage methods only see the in memory cache
+   * in this case. The byte budget and the key index apply to the LocalStorage
+   * only.
+   * 
+   * @param storageBackend The backend or null to use the LocalStorage directly
+   *          (default)
+   */
+  public void setStorageBackend(StorageBackend storageBackend)
+  {
+    this.storageBackend = storageBackend;
+    storageItemCache.clear();
+  }
+
+  public StorageBackend getStorageBackend()
+  {
+    return storageBackend;
+  }
+
+  /**
+   * Keep the cached StorageItems in a chain of tiers: items up to the given
+   * length in the LocalStorage, larger ones in a LogStructuredFileStore on a
+   * PhoneGap device or else in the IndexedDB if supported. Items read from the
+   * application are written through to the tier matching their size.
+   * 
+   * @param maxLocalStorageLength The maximum length of the stored value of an
+   *          item to be kept in the LocalStorage
+   * @param directory The directory of the file store, respectively the name
+   *          of the IndexedDB database
+   * @return The backend which is used from now on
+   */
+  public TieredStorageBackend setTieredStorageBackend(int maxLocalStorageLength, String directory)
+  {
+    TieredStorageBackend backend = new TieredStorageBackend();
+    if (isResourceCachingPossible())
+    {
+      backend.addTier(new LocalStorageBackend(getLocalStorage()), maxLocalStorageLength);
+      backend.addTier(new LogStructuredFileStore(this, directory), 0);
+    } else if (IndexedDbStorageBackend.isSupported())
+    {
+      backend.addTier(new LocalStorageBackend(getLocalStorage()), maxLocalStorageLength);
+      backend.addTier(new IndexedDbStorageBackend(directory), 0);
+    } else
+    {
+      backend.addTier(new LocalStorageBackend(getLocalStorage()), 0);
+    }
+    setStorageBackend(backend);
+    return backend;
+  }
+
   private Boolean lastCachingState = null;
 
   private void logResourceCachingState(boolean state, String msg)
   {
     if (lastCachingState == null || lastCachingState != state)
     {
-      logger.log(Level.INFO, msg);
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, msg);
     }
     lastCachingState = state;
   }
@@ -258,237 +623,1399 @@ public class StorageManager
     {
       this.logger = Logger.getLogger("StorageManager");
     }
+    resourceDownloadScheduler = new ResourceDownloadScheduler(this);
+    storageWarmup = new StorageWarmup(this);
     getLocalStorage();
     this.getFileSystem(null);
   }
 
+  private StorageStatistics storageStatistics = new StorageStatistics();
+  private StorageStatisticsListener storageStatisticsListener = null;
+  private int storageStatisticsListenerGeneration = 0;
+
   /**
-   * Retrieve a reference to the local Storage (Browsers HTML5 key-value store)
+   * @return The live statistics of the storage operations, use snapshot to get
+   *         a stable copy
+   */
+  public StorageStatistics getStorageStatistics()
+  {
+    return storageStatistics;
+  }
+
+  /**
+   * Push a snapshot of the statistics to the listener periodically
    * 
-   * @return The local storage or null if not supported
+   * @param listener The listener, null to stop
+   * @param intervalMillis The interval between the snapshots
    */
-  public Storage getLocalStorage()
+  public void setStorageStatisticsListener(final StorageStatisticsListener listener, int intervalMillis)
   {
-    if (localStorage == null)
+    this.storageStatisticsListener = listener;
+    // stops the command scheduled by a previous call, even for the same listener
+    final int generation = ++storageStatisticsListenerGeneration;
+    if (listener == null) return;
+    Scheduler.get().scheduleFixedDelay(new Scheduler.RepeatingCommand()
     {
-      localStorage = Storage.getLocalStorageIfSupported();
-      if (localStorage == null)
+      @Override
+      public boolean execute()
       {
-        logger.log(Level.SEVERE, "No LocalStorage available!!!!!!!!!!!!!");
+        if (generation != storageStatisticsListenerGeneration) return false;
+        listener.onStatistics(storageStatistics.snapshot());
+        return true;
       }
-    }
-    return localStorage;
+    }, intervalMillis);
   }
 
-  /****************************************************************************************************************
-   * Read / Write StorageItem to private local HTML5 storage
-   ****************************************************************************************************************/
+  private StorageTrace storageTrace = new StorageTrace(512);
 
   /**
-   * Write the given item to the local HTML5 storage.
-   * 
-   * @param item The object to be serialized and stored under the ID within the
-   *          local storage
-   * @return true if the write operation succeeded
+   * @return The trace of the storage operations, disabled by default
    */
-  public boolean writeStorageItemToLocalStorage(StorageItem item)
+  public StorageTrace getStorageTrace()
   {
-    if (item == null) return false;
-    try
-    {
-      JSONValue json = item.toJson();
-      getLocalStorage().setItem(item.getStorageItemIdKey(), json.toString());
-      writeStorageItemStorageTimeToLocalStorage(item);
-      logger.log(Level.INFO, "Local StorageItem written" + item.getLogId());
-      return true;
-    } catch (Exception ex)
-    {
-      logger.log(Level.SEVERE, "Failure local write" + item.getLogId(), ex);
-    }
-    return false;
+    return storageTrace;
   }
 
   /**
-   * Read the item from the local html5 storage.
-   * 
-   * @param item The item to be read from the local storage with the given ID as
-   *          key.
-   * @return false if the read operation failed or nothing is found.
+   * Enable or disable the trace of the storage operations
    */
-  public boolean readStorageItemFromLocalStorage(StorageItem item)
+  public void setTraceEnabled(boolean enabled)
   {
-    return readStorageItemFromLocalStorage(item, 0, 0);
+    storageTrace.setEnabled(enabled);
   }
 
   /**
-   * Read the item from the local html5 storage and take the cacheTime in
-   * account
-   * 
-   * @param item
-   * @param expectedVersion The minimum item version, not checked if <=0
-   * @param cacheTime If the item was stored longer than the cacheTime, it isn't
-   *          accepted, not checked if <=0
-   * @return false if the read operation failed or nothing is found, the version
-   *         wasn't ok or the cacheTime elapsed already
+   * @return The recorded storage operations in the Chrome trace event format
    */
-  private boolean readStorageItemFromLocalStorage(StorageItem item, int expectedVersion, int cacheTime)
+  public String dumpTrace()
   {
-    if (item == null) return false;
-    try
-    {
-      String val = getLocalStorage().getItem(item.getStorageItemIdKey());
-      if (val != null)
-      {
-        logger.log(Level.INFO, "Local StorageItem found" + item.getLogId());
-        item.fromJson(val);
-        // check if the version is ok
-        if (expectedVersion > 0)
-        {
-          if (!checkStorageItemVersion(expectedVersion, item.getVersion()))
-          {
-            logger.log(Level.INFO, "Local StorageItem version mismatch" + item.getLogId());
-            return false;
-          }
-        }
-        // check if cache is valid
-        if (cacheTime > 0)
-        {
-          Date storeTime = readStorageItemStorageTimeFromLocalStorage(item);
-          if (storeTime != null)
-          { // there was a time available, so compare it
-            Date nowTime = new Date();
-            if (nowTime.getTime() - (cacheTime * 1000) > storeTime.getTime())
-            { // elapsed
-              logger.log(Level.INFO, "Local StorageItem time elapsed" + item.getLogId());
-              return false;
-            }
-          }
-        }
-        logger.log(Level.INFO, "Local readStorageItem complete" + item.getLogId());
-        return true;
-      } else
-      {
-        logger.log(Level.INFO, "Local readStorageItem not found" + item.getLogId());
-      }
-    } catch (Exception ex)
-    {
-      logger.log(Level.SEVERE, "Exception local readStorageItem" + item.getLogId(), ex);
-    }
-    return false;
+    return storageTrace.toChromeTraceJson();
   }
 
+  private StorageWarmup storageWarmup = null;
+
   /**
-   * Write the items Date/Time store value to html5 storage for later usage in
-   * relation to the cache time
-   * 
-   * @param item The storage time for the given item (ID) is written to the
-   *          key-value HTML5 storage.
-   * @return false if the read operation failed or nothing is found.
+   * Add an item which is read during the warm-up, must be called before
+   * warmUp
    */
-  private void writeStorageItemStorageTimeToLocalStorage(StorageItem item)
+  public void addWarmupItem(StorageItem item)
   {
-    if (item == null || item.getStorageItemTimeKey() == null) return;
-    try
-    {
-      String saveTime = DateTimeFormat.getFormat(PredefinedFormat.DATE_TIME_FULL).format(new Date());
-      getLocalStorage().setItem(item.getStorageItemTimeKey(), saveTime);
-    } catch (Exception ex)
-    {
-      logger.log(Level.SEVERE, "Exception local writeStorageItem time" + item.getLogId(), ex);
-    }
+    storageWarmup.addHotItem(item);
   }
 
   /**
-   * Read the items Date/Time store value from html5 storage.
+   * Resolve the LocalStorage, the key index, the cached resources, the cache
+   * directory and the warm-up items ahead of the first use. Nothing is done if
+   * it was started already.
+   * 
+   * @param callback Is notified with the durations of the warm-up phases once
+   *          completed, might be null
+   */
+  public void warmUp(Callback<StorageWarmupReport, StorageError> callback)
+  {
+    storageWarmup.start();
+    storageWarmup.whenReady(callback);
+  }
+
+  /**
+   * Notify the callback once the warm-up completed, the warm-up must be started
+   * with warmUp
+   */
+  public void whenReady(Callback<StorageWarmupReport, StorageError> callback)
+  {
+    storageWarmup.whenReady(callback);
+  }
+
+  public boolean isReady()
+  {
+    return storageWarmup.isReady();
+  }
+
+  /**
+   * @return The durations of the warm-up phases, null if not started
+   */
+  public StorageWarmupReport getWarmupReport()
+  {
+    return storageWarmup.getReport();
+  }
+
+  /**
+   * Retrieve a reference to the local Storage (Browsers HTML5 key-value store)
+   * 
+   * @return The local storage or null if not supported
+   */
+  public Storage getLocalStorage()
+  {
+    if (localStorage == null)
+    {
+      localStorage = Storage.getLocalStorageIfSupported();
+      if (localStorage == null)
+      {
+        if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "No LocalStorage available!!!!!!!!!!!!!");
+      }
+    }
+    return localStorage;
+  }
+
+  /**
+   * Read a StorageItem value from the LocalStorage, all item reads pass here.
+   * 
+   * @param key
+   * @return The value or null if not found or no LocalStorage available
+   */
+  protected String getLocalStorageValue(String key)
+  {
+    Storage storage = getLocalStorage();
+    return storage != null ? storage.getItem(key) : null;
+  }
+
+  /**
+   * Write a StorageItem value to the LocalStorage, all item writes pass here.
+   * An exceeded quota is thrown to the caller.
+   * 
+   * @param key
+   * @param value
+   */
+  protected void setLocalStorageValue(String key, String value)
+  {
+    getLocalStorage().setItem(key, value);
+  }
+
+  /**
+   * Remove a StorageItem value from the LocalStorage if available
+   * 
+   * @param key
+   */
+  protected void removeLocalStorageValue(String key)
+  {
+    Storage storage = getLocalStorage();
+    if (storage != null) storage.removeItem(key);
+  }
+
+  /**
+   * Convert the item to the json string to be stored.
+   * 
+   * @param item
+   * @param json The json value of the item as returned by toJson
+   * @return The payload to be stored
+   */
+  protected String toStorageItemPayload(StorageItem item, JSONValue json)
+  {
+    return json.toString();
+  }
+
+  /**
+   * Fill the item from the cached entry, the payload is parsed on the first
+   * call only.
+   * 
+   * @param item
+   * @param entry
+   */
+  protected void fillStorageItem(StorageItem item, StorageItemCacheEntry entry)
+  {
+    item.fromJson(entry.getJson());
+  }
+
+  /****************************************************************************************************************
+   * Read / Write StorageItem to private local HTML5 storage
+   ****************************************************************************************************************/
+
+  /**
+   * Write the given item to the local HTML5 storage.
+   * 
+   * @param item The object to be serialized and stored under the ID within the
+   *          local storage
+   * @return true if the write operation succeeded
+   */
+  public boolean writeStorageItemToLocalStorage(StorageItem item)
+  {
+    if (item == null) return false;
+    try
+    {
+      JSONValue json = item.toJson();
+      String payload = toStorageItemPayload(item, json);
+      long storeTime = new Date().getTime();
+      int version = getItemVersion(item);
+      if (!writeStorageItemValueToLocalStorage(item.getStorageItemIdKey(), item.getStorageItemIdKey(), StorageItemEnvelope.wrap(storeTime, version, compressStorageItemPayload(item, payload))))
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Local StorageItem not written, no space left" + item.getLogId());
+        return false;
+      }
+      storageItemCache.put(item.getStorageItemIdKey(), json, payload, version, storeTime);
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Local StorageItem written" + item.getLogId());
+      return true;
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure local write" + item.getLogId(), ex);
+    }
+    return false;
+  }
+
+  /**
+   * Write a value of a StorageItem to the LocalStorage, either the item itself
+   * or its validators, and register the item with its size in the key index.
+   * The size of an item covers both values. If the configured byte budget
+   * would be exceeded or the storage quota is reached, the least recently used
+   * items are evicted first.
+   * 
+   * @param itemIdKey The StorageItemIdKey
+   * @param key The key to be written, the StorageItemIdKey or the validator key
+   * @param value The value to be stored
+   * @return false if there was no space left even after evicting all other
+   *         items
+   */
+  private boolean writeStorageItemValueToLocalStorage(String itemIdKey, String key, String value)
+  {
+    StorageKeyIndex index = getStorageKeyIndex();
+    StorageKeyIndexEntry existing = index.getItem(itemIdKey);
+    long previousSize = existing != null ? existing.getSize() : 0;
+    long size = getStorageByteSize(key, value);
+    String validatorKey = StorageItem.getStorageItemValidatorKey(itemIdKey);
+    long validatorSize = getStoredByteSize(validatorKey);
+    long itemSize;
+    if (key.equals(validatorKey))
+    { // the item value is unchanged
+      itemSize = (previousSize > 0 ? previousSize - validatorSize : getStoredByteSize(itemIdKey)) + size;
+    } else
+    {
+      itemSize = size + validatorSize;
+    }
+    if (storageItemByteBudget > 0)
+    {
+      long required = index.getItemBytes() + storageKeyIndexBytes + itemSize - previousSize - storageItemByteBudget;
+      if (required > 0)
+      {
+        evictStorageItems(required, itemIdKey);
+      }
+    }
+    while (true)
+    {
+      try
+      {
+        setLocalStorageValue(key, value);
+        break;
+      } catch (Exception ex)
+      {
+        if (!LocalStorageBackend.isQuotaExceeded(ex))
+        {
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure LocalStorage write " + key, ex);
+          return false;
+        }
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "LocalStorage quota exceeded writing " + key);
+        if (evictStorageItems(size, itemIdKey) == 0) return false;
+      }
+    }
+    index.setItem(itemIdKey, itemSize, new Date().getTime());
+    scheduleStorageKeyIndexPersist();
+    storageStatistics.addBytesCached(size);
+    return true;
+  }
+
+  /**
+   * Remove the validators of a StorageItem from the LocalStorage and subtract
+   * their size from the size of the item in the key index.
+   * 
+   * @param itemIdKey The StorageItemIdKey
+   */
+  private void removeStorageItemValidatorsFromLocalStorage(String itemIdKey)
+  {
+    String validatorKey = StorageItem.getStorageItemValidatorKey(itemIdKey);
+    long validatorSize = getStoredByteSize(validatorKey);
+    if (validatorSize == 0) return;
+    removeLocalStorageValue(validatorKey);
+    StorageKeyIndex index = getStorageKeyIndex();
+    StorageKeyIndexEntry existing = index.getItem(itemIdKey);
+    if (existing != null && existing.getSize() >= validatorSize)
+    {
+      index.setItem(itemIdKey, existing.getSize() - validatorSize, existing.getLastAccess());
+      scheduleStorageKeyIndexPersist();
+    }
+  }
+
+  /**
+   * @return The size in bytes of the value stored under the key, 0 if there is
+   *         none
+   */
+  private long getStoredByteSize(String key)
+  {
+    String value = getLocalStorageValue(key);
+    return value != null ? getStorageByteSize(key, value) : 0;
+  }
+
+  /**
+   * Evaluate the size in bytes a key/value pair takes in the LocalStorage, the
+   * strings are stored as UTF-16.
+   */
+  private static long getStorageByteSize(String key, String value)
+  {
+    return 2L * (key.length() + (value != null ? value.length() : 0));
+  }
+
+  /**
+   * Remove the least recently used StorageItems from the LocalStorage until at
+   * least the requested number of bytes is freed.
+   * 
+   * @param requiredBytes The number of bytes to be freed
+   * @param excludedKey The key which is currently written and must not be
+   *          evicted, null if none
+   * @return The number of bytes freed
+   */
+  private long evictStorageItems(long requiredBytes, String excludedKey)
+  {
+    long freed = 0;
+    try
+    {
+      StorageKeyIndex index = getStorageKeyIndex();
+      // only the least recently used entries needed are visited
+      Map<String, Long> evicted = new LinkedHashMap<String, Long>();
+      for (StorageKeyIndexEntry entry : index.getItemsByAccess().values())
+      {
+        if (freed >= requiredBytes) break;
+        String key = entry.getKey();
+        if (key.equals(excludedKey)) continue;
+        long size = entry.getSize() > 0 ? entry.getSize() : getStorageByteSize(key, getLocalStorageValue(key));
+        evicted.put(key, size);
+        freed += size;
+      }
+      for (Map.Entry<String, Long> victim : evicted.entrySet())
+      {
+        String key = victim.getKey();
+        long size = victim.getValue();
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Evict cached StorageItem:" + key);
+        storageItemCache.remove(key);
+        removeLocalStorageValue(key);
+        removeLocalStorageValue(StorageItem.getStorageItemTimeKey(key));
+        removeLocalStorageValue(StorageItem.getStorageItemValidatorKey(key));
+        index.removeItemKey(key);
+        storageItemEvictions++;
+        storageItemEvictedBytes += size;
+        storageStatistics.recordEviction(size);
+      }
+      scheduleStorageKeyIndexPersist();
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception evicting StorageItems", ex);
+    }
+    return freed;
+  }
+
+  /**
+   * Evict the least recently used resources which are not pinned until the
+   * given number of additional bytes fits into the resource byte budget.
+   * 
+   * @param requiredBytes The number of bytes about to be added
+   * @param excludedUrl The url of the resource which is currently downloaded
+   *          and must not be evicted
+   * @return The number of bytes freed
+   */
+  protected long ensureResourceByteBudget(long requiredBytes, String excludedUrl)
+  {
+    long freed = 0;
+    if (resourceByteBudget <= 0) return freed;
+    try
+    {
+      StorageKeyIndex index = getStorageKeyIndex();
+      long excess = index.getResourceBytes() + requiredBytes - resourceByteBudget;
+      for (String key : index.getLeastRecentlyUsedResourceKeys())
+      {
+        if (freed >= excess) break;
+        String url = StorageResource.getResourceUrl(key);
+        if (url == null || url.equals(excludedUrl) || pinnedResources.contains(url)) continue;
+        long size = index.getResource(key).getSize();
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Evict cached Resource:" + url + " size:" + size);
+        removeCachedResource(url);
+        freed += size;
+        resourceEvictions++;
+        resourceEvictedBytes += size;
+        storageStatistics.recordEviction(size);
+      }
+      if (freed < excess)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Resource byte budget exceeded by " + (excess - freed) + " bytes");
+      }
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception evicting Resources", ex);
+    }
+    return freed;
+  }
+
+  /**
+   * Read the item from the local html5 storage.
+   * 
+   * @param item The item to be read from the local storage with the given ID as
+   *          key.
+   * @return false if the read operation failed or nothing is found.
+   */
+  public boolean readStorageItemFromLocalStorage(StorageItem item)
+  {
+    return readStorageItemFromLocalStorage(item, 0, 0);
+  }
+
+  /**
+   * Read the item from the local html5 storage and take the cacheTime in
+   * account
+   * 
+   * @param item
+   * @param expectedVersion The minimum item version, not checked if <=0
+   * @param cacheTime If the item was stored longer than the cacheTime, it isn't
+   *          accepted, not checked if <=0
+   * @return false if the read operation failed or nothing is found, the version
+   *         wasn't ok or the cacheTime elapsed already
+   */
+  protected boolean readStorageItemFromLocalStorage(StorageItem item, int expectedVersion, int cacheTime)
+  {
+    if (item == null) return false;
+    try
+    {
+      StorageItemCacheEntry entry = storageItemCache.get(item.getStorageItemIdKey());
+      if (entry == null)
+      {
+        entry = loadStorageItemCacheEntry(item);
+        if (entry == null) return false;
+      } else
+      {
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Memory cached StorageItem found" + item.getLogId());
+      }
+      // check if the version is ok
+      if (!entry.isVersionValid(expectedVersion))
+      {
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Local StorageItem version mismatch" + item.getLogId());
+        return false;
+      }
+      // check if cache is valid
+      if (!entry.isTimeValid(cacheTime, new Date().getTime()))
+      { // elapsed
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Local StorageItem time elapsed" + item.getLogId());
+        return false;
+      }
+      fillStorageItem(item, entry);
+      getStorageKeyIndex().touchItem(entry.getKey(), new Date().getTime());
+      scheduleStorageKeyIndexPersist();
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Local readStorageItem complete" + item.getLogId());
+      return true;
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception local readStorageItem" + item.getLogId(), ex);
+    }
+    return false;
+  }
+
+  /**
+   * Load the item from the local html5 storage into the in memory cache. Only
+   * the envelope header is evaluated, the payload is parsed once it is
+   * requested from the entry. Items stored in the former format with a
+   * separate time key are converted to the envelope format.
+   * 
+   * @param item
+   * @return The cache entry or null if nothing is found
+   */
+  private StorageItemCacheEntry loadStorageItemCacheEntry(StorageItem item)
+  {
+    if (storageBackend != null)
+    { // the items are kept in the backend, which can't be read synchronously
+      return null;
+    }
+    String val = getLocalStorageValue(item.getStorageItemIdKey());
+    if (val == null)
+    {
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Local readStorageItem not found" + item.getLogId());
+      return null;
+    }
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Local StorageItem found" + item.getLogId());
+    StorageItemCacheEntry entry;
+    StorageItemEnvelope envelope = StorageItemEnvelope.parse(val);
+    if (envelope != null)
+    {
+      entry = new StorageItemCacheEntry(item.getStorageItemIdKey(), null, envelope.getPayload(), envelope.getVersion(), envelope.getStoreTime());
+      StorageKeyIndexEntry indexEntry = getStorageKeyIndex().getItem(item.getStorageItemIdKey());
+      if (indexEntry != null && indexEntry.getSize() <= 0)
+      { // registered without size by a former version
+        getStorageKeyIndex().setItem(item.getStorageItemIdKey(), getStorageByteSize(item.getStorageItemIdKey(), val) + getStoredByteSize(item.getStorageItemValidatorKey()), new Date().getTime());
+      }
+    } else
+    {
+      entry = migrateStorageItemToEnvelope(item, val);
+    }
+    storageItemCache.put(entry);
+    return entry;
+  }
+
+  /**
+   * Store the item read from the application together with its HTTP cache
+   * validators, either in the backend or in the LocalStorage.
+   * 
+   * @param item
+   * @param validators The validators received with the item, might be null
+   * @return true if the item was stored or the write is pending
+   */
+  protected boolean storeStorageItem(StorageItem item, StorageItemValidators validators)
+  {
+    if (storageBackend != null)
+    {
+      return writeStorageItemToBackend(item, validators);
+    }
+    // the validators of the response are only valid for the stored item
+    if (!writeStorageItemToLocalStorage(item)) return false;
+    if (validators != null) validators.commitResponse();
+    writeStorageItemValidatorsToLocalStorage(item, validators);
+    return true;
+  }
+
+  /**
+   * Write the item and its validators to the backend, the item is available
+   * from the in memory cache immediately.
+   */
+  private boolean writeStorageItemToBackend(final StorageItem item, StorageItemValidators validators)
+  {
+    try
+    {
+      JSONValue json = item.toJson();
+      String payload = toStorageItemPayload(item, json);
+      long storeTime = new Date().getTime();
+      int version = getItemVersion(item);
+      Map<String, String> values = new HashMap<String, String>();
+      values.put(item.getStorageItemIdKey(), StorageItemEnvelope.wrap(storeTime, version, compressStorageItemPayload(item, payload)));
+      if (validators != null) validators.commitResponse();
+      if (validators != null && !validators.isEmpty())
+      {
+        values.put(item.getStorageItemValidatorKey(), validators.toStorageValue());
+      } else
+      {
+        storageBackend.delete(item.getStorageItemValidatorKey(), null);
+      }
+      storageItemCache.put(item.getStorageItemIdKey(), json, payload, version, storeTime);
+      storageBackend.putAll(values, new Callback<Void, StorageError>()
+      {
+        public void onSuccess(Void result)
+        {
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Backend StorageItem written" + item.getLogId());
+        }
+
+        public void onFailure(StorageError error)
+        {
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Backend StorageItem not written" + item.getLogId() + " : " + error.getErrorCode());
+        }
+      });
+      return true;
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure backend write" + item.getLogId(), ex);
+    }
+    return false;
+  }
+
+  /**
+   * Compress the payload if enabled for the type of the item and the payload
+   * exceeds the threshold.
+   * 
+   * @param item
+   * @param payload The json string of the item
+   * @return The payload to be stored, compressed only if it became smaller
+   */
+  private String compressStorageItemPayload(StorageItem item, String payload)
+  {
+    if (payload == null || payload.length() < storageItemCompressionThreshold) return payload;
+    if (!isStorageItemCompressionEnabled(item.getTypeName())) return payload;
+    String compressed = StorageItemCompressor.encode(payload);
+    if (compressed.length() >= payload.length()) return payload;
+    if (StorageLogging.isLoggable(logger, Level.FINE)) logger.log(Level.FINE, "Local StorageItem compressed from " + payload.length() + " to " + compressed.length() + " chars" + item.getLogId());
+    return compressed;
+  }
+
+  /**
+   * Convert an item stored in the former format (json value plus a separate
+   * time key) to the envelope format.
+   * 
+   * @param item
+   * @param val The json string stored under the StorageItemIdKey
+   * @return The cache entry for the item
+   */
+  private StorageItemCacheEntry migrateStorageItemToEnvelope(StorageItem item, String val)
+  {
+    JSONValue json = JSONParser.parseStrict(val);
+    item.fromJson(json);
+    Date storeTime = readStorageItemStorageTimeFromLocalStorage(item);
+    StorageItemCacheEntry entry = new StorageItemCacheEntry(item.getStorageItemIdKey(), json, val, getItemVersion(item), storeTime != null ? storeTime.getTime() : 0);
+    try
+    {
+      if (writeStorageItemValueToLocalStorage(item.getStorageItemIdKey(), item.getStorageItemIdKey(), StorageItemEnvelope.wrap(entry.getStoreTime(), entry.getVersion(), compressStorageItemPayload(item, val))))
+      { // the old value is replaced, its separate time key isn't needed anymore
+        removeLocalStorageValue(item.getStorageItemTimeKey());
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Local StorageItem converted to envelope" + item.getLogId());
+      } else
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "StorageItem not converted to envelope" + item.getLogId());
+      }
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure converting StorageItem to envelope" + item.getLogId(), ex);
+    }
+    return entry;
+  }
+
+  /**
+   * Retrieve the HTTP cache validators of the locally stored copy of the item.
+   * The copy is only revalidated if its version is still acceptable.
+   * 
+   * @param item
+   * @param expectedVersion The minimum item version, not checked if <=0
+   * @return The validators, empty ones if there is no copy to revalidate
+   */
+  private StorageItemValidators getStorageItemValidators(StorageItem item, int expectedVersion)
+  {
+    try
+    {
+      StorageItemCacheEntry entry = storageItemCache.get(item.getStorageItemIdKey());
+      if (entry == null)
+      {
+        entry = loadStorageItemCacheEntry(item);
+      }
+      if (entry != null && entry.isVersionValid(expectedVersion))
+      {
+        return StorageItemValidators.fromStorageValue(getLocalStorageValue(item.getStorageItemValidatorKey()), entry);
+      }
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception reading StorageItem validators" + item.getLogId(), ex);
+    }
+    return new StorageItemValidators();
+  }
+
+  /**
+   * Write the HTTP cache validators as received with the item to the html5
+   * storage, remove them if there are none.
+   */
+  private void writeStorageItemValidatorsToLocalStorage(StorageItem item, StorageItemValidators validators)
+  {
+    try
+    {
+      if (validators == null || validators.isEmpty())
+      {
+        removeStorageItemValidatorsFromLocalStorage(item.getStorageItemIdKey());
+      } else if (!writeStorageItemValueToLocalStorage(item.getStorageItemIdKey(), item.getStorageItemValidatorKey(), validators.toStorageValue()))
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "StorageItem validators not written, no space left" + item.getLogId());
+      }
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception writing StorageItem validators" + item.getLogId(), ex);
+    }
+  }
+
+  /**
+   * The locally stored item was confirmed by the server to be still up to
+   * date, thus restart its cache time and take the values from the cache.
+   */
+  private void refreshStorageItemFromLocalStorage(StorageItem item, StorageItemCacheEntry entry)
+  {
+    fillStorageItem(item, entry);
+    entry.setStoreTime(new Date().getTime());
+    writeStorageItemStorageTimeToLocalStorage(item, entry);
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Local StorageItem revalidated" + item.getLogId());
+  }
+
+  /**
+   * Evaluate the version of the item, a missing version is treated as 0
+   */
+  private int getItemVersion(StorageItem item)
+  {
+    Integer version = item.getVersion();
+    return version != null ? version : 0;
+  }
+
+  /**
+   * Write the items store time to the envelope header in the html5 storage for
+   * later usage in relation to the cache time
+   * 
+   * @param item The storage time for the given item (ID) is written to the
+   *          key-value HTML5 storage.
+   * @param entry The cache entry of the item holding the new store time
+   */
+  private void writeStorageItemStorageTimeToLocalStorage(StorageItem item, StorageItemCacheEntry entry)
+  {
+    if (item == null || entry == null) return;
+    try
+    {
+      if (storageBackend != null)
+      {
+        storageBackend.put(item.getStorageItemIdKey(), StorageItemEnvelope.wrap(entry.getStoreTime(), entry.getVersion(), compressStorageItemPayload(item, entry.getPayload())), null);
+        return;
+      }
+      StorageItemEnvelope envelope = StorageItemEnvelope.parse(getLocalStorageValue(item.getStorageItemIdKey()));
+      String val = envelope != null ? envelope.withStoreTime(entry.getStoreTime()) : StorageItemEnvelope.wrap(entry.getStoreTime(), entry.getVersion(), entry.getPayload());
+      if (!writeStorageItemValueToLocalStorage(item.getStorageItemIdKey(), item.getStorageItemIdKey(), val))
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Local StorageItem time not written, no space left" + item.getLogId());
+      }
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception local writeStorageItem time" + item.getLogId(), ex);
+    }
+  }
+
+  /**
+   * Read the items Date/Time store value from html5 storage as it was written
+   * in the former format with a separate time key.
    * 
    * @param item The time when a certain StorageItem was written to the HTML5
    *          key-value storage is read.
    * @return null if the read operation failed or nothing is found.
    */
-  private Date readStorageItemStorageTimeFromLocalStorage(StorageItem item)
+  private Date readStorageItemStorageTimeFromLocalStorage(StorageItem item)
+  {
+    if (item == null || item.getStorageItemTimeKey() == null) return null;
+    try
+    {
+      String val = getLocalStorageValue(item.getStorageItemTimeKey());
+      if (val != null)
+      {
+        return DateTimeFormat.getFormat(PredefinedFormat.DATE_TIME_FULL).parse(val);
+      }
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception local readStorageItem time" + item.getLogId(), ex);
+    }
+    return null;
+  }
+
+  /**
+   * Remove all StorageItem related keys from the LocalStorage, thus clear the
+   * cached json objects and references etc.
+   */
+  public void clearStorageItems()
+  {
+    clearStorageItems(null);
+  }
+
+  /**
+   * Remove all StorageItem related keys of the given type from the
+   * LocalStorage.
+   * 
+   * @param typeName The type name of the items (see StorageItem.getTypeName) or
+   *          null to remove the items of all types
+   */
+  public void clearStorageItems(String typeName)
+  {
+    try
+    {
+      StorageKeyIndex index = getStorageKeyIndex();
+      for (String key : index.getItemKeys(typeName))
+      {
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Remove cached StorageItem:" + key);
+        storageItemCache.remove(key);
+        removeLocalStorageValue(key);
+        removeLocalStorageValue(StorageItem.getStorageItemTimeKey(key));
+        removeLocalStorageValue(StorageItem.getStorageItemValidatorKey(key));
+      }
+      index.clearItems(typeName);
+      persistStorageKeyIndex();
+      if (storageBackend != null)
+      {
+        clearStorageItemsFromBackend(typeName);
+      }
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Execption clearing StorageItems", ex);
+    }
+  }
+
+  /**
+   * Remove all StorageItem related keys of the given type from the backend
+   * 
+   * @param typeName The type name of the items or null for all types
+   */
+  private void clearStorageItemsFromBackend(String typeName)
+  {
+    final List<String> keys = new ArrayList<String>();
+    String prefix = typeName != null ? StorageItem.getStorageItemIdKey(typeName, "") : "";
+    storageBackend.iterate(prefix, new StorageBackendVisitor()
+    {
+      public boolean visit(String key, String value)
+      {
+        if (StorageItem.isStorageItemKey(key))
+        {
+          keys.add(key);
+        }
+        return true;
+      }
+    }, new Callback<Void, StorageError>()
+    {
+      public void onSuccess(Void result)
+      {
+        for (String key : keys)
+        {
+          storageItemCache.remove(key);
+        }
+        storageBackend.deleteAll(keys, null);
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Removed " + keys.size() + " StorageItem keys from backend");
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure clearing StorageItems from backend : " + error.getErrorCode());
+      }
+    });
+  }
+
+  /**
+   * Retrieve the keys of all StorageItems of the given type which are cached
+   * in the LocalStorage.
+   * 
+   * @param typeName The type name of the items (see StorageItem.getTypeName) or
+   *          null for the items of all types
+   * @return The StorageItemIdKeys
+   */
+  public List<String> getCachedStorageItemKeys(String typeName)
+  {
+    return getStorageKeyIndex().getItemKeys(typeName);
+  }
+
+  /****************************************************************************************************************
+   * Index of the StorageItem and Resource keys in the LocalStorage
+   ****************************************************************************************************************/
+
+  private StorageKeyIndex storageKeyIndex = null;
+  private boolean storageKeyIndexPersistScheduled = false;
+  private boolean storageKeyIndexAccessPersistScheduled = false;
+  private long storageKeyIndexBytes = 0;
+  private static int STORAGEKEYINDEXACCESSPERSISTDELAY = 10000;
+
+  /**
+   * Retrieve the index of the keys cached in the LocalStorage. It is read from
+   * the LocalStorage once, or build up by walking through all keys if there is
+   * no index stored yet.
+   * 
+   * @return The index
+   */
+  protected StorageKeyIndex getStorageKeyIndex()
+  {
+    if (storageKeyIndex != null) return storageKeyIndex;
+    Storage storage = this.getLocalStorage();
+    if (storage == null)
+    {
+      storageKeyIndex = new StorageKeyIndex();
+      return storageKeyIndex;
+    }
+    String value = storage.getItem(StorageKeyIndex.STORAGEKEYINDEXKEY);
+    if (value != null)
+    {
+      storageKeyIndex = StorageKeyIndex.fromStorageValue(value);
+      storageKeyIndexBytes = getStorageByteSize(StorageKeyIndex.STORAGEKEYINDEXKEY, value);
+    } else
+    {
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Build StorageKeyIndex from LocalStorage");
+      storageKeyIndex = new StorageKeyIndex();
+      long now = new Date().getTime();
+      int len = storage.getLength();
+      for (int i = 0; i < len; i++)
+      {
+        String key = storage.key(i);
+        if (StorageItem.isStorageItemIdKey(key))
+        {
+          storageKeyIndex.setItem(key, getStorageByteSize(key, storage.getItem(key)), now);
+        } else
+        {
+          storageKeyIndex.addKey(key);
+        }
+      }
+      storageKeyIndex.setDirty(true);
+      persistStorageKeyIndex();
+    }
+    return storageKeyIndex;
+  }
+
+  /**
+   * Register the written StorageItemIdKey or ResourceIdKey in the index, the
+   * index is persisted at the end of the current event loop.
+   */
+  protected void registerStorageKey(String key)
+  {
+    getStorageKeyIndex().addKey(key);
+    scheduleStorageKeyIndexPersist();
+  }
+
+  /**
+   * Persist the index once it changed. Added or removed keys are persisted at
+   * the end of the current event loop, changed access times only after some
+   * delay to avoid rewriting the index on each read.
+   */
+  protected void scheduleStorageKeyIndexPersist()
+  {
+    StorageKeyIndex index = getStorageKeyIndex();
+    if (index.isDirty() && !storageKeyIndexPersistScheduled)
+    {
+      storageKeyIndexPersistScheduled = true;
+      Scheduler.get().scheduleFinally(new Scheduler.ScheduledCommand()
+      {
+        @Override
+        public void execute()
+        {
+          storageKeyIndexPersistScheduled = false;
+          persistStorageKeyIndex();
+        }
+      });
+    } else if (index.isAccessDirty() && !storageKeyIndexAccessPersistScheduled)
+    {
+      storageKeyIndexAccessPersistScheduled = true;
+      Scheduler.get().scheduleFixedDelay(new Scheduler.RepeatingCommand()
+      {
+        @Override
+        public boolean execute()
+        {
+          storageKeyIndexAccessPersistScheduled = false;
+          persistStorageKeyIndex();
+          return false;
+        }
+      }, STORAGEKEYINDEXACCESSPERSISTDELAY);
+    }
+  }
+
+  /**
+   * Write the index to the LocalStorage if it was changed. The index counts
+   * against the byte budget like the items, if it doesn't fit the least
+   * recently used items are evicted and the shrunk index is written instead.
+   * A stale index would leave the keys written since unknown after a reload,
+   * they could not be evicted anymore.
+   */
+  protected void persistStorageKeyIndex()
   {
-    if (item == null || item.getStorageItemTimeKey() == null) return null;
     try
     {
-      String val = getLocalStorage().getItem(item.getStorageItemTimeKey());
-      if (val != null)
+      if (storageKeyIndex == null || !(storageKeyIndex.isDirty() || storageKeyIndex.isAccessDirty())) return;
+      Storage storage = this.getLocalStorage();
+      if (storage == null) return;
+      while (true)
+      {
+        String value = storageKeyIndex.toStorageValue();
+        long size = getStorageByteSize(StorageKeyIndex.STORAGEKEYINDEXKEY, value);
+        long required = storageKeyIndex.getItemBytes() + size - storageItemByteBudget;
+        if (storageItemByteBudget > 0 && required > 0 && evictStorageItems(required, null) > 0)
+        { // the evicted items are dropped from the index value as well
+          continue;
+        }
+        try
+        {
+          storage.setItem(StorageKeyIndex.STORAGEKEYINDEXKEY, value);
+          storageKeyIndexBytes = size;
+          storageKeyIndex.setDirty(false);
+          return;
+        } catch (Exception ex)
+        {
+          if (!LocalStorageBackend.isQuotaExceeded(ex))
+          {
+            if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception persisting StorageKeyIndex", ex);
+            return;
+          }
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "LocalStorage quota exceeded persisting StorageKeyIndex");
+          if (evictStorageItems(size, null) == 0)
+          {
+            if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "StorageKeyIndex not persisted, no space left");
+            return;
+          }
+        }
+      }
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception persisting StorageKeyIndex", ex);
+    }
+  }
+
+  /****************************************************************************************************************
+   * Read / Write StorageItems to local Files
+   ****************************************************************************************************************/
+
+  /**
+   * Write the item to a local file
+   * 
+   * @param item The StorageItem to be stored to the file system within the
+   *          defined cache directory
+   * @param callback Is called once the asynch action completed or failed.
+   * @return false if the asynchronous action invocation failed.
+   */
+  public boolean writeStorageItemToLocalFile(final StorageItem item, Callback<StorageItem, StorageError> measuredCallback)
+  {
+    if (item == null) return false;
+    final Callback<StorageItem, StorageError> callback = storageTrace.trace(StorageStatistics.OP_FILE, item, StorageStatistics.TIER_FILE, storageStatistics.measure(StorageStatistics.OP_FILE, measuredCallback));
+    try
+    {
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "local writeStorageItem invoked " + item.toString());
+      return getLocalFileReference(getCacheDirectory(), item.getJsonFileName(), true, new FileCallback<FileEntry, StorageError>()
+      {
+        @Override
+        public void onSuccess(FileEntry entry)
+        {
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "local writeStorageItem FileEntry successfully retrieved" + item.getLogId());
+          // store the file content
+          writeStorageItemToLocalFile(entry, item, callback);
+        }
+
+        @Override
+        public void onFailure(StorageError error)
+        {
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure local writeStorageItem FileSystem creation" + item.getLogId() + " " + error.toString());
+        }
+      });
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception local writeStorageItem " + item.getLogId(), ex);
+      if (callback != null)
+      {
+        callback.onFailure(new StorageError(FileError.ABORT_ERR));
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Write the item to the local fileentry asynchronous
+   * 
+   * @param fileEntry
+   * @param item
+   * @param callback Is called once the asynch action completed or failed
+   * @return false if the asynchronous action invocation failed.
+   */
+  private boolean writeStorageItemToLocalFile(FileEntry fileEntry, final StorageItem item, final Callback<StorageItem, StorageError> callback)
+  {
+    if (item == null) return false;
+    try
+    {
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "writeStorageItem to local file invoked" + item.getLogId());
+      fileEntry.createWriter(new FileCallback<FileWriter, FileError>()
+      {
+        @Override
+        public void onSuccess(FileWriter writer)
+        {
+          writer.setOnWriteEndCallback(new WriterCallback<FileWriter>()
+          {
+            @Override
+            public void onCallback(FileWriter result)
+            {
+              // file written
+              if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "writeToLocalFile successfully written" + item.getLogId());
+              if (callback != null)
+              {
+                callback.onSuccess(item);
+              }
+            }
+          });
+          writer.setOnErrorCallback(new WriterCallback<FileWriter>()
+          {
+            @Override
+            public void onCallback(FileWriter result)
+            {
+              // Error while writing file
+              if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure file write StorageItem" + item.getLogId() + " : " + result.toString());
+              if (callback != null)
+              {
+                callback.onFailure(new StorageError(result.getError()));
+              }
+            }
+          });
+          JSONValue json = item.toJson();
+          writer.write(json.toString());
+        }
+
+        @Override
+        public void onFailure(FileError error)
+        {
+          // can not create writer
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure file writer creation StorageItem" + item.getLogId() + " : " + error.toString());
+          if (callback != null)
+          {
+            callback.onFailure(new StorageError(error));
+          }
+        }
+      });
+      return true;
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception file write StorageItem" + item.toString(), ex);
+      if (callback != null)
+      {
+        callback.onFailure(new StorageError(FileError.ABORT_ERR));
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Read the item from the Local File storage
+   * 
+   * @param item The StorageItem (or inherited objects) to be read from the
+   *          local cache file system location.
+   * @param callback Is called once the asynch action completed or failed
+   * @return false if the asynchronous action invocation failed.
+   */
+  public boolean readStorageItemFromLocalFile(final StorageItem item, Callback<StorageItem, StorageError> measuredCallback)
+  {
+    if (item == null) return false;
+    final Callback<StorageItem, StorageError> callback = storageTrace.trace(StorageStatistics.OP_FILE, item, StorageStatistics.TIER_FILE, storageStatistics.measure(StorageStatistics.OP_FILE, measuredCallback));
+    try
+    {
+      // get the file reference
+      return getLocalFileReference(getCacheDirectory(), item.getJsonFileName(), false, new FileCallback<FileEntry, StorageError>()
+      {
+        @Override
+        public void onSuccess(FileEntry entry)
+        {
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "StorageItem File successfully retrieved" + item.getLogId());
+          storageStatistics.recordHit(StorageStatistics.TIER_FILE);
+          readStorageItemFromLocalFile(entry, item, callback);
+        }
+
+        @Override
+        public void onFailure(StorageError error)
+        {
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure LocalFileReference retrieval" + item.getLogId() + " : " + error.toString());
+          storageStatistics.recordMiss(StorageStatistics.TIER_FILE);
+          if (callback != null)
+          {
+            callback.onFailure(error);
+          }
+        }
+      });
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception file write StorageItem" + item.getLogId(), ex);
+      if (callback != null)
+      {
+        callback.onFailure(new StorageError(FileError.ABORT_ERR));
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Read the StorageItem from the given FileEntry and refresh the given
+   * CommonView
+   * 
+   * @param fileEntry
+   * @param item
+   * @param callback Is called once the asynch action completed or failed
+   * @return false if the asynchronous action invocation failed.
+   */
+  private boolean readStorageItemFromLocalFile(FileEntry fileEntry, final StorageItem item, final Callback<StorageItem, StorageError> callback)
+  {
+    if (item == null) return false;
+    try
+    {
+      // logger.log(Level.INFO,"readStorageItem from local file invoked" +
+      // item.getLogId());
+      final FileReader reader = phonegap.getFile().createReader();
+      reader.setOnloadCallback(new ReaderCallback<FileReader>()
+      {
+        @Override
+        public void onCallback(FileReader result)
+        {
+          String json = result.getResult();
+          try
+          {
+            item.fromJson(json);
+          } catch (Exception ex)
+          {
+            if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure decoding StorageItem file" + item.getLogId(), ex);
+            if (callback != null)
+            {
+              callback.onFailure(new StorageError(FileError.ENCODING_ERR));
+            }
+            return;
+          }
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "readStorageItem from local file load completed for item" + item.getLogId());
+          if (callback != null)
+          {
+            callback.onSuccess(item);
+          }
+        }
+      });
+      reader.setOnErrorCallback(new ReaderCallback<FileReader>()
       {
-        return DateTimeFormat.getFormat(PredefinedFormat.DATE_TIME_FULL).parse(val);
-      }
+        @Override
+        public void onCallback(FileReader result)
+        {
+          // error while reading file...
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Error StorageItem file writer reading" + item.getLogId() + " : " + result.toString());
+          if (callback != null)
+          {
+            callback.onFailure(new StorageError(result.getError()));
+          }
+        }
+      });
+      fileEntry.getFile(new FileCallback<FileObject, FileError>()
+      {
+        @Override
+        public void onSuccess(FileObject file)
+        {
+          reader.readAsText(file);
+        }
+
+        @Override
+        public void onFailure(FileError error)
+        {
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure StorageItem file access" + item.getLogId() + " : " + error.getErrorCode());
+          if (callback != null)
+          {
+            callback.onFailure(new StorageError(error));
+          }
+        }
+      });
+      return true;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception local readStorageItem time" + item.getLogId(), ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception file read StorageItem" + item.getLogId(), ex);
+      if (callback != null)
+      {
+        callback.onFailure(new StorageError(FileError.ABORT_ERR));
+      }
     }
-    return null;
+    return false;
   }
 
   /**
-   * Remove all StorageItem related keys from the LocalStorage, thus clear the
-   * cached json objects and references etc.
+   * Our reference to the file system
    */
-  public void clearStorageItems()
+  private FileSystem fileSystem = null;
+  private FileCallbackGroup<FileSystem> pendingFileSystem = null;
+
+  /**
+   * Retrieve the FileEntry Reference on the local filesystem of the device if
+   * running in a local container eg. Phonegap. Concurrent calls wait for the
+   * same request.
+   * 
+   * @param callback is called once the asynch action completed or failed
+   * @return false if the asynchronous action invocation failed.
+   */
+  private boolean getFileSystem(final FileCallback<FileSystem, StorageError> callback)
   {
     try
     {
-      Storage storage = this.getLocalStorage();
-      if (storage == null) return;
-      Integer len = storage.getLength();
-      int index = 0;
-      for (int i = 0; i < len; i++)
+      if (!phonegap.isPhoneGapDevice()) return false;
+      if (fileSystem != null)
       {
-        String key = storage.key(index);
-        if (StorageItem.isStorageItemKey(key))
-        {
-          logger.log(Level.INFO, "Remove cached StorageItem:" + key);
-          storage.removeItem(key);
-        } else
+        if (callback != null)
         {
-          index++;
+          callback.onSuccess(fileSystem);
         }
+        return true;
       }
+      if (pendingFileSystem != null)
+      {
+        pendingFileSystem.add(callback);
+        return true;
+      }
+      pendingFileSystem = new FileCallbackGroup<FileSystem>();
+      pendingFileSystem.add(callback);
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "getFileReference - Request Local File System");
+      phonegap.getFile().requestFileSystem(FileSystem.LocalFileSystem_PERSISTENT, 0, new FileCallback<FileSystem, FileError>()
+      {
+        @Override
+        public void onSuccess(FileSystem entry)
+        {
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "FileSystem retrieved");
+          fileSystem = entry;
+          FileCallbackGroup<FileSystem> callbacks = pendingFileSystem;
+          pendingFileSystem = null;
+          callbacks.onSuccess(fileSystem);
+        }
+
+        @Override
+        public void onFailure(FileError error)
+        {
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure filesystem retrieval " + error.toString());
+          FileCallbackGroup<FileSystem> callbacks = pendingFileSystem;
+          pendingFileSystem = null;
+          callbacks.onFailure(new StorageError(error));
+        }
+      });
+      return true;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Execption clearing StorageItems", ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "General failure FileSystem retrieval", ex);
+      pendingFileSystem = null;
+      if (callback != null)
+      {
+        callback.onFailure(new StorageError(FileError.ABORT_ERR));
+      }
     }
+    return false;
   }
 
-  /****************************************************************************************************************
-   * Read / Write StorageItems to local Files
-   ****************************************************************************************************************/
+  /**
+   * The FileEntry handles retrieved so far by their path and the pending
+   * lookups by their path and create flag
+   */
+  private Map<String, FileEntry> localFileEntries = new HashMap<String, FileEntry>();
+  private Map<String, FileCallbackGroup<FileEntry>> pendingLocalFileEntries = new HashMap<String, FileCallbackGroup<FileEntry>>();
 
   /**
-   * Write the item to a local file
+   * Retrieve the FileEntry Reference on the local filesystem of the device if
+   * running in a local container eg. Phonegap. The retrieved references are
+   * kept, concurrent calls for the same file wait for the same request.
    * 
-   * @param item The StorageItem to be stored to the file system within the
-   *          defined cache directory
-   * @param callback Is called once the asynch action completed or failed.
+   * @param directory
+   * @param filename
+   * @param create true if the file is created if not existing yet
+   * @param callback is called once the asynch action completed or failed
    * @return false if the asynchronous action invocation failed.
    */
-  public boolean writeStorageItemToLocalFile(final StorageItem item, final Callback<StorageItem, StorageError> callback)
+  public boolean getLocalFileReference(final String directory, final String filename, final boolean create, final FileCallback<FileEntry, StorageError> callback)
   {
-    if (item == null) return false;
     try
     {
-      logger.log(Level.INFO, "local writeStorageItem invoked " + item.toString());
-      return getLocalFileReference(getCacheDirectory(), item.getJsonFileName(), true, new FileCallback<FileEntry, StorageError>()
+      if (!phonegap.isPhoneGapDevice()) return false;
+      final String path = getLocalFilePath(directory, filename);
+      FileEntry cachedEntry = localFileEntries.get(path);
+      if (cachedEntry != null)
+      {
+        if (callback != null)
+        {
+          callback.onSuccess(cachedEntry);
+        }
+        return true;
+      }
+      final String pendingKey = path + (create ? "+" : "");
+      FileCallbackGroup<FileEntry> pending = pendingLocalFileEntries.get(pendingKey);
+      if (pending != null)
+      {
+        pending.add(callback);
+        return true;
+      }
+      pending = new FileCallbackGroup<FileEntry>();
+      pending.add(callback);
+      pendingLocalFileEntries.put(pendingKey, pending);
+      getLocalDirectoryEntry(directory,new FileCallback<DirectoryEntry, StorageError>()
       {
         @Override
-        public void onSuccess(FileEntry entry)
+        public void onSuccess(DirectoryEntry directoryEntry)
         {
-          logger.log(Level.INFO, "local writeStorageItem FileEntry successfully retrieved" + item.getLogId());
-          // store the file content
-          writeStorageItemToLocalFile(entry, item, callback);
+          directoryEntry.getFile(filename, new Flags(create, false), new FileCallback<FileEntry, FileError>()
+          {
+            @Override
+            public void onSuccess(FileEntry entry)
+            {
+              if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "getLocalFileReference - File retrieved : " + filename);
+              localFileEntries.put(path, entry);
+              pendingLocalFileEntries.remove(pendingKey).onSuccess(entry);
+            }
+            @Override
+            public void onFailure(FileError error)
+            {
+              if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure file retrieval " + filename + " " + error.toString());
+              pendingLocalFileEntries.remove(pendingKey).onFailure(new StorageError(error));
+            }
+          });
         }
-
         @Override
         public void onFailure(StorageError error)
         {
-          logger.log(Level.SEVERE, "Failure local writeStorageItem FileSystem creation" + item.getLogId() + " " + error.toString());
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure filesystem retrieval " + error.toString());
+          pendingLocalFileEntries.remove(pendingKey).onFailure(error);
         }
       });
+      return true;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception local writeStorageItem " + item.getLogId(), ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "General failure directory/file creator", ex);
       if (callback != null)
       {
         callback.onFailure(new StorageError(FileError.ABORT_ERR));
@@ -498,69 +2025,177 @@ public class StorageManager
   }
 
   /**
-   * Write the item to the local fileentry asynchronous
+   * Drop the kept FileEntry reference of a removed or moved file
    * 
-   * @param fileEntry
-   * @param item
-   * @param callback Is called once the asynch action completed or failed
+   * @param directory
+   * @param filename
+   */
+  public void forgetLocalFileReference(String directory, String filename)
+  {
+    localFileEntries.remove(getLocalFilePath(directory, filename));
+  }
+
+  private static String getLocalFilePath(String directory, String filename)
+  {
+    return directory + "/" + filename;
+  }
+
+  /**
+   * The DirectoryEntry handles retrieved so far and the pending lookups by
+   * their path
+   */
+  private Map<String, DirectoryEntry> localDirectoryEntries = new HashMap<String, DirectoryEntry>();
+  private Map<String, FileCallbackGroup<DirectoryEntry>> pendingLocalDirectoryEntries = new HashMap<String, FileCallbackGroup<DirectoryEntry>>();
+
+  /**
+   * Retrieve the FileEntry Reference on the local filesystem of the device if
+   * running in a local container eg. Phonegap. The retrieved references are
+   * kept, concurrent calls for the same directory wait for the same request.
+   * 
+   * @param directory The directory which we want to get a reference for. It will be created if it doesn't exist yet. 
+   *                  It is based on the Filesystem reference.
+   * @param callback is called once the asynch action completed or failed
    * @return false if the asynchronous action invocation failed.
    */
-  private boolean writeStorageItemToLocalFile(FileEntry fileEntry, final StorageItem item, final Callback<StorageItem, StorageError> callback)
+  protected boolean getLocalDirectoryEntry(final String directory, final FileCallback<DirectoryEntry, StorageError> callback)
   {
-    if (item == null) return false;
     try
     {
-      logger.log(Level.INFO, "writeStorageItem to local file invoked" + item.getLogId());
-      fileEntry.createWriter(new FileCallback<FileWriter, FileError>()
+      if (!phonegap.isPhoneGapDevice()) return false;
+      DirectoryEntry cachedEntry = localDirectoryEntries.get(directory);
+      if (cachedEntry != null)
+      {
+        if (callback != null)
+        {
+          callback.onSuccess(cachedEntry);
+        }
+        return true;
+      }
+      FileCallbackGroup<DirectoryEntry> pending = pendingLocalDirectoryEntries.get(directory);
+      if (pending != null)
+      {
+        pending.add(callback);
+        return true;
+      }
+      pending = new FileCallbackGroup<DirectoryEntry>();
+      pending.add(callback);
+      pendingLocalDirectoryEntries.put(directory, pending);
+      getFileSystem(new FileCallback<FileSystem, StorageError>()
       {
         @Override
-        public void onSuccess(FileWriter writer)
+        public void onSuccess(FileSystem entry)
         {
-          writer.setOnWriteEndCallback(new WriterCallback<FileWriter>()
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "getLocalDirectoryEntry - FileSystem retrieved");
+          final DirectoryEntry root = entry.getRoot();
+          root.getDirectory(directory, new Flags(true, false), new FileCallback<DirectoryEntry, FileError>()
           {
             @Override
-            public void onCallback(FileWriter result)
+            public void onSuccess(final DirectoryEntry dirEntry)
             {
-              // file written
-              logger.log(Level.INFO, "writeToLocalFile successfully written" + item.getLogId());
-              if (callback != null)
-              {
-                callback.onSuccess(item);
-              }
+              if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "getLocalDirectoryEntry - Directory retrieved : " + directory);
+              localDirectoryEntries.put(directory, dirEntry);
+              pendingLocalDirectoryEntries.remove(directory).onSuccess(dirEntry);
             }
-          });
-          writer.setOnErrorCallback(new WriterCallback<FileWriter>()
-          {
+
             @Override
-            public void onCallback(FileWriter result)
+            public void onFailure(FileError error)
             {
-              // Error while writing file
-              logger.log(Level.SEVERE, "Failure file write StorageItem" + item.getLogId() + " : " + result.toString());
-              if (callback != null)
-              {
-                callback.onFailure(new StorageError(result.getError()));
-              }
+              if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure directory retrieval " + directory + " : " + error.toString() + " : " + error.getErrorCode());
+              pendingLocalDirectoryEntries.remove(directory).onFailure(new StorageError(error));
             }
           });
-          JSONValue json = item.toJson();
-          writer.write(json.toString());
         }
 
         @Override
-        public void onFailure(FileError error)
+        public void onFailure(StorageError error)
         {
-          // can not create writer
-          logger.log(Level.SEVERE, "Failure file writer creation StorageItem" + item.getLogId() + " : " + error.toString());
-          if (callback != null)
-          {
-            callback.onFailure(new StorageError(error));
-          }
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure filesystem retrieval " + error.toString() + " : " + error.getErrorCode());
+          pendingLocalDirectoryEntries.remove(directory).onFailure(error);
         }
       });
       return true;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception file write StorageItem" + item.toString(), ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception in getLocalDirectory : " + directory, ex);
+      pendingLocalDirectoryEntries.remove(directory);
+      if (callback != null)
+      {
+        callback.onFailure(new StorageError(FileError.ABORT_ERR));
+      }
+    }
+    return false;
+  }
+
+  /****************************************************************************************************************
+   * Read StorageItem from URL path
+   ****************************************************************************************************************/
+
+  /**
+   * Retrieve the item from the storage. First try local storage, if the version
+   * and the validTime are valid, it is returned. Else it tries to retrieve it
+   * from the remote backend. If found, it is cached locally for fast access.
+   * 
+   * @param item The item to be read by ID from 1. the cache, 2. localAppPath 3.
+   *          remoteAppPath in this priority order
+   * @param useCache If true, the system will first try to retrieve the value
+   *          from the local cache before it reads the same from the
+   *          applications path
+   * @param validTime The maximum age in seconds of the cache to be accepted as
+   *          a valid item value, if elapsed it will try to read from the
+   *          applications path / If <= 0 don't care
+   * @param expectedVersion The versionNumber which must be available in the
+   *          cache to be a valid cache item. If <=0 don't care.
+   */
+  public boolean readStorageItem(final StorageItem item, boolean useCache, int expectedVersion, final int validTime, Callback<StorageItem, StorageError> measuredCallback)
+  {
+    final Callback<StorageItem, StorageError> callback = storageTrace.trace(StorageStatistics.OP_READITEM, item, null, storageStatistics.measure(StorageStatistics.OP_READITEM, measuredCallback));
+    try
+    {
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "readStorageItem" + item.getLogId());
+      StorageItemValidators validators = null;
+      if (useCache && this.getCacheEnabled() && storageBackend != null)
+      { // retrieve the item first from the backend
+        lookupStorageItemInBackend(item, expectedVersion, validTime, new Callback<StorageItemValidators, StorageError>()
+        {
+          public void onSuccess(StorageItemValidators validators)
+          {
+            if (fillStorageItemFromCacheEntry(item, validators.getCachedEntry(), validTime))
+            {
+              storageStatistics.recordHit(StorageStatistics.TIER_BACKEND);
+              callback.onSuccess(item);
+            } else
+            {
+              storageStatistics.recordMiss(StorageStatistics.TIER_BACKEND);
+              readStorageItemFromApplication(item, validators, callback);
+            }
+          }
+
+          public void onFailure(StorageError error)
+          {
+            storageStatistics.recordMiss(StorageStatistics.TIER_BACKEND);
+            readStorageItemFromApplication(item, null, callback);
+          }
+        });
+        return true;
+      }
+      if (useCache && this.getCacheEnabled())
+      { // retrieve the item first from local storage cache
+        if (this.readStorageItemFromLocalStorage(item, expectedVersion, validTime))
+        { // found it valid in the cache
+          storageStatistics.recordHit(StorageStatistics.TIER_LOCALSTORAGE);
+          callback.onSuccess(item);
+          return true;
+        }
+        storageStatistics.recordMiss(StorageStatistics.TIER_LOCALSTORAGE);
+        // the cached copy might still be up to date, let the server confirm it
+        validators = getStorageItemValidators(item, expectedVersion);
+      }
+      // didn't found a matching item in the cache yet or version mismatch or
+      // cache time elapsed
+      return readStorageItemFromApplication(item, validators, callback);
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception readStorageItem" + item.getLogId(), ex);
       if (callback != null)
       {
         callback.onFailure(new StorageError(FileError.ABORT_ERR));
@@ -570,41 +2205,69 @@ public class StorageManager
   }
 
   /**
-   * Read the item from the Local File storage
+   * Retrieve the item from the storage without waiting for the network if a
+   * stale copy is available. If the item is valid in the local cache it is
+   * returned as with readStorageItem. If the cache time elapsed but a copy with
+   * an acceptable version is cached, this copy is returned immediately and the
+   * item is refreshed in the background from the application into the
+   * updateItem, thus the returned item isn't touched anymore. The
+   * updateCallback is only invoked with the updateItem if the refreshed value
+   * differs from the returned copy. If there is no usable copy at all, the item
+   * is read from the application as with readStorageItem.
    * 
-   * @param item The StorageItem (or inherited objects) to be read from the
-   *          local cache file system location.
-   * @param callback Is called once the asynch action completed or failed
+   * @param item The item to be read by ID
+   * @param updateItem A separate empty instance of the same type, the refreshed
+   *          value is read into it. The ID is taken over from the item.
+   * @param expectedVersion The versionNumber which must be available in the
+   *          cache to be a valid cache item. If <=0 don't care.
+   * @param validTime The maximum age in seconds of the cache to be accepted as
+   *          a valid item value, if elapsed it will be refreshed in the
+   *          background / If <= 0 don't care
+   * @param callback Is called once with the first available item value
+   * @param updateCallback Is called with the item if a background refresh
+   *          delivered a changed value, might be null
    * @return false if the asynchronous action invocation failed.
    */
-  public boolean readStorageItemFromLocalFile(final StorageItem item, final Callback<StorageItem, StorageError> callback)
+  public boolean readStorageItemStaleWhileRevalidate(final StorageItem item, final StorageItem updateItem, int expectedVersion, final int validTime, final Callback<StorageItem, StorageError> callback, final Callback<StorageItem, StorageError> updateCallback)
   {
-    if (item == null) return false;
     try
     {
-      // get the file reference
-      return getLocalFileReference(getCacheDirectory(), item.getJsonFileName(), false, new FileCallback<FileEntry, StorageError>()
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "readStorageItemStaleWhileRevalidate" + item.getLogId());
+      if (!this.getCacheEnabled())
       {
-        @Override
-        public void onSuccess(FileEntry entry)
+        return readStorageItem(item, false, expectedVersion, validTime, callback);
+      }
+      if (storageBackend != null)
+      {
+        lookupStorageItemInBackend(item, expectedVersion, validTime, new Callback<StorageItemValidators, StorageError>()
         {
-          logger.log(Level.INFO, "StorageItem File successfully retrieved" + item.getLogId());
-          readStorageItemFromLocalFile(entry, item, callback);
-        }
+          public void onSuccess(StorageItemValidators validators)
+          {
+            if (fillStorageItemFromCacheEntry(item, validators.getCachedEntry(), validTime))
+            {
+              callback.onSuccess(item);
+            } else
+            {
+              readStorageItemStaleWhileRevalidate(item, updateItem, validators, callback, updateCallback);
+            }
+          }
 
-        @Override
-        public void onFailure(StorageError error)
-        {
-          logger.log(Level.SEVERE, "Failure LocalFileReference retrieval" + item.getLogId() + " : " + error.toString());
-          if (callback != null)
+          public void onFailure(StorageError error)
           {
-            callback.onFailure(error);
+            readStorageItemFromApplication(item, null, callback);
           }
-        }
-      });
+        });
+        return true;
+      }
+      if (this.readStorageItemFromLocalStorage(item, expectedVersion, validTime))
+      { // found it valid in the cache
+        callback.onSuccess(item);
+        return true;
+      }
+      return readStorageItemStaleWhileRevalidate(item, updateItem, getStorageItemValidators(item, expectedVersion), callback, updateCallback);
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception file write StorageItem" + item.getLogId(), ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception readStorageItemStaleWhileRevalidate" + item.getLogId(), ex);
       if (callback != null)
       {
         callback.onFailure(new StorageError(FileError.ABORT_ERR));
@@ -614,54 +2277,58 @@ public class StorageManager
   }
 
   /**
-   * Read the StorageItem from the given FileEntry and refresh the given
-   * CommonView
+   * Return the stale copy of the item if there is one and refresh it in the
+   * background, else wait for the application.
    * 
-   * @param fileEntry
    * @param item
-   * @param callback Is called once the asynch action completed or failed
+   * @param updateItem The instance the refreshed value is read into
+   * @param validators The validators of the cached copy
+   * @param callback
+   * @param updateCallback
    * @return false if the asynchronous action invocation failed.
    */
-  private boolean readStorageItemFromLocalFile(FileEntry fileEntry, final StorageItem item, final Callback<StorageItem, StorageError> callback)
+  private boolean readStorageItemStaleWhileRevalidate(final StorageItem item, final StorageItem updateItem, final StorageItemValidators validators, final Callback<StorageItem, StorageError> callback, final Callback<StorageItem, StorageError> updateCallback)
   {
-    if (item == null) return false;
     try
     {
-      // logger.log(Level.INFO,"readStorageItem from local file invoked" +
-      // item.getLogId());
-      FileReader reader = phonegap.getFile().createReader();
-      reader.setOnloadCallback(new ReaderCallback<FileReader>()
+      final StorageItemCacheEntry staleEntry = validators.getCachedEntry();
+      if (staleEntry == null)
+      { // nothing usable cached, we must wait for the application
+        return readStorageItemFromApplication(item, validators, callback);
+      }
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Return stale StorageItem and revalidate" + item.getLogId());
+      fillStorageItem(item, staleEntry);
+      callback.onSuccess(item);
+      // the returned item belongs to the caller now, refresh into the other one
+      updateItem.fromJson(item);
+      readStorageItemFromApplication(updateItem, validators, new Callback<StorageItem, StorageError>()
       {
-        @Override
-        public void onCallback(FileReader result)
+        public void onSuccess(StorageItem newItem)
         {
-          String json = result.getResult();
-          // do something with the content
-          item.fromJson(json);
-          logger.log(Level.INFO, "readStorageItem from local file load completed for item" + item.getLogId());
-          if (callback != null)
+          if (validators.isNotModified()) return;
+          StorageItemCacheEntry newEntry = storageItemCache.get(newItem.getStorageItemIdKey());
+          String newJson = newEntry != null ? newEntry.getPayload() : toStorageItemPayload(newItem, newItem.toJson());
+          if (newJson.equals(staleEntry.getPayload()))
           {
-            callback.onSuccess(item);
+            if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Revalidated StorageItem unchanged" + newItem.getLogId());
+            return;
           }
-        }
-      });
-      reader.setOnErrorCallback(new ReaderCallback<FileReader>()
-      {
-        @Override
-        public void onCallback(FileReader result)
-        {
-          // error while reading file...
-          logger.log(Level.SEVERE, "Error StorageItem file writer reading" + item.getLogId() + " : " + result.toString());
-          if (callback != null)
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Revalidated StorageItem changed" + newItem.getLogId());
+          if (updateCallback != null)
           {
-            callback.onFailure(new StorageError(result.getError()));
+            updateCallback.onSuccess(newItem);
           }
         }
+
+        public void onFailure(StorageError error)
+        {
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure revalidating stale StorageItem" + item.getLogId() + " : " + error.getErrorCode());
+        }
       });
       return true;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception file read StorageItem" + item.getLogId(), ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception readStorageItemStaleWhileRevalidate" + item.getLogId(), ex);
       if (callback != null)
       {
         callback.onFailure(new StorageError(FileError.ABORT_ERR));
@@ -671,265 +2338,318 @@ public class StorageManager
   }
 
   /**
-   * Our reference to the file system
+   * Look up the item in the in memory cache and then in the backend.
+   * 
+   * @param item
+   * @param expectedVersion The minimum item version, not checked if <=0
+   * @param validTime The maximum age in seconds of a copy in the in memory
+   *          cache to be taken without reading the backend
+   * @param callback Receives the validators holding the cached copy if its
+   *          version is acceptable, empty ones if there is no usable copy or
+   *          the backend failed
    */
-  private FileSystem fileSystem = null;
+  private void lookupStorageItemInBackend(final StorageItem item, final int expectedVersion, int validTime, final Callback<StorageItemValidators, StorageError> callback)
+  {
+    final String key = item.getStorageItemIdKey();
+    StorageItemCacheEntry cached = storageItemCache.get(key);
+    if (cached != null && cached.isVersionValid(expectedVersion) && cached.isTimeValid(validTime, new Date().getTime()))
+    {
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Memory cached StorageItem found" + item.getLogId());
+      callback.onSuccess(new StorageItemValidators(null, null, cached));
+      return;
+    }
+    List<String> keys = new ArrayList<String>();
+    keys.add(key);
+    keys.add(item.getStorageItemValidatorKey());
+    storageBackend.getAll(keys, new Callback<Map<String, String>, StorageError>()
+    {
+      public void onSuccess(Map<String, String> values)
+      {
+        StorageItemEnvelope envelope = StorageItemEnvelope.parse(values.get(key));
+        if (envelope == null)
+        {
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Backend StorageItem not found" + item.getLogId());
+          callback.onSuccess(new StorageItemValidators());
+          return;
+        }
+        StorageItemCacheEntry entry = new StorageItemCacheEntry(key, null, envelope.getPayload(), envelope.getVersion(), envelope.getStoreTime());
+        storageItemCache.put(entry);
+        if (!entry.isVersionValid(expectedVersion))
+        {
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Backend StorageItem version mismatch" + item.getLogId());
+          callback.onSuccess(new StorageItemValidators());
+          return;
+        }
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Backend StorageItem found" + item.getLogId());
+        callback.onSuccess(StorageItemValidators.fromStorageValue(values.get(item.getStorageItemValidatorKey()), entry));
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure reading StorageItem from backend" + item.getLogId() + " : " + error.getErrorCode());
+        callback.onSuccess(new StorageItemValidators());
+      }
+    });
+  }
 
   /**
-   * Retrieve the FileEntry Reference on the local filesystem of the device if
-   * running in a local container eg. Phonegap
+   * Fill the given items with one read from the backend, items valid in the
+   * memory cache are taken from there.
    * 
-   * @param directory
-   * @param filename
-   * @param callback is called once the asynch action completed or failed
-   * @return false if the asynchronous action invocation failed.
+   * @param items The items to be read by ID
+   * @param expectedVersion The minimum item version, not checked if <=0
+   * @param validTime The maximum age in seconds, not checked if <=0
+   * @param callback Receives the items which were not found valid and must be
+   *          read from the application, all of them if the backend failed
    */
-  private boolean getFileSystem(final FileCallback<FileSystem, StorageError> callback)
+  protected void readStorageItemsFromBackend(List<StorageItem> items, final int expectedVersion, final int validTime, final Callback<List<StorageItem>, StorageError> callback)
   {
-    try
+    final List<StorageItem> uncachedItems = new ArrayList<StorageItem>();
+    List<String> keys = new ArrayList<String>();
+    for (StorageItem item : items)
     {
-      if (!phonegap.isPhoneGapDevice()) return false;
-      if (fileSystem != null)
+      StorageItemCacheEntry cached = storageItemCache.get(item.getStorageItemIdKey());
+      if (cached != null && cached.isVersionValid(expectedVersion) && fillStorageItemFromCacheEntry(item, cached, validTime))
       {
-        if (callback != null)
-        {
-          callback.onSuccess(fileSystem);
-        }
-        return true;
+        storageStatistics.recordHit(StorageStatistics.TIER_BACKEND);
+        continue;
       }
-      logger.log(Level.INFO, "getFileReference - Request Local File System");
-      phonegap.getFile().requestFileSystem(FileSystem.LocalFileSystem_PERSISTENT, 0, new FileCallback<FileSystem, FileError>()
+      uncachedItems.add(item);
+      keys.add(item.getStorageItemIdKey());
+    }
+    if (uncachedItems.isEmpty())
+    {
+      callback.onSuccess(uncachedItems);
+      return;
+    }
+    storageBackend.getAll(keys, new Callback<Map<String, String>, StorageError>()
+    {
+      public void onSuccess(Map<String, String> values)
       {
-        @Override
-        public void onSuccess(FileSystem entry)
+        List<StorageItem> missingItems = new ArrayList<StorageItem>();
+        for (StorageItem item : uncachedItems)
         {
-          logger.log(Level.INFO, "FileSystem retrieved");
-          fileSystem = entry;
-          if (callback != null)
+          String key = item.getStorageItemIdKey();
+          StorageItemEnvelope envelope = StorageItemEnvelope.parse(values.get(key));
+          StorageItemCacheEntry entry = null;
+          if (envelope != null)
           {
-            callback.onSuccess(fileSystem);
+            entry = new StorageItemCacheEntry(key, null, envelope.getPayload(), envelope.getVersion(), envelope.getStoreTime());
+            storageItemCache.put(entry);
           }
-        }
-
-        @Override
-        public void onFailure(FileError error)
-        {
-          logger.log(Level.SEVERE, "Failure filesystem retrieval " + error.toString());
-          if (callback != null)
+          if (entry != null && entry.isVersionValid(expectedVersion) && fillStorageItemFromCacheEntry(item, entry, validTime))
           {
-            callback.onFailure(new StorageError(error));
+            storageStatistics.recordHit(StorageStatistics.TIER_BACKEND);
+          } else
+          {
+            storageStatistics.recordMiss(StorageStatistics.TIER_BACKEND);
+            missingItems.add(item);
           }
         }
-      });
-      return true;
-    } catch (Exception ex)
-    {
-      logger.log(Level.SEVERE, "General failure FileSystem retrieval", ex);
-      if (callback != null)
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Backend StorageItems found:" + (uncachedItems.size() - missingItems.size()) + " of " + uncachedItems.size());
+        callback.onSuccess(missingItems);
+      }
+
+      public void onFailure(StorageError error)
       {
-        callback.onFailure(new StorageError(FileError.ABORT_ERR));
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure reading StorageItems from backend : " + error.getErrorCode());
+        callback.onSuccess(uncachedItems);
       }
-    }
-    return false;
+    });
   }
 
-  
   /**
-   * Retrieve the FileEntry Reference on the local filesystem of the device if
-   * running in a local container eg. Phonegap
+   * Fill the item from the cache entry if the cache time is still valid
    * 
-   * @param directory
-   * @param filename
-   * @param callback is called once the asynch action completed or failed
-   * @return false if the asynchronous action invocation failed.
+   * @return true if the item was filled
    */
-  public boolean getLocalFileReference(final String directory, final String filename, final boolean create, final FileCallback<FileEntry, StorageError> callback)
+  private boolean fillStorageItemFromCacheEntry(StorageItem item, StorageItemCacheEntry entry, int validTime)
   {
+    if (entry == null) return false;
+    if (!entry.isTimeValid(validTime, new Date().getTime()))
+    {
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Backend StorageItem time elapsed" + item.getLogId());
+      return false;
+    }
     try
     {
-      if (!phonegap.isPhoneGapDevice()) return false;
-      getLocalDirectoryEntry(directory,new FileCallback<DirectoryEntry, StorageError>()
-      {
-        @Override
-        public void onSuccess(DirectoryEntry directoryEntry)
-        {
-          directoryEntry.getFile(filename, new Flags(create, false), new FileCallback<FileEntry, FileError>()
-          {
-            @Override
-            public void onSuccess(FileEntry entry)
-            {
-              logger.log(Level.INFO, "getLocalFileReference - File retrieved : " + filename);
-              if (callback != null)
-              {
-                callback.onSuccess(entry);
-              }
-            }
-            @Override
-            public void onFailure(FileError error)
-            {
-              logger.log(Level.SEVERE, "Failure file retrieval " + filename + " " + error.toString());
-              if (callback != null)
-              {
-                callback.onFailure(new StorageError(error));
-              }
-            }
-          });
-        }
-        @Override
-        public void onFailure(StorageError error)
-        {
-          logger.log(Level.SEVERE, "Failure filesystem retrieval " + error.toString());
-          callback.onFailure(error);
-        }
-      });
+      fillStorageItem(item, entry);
       return true;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "General failure directory/file creator", ex);
-      if (callback != null)
-      {
-        callback.onFailure(new StorageError(FileError.ABORT_ERR));
-      }
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception decoding cached StorageItem" + item.getLogId(), ex);
+      storageItemCache.remove(entry.getKey());
     }
     return false;
   }
 
-  
-  private String lastLocalDirectory = null;
-  private DirectoryEntry lastLocalDirectoryEntry = null;
   /**
-   * Retrieve the FileEntry Reference on the local filesystem of the device if
-   * running in a local container eg. Phonegap
+   * The callbacks waiting for a pending application read of a StorageItem,
+   * registered by StorageItemIdKey.
+   */
+  private Map<String, List<Callback<StorageItem, StorageError>>> pendingStorageItemReads = new HashMap<String, List<Callback<StorageItem, StorageError>>>();
+
+  /**
+   * Read the item from the application dependent on the runtime. If a read of
+   * the same item is already pending, the callback is attached to it instead
+   * of invoking a further request, thus all callers are served by one network
+   * round trip and one cache write.
    * 
-   * @param directory The directory which we want to get a reference for. It will be created if it doesn't exist yet. 
-   *                  It is based on the Filesystem reference.
-   * @param callback is called once the asynch action completed or failed
+   * @param item
+   * @param validators The HTTP cache validators of the locally cached copy or
+   *          null
+   * @param callback is called once the asynch action completed or failed, as
+   *          well if the invocation failed.
    * @return false if the asynchronous action invocation failed.
    */
-  private boolean getLocalDirectoryEntry(final String directory, final FileCallback<DirectoryEntry, StorageError> callback)
+  protected boolean readStorageItemFromApplication(final StorageItem item, StorageItemValidators validators, final Callback<StorageItem, StorageError> callback)
   {
-    try
+    final String key = item.getStorageItemIdKey();
+    List<Callback<StorageItem, StorageError>> waiting = pendingStorageItemReads.get(key);
+    if (waiting != null)
     {
-      if (!phonegap.isPhoneGapDevice()) return false;
-      if (lastLocalDirectory!=null && lastLocalDirectoryEntry !=null)
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Attach to pending StorageItem read" + item.getLogId());
+      waiting.add(getAttachedReadStorageItemHandler(item, callback));
+      return true;
+    }
+    waiting = new ArrayList<Callback<StorageItem, StorageError>>();
+    waiting.add(callback);
+    pendingStorageItemReads.put(key, waiting);
+    Callback<StorageItem, StorageError> sharedCallback = new Callback<StorageItem, StorageError>()
+    {
+      public void onSuccess(StorageItem newItem)
       {
-        if (directory.equals(lastLocalDirectory))
+        List<Callback<StorageItem, StorageError>> callbacks = pendingStorageItemReads.remove(key);
+        if (callbacks == null) return;
+        for (Callback<StorageItem, StorageError> waitingCallback : callbacks)
         {
-          if (callback != null)
+          try
           {
-            callback.onSuccess(lastLocalDirectoryEntry);
+            if (waitingCallback != null) waitingCallback.onSuccess(newItem);
+          } catch (Exception ex)
+          {
+            if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception in readStorageItem callback" + item.getLogId(), ex);
           }
-          return true;
         }
       }
-      getFileSystem(new FileCallback<FileSystem, StorageError>()
+
+      public void onFailure(StorageError error)
       {
-        @Override
-        public void onSuccess(FileSystem entry)
+        List<Callback<StorageItem, StorageError>> callbacks = pendingStorageItemReads.remove(key);
+        if (callbacks == null) return;
+        for (Callback<StorageItem, StorageError> waitingCallback : callbacks)
         {
-          logger.log(Level.INFO, "getLocalDirectoryEntry - FileSystem retrieved");
-          final DirectoryEntry root = entry.getRoot();
-          root.getDirectory(directory, new Flags(true, false), new FileCallback<DirectoryEntry, FileError>()
+          try
           {
-            @Override
-            public void onSuccess(final DirectoryEntry dirEntry)
-            {
-              logger.log(Level.INFO, "getLocalDirectoryEntry - Directory retrieved : " + directory);
-              lastLocalDirectory = directory;
-              lastLocalDirectoryEntry = dirEntry;
-              if (callback != null)
-              {
-                callback.onSuccess(dirEntry);
-              }
-            }
-
-            @Override
-            public void onFailure(FileError error)
-            {
-              logger.log(Level.SEVERE, "Failure directory retrieval " + directory + " : " + error.toString() + " : " + error.getErrorCode());
-              if (callback != null)
-              {
-                callback.onFailure(new StorageError(error));
-              }
-            }
-          });
-        }
-
-        @Override
-        public void onFailure(StorageError error)
-        {
-          logger.log(Level.SEVERE, "Failure filesystem retrieval " + error.toString() + " : " + error.getErrorCode());
-          if (callback != null)
+            if (waitingCallback != null) waitingCallback.onFailure(error);
+          } catch (Exception ex)
           {
-            callback.onFailure(error);
+            if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception in readStorageItem callback" + item.getLogId(), ex);
           }
         }
-      });
-      return true;
-    } catch (Exception ex)
+      }
+    };
+    boolean invoked = fetchStorageItemFromApplication(item, validators, sharedCallback);
+    if (!invoked && pendingStorageItemReads.containsKey(key))
+    { // the waiting callbacks were not notified yet
+      sharedCallback.onFailure(new StorageError(FileError.ABORT_ERR));
+    }
+    return invoked;
+  }
+
+  /**
+   * Request the item from the local or the remote application dependent on the
+   * runtime, without attaching to pending reads.
+   * 
+   * @param item
+   * @param validators The HTTP cache validators of the locally cached copy or
+   *          null
+   * @param callback is called once the asynch action completed or failed
+   * @return false if the asynchronous action invocation failed.
+   */
+  protected boolean fetchStorageItemFromApplication(StorageItem item, StorageItemValidators validators, Callback<StorageItem, StorageError> callback)
+  {
+    if (phonegap.isPhoneGapDevice())
     {
-      logger.log(Level.SEVERE, "Exception in getLocalDirectory : " + directory, ex);
-      if (callback != null)
+      // we run in a locally installed app and want to retrieve now the value
+      // from the given backend
+      return this.readStorageItemFromRemoteApplication(item, validators, callback);
+    }
+    // in the case of web app, load it from the applications relative base path
+    // this is automatically from the backend server where the app was
+    // loaded from
+    return this.readStorageItemFromLocalApplication(item, validators, callback);
+  }
+
+  /**
+   * Creates and returns a Callback for a caller which was attached to an
+   * already pending read of the same StorageItem. The result of the pending
+   * read is transferred into the callers own item instance.
+   * 
+   * @param item The item instance of the attached caller
+   * @param callback The callback of the attached caller
+   * @return The callback to be registered with the pending read
+   */
+  private Callback<StorageItem, StorageError> getAttachedReadStorageItemHandler(final StorageItem item, final Callback<StorageItem, StorageError> callback)
+  {
+    return new Callback<StorageItem, StorageError>()
+    {
+      public void onSuccess(StorageItem newItem)
+      {
+        if (newItem != item)
+        {
+          // the value the leading read delivered, the cache may still hold
+          // the previous one if its update failed
+          item.fromJson(newItem.toJson());
+        }
+        if (callback != null)
+        {
+          callback.onSuccess(item);
+        }
+      }
+
+      public void onFailure(StorageError error)
       {
-        callback.onFailure(new StorageError(FileError.ABORT_ERR));
+        if (callback != null)
+        {
+          callback.onFailure(error);
+        }
       }
-    }
-    return false;
+    };
   }
 
-  /****************************************************************************************************************
-   * Read StorageItem from URL path
-   ****************************************************************************************************************/
-
   /**
-   * Retrieve the item from the storage. First try local storage, if the version
-   * and the validTime are valid, it is returned. Else it tries to retrieve it
-   * from the remote backend. If found, it is cached locally for fast access.
+   * Retrieve many items at once. Items found valid in the cache are taken from
+   * there, with a StorageBackend set with one read of the backend. All others
+   * are read with one request from the bundle endpoint (see
+   * setStorageBundleName) and cached locally. If there is no bundle endpoint or
+   * it fails, the items are read one by one with a limited number of parallel
+   * requests.
    * 
-   * @param item The item to be read by ID from 1. the cache, 2. localAppPath 3.
-   *          remoteAppPath in this priority order
-   * @param useCache If true, the system will first try to retrieve the value
-   *          from the local cache before it reads the same from the
-   *          applications path
-   * @param validTime The maximum age in seconds of the cache to be accepted as
-   *          a valid item value, if elapsed it will try to read from the
-   *          applications path / If <= 0 don't care
+   * @param items The items to be read by ID, they are filled in with the
+   *          retrieved data
+   * @param useCache If true, the system will first try to retrieve the values
+   *          from the local cache
    * @param expectedVersion The versionNumber which must be available in the
    *          cache to be a valid cache item. If <=0 don't care.
+   * @param validTime The maximum age in seconds of the cache to be accepted as
+   *          a valid item value / If <= 0 don't care
+   * @param callback Is called once all items are read. If any item could not
+   *          be read, only onFailure is called for the whole batch, the items
+   *          read are filled in and cached nevertheless.
+   * @return false if the asynchronous action invocation failed.
    */
-  public boolean readStorageItem(final StorageItem item, boolean useCache, int expectedVersion, int validTime, final Callback<StorageItem, StorageError> callback)
+  public boolean readStorageItems(List<? extends StorageItem> items, boolean useCache, int expectedVersion, int validTime, Callback<List<StorageItem>, StorageError> callback)
   {
+    if (items == null) return false;
     try
     {
-      logger.log(Level.INFO, "readStorageItem" + item.getLogId());
-      if (useCache && this.getCacheEnabled())
-      { // retrieve the item first from local storage cache
-        if (this.readStorageItemFromLocalStorage(item, expectedVersion, validTime))
-        { // found it valid in the cache
-          callback.onSuccess(item);
-          return true;
-        }
-      }
-      // didn't found a matching item in the cache yet or version mismatch or
-      // cache time elapsed
-      if (phonegap.isPhoneGapDevice())
-      {
-        // we run in a locally installed app and want to retrieve now the value
-        // from the given backend
-        return this.readStorageItemFromRemoteApplication(item, callback);
-      } else
-      { // in the case of web app, load it from the applications relative base path
-        // this is automatically from the backend server where the app was
-        // loaded from
-        return this.readStorageItemFromLocalApplication(item, callback);
-      }
+      StorageItemBatchReader reader = new StorageItemBatchReader(this, items, useCache, expectedVersion, validTime, callback);
+      reader.execute();
+      return true;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception readStorageItem" + item.getLogId(), ex);
-      if (callback != null)
-      {
-        callback.onFailure(new StorageError(FileError.ABORT_ERR));
-      }
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception readStorageItems", ex);
     }
     return false;
   }
@@ -948,11 +2668,17 @@ public class StorageManager
    * @return false if the asynchronous action invocation failed.
    */
   public boolean readStorageItemFromLocalApplication(final StorageItem item, final Callback<StorageItem, StorageError> callback)
+  {
+    return readStorageItemFromLocalApplication(item, null, callback);
+  }
+
+  private boolean readStorageItemFromLocalApplication(final StorageItem item, StorageItemValidators validators, final Callback<StorageItem, StorageError> callback)
   {
     // we run in the web directly and therefore we read it directly from the
     // application relative storage in the Webapp itself
-    logger.log(Level.INFO, "Read StorageItem from local applications base" + item.getLogId());
-    return readStorageItemFromUrl(this.getLocalStorageUrl(), item, getReadStorageItemHandler(item, callback, null));
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Read StorageItem from local applications base" + item.getLogId());
+    if (validators == null) validators = new StorageItemValidators();
+    return readStorageItemFromUrl(this.getLocalStorageUrl(), item, validators, getReadStorageItemHandler(item, callback, null, validators, StorageStatistics.TIER_REMOTE));
     // for testing in browser use this. But Chrome must run without security to
     // work
     // return readFromUrl(this.appRemoteStorageUrl,item,callback);
@@ -982,8 +2708,14 @@ public class StorageManager
    */
   public boolean readStorageItemFromRemoteApplication(final StorageItem item, final Callback<StorageItem, StorageError> callback)
   {
-    logger.log(Level.INFO, "Read StorageItem from remote application base" + item.getLogId());
-    return readStorageItemFromUrl(this.getRemoteStorageUrl(), item, getReadStorageItemHandler(item, callback, this.getLocalStorageUrl()));
+    return readStorageItemFromRemoteApplication(item, null, callback);
+  }
+
+  private boolean readStorageItemFromRemoteApplication(final StorageItem item, StorageItemValidators validators, final Callback<StorageItem, StorageError> callback)
+  {
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Read StorageItem from remote application base" + item.getLogId());
+    if (validators == null) validators = new StorageItemValidators();
+    return readStorageItemFromUrl(this.getRemoteStorageUrl(), item, validators, getReadStorageItemHandler(item, callback, this.getLocalStorageUrl(), validators, StorageStatistics.TIER_REMOTE));
   }
 
   /**
@@ -996,28 +2728,38 @@ public class StorageManager
    *          result
    * @param fallBack A URL to which a further request must be done if the call
    *          fails
+   * @param validators The HTTP cache validators of the request, they are
+   *          updated with the ones of the response once the item is stored
+   * @param tier The tier the item is read from for the statistics
    * @return The callback which deals with the asynch result of the remote item
    *         retrieval
    */
-  private Callback<StorageItem, StorageError> getReadStorageItemHandler(final StorageItem item, final Callback<StorageItem, StorageError> callback, final String fallbackUrl)
+  private Callback<StorageItem, StorageError> getReadStorageItemHandler(final StorageItem item, final Callback<StorageItem, StorageError> callback, final String fallbackUrl, final StorageItemValidators validators, final String tier)
   {
     return new Callback<StorageItem, StorageError>()
     {
       public void onSuccess(StorageItem newItem)
       { // loading succeeded
-        // store it in the cache
-        logger.log(Level.INFO, "Completed read item from url" + item.getLogId());
-        writeStorageItemToLocalStorage(newItem);
+        storageStatistics.recordHit(tier);
+        if (validators.isNotModified())
+        { // the cached copy is still valid, just refresh its time
+          refreshStorageItemFromLocalStorage(newItem, validators.getCachedEntry());
+        } else
+        { // store it in the cache
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Completed read item from url" + item.getLogId());
+          storeStorageItem(newItem, validators);
+        }
         callback.onSuccess(newItem);
       }
 
       public void onFailure(StorageError error)
       {
-        logger.log(Level.WARNING, "Failure url loading" + item.getLogId());
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure url loading" + item.getLogId());
+        storageStatistics.recordMiss(tier);
         // nothing found, check if we must retrieve it from a remote location
         if (fallbackUrl != null && !fallbackUrl.isEmpty())
         {
-          readStorageItemFromUrl(fallbackUrl, item, getReadStorageItemHandler(item, callback, null));
+          readStorageItemFromUrl(fallbackUrl, item, validators, getReadStorageItemHandler(item, callback, null, validators, StorageStatistics.TIER_FALLBACK));
         } else
         {
           callback.onFailure(error);
@@ -1038,53 +2780,95 @@ public class StorageManager
    * @return false if the asynchronous action invocation failed and no callback will be invoked
    */
   public boolean readStorageItemFromUrl(String url, final StorageItem item, final Callback<StorageItem, StorageError> callback)
+  {
+    return readStorageItemFromUrl(url, item, null, callback);
+  }
+
+  /**
+   * Read the JSON item asynch from the given url and the standard name of the
+   * item. If validators of a cached copy are given, the request is sent
+   * conditional and a 304 Not Modified answer is signaled through the
+   * validators without touching the item. The validators of the response are
+   * given back within the validators as well.
+   * 
+   * @param url The url to read from
+   * @param item
+   * @param validators The HTTP cache validators or null
+   * @param callback is called once the asynch action completed or failed
+   * @return false if the asynchronous action invocation failed and no callback
+   *         will be invoked
+   */
+  private boolean readStorageItemFromUrl(String url, final StorageItem item, final StorageItemValidators validators, Callback<StorageItem, StorageError> measuredCallback)
   {
     if (item == null) return false;
+    final Callback<StorageItem, StorageError> callback = storageTrace.trace(StorageStatistics.OP_READURL, item, StorageStatistics.TIER_REMOTE, storageStatistics.measure(StorageStatistics.OP_READURL, measuredCallback));
     try
     {
-      Resource resource = new Resource(url + item.getJsonFileName() + "?noCache=" + new Date().getTime());
+      Resource resource = new Resource(url + item.getJsonFileName());
       Method method = resource.get();
+      if (validators != null)
+      {
+        validators.setNotModified(false);
+        if (validators.isRevalidation())
+        {
+          if (validators.getEtag() != null) method.header("If-None-Match", validators.getEtag());
+          if (validators.getLastModified() != null) method.header("If-Modified-Since", validators.getLastModified());
+          method.expect(200, 304);
+        }
+      }
       /**
        * if (username.isEmpty()) { method = resource.get(); }else { method =
        * resource.get().user(username).password(password); }
        */
-      logger.log(Level.INFO, "Read from url:" + method.builder.getUrl());
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Read from url:" + method.builder.getUrl());
       method.send(new JsonCallback()
       {
         public void onSuccess(Method method, JSONValue response)
         {
-          logger.log(Level.INFO, "Read from url success");
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Read from url success");
+          if (isStorageItemNotModified(method.getResponse(), item, validators, callback)) return;
           if (response != null)
           {
             try
             {
-              logger.log(Level.INFO, "Successfully url read" + item.getLogId());
+              if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Successfully url read" + item.getLogId());
               item.fromJson(response);
+            } catch (Exception ex)
+            {
+              if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure url read" + item.getLogId(), ex);
               if (callback != null)
               {
-                callback.onSuccess(item);
+                callback.onFailure(new StorageError(FileError.ENCODING_ERR, ex.getMessage()));
               }
-            } catch (Exception ex)
+              return;
+            }
+            if (callback != null)
             {
-              logger.log(Level.SEVERE, "Failure url read" + item.getLogId(), ex);
+              callback.onSuccess(item);
             }
+          } else if (callback != null)
+          {
+            callback.onFailure(new StorageError(FileError.NOT_READABLE_ERR, "Empty response"));
           }
         }
 
         public void onFailure(Method method, Throwable exception)
         {
-          logger.log(Level.WARNING, "Failure url read" + item.getLogId(), exception);
+          // the empty body of a 304 answer can't be parsed as JSON and ends
+          // up here
+          if (validators != null && validators.isRevalidation() && isStorageItemNotModified(method.getResponse(), item, validators, callback)) return;
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure url read" + item.getLogId(), exception);
           if (callback != null)
           {
             callback.onFailure(new StorageError(FileError.NOT_READABLE_ERR, exception.getMessage()));
           }
         }
       });
-      logger.log(Level.INFO, "Read from url call complete");
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Read from url call complete");
       return true;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Error url read" + item.getLogId(), ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Error url read" + item.getLogId(), ex);
       if (callback != null)
       {
         callback.onFailure(new StorageError(FileError.ABORT_ERR));
@@ -1093,6 +2877,29 @@ public class StorageManager
     return false;
   }
 
+  /**
+   * Take over the validators of the url response and signal a 304 Not Modified
+   * answer to a conditional request as success without touching the item.
+   * 
+   * @param response The url response, might be null
+   * @param item
+   * @param validators The HTTP cache validators or null
+   * @param callback is called if the cached copy is not modified
+   * @return true if the response was a 304 Not Modified and the callback was
+   *         notified already
+   */
+  private boolean isStorageItemNotModified(Response response, StorageItem item, StorageItemValidators validators, Callback<StorageItem, StorageError> callback)
+  {
+    if (validators == null || response == null) return false;
+    if (!validators.applyResponse(response.getStatusCode(), response.getHeader("ETag"), response.getHeader("Last-Modified"))) return false;
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Url read not modified" + item.getLogId());
+    if (callback != null)
+    {
+      callback.onSuccess(item);
+    }
+    return true;
+  }
+
   /****************************************************************************************************************
    * Read Resource from URL path
    ****************************************************************************************************************/
@@ -1137,7 +2944,7 @@ public class StorageManager
       {
         if (callback != null)
         {
-          logger.log(Level.INFO, "Web ResourceCacheReference retrieval impossible with invalid URL : " + relativeUrl);
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Web ResourceCacheReference retrieval impossible with invalid URL : " + relativeUrl);
           callback.onFailure(new StorageError(FileError.SYNTAX_ERR, "Invalid Url given : " + relativeUrl));
         }
         return false;
@@ -1146,7 +2953,7 @@ public class StorageManager
       {
         if (callback != null)
         {
-          logger.log(Level.INFO, "Web ResourceCacheReference retrieval : " + relativeUrl);
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Web ResourceCacheReference retrieval : " + relativeUrl);
           callback.onSuccess(relativeUrl);
         }
         return true;
@@ -1157,7 +2964,7 @@ public class StorageManager
       Boolean checkVersion = checkResourceVersion(resource);
       if (checkVersion == null)
       {
-        logger.log(Level.INFO, "No resource cache item found for : " + relativeUrl + " / version:" + version);
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "No resource cache item found for : " + relativeUrl + " / version:" + version);
         if (callback != null)
         {
           callback.onFailure(new StorageError(FileError.NOT_FOUND_ERR, "No resource cache item found"));
@@ -1165,7 +2972,14 @@ public class StorageManager
       } else if (checkVersion == true)
       {
         // it should be there already and version is ok
-        logger.log(Level.INFO, "Successful ResourceCacheReference retrieval : " + relativeUrl + " / version=" + version);
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Successful ResourceCacheReference retrieval : " + relativeUrl + " / version=" + version);
+        touchCachedResource(resource);
+        CachedResourceEntry entry = getCachedResources().get(relativeUrl);
+        if (entry != null && entry.getLocalUrl() != null)
+        {
+          if (callback != null) callback.onSuccess(entry.getLocalUrl());
+          return true;
+        }
         getCacheDirectoryEntry(new Callback<DirectoryEntry, StorageError>()
         {
           public void onSuccess(DirectoryEntry dirEntry)
@@ -1173,14 +2987,14 @@ public class StorageManager
             if (callback != null)
             {
               String localResourceUrl = dirEntry.toURL() + "/" + convertFilePathToFileName(relativeUrl);
-              logger.log(Level.INFO, "Successful ResourceCacheUrl evaluation : " + localResourceUrl);
+              if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Successful ResourceCacheUrl evaluation : " + localResourceUrl);
               callback.onSuccess(localResourceUrl);
             }
           }
 
           public void onFailure(StorageError error)
           {
-            logger.log(Level.WARNING, "Failure in ResourceCacheUrl evaluation : " + relativeUrl + " error:" + error.getErrorCode());
+            if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure in ResourceCacheUrl evaluation : " + relativeUrl + " error:" + error.getErrorCode());
             if (callback != null)
             {
               callback.onFailure(error);
@@ -1190,11 +3004,11 @@ public class StorageManager
         return true;
       } else
       {
-        logger.log(Level.INFO, "No matching resource cache item found for : " + relativeUrl + "version:" + version);
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "No matching resource cache item found for : " + relativeUrl + "version:" + version);
       }
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception resourceUrl evaluation for : " + relativeUrl, ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception resourceUrl evaluation for : " + relativeUrl, ex);
     }
     return false;
   }
@@ -1242,23 +3056,21 @@ public class StorageManager
     {
       // check if we have a cached resource (eg. with a corresponding cache item
       // in the storage)
-      String cachedResourceVersion = getLocalStorage().getItem(resource.getResourceVersionKey());
-      if (cachedResourceVersion != null)
+      CachedResourceEntry entry = getCachedResources().get(resource.getResourceUrl());
+      if (entry != null)
       {
-        Integer cachedVersion = Integer.parseInt(cachedResourceVersion);
-        Integer resourceVersion = resource.getVersion();
-        if (resourceVersion == null || resourceVersion == 0 || cachedVersion == resourceVersion)
+        if (entry.isVersionValid(resource.getVersion()))
         {
           return true;
         }
-        logger.log(Level.WARNING, "Resource version mismatch:" + resource.getResourceUrl() + " version:" + resource.getVersion() + " cachedVersion:" + cachedResourceVersion);
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Resource version mismatch:" + resource.getResourceUrl() + " version:" + resource.getVersion() + " cachedVersion:" + entry.getVersion());
         return false;
       }
       // there was obviously no cache
       return null;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception checking resource version:" + resource.getResourceUrl() + " version:" + resource.getVersion(), ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception checking resource version:" + resource.getResourceUrl() + " version:" + resource.getVersion(), ex);
     }
     // something went wrong, we have not found a compatible version therefore
     return false;
@@ -1274,64 +3086,229 @@ public class StorageManager
     {
       Storage storage = this.getLocalStorage();
       if (storage == null) return;
-      Integer len = storage.getLength();
-      Integer index = 0;
-      for (int i = 0; i < len; i++)
+      StorageKeyIndex index = getStorageKeyIndex();
+      for (String key : index.getResourceKeys())
+      {
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Remove cached ResourceId : " + key);
+        String fullFileUrl = storage.getItem(key);
+        storage.removeItem(key);
+        storage.removeItem(StorageResource.getResourceVersionKey(key));
+        // now remove the corresponding file asynch
+        removeResourceFile(fullFileUrl);
+      }
+      index.clearResources();
+      persistStorageKeyIndex();
+      if (cachedResources != null) cachedResources.clear();
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Execption clearing Resources", ex);
+    }
+  }
+
+  /**
+   * Remove the registration and the file of the cached resource
+   * 
+   * @param relativeUrl
+   * @return true if the resource was cached
+   */
+  public boolean removeCachedResource(String relativeUrl)
+  {
+    try
+    {
+      Storage storage = this.getLocalStorage();
+      if (storage == null) return false;
+      StorageResource resource = new StorageResource(relativeUrl, null, null);
+      String fullFileUrl = storage.getItem(resource.getResourceIdKey());
+      unregisterCachedResource(resource);
+      boolean removed = getStorageKeyIndex().removeResourceKey(resource.getResourceIdKey());
+      persistStorageKeyIndex();
+      if (fullFileUrl == null) return removed;
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Remove cached Resource : " + relativeUrl);
+      removeResourceFile(fullFileUrl);
+      return true;
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception removing Resource : " + relativeUrl, ex);
+    }
+    return false;
+  }
+
+  /**
+   * Remove the cached resource file asynch
+   * 
+   * @param fullFileUrl The url of the file as registered with the ResourceIdKey
+   */
+  private void removeResourceFile(final String fullFileUrl)
+  {
+    if (fullFileUrl == null || !phonegap.isPhoneGapDevice()) return;
+    phonegap.getFile().resolveLocalFileSystemURI(fullFileUrl, new FileCallback<EntryBase, FileError>()
+    {
+      @Override
+      public void onSuccess(EntryBase entry)
       {
-        String key = storage.key(index);
-        if (StorageResource.isResourceIdKey(key))
+        try
         {
-          logger.log(Level.INFO, "Remove cached ResourceId : " + key);
-          final String fullFileUrl = storage.getItem(key);
-          storage.removeItem(key);
-          // now remove the corresponding file asynch
-          phonegap.getFile().resolveLocalFileSystemURI(fullFileUrl, new FileCallback<EntryBase, FileError>()
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Remove resource file:" + entry.getAsFileEntry().getFullPath());
+          forgetLocalFileReference(getCacheDirectory(), entry.getAsFileEntry().getName());
+          entry.getAsFileEntry().remove(new FileCallback<Boolean, FileError>()
           {
             @Override
-            public void onSuccess(EntryBase entry)
+            public void onSuccess(Boolean entry)
             {
-              try
-              {
-                logger.log(Level.INFO, "Remove resource file:" + entry.getAsFileEntry().getFullPath());
-                entry.getAsFileEntry().remove(new FileCallback<Boolean, FileError>()
-                {
-                  @Override
-                  public void onSuccess(Boolean entry)
-                  {
-                    logger.log(Level.INFO, "Successfully deleted file:" + fullFileUrl);
-                  }
-
-                  @Override
-                  public void onFailure(FileError error)
-                  {
-                    logger.log(Level.WARNING, "Unable to delete File:" + fullFileUrl + " error:" + error.getErrorCode());
-                  }
-                });
-              } catch (Exception successEx)
-              {
-                logger.log(Level.WARNING, "Remove resource file failed:" + entry.getAsFileEntry().getFullPath(), successEx);
-              }
+              if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Successfully deleted file:" + fullFileUrl);
             }
 
             @Override
             public void onFailure(FileError error)
             {
-              logger.log(Level.WARNING, "Unable to locate File for deletion:" + fullFileUrl + " error:" + error.getErrorCode());
+              if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Unable to delete File:" + fullFileUrl + " error:" + error.getErrorCode());
             }
           });
-        } else if (StorageResource.isResourceVersionKey(key))
-        {
-          logger.log(Level.INFO, "Remove cached ResourceVersion : " + key);
-          storage.removeItem(key);
-        } else
+        } catch (Exception successEx)
         {
-          index++;
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Remove resource file failed:" + entry.getAsFileEntry().getFullPath(), successEx);
         }
       }
-    } catch (Exception ex)
+
+      @Override
+      public void onFailure(FileError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Unable to locate File for deletion:" + fullFileUrl + " error:" + error.getErrorCode());
+      }
+    });
+  }
+
+  /**
+   * Register the downloaded resource file with its version in the
+   * LocalStorage for future cache checks.
+   * 
+   * @param resource The downloaded resource
+   * @param fileUrl The url of the file in the cache directory
+   */
+  protected void registerCachedResource(StorageResource resource, String fileUrl)
+  {
+    getLocalStorage().setItem(resource.getResourceIdKey(), fileUrl);
+    getLocalStorage().setItem(resource.getResourceVersionKey(), resource.getVersion().toString());
+    registerStorageKey(resource.getResourceIdKey());
+    getCachedResources().put(resource.getResourceUrl(), new CachedResourceEntry(resource.getVersion(), fileUrl));
+  }
+
+  /**
+   * Register the downloaded resource file with its version and size and evict
+   * other resources if the byte budget is exceeded now.
+   * 
+   * @param resource The downloaded resource
+   * @param fileUrl The url of the file in the cache directory
+   * @param size The size of the file in bytes
+   */
+  protected void registerCachedResource(StorageResource resource, String fileUrl, long size)
+  {
+    registerCachedResource(resource, fileUrl);
+    updateCachedResourceSize(resource.getResourceIdKey(), size);
+    ensureResourceByteBudget(0, resource.getResourceUrl());
+  }
+
+  /**
+   * Record the file size of a cached resource, eg. once evaluated by the
+   * StorageInfoCollector
+   * 
+   * @param resourceIdKey
+   * @param size The size in bytes
+   */
+  protected void updateCachedResourceSize(String resourceIdKey, long size)
+  {
+    StorageKeyIndex index = getStorageKeyIndex();
+    StorageKeyIndexEntry entry = index.getResource(resourceIdKey);
+    if (entry == null || size < 0 || entry.getSize() == size) return;
+    index.setResource(resourceIdKey, size, entry.getLastAccess() > 0 ? entry.getLastAccess() : new Date().getTime());
+    scheduleStorageKeyIndexPersist();
+  }
+
+  /**
+   * Record an access to the cached resource for the eviction order
+   */
+  protected void touchCachedResource(StorageResource resource)
+  {
+    getStorageKeyIndex().touchResource(resource.getResourceIdKey(), new Date().getTime());
+    scheduleStorageKeyIndexPersist();
+  }
+
+  /**
+   * Remove the registration of the cached resource, eg. before its file is
+   * replaced
+   * 
+   * @param resource
+   */
+  protected void unregisterCachedResource(StorageResource resource)
+  {
+    getLocalStorage().removeItem(resource.getResourceIdKey());
+    getLocalStorage().removeItem(resource.getResourceVersionKey());
+    getCachedResources().remove(resource.getResourceUrl());
+  }
+
+  /**
+   * The registered resources by their url, loaded once from the LocalStorage
+   * and kept up to date with each registration.
+   */
+  private Map<String, CachedResourceEntry> cachedResources = null;
+
+  protected Map<String, CachedResourceEntry> getCachedResources()
+  {
+    if (cachedResources != null) return cachedResources;
+    cachedResources = new HashMap<String, CachedResourceEntry>();
+    Storage storage = getLocalStorage();
+    if (storage == null) return cachedResources;
+    for (String key : getStorageKeyIndex().getResourceKeys())
+    {
+      String localUrl = storage.getItem(key);
+      if (localUrl == null) continue;
+      Integer version = null;
+      try
+      {
+        String cachedVersion = storage.getItem(StorageResource.getResourceVersionKey(key));
+        if (cachedVersion != null) version = Integer.valueOf(cachedVersion);
+      } catch (NumberFormatException ex)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Invalid cached resource version : " + key);
+      }
+      cachedResources.put(StorageResource.getResourceUrl(key), new CachedResourceEntry(version, localUrl));
+    }
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Cached resources loaded : " + cachedResources.size());
+    return cachedResources;
+  }
+
+  /**
+   * @param relativeUrl
+   * @return The registered version and local url of the cached resource or
+   *         null if not cached
+   */
+  public CachedResourceEntry getCachedResourceEntry(String relativeUrl)
+  {
+    return getCachedResources().get(relativeUrl);
+  }
+
+  /**
+   * Resolve the url of the resource synchronously. If the resource is cached
+   * in the requested version, the url of the local file is returned, else the
+   * remote url.
+   * 
+   * @param relativeUrl The relative url of the resource
+   * @param version The requested version, not checked if null or 0
+   * @return The url to be used to access the resource
+   */
+  public String resolveCachedUrl(String relativeUrl, Integer version)
+  {
+    if (relativeUrl == null || relativeUrl.isEmpty()) return relativeUrl;
+    if (phonegap.isPhoneGapDevice())
     {
-      logger.log(Level.SEVERE, "Execption clearing Resources", ex);
+      CachedResourceEntry entry = getCachedResources().get(relativeUrl);
+      if (entry != null && entry.isVersionValid(version))
+      {
+        touchCachedResource(new StorageResource(relativeUrl, version, null));
+        return entry.getLocalUrl();
+      }
     }
+    return getRemoteResourceUrl(relativeUrl);
   }
 
   private DirectoryEntry cacheDirectoryEntry = null;
@@ -1352,7 +3329,7 @@ public class StorageManager
         @Override
         public void onSuccess(DirectoryEntry entry)
         {
-          logger.log(Level.INFO, "CacheDirectory successfully retrieved with path:" + entry.getFullPath());
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "CacheDirectory successfully retrieved with path:" + entry.getFullPath());
           cacheDirectoryEntry = entry;
           if (callback != null)
           {
@@ -1363,7 +3340,7 @@ public class StorageManager
         @Override
         public void onFailure(StorageError error)
         {
-          logger.log(Level.SEVERE, "Failure Cache FileSystem Directory retrieval" + " : " + error.toString());
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure Cache FileSystem Directory retrieval" + " : " + error.toString());
           // stop the whole stuff, it doesn't work at all, we don't continue
           // here. Caching will not work therefore
           if (callback != null)
@@ -1375,7 +3352,7 @@ public class StorageManager
       return true;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception Cache FileSystem Directory retrieval", ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception Cache FileSystem Directory retrieval", ex);
     }
     return false;
   }
@@ -1391,23 +3368,177 @@ public class StorageManager
    * @return false if no resource retrieval is invoked really and therefore, no downloadNotification callback will happen.
    */
   public boolean addResourceToCache(final String relativeUrl, final Integer version, final FileDownloadCallback downloadNotification)
+  {
+    return addResourceToCache(relativeUrl, version, ResourceDownloadPriority.NORMAL, downloadNotification);
+  }
+
+  /**
+   * Add the resource to the download queue with the given priority. At most
+   * getMaxConcurrentDownloads resources are downloaded at the same time, a
+   * resource already queued or downloading is not requested again.
+   * 
+   * @param relativeUrl
+   * @param version
+   * @param priority HIGH for resources the user is waiting for, LOW for
+   *          prefetching
+   * @param downloadNotification
+   * @return false if the resource can't be cached
+   */
+  public boolean addResourceToCache(final String relativeUrl, final Integer version, ResourceDownloadPriority priority, final FileDownloadCallback downloadNotification)
+  {
+    return addResourceToCache(relativeUrl, version, -1, null, priority, downloadNotification);
+  }
+
+  /**
+   * Add the resource to the download queue. The downloaded file is only
+   * installed in the cache if it matches the expected size and hash, else the
+   * downloadNotification fails with StorageResourceCollector.VERIFICATION_ERR.
+   * 
+   * @param relativeUrl
+   * @param version
+   * @param expectedSize The size in bytes, -1 if unknown
+   * @param expectedHash The hex encoded SHA-256 hash, null if unknown
+   * @param priority
+   * @param downloadNotification
+   * @return false if the resource can't be cached
+   */
+  public boolean addResourceToCache(final String relativeUrl, final Integer version, long expectedSize, String expectedHash, ResourceDownloadPriority priority, final FileDownloadCallback downloadNotification)
   {
     try
     {
       if (!this.isResourceCachingEnabled()) return false;
       if (relativeUrl == null || relativeUrl.isEmpty()) return false;
-      StorageResource resource = new StorageResource(relativeUrl, version, downloadNotification);
-      StorageResourceCollector collector = new StorageResourceCollector(this,resource);
-      Scheduler.get().scheduleDeferred(collector);
+      resourceDownloadScheduler.enqueue(relativeUrl, version, expectedSize, expectedHash, priority, downloadNotification);
       return true;
     }catch(Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception adding ResourceToCache", ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception adding ResourceToCache", ex);
     }
     return false;
   }
   
   
+  /**
+   * Synchronize the cached resources with the manifest of the server. Only new
+   * or changed resources are downloaded, cached resources not listed anymore
+   * are removed.
+   * 
+   * @param manifestUrl The url of the manifest, relative to the
+   *          RemoteAppBaseUrl unless absolute
+   * @param callback Is notified about the progress and the result, might be
+   *          null
+   * @return false if the synchronization is not invoked
+   */
+  public boolean syncResources(String manifestUrl, ResourceSyncCallback callback)
+  {
+    try
+    {
+      if (!this.isResourceCachingEnabled()) return false;
+      if (manifestUrl == null || manifestUrl.isEmpty()) return false;
+      if (!manifestUrl.contains("://")) manifestUrl = getRemoteAppBaseUrl() + manifestUrl;
+      new ResourceSynchronizer(this, manifestUrl, ResourceDownloadPriority.LOW, callback).execute();
+      return true;
+    } catch (Exception ex)
+    {
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception synchronizing Resources", ex);
+    }
+    return false;
+  }
+
+  private ResourceDownloadScheduler resourceDownloadScheduler = null;
+
+  public ResourceDownloadScheduler getResourceDownloadScheduler()
+  {
+    return resourceDownloadScheduler;
+  }
+
+  /**
+   * Define the number of resources which are downloaded at the same time
+   */
+  public void setMaxConcurrentDownloads(int maxConcurrentDownloads)
+  {
+    resourceDownloadScheduler.setMaxConcurrentDownloads(maxConcurrentDownloads);
+  }
+
+  public int getMaxConcurrentDownloads()
+  {
+    return resourceDownloadScheduler.getMaxConcurrentDownloads();
+  }
+
+  private boolean resumableDownloadsEnabled = true;
+  private int resumableDownloadChunkSize = 1024 * 1024;
+
+  /**
+   * Define if resources are downloaded in chunks with HTTP Range requests, thus
+   * an interrupted download is resumed instead of restarted. Servers without
+   * Range support, or cross origin servers which don't expose the
+   * Content-Range header through CORS, are served by the regular FileTransfer.
+   */
+  public void setResumableDownloadsEnabled(boolean resumableDownloadsEnabled)
+  {
+    this.resumableDownloadsEnabled = resumableDownloadsEnabled;
+  }
+
+  public boolean isResumableDownloadsEnabled()
+  {
+    return resumableDownloadsEnabled;
+  }
+
+  /**
+   * Define the number of bytes requested at once by a resumable download,
+   * default 1MB
+   */
+  public void setResumableDownloadChunkSize(int resumableDownloadChunkSize)
+  {
+    this.resumableDownloadChunkSize = resumableDownloadChunkSize;
+  }
+
+  public int getResumableDownloadChunkSize()
+  {
+    return resumableDownloadChunkSize;
+  }
+
+  private int parallelDownloadSegments = 1;
+
+  /**
+   * Define the number of byte ranges of a resource which are downloaded at the
+   * same time, default 1. Applies to the resumable downloads once the server
+   * confirmed the Range support.
+   */
+  public void setParallelDownloadSegments(int parallelDownloadSegments)
+  {
+    this.parallelDownloadSegments = parallelDownloadSegments;
+  }
+
+  public int getParallelDownloadSegments()
+  {
+    return parallelDownloadSegments;
+  }
+
+  /**
+   * Cancel the pending download of the resource, a running download is
+   * aborted.
+   * 
+   * @param relativeUrl
+   * @return true if the download was pending
+   */
+  public boolean cancelResourceDownload(String relativeUrl)
+  {
+    return resourceDownloadScheduler.cancel(relativeUrl);
+  }
+
+  /**
+   * Change the priority of a queued resource download
+   * 
+   * @param relativeUrl
+   * @param priority
+   * @return true if the download was still queued
+   */
+  public boolean reprioritizeResourceDownload(String relativeUrl, ResourceDownloadPriority priority)
+  {
+    return resourceDownloadScheduler.reprioritize(relativeUrl, priority);
+  }
+
   /**
    * Clear all cached items - key/value pairs in the LocalStorage - Related
    * files in the cache directory
@@ -1420,7 +3551,7 @@ public class StorageManager
       this.clearStorageItems();
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception on Cache clearing", ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception on Cache clearing", ex);
     }
   }
 
@@ -1437,24 +3568,18 @@ public class StorageManager
     {
       if (!this.isResourceCachingEnabled()) return 0;
       if (callback == null) return 0;
-      logger.log(Level.INFO, "getAllCachedResourceItems");
-      Storage storage = this.getLocalStorage();
-      int len = storage.getLength();
-      for (int i = 0; i < len; i++)
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "getAllCachedResourceItems");
+      for (String key : getStorageKeyIndex().getResourceKeys())
       {
-        String key = storage.key(i);
-        if (StorageResource.isResourceIdKey(key))
-        {
-          logger.log(Level.INFO, "Read cached Resource : " + key);
-          StorageInfoCollector collector = new StorageInfoCollector(this,key,callback);
-          Scheduler.get().scheduleDeferred(collector);
-          resCtr++;
-        }
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Read cached Resource : " + key);
+        StorageInfoCollector collector = new StorageInfoCollector(this,key,callback);
+        Scheduler.get().scheduleDeferred(collector);
+        resCtr++;
       }
       return resCtr;
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Execption reading all cached Resources", ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Execption reading all cached Resources", ex);
     }
     return resCtr;
   }
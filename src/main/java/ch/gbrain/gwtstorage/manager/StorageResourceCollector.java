@@ -27,12 +27,15 @@ import java.util.logging.Logger;
 import ch.gbrain.gwtstorage.model.StorageResource;
 
 import com.google.gwt.core.client.Callback;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.user.client.Command;
 import com.googlecode.gwtphonegap.client.PhoneGap;
 import com.googlecode.gwtphonegap.client.file.DirectoryEntry;
 import com.googlecode.gwtphonegap.client.file.FileCallback;
 import com.googlecode.gwtphonegap.client.file.FileDownloadCallback;
 import com.googlecode.gwtphonegap.client.file.FileEntry;
+import com.googlecode.gwtphonegap.client.file.FileError;
+import com.googlecode.gwtphonegap.client.file.FileObject;
 import com.googlecode.gwtphonegap.client.file.FileTransfer;
 import com.googlecode.gwtphonegap.client.file.FileTransferError;
 import com.googlecode.gwtphonegap.client.file.FileTransferProgressEvent;
@@ -43,6 +46,17 @@ public class StorageResourceCollector implements Command
   private StorageManager storageManager;
   private PhoneGap phonegap;
   private StorageResource storageResource;
+  private FileTransfer fileTransfer;
+  private ResumableResourceDownload resumableDownload;
+  private boolean aborted = false;
+  private long downloadStart = 0;
+  private long traceHandle = -1;
+
+  /**
+   * The error code notified if the downloaded file doesn't match the expected
+   * size or hash
+   */
+  public static final int VERIFICATION_ERR = 5;
   
   public StorageResourceCollector(StorageManager storageManager, StorageResource storageResource)
   {
@@ -60,12 +74,12 @@ public class StorageResourceCollector implements Command
       Boolean versionCheck = storageManager.checkResourceVersion(storageResource);
       if (versionCheck == null)
       {
-        logger.log(Level.WARNING, "ResourceCacheReference retrieval no chache entry found : " + storageResource.getResourceUrl()+ " requestedVersion:" + storageResource.getVersion() + " -> invoke loading");
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "ResourceCacheReference retrieval no chache entry found : " + storageResource.getResourceUrl()+ " requestedVersion:" + storageResource.getVersion() + " -> invoke loading");
         downloadCacheResource(storageResource);
       } else if (versionCheck == true)
       {
         // it should be there already and version is ok
-        logger.log(Level.INFO, "Successful ResourceCacheReference retrieval : " + storageResource.getResourceUrl());
+        if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Successful ResourceCacheReference retrieval : " + storageResource.getResourceUrl());
         // check if it really exists but asynch
         String fileName = storageManager.convertFilePathToFileName(storageResource.getResourceUrl());
         storageManager.getLocalFileReference(storageManager.getCacheDirectory(), fileName, false, new FileCallback<FileEntry, StorageError>()
@@ -73,7 +87,8 @@ public class StorageResourceCollector implements Command
           @Override
           public void onSuccess(FileEntry entry)
           {
-            logger.log(Level.INFO, "Successful ResourceCacheFile retrieval : " + storageResource.getResourceUrl());
+            if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Successful ResourceCacheFile retrieval : " + storageResource.getResourceUrl());
+            storageManager.touchCachedResource(storageResource);
             // the cache is ok, file is there in right version, we don't have to
             // do something really.
             if (storageResource.getDownloadNotification()!=null)
@@ -84,7 +99,7 @@ public class StorageResourceCollector implements Command
           @Override
           public void onFailure(StorageError error)
           {
-            logger.log(Level.SEVERE, "Failure ResourceCacheReference retrieval : " + storageResource.getResourceUrl() + " : " + error.toString());
+            if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Failure ResourceCacheReference retrieval : " + storageResource.getResourceUrl() + " : " + error.toString());
             // nothing found, we must try to download again
             downloadCacheResource(storageResource);
           }
@@ -92,16 +107,49 @@ public class StorageResourceCollector implements Command
       } else if (versionCheck == false)
       {
         // version doesn't match, invoke reload
-        logger.log(Level.WARNING, "ResourceCacheReference retrieval version mismatch : " + storageResource.getResourceUrl() + " requestedVersion:" + storageResource.getVersion() + " -> invoke loading");
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "ResourceCacheReference retrieval version mismatch : " + storageResource.getResourceUrl() + " requestedVersion:" + storageResource.getVersion() + " -> invoke loading");
         downloadCacheResource(storageResource);
       }
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception checking ResourceCache", ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception checking ResourceCache", ex);
+      notifyFailure(storageResource, FileTransferError.FILE_NOT_FOUND_ERR, "Exception checking ResourceCache");
     }
     
   }
 
+  /**
+   * Abort the download, the notification is not called anymore
+   */
+  public void abort()
+  {
+    aborted = true;
+    if (fileTransfer != null)
+    {
+      fileTransfer.abort();
+    }
+    if (resumableDownload != null)
+    {
+      resumableDownload.abort();
+    }
+  }
+
+  /**
+   * Notify the failure of the resource download if not aborted
+   * 
+   * @param resource
+   * @param errorCode The FileTransferError code, ABORT_ERR is left to a
+   *          cancelled download
+   * @param reason
+   */
+  private void notifyFailure(StorageResource resource, int errorCode, String reason)
+  {
+    if (!aborted && resource.getDownloadNotification()!=null)
+    {
+      resource.getDownloadNotification().onFailure(new TransferError(errorCode, reason));
+    }
+  }
+
   
   /**
    * Download the given resource url and store it in the local cache Directory.
@@ -113,31 +161,59 @@ public class StorageResourceCollector implements Command
   {
     try
     {
-      if (resource == null) return;
-      logger.log(Level.INFO, "downloadCacheResource " + resource.getResourceUrl() + " Version:" + resource.getVersion());
+      if (resource == null || aborted) return;
+      if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "downloadCacheResource " + resource.getResourceUrl() + " Version:" + resource.getVersion());
+      downloadStart = StorageStatistics.now();
+      traceHandle = storageManager.getStorageTrace().begin(StorageStatistics.OP_DOWNLOAD, resource, StorageStatistics.TIER_REMOTE);
+      if (resource.getExpectedSize() > 0)
+      { // make room for the download in advance
+        storageManager.ensureResourceByteBudget(resource.getExpectedSize(), resource.getResourceUrl());
+      }
       storageManager.getCacheDirectoryEntry(new Callback<DirectoryEntry, StorageError>()
       {
         public void onSuccess(DirectoryEntry cacheDir)
         {
           try
           {
-            FileTransfer fileTransfer = phonegap.getFile().createFileTransfer();
-            String localFileName = storageManager.convertFilePathToFileName(resource.getResourceUrl());
-            String sourceUrl = storageManager.getRemoteAppBaseUrl() + resource.getResourceUrl();
-            String destUrl = cacheDir.toURL() + localFileName;
+            if (aborted) return;
+            final String localFileName = storageManager.convertFilePathToFileName(resource.getResourceUrl());
+            final String sourceUrl = storageManager.getRemoteAppBaseUrl() + resource.getResourceUrl();
+            final String destUrl = cacheDir.toURL() + localFileName + ResourceFileSupport.PARTIALFILESUFFIX;
             // String destUrl =
             // "cdvfile://localhost/persistent/testapp/test.mp4";
-            logger.log(Level.INFO, "downloadResource invoked for : " + sourceUrl + " to : " + destUrl);
-            fileTransfer.download(sourceUrl, destUrl, getResourceDownloadHandler(resource));
+            ScheduledCommand transferDownload = new ScheduledCommand()
+            {
+              @Override
+              public void execute()
+              {
+                if (aborted) return;
+                fileTransfer = phonegap.getFile().createFileTransfer();
+                if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "downloadResource invoked for : " + sourceUrl + " to : " + destUrl);
+                fileTransfer.download(sourceUrl, destUrl, getResourceDownloadHandler(resource, cacheDir, localFileName));
+              }
+            };
+            if (storageManager.isResumableDownloadsEnabled())
+            {
+              if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "resumable downloadResource invoked for : " + sourceUrl + " to : " + destUrl);
+              resumableDownload = new ResumableResourceDownload(storageManager, resource, sourceUrl, localFileName, getResourceDownloadHandler(resource, cacheDir, localFileName), transferDownload);
+              resumableDownload.setChunkSize(storageManager.getResumableDownloadChunkSize());
+              resumableDownload.setParallelSegments(storageManager.getParallelDownloadSegments());
+              resumableDownload.start();
+            } else
+            {
+              transferDownload.execute();
+            }
           } catch (Exception lex)
           {
-            logger.log(Level.SEVERE, "Exception in downloadCacheResource success handler", lex);
+            if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception in downloadCacheResource success handler", lex);
+            notifyFailure(resource, FileTransferError.CONNECTION_ERR, "Exception starting the download");
           }
         }
 
         public void onFailure(StorageError error)
         {
-          logger.log(Level.WARNING, "Failed to download CacheResource for : " + resource.getResourceUrl());
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failed to download CacheResource for : " + resource.getResourceUrl());
+          storageManager.getStorageTrace().end(traceHandle, false, error.getErrorCode());
           if (resource.getDownloadNotification()!=null)
           {
             resource.getDownloadNotification().onFailure(new TransferError(error.getErrorCode(),error.getErrorReason()));
@@ -146,19 +222,116 @@ public class StorageResourceCollector implements Command
       });
     } catch (Exception ex)
     {
-      logger.log(Level.SEVERE, "Exception resourceDownload for : " + resource.getResourceUrl(), ex);
+      if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception resourceDownload for : " + resource.getResourceUrl(), ex);
+      notifyFailure(resource, FileTransferError.CONNECTION_ERR, "Exception starting the download");
+    }
+  }
+
+  /**
+   * Verify the downloaded partial file, move it into place and register it with
+   * the version for the future cache checks. The registration of a previous
+   * version is removed before its file is replaced.
+   */
+  private void installResource(final StorageResource resource, final FileEntry partialEntry, final DirectoryEntry cacheDir, final String localFileName)
+  {
+    ResourceFileSupport.verify(partialEntry, resource.getExpectedSize(), resource.getExpectedHash(), new Callback<Void, StorageError>()
+    {
+      public void onSuccess(Void result)
+      {
+        if (aborted) return;
+        storageManager.unregisterCachedResource(resource);
+        storageManager.forgetLocalFileReference(storageManager.getCacheDirectory(), localFileName);
+        storageManager.forgetLocalFileReference(storageManager.getCacheDirectory(), localFileName + ResourceFileSupport.PARTIALFILESUFFIX);
+        ResourceFileSupport.replace(partialEntry, cacheDir, localFileName, new Callback<FileEntry, StorageError>()
+        {
+          public void onSuccess(final FileEntry fileEntry)
+          {
+            fileEntry.getFile(new FileCallback<FileObject, FileError>()
+            {
+              @Override
+              public void onSuccess(FileObject file)
+              {
+                registerResource(resource, fileEntry, file.size());
+              }
+
+              @Override
+              public void onFailure(FileError error)
+              {
+                registerResource(resource, fileEntry, resource.getExpectedSize());
+              }
+            });
+          }
+
+          public void onFailure(StorageError error)
+          {
+            if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Downloaded resource not moved into place " + resource.getResourceUrl() + " : " + error.getErrorCode());
+            storageManager.getStorageTrace().end(traceHandle, false, error.getErrorCode());
+            if (!aborted && resource.getDownloadNotification() != null)
+            {
+              resource.getDownloadNotification().onFailure(new TransferError(FileTransferError.FILE_NOT_FOUND_ERR, "Downloaded file not moved into place"));
+            }
+          }
+        });
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Downloaded resource rejected " + resource.getResourceUrl() + " : " + error.getErrorReason());
+        storageManager.forgetLocalFileReference(storageManager.getCacheDirectory(), localFileName + ResourceFileSupport.PARTIALFILESUFFIX);
+        partialEntry.remove(new FileCallback<Boolean, FileError>()
+        {
+          @Override
+          public void onSuccess(Boolean result)
+          {
+          }
+
+          @Override
+          public void onFailure(FileError fileError)
+          {
+            if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Rejected download not removed " + resource.getResourceUrl() + " : " + fileError.getErrorCode());
+          }
+        });
+        if (!aborted && resource.getDownloadNotification() != null)
+        {
+          resource.getDownloadNotification().onFailure(new TransferError(VERIFICATION_ERR, error.getErrorReason()));
+        }
+        storageManager.getStorageStatistics().recordError(StorageStatistics.OP_DOWNLOAD, VERIFICATION_ERR);
+        storageManager.getStorageTrace().end(traceHandle, false, VERIFICATION_ERR);
+      }
+    });
+  }
+
+  /**
+   * Register the installed resource with its version and size for the cache
+   * checks in the future and notify the success
+   */
+  private void registerResource(StorageResource resource, FileEntry fileEntry, long size)
+  {
+    StorageStatistics statistics = storageManager.getStorageStatistics();
+    statistics.recordLatency(StorageStatistics.OP_DOWNLOAD, StorageStatistics.now() - downloadStart);
+    statistics.addBytesDownloaded(size);
+    storageManager.getStorageTrace().end(traceHandle, true, 0);
+    storageManager.registerCachedResource(resource, fileEntry.toURL(), size);
+    if (!aborted && resource.getDownloadNotification() != null)
+    {
+      resource.getDownloadNotification().onSuccess(fileEntry);
     }
   }
 
   /**
    * Creates and returns a Callback which treats the result for a url resource
-   * retrieval The just downloaded resource is registered in the local storage
+   * retrieval. The resource is downloaded to a partial file, which is verified
+   * against the expected size and hash of the resource and only then moved
+   * into place. The just installed resource is registered in the local storage
    * with the version for future cache handling
    * 
+   * @param resource
+   * @param cacheDir The cache directory
+   * @param localFileName The name of the cache file
    * @return The callback which deals with the asynch result of the remote
    *         resource retrieval
    */
-  private FileDownloadCallback getResourceDownloadHandler(final StorageResource resource)
+  private FileDownloadCallback getResourceDownloadHandler(final StorageResource resource, final DirectoryEntry cacheDir, final String localFileName)
   {
     return new FileDownloadCallback()
     {
@@ -166,19 +339,12 @@ public class StorageResourceCollector implements Command
       {
         try
         {
-          logger.log(Level.INFO, "FileDownload success " + fileEntry.getFullPath() + " for resource=" + resource.getResourceUrl() + " version=" + resource.getVersion());
-          // register now in the storage the version for the cache checks in the
-          // future
-          storageManager.getLocalStorage().setItem(resource.getResourceIdKey(), fileEntry.toURL());
-          storageManager.getLocalStorage().setItem(resource.getResourceVersionKey(), resource.getVersion().toString());
-          //cacheCheckInProgress = false;
-          if (resource.getDownloadNotification()!=null)
-          {
-            resource.getDownloadNotification().onSuccess(fileEntry);
-          }
+          if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "FileDownload success " + fileEntry.getFullPath() + " for resource=" + resource.getResourceUrl() + " version=" + resource.getVersion());
+          installResource(resource, fileEntry, cacheDir, localFileName);
         } catch (Exception lex)
         {
-          logger.log(Level.SEVERE, "Exception on cacheResource download success handler", lex);
+          if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "Exception on cacheResource download success handler", lex);
+          notifyFailure(resource, FileTransferError.FILE_NOT_FOUND_ERR, "Exception installing the download");
         }
       }
 
@@ -192,7 +358,9 @@ public class StorageResourceCollector implements Command
 
       public void onFailure(FileTransferError error)
       {
-        logger.log(Level.SEVERE, "FileDownload Failure " + error.toString() + " : " + resource.getResourceUrl());
+        if (StorageLogging.isLoggable(logger, Level.SEVERE)) logger.log(Level.SEVERE, "FileDownload Failure " + error.toString() + " : " + resource.getResourceUrl());
+        storageManager.getStorageStatistics().recordError(StorageStatistics.OP_DOWNLOAD, error.getCode());
+        storageManager.getStorageTrace().end(traceHandle, false, error.getCode());
         //cacheCheckInProgress = false;
         if (resource.getDownloadNotification()!=null)
         {
@@ -0,0 +1,295 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gwt.core.client.Callback;
+
+/**
+ * Counts the hits and misses per storage tier, the latencies per operation,
+ * the bytes transferred, the evictions and the errors of the StorageManager.
+ * Recording only updates counters, thus it could be left enabled in
+ * production. Use snapshot to get a consistent copy.
+ */
+public class StorageStatistics
+{
+  public static String TIER_LOCALSTORAGE = "localStorage";
+  public static String TIER_BACKEND = "backend";
+  public static String TIER_FILE = "file";
+  public static String TIER_REMOTE = "remote";
+  public static String TIER_FALLBACK = "fallback";
+
+  public static String OP_READITEM = "readStorageItem";
+  public static String OP_READURL = "readStorageItemFromUrl";
+  public static String OP_FILE = "file";
+  public static String OP_DOWNLOAD = "download";
+
+  private boolean enabled = true;
+  private long startTime = new Date().getTime();
+  private long snapshotTime = 0;
+  private Map<String, Long> hits = new LinkedHashMap<String, Long>();
+  private Map<String, Long> misses = new LinkedHashMap<String, Long>();
+  private Map<String, LatencyHistogram> latencies = new LinkedHashMap<String, LatencyHistogram>();
+  private Map<String, Long> errors = new LinkedHashMap<String, Long>();
+  private long bytesDownloaded = 0;
+  private long bytesCached = 0;
+  private long evictions = 0;
+  private long evictedBytes = 0;
+
+  public void setEnabled(boolean enabled)
+  {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  public void recordHit(String tier)
+  {
+    if (enabled) increment(hits, tier, 1);
+  }
+
+  public void recordMiss(String tier)
+  {
+    if (enabled) increment(misses, tier, 1);
+  }
+
+  public void recordLatency(String operation, long millis)
+  {
+    if (!enabled) return;
+    LatencyHistogram histogram = latencies.get(operation);
+    if (histogram == null)
+    {
+      histogram = new LatencyHistogram();
+      latencies.put(operation, histogram);
+    }
+    histogram.record(millis);
+  }
+
+  /**
+   * Count a failed operation by its error code
+   */
+  public void recordError(String operation, int code)
+  {
+    if (enabled) increment(errors, operation + ":" + code, 1);
+  }
+
+  public void addBytesDownloaded(long bytes)
+  {
+    if (enabled && bytes > 0) bytesDownloaded += bytes;
+  }
+
+  public void addBytesCached(long bytes)
+  {
+    if (enabled && bytes > 0) bytesCached += bytes;
+  }
+
+  public void recordEviction(long bytes)
+  {
+    if (!enabled) return;
+    evictions++;
+    if (bytes > 0) evictedBytes += bytes;
+  }
+
+  /**
+   * Wrap the callback to record the duration of the operation until the
+   * callback is invoked, and the error code on failure
+   * 
+   * @param operation
+   * @param callback The callback to be wrapped, might be null
+   * @return The wrapping callback
+   */
+  public <T> Callback<T, StorageError> measure(final String operation, final Callback<T, StorageError> callback)
+  {
+    if (!enabled) return callback;
+    final long start = now();
+    return new Callback<T, StorageError>()
+    {
+      public void onSuccess(T result)
+      {
+        recordLatency(operation, now() - start);
+        if (callback != null) callback.onSuccess(result);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        recordLatency(operation, now() - start);
+        recordError(operation, error != null ? error.getErrorCode() : 0);
+        if (callback != null) callback.onFailure(error);
+      }
+    };
+  }
+
+  private static void increment(Map<String, Long> counters, String name, long value)
+  {
+    Long current = counters.get(name);
+    counters.put(name, current != null ? current + value : value);
+  }
+
+  private static long get(Map<String, Long> counters, String name)
+  {
+    Long value = counters.get(name);
+    return value != null ? value : 0;
+  }
+
+  static long now()
+  {
+    return new Date().getTime();
+  }
+
+  public long getHits(String tier)
+  {
+    return get(hits, tier);
+  }
+
+  public long getMisses(String tier)
+  {
+    return get(misses, tier);
+  }
+
+  /**
+   * @return The hit ratio of the tier between 0 and 1, 0 if never accessed
+   */
+  public double getHitRatio(String tier)
+  {
+    long total = getHits(tier) + getMisses(tier);
+    return total > 0 ? (double) getHits(tier) / total : 0;
+  }
+
+  /**
+   * @return The latencies of the operation, null if never recorded
+   */
+  public LatencyHistogram getLatency(String operation)
+  {
+    return latencies.get(operation);
+  }
+
+  /**
+   * @return The error counts by operation and code eg. "download:3"
+   */
+  public Map<String, Long> getErrors()
+  {
+    return errors;
+  }
+
+  public long getBytesDownloaded()
+  {
+    return bytesDownloaded;
+  }
+
+  public long getBytesCached()
+  {
+    return bytesCached;
+  }
+
+  public long getEvictions()
+  {
+    return evictions;
+  }
+
+  public long getEvictedBytes()
+  {
+    return evictedBytes;
+  }
+
+  /**
+   * @return The time in millis the recording started or was reset
+   */
+  public long getStartTime()
+  {
+    return startTime;
+  }
+
+  /**
+   * @return The time in millis the snapshot was taken, 0 for the live
+   *         statistics
+   */
+  public long getSnapshotTime()
+  {
+    return snapshotTime;
+  }
+
+  /**
+   * @return A copy of the current numbers which is not updated anymore
+   */
+  public StorageStatistics snapshot()
+  {
+    StorageStatistics copy = new StorageStatistics();
+    copy.enabled = false;
+    copy.startTime = startTime;
+    copy.snapshotTime = now();
+    copy.hits.putAll(hits);
+    copy.misses.putAll(misses);
+    for (Map.Entry<String, LatencyHistogram> latency : latencies.entrySet())
+    {
+      copy.latencies.put(latency.getKey(), latency.getValue().copy());
+    }
+    copy.errors.putAll(errors);
+    copy.bytesDownloaded = bytesDownloaded;
+    copy.bytesCached = bytesCached;
+    copy.evictions = evictions;
+    copy.evictedBytes = evictedBytes;
+    return copy;
+  }
+
+  /**
+   * Clear all numbers and restart the recording
+   */
+  public void reset()
+  {
+    startTime = now();
+    hits.clear();
+    misses.clear();
+    latencies.clear();
+    errors.clear();
+    bytesDownloaded = 0;
+    bytesCached = 0;
+    evictions = 0;
+    evictedBytes = 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    StringBuilder value = new StringBuilder();
+    for (String tier : hits.keySet())
+    {
+      value.append(tier).append(" hits:").append(getHits(tier)).append(" misses:").append(getMisses(tier)).append("; ");
+    }
+    for (String tier : misses.keySet())
+    {
+      if (!hits.containsKey(tier)) value.append(tier).append(" hits:0 misses:").append(getMisses(tier)).append("; ");
+    }
+    for (Map.Entry<String, LatencyHistogram> latency : latencies.entrySet())
+    {
+      value.append(latency.getKey()).append(" ").append(latency.getValue().toString()).append("; ");
+    }
+    value.append("downloaded:").append(bytesDownloaded).append(" cached:").append(bytesCached).append(" evictions:").append(evictions).append(" errors:").append(errors);
+    return value.toString();
+  }
+
+}
@@ -0,0 +1,239 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Date;
+
+import ch.gbrain.gwtstorage.model.StorageItem;
+import ch.gbrain.gwtstorage.model.StorageResource;
+
+import com.google.gwt.core.client.Callback;
+
+/**
+ * Records the storage operations into a ring buffer of fixed size, the oldest
+ * operations are overwritten. Recording only stores references and
+ * timestamps, the subjects are converted to text when the buffer is dumped.
+ * The dump is in the Chrome trace event format and could be loaded into
+ * chrome://tracing to see where the time was spent.
+ */
+public class StorageTrace
+{
+  public static String OP_STORAGEINFO = "storageInfo";
+
+  public static int OUTCOME_PENDING = 0;
+  public static int OUTCOME_SUCCESS = 1;
+  public static int OUTCOME_FAILURE = 2;
+
+  private boolean enabled = false;
+  private int capacity;
+  private long sequence = 0;
+  private long[] sequences;
+  private String[] operations;
+  private Object[] subjects;
+  private String[] tiers;
+  private long[] startTimes;
+  private long[] endTimes;
+  private int[] outcomes;
+  private int[] errorCodes;
+
+  /**
+   * @param capacity The number of operations kept
+   */
+  public StorageTrace(int capacity)
+  {
+    this.capacity = Math.max(1, capacity);
+    sequences = new long[this.capacity];
+    operations = new String[this.capacity];
+    subjects = new Object[this.capacity];
+    tiers = new String[this.capacity];
+    startTimes = new long[this.capacity];
+    endTimes = new long[this.capacity];
+    outcomes = new int[this.capacity];
+    errorCodes = new int[this.capacity];
+  }
+
+  /**
+   * The trace is disabled by default, nothing is recorded then
+   */
+  public void setEnabled(boolean enabled)
+  {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  public int getCapacity()
+  {
+    return capacity;
+  }
+
+  /**
+   * Record the start of an operation
+   * 
+   * @param operation The operation name, should be a constant
+   * @param subject The StorageItem, StorageResource or key the operation works
+   *          on
+   * @param tier The tier involved, might be null
+   * @return The handle to end the operation, -1 if not recorded
+   */
+  public long begin(String operation, Object subject, String tier)
+  {
+    if (!enabled) return -1;
+    long id = ++sequence;
+    int slot = (int) (id % capacity);
+    sequences[slot] = id;
+    operations[slot] = operation;
+    subjects[slot] = subject;
+    tiers[slot] = tier;
+    startTimes[slot] = new Date().getTime();
+    endTimes[slot] = 0;
+    outcomes[slot] = OUTCOME_PENDING;
+    errorCodes[slot] = 0;
+    return id;
+  }
+
+  /**
+   * Record the end of an operation, ignored if it was overwritten meanwhile
+   * 
+   * @param handle The handle given by begin
+   * @param success
+   * @param errorCode The error code on failure
+   */
+  public void end(long handle, boolean success, int errorCode)
+  {
+    if (handle <= 0) return;
+    int slot = (int) (handle % capacity);
+    if (sequences[slot] != handle) return;
+    endTimes[slot] = new Date().getTime();
+    outcomes[slot] = success ? OUTCOME_SUCCESS : OUTCOME_FAILURE;
+    errorCodes[slot] = errorCode;
+  }
+
+  /**
+   * Wrap the callback to record the operation until the callback is invoked
+   * 
+   * @return The wrapping callback or the given one if the trace is disabled
+   */
+  public <T> Callback<T, StorageError> trace(String operation, Object subject, String tier, final Callback<T, StorageError> callback)
+  {
+    if (!enabled) return callback;
+    final long handle = begin(operation, subject, tier);
+    return new Callback<T, StorageError>()
+    {
+      public void onSuccess(T result)
+      {
+        end(handle, true, 0);
+        if (callback != null) callback.onSuccess(result);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        end(handle, false, error != null ? error.getErrorCode() : 0);
+        if (callback != null) callback.onFailure(error);
+      }
+    };
+  }
+
+  /**
+   * @return The number of operations in the buffer
+   */
+  public int size()
+  {
+    return (int) Math.min(sequence, capacity);
+  }
+
+  public void clear()
+  {
+    for (int slot = 0; slot < capacity; slot++)
+    {
+      sequences[slot] = 0;
+      subjects[slot] = null;
+    }
+    sequence = 0;
+  }
+
+  /**
+   * Dump the buffer in the Chrome trace event format, the oldest operation
+   * first. Pending operations are dumped with the duration until now.
+   */
+  public String toChromeTraceJson()
+  {
+    StringBuilder json = new StringBuilder("{\"traceEvents\":[");
+    long now = new Date().getTime();
+    boolean first = true;
+    for (long id = Math.max(1, sequence - capacity + 1); id <= sequence; id++)
+    {
+      int slot = (int) (id % capacity);
+      if (sequences[slot] != id) continue;
+      if (!first) json.append(',');
+      first = false;
+      long end = outcomes[slot] == OUTCOME_PENDING ? now : endTimes[slot];
+      json.append("{\"name\":");
+      appendString(json, operations[slot]);
+      json.append(",\"cat\":");
+      appendString(json, tiers[slot] != null ? tiers[slot] : "storage");
+      json.append(",\"ph\":\"X\",\"ts\":").append(startTimes[slot] * 1000);
+      json.append(",\"dur\":").append((end - startTimes[slot]) * 1000);
+      json.append(",\"pid\":1,\"tid\":1,\"args\":{\"subject\":");
+      appendString(json, getSubjectName(subjects[slot]));
+      json.append(",\"outcome\":");
+      appendString(json, outcomes[slot] == OUTCOME_SUCCESS ? "success" : (outcomes[slot] == OUTCOME_FAILURE ? "failure" : "pending"));
+      if (outcomes[slot] == OUTCOME_FAILURE) json.append(",\"error\":").append(errorCodes[slot]);
+      json.append("}}");
+    }
+    json.append("]}");
+    return json.toString();
+  }
+
+  private static String getSubjectName(Object subject)
+  {
+    if (subject == null) return "";
+    if (subject instanceof StorageItem) return ((StorageItem) subject).getStorageItemIdKey();
+    if (subject instanceof StorageResource) return ((StorageResource) subject).getResourceUrl();
+    return subject.toString();
+  }
+
+  private static void appendString(StringBuilder json, String value)
+  {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++)
+    {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\')
+      {
+        json.append('\\').append(c);
+      } else if (c < 0x20)
+      {
+        String hex = Integer.toHexString(c);
+        json.append("\\u00").append(hex.length() < 2 ? "0" : "").append(hex);
+      } else
+      {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+
+}
@@ -0,0 +1,193 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.gbrain.gwtstorage.model.StorageItem;
+
+import com.google.gwt.core.client.Callback;
+import com.googlecode.gwtphonegap.client.file.DirectoryEntry;
+
+/**
+ * Resolves everything the StorageManager needs on first use ahead of time, to
+ * keep it off the critical path of the first screen. The LocalStorage, the key
+ * index and the cached resources are loaded right away, the cache directory
+ * and the configured hot items are resolved in parallel afterwards. Once all
+ * phases completed, the waiting callbacks are notified with the durations of
+ * the phases.
+ */
+public class StorageWarmup
+{
+  public static String PHASE_LOCALSTORAGE = "localStorage";
+  public static String PHASE_KEYINDEX = "keyIndex";
+  public static String PHASE_RESOURCES = "resources";
+  public static String PHASE_CACHEDIRECTORY = "cacheDirectory";
+  public static String PHASE_ITEMS = "items";
+
+  private Logger logger;
+  private StorageManager storageManager;
+  private List<StorageItem> hotItems = new ArrayList<StorageItem>();
+  private List<Callback<StorageWarmupReport, StorageError>> callbacks = new ArrayList<Callback<StorageWarmupReport, StorageError>>();
+  private StorageWarmupReport report = null;
+  private long startTime;
+  private int openPhases = 0;
+
+  public StorageWarmup(StorageManager storageManager)
+  {
+    this.storageManager = storageManager;
+    this.logger = storageManager.getLogger();
+  }
+
+  /**
+   * Add an item to be read during the warm-up, eg. items shown on the first
+   * screen
+   */
+  public void addHotItem(StorageItem item)
+  {
+    if (item != null) hotItems.add(item);
+  }
+
+  /**
+   * Start the warm-up, nothing is done if it was started already
+   */
+  public void start()
+  {
+    if (report != null) return;
+    report = new StorageWarmupReport();
+    startTime = now();
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Storage warm-up started");
+    openPhases = 2;
+    long phaseStart = now();
+    boolean available = storageManager.getLocalStorage() != null;
+    phaseCompleted(PHASE_LOCALSTORAGE, phaseStart, available, false);
+    phaseStart = now();
+    storageManager.getStorageKeyIndex();
+    phaseCompleted(PHASE_KEYINDEX, phaseStart, available, false);
+    phaseStart = now();
+    storageManager.getCachedResources();
+    phaseCompleted(PHASE_RESOURCES, phaseStart, available, false);
+    startCacheDirectoryPhase();
+    startItemsPhase();
+  }
+
+  private void startCacheDirectoryPhase()
+  {
+    final long phaseStart = now();
+    boolean invoked = storageManager.getCacheDirectoryEntry(new Callback<DirectoryEntry, StorageError>()
+    {
+      public void onSuccess(DirectoryEntry result)
+      {
+        phaseCompleted(PHASE_CACHEDIRECTORY, phaseStart, true, true);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        phaseCompleted(PHASE_CACHEDIRECTORY, phaseStart, false, true);
+      }
+    });
+    if (!invoked)
+    { // no file system outside of the container
+      phaseCompleted(PHASE_CACHEDIRECTORY, phaseStart, true, true);
+    }
+  }
+
+  private void startItemsPhase()
+  {
+    final long phaseStart = now();
+    if (hotItems.isEmpty())
+    {
+      phaseCompleted(PHASE_ITEMS, phaseStart, true, true);
+      return;
+    }
+    boolean invoked = storageManager.readStorageItems(hotItems, true, 0, 0, new Callback<List<StorageItem>, StorageError>()
+    {
+      public void onSuccess(List<StorageItem> result)
+      {
+        phaseCompleted(PHASE_ITEMS, phaseStart, true, true);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        phaseCompleted(PHASE_ITEMS, phaseStart, false, true);
+      }
+    });
+    if (!invoked)
+    {
+      phaseCompleted(PHASE_ITEMS, phaseStart, false, true);
+    }
+  }
+
+  private void phaseCompleted(String phase, long phaseStart, boolean success, boolean parallel)
+  {
+    report.setPhaseDuration(phase, now() - phaseStart, success);
+    if (!success && StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Storage warm-up phase failed : " + phase);
+    if (!parallel || --openPhases > 0) return;
+    report.setTotalDuration(now() - startTime);
+    if (StorageLogging.isLoggable(logger, Level.INFO)) logger.log(Level.INFO, "Storage warm-up completed " + report.toString());
+    List<Callback<StorageWarmupReport, StorageError>> waiting = new ArrayList<Callback<StorageWarmupReport, StorageError>>(callbacks);
+    callbacks.clear();
+    for (Callback<StorageWarmupReport, StorageError> callback : waiting)
+    {
+      callback.onSuccess(report);
+    }
+  }
+
+  /**
+   * Notify the callback once the warm-up completed, right away if completed
+   * already. A failed phase doesn't fail the warm-up, it is listed in the
+   * report.
+   */
+  public void whenReady(Callback<StorageWarmupReport, StorageError> callback)
+  {
+    if (callback == null) return;
+    if (isReady())
+    {
+      callback.onSuccess(report);
+      return;
+    }
+    callbacks.add(callback);
+  }
+
+  public boolean isReady()
+  {
+    return report != null && report.isComplete();
+  }
+
+  /**
+   * @return The report of the warm-up, null if not started
+   */
+  public StorageWarmupReport getReport()
+  {
+    return report;
+  }
+
+  private static long now()
+  {
+    return new Date().getTime();
+  }
+
+}
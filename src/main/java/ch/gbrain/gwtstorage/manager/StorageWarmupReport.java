@@ -0,0 +1,103 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The durations of the warm-up phases of the StorageManager. The phases run
+ * partly in parallel, thus the total duration is less than the sum of the
+ * phases.
+ */
+public class StorageWarmupReport
+{
+  private Map<String, Long> phaseDurations = new LinkedHashMap<String, Long>();
+  private List<String> failedPhases = new ArrayList<String>();
+  private long totalDuration = -1;
+
+  void setPhaseDuration(String phase, long duration, boolean success)
+  {
+    phaseDurations.put(phase, duration);
+    if (!success) failedPhases.add(phase);
+  }
+
+  void setTotalDuration(long totalDuration)
+  {
+    this.totalDuration = totalDuration;
+  }
+
+  /**
+   * @return The names of the completed phases in the order they completed
+   */
+  public List<String> getPhases()
+  {
+    return new ArrayList<String>(phaseDurations.keySet());
+  }
+
+  /**
+   * @return The duration of the phase in millis or -1 if not completed
+   */
+  public long getPhaseDuration(String phase)
+  {
+    Long duration = phaseDurations.get(phase);
+    return duration != null ? duration : -1;
+  }
+
+  /**
+   * @return The phases which failed, the storage is usable anyhow but the
+   *         failed parts are resolved again on first use
+   */
+  public List<String> getFailedPhases()
+  {
+    return failedPhases;
+  }
+
+  /**
+   * @return The duration from the start of the warm-up until all phases
+   *         completed in millis or -1 if not completed yet
+   */
+  public long getTotalDuration()
+  {
+    return totalDuration;
+  }
+
+  public boolean isComplete()
+  {
+    return totalDuration >= 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    StringBuilder value = new StringBuilder("total:").append(totalDuration).append("ms");
+    for (Map.Entry<String, Long> phase : phaseDurations.entrySet())
+    {
+      value.append(" ").append(phase.getKey()).append(":").append(phase.getValue()).append("ms");
+      if (failedPhases.contains(phase.getKey())) value.append("(failed)");
+    }
+    return value.toString();
+  }
+
+}
@@ -0,0 +1,385 @@
+package ch.gbrain.gwtstorage.manager;
+
+
+/*
+ * #%L
+ * GwtStorage
+ * %%
+ * Copyright (C) 2016 gbrain.ch
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.client.Callback;
+import com.googlecode.gwtphonegap.client.file.FileError;
+
+/**
+ * A StorageBackend which chains several backends as tiers, eg. the
+ * LocalStorage for small items followed by a file store for large ones. A
+ * value is written to the first tier accepting its length and removed from
+ * the other tiers, if the write fails (eg. quota exceeded) the next tier
+ * accepting the length is tried. Reads check the tiers in order, a value found
+ * in a later tier which fits into an earlier one is moved there.
+ */
+public class TieredStorageBackend implements StorageBackend
+{
+
+  private Logger logger = Logger.getLogger("TieredStorageBackend");
+
+  private List<StorageBackend> tiers = new ArrayList<StorageBackend>();
+  private List<Integer> maxValueLengths = new ArrayList<Integer>();
+
+  /**
+   * Append a tier to the chain
+   * 
+   * @param backend
+   * @param maxValueLength The maximum length of the values kept in this tier,
+   *          <=0 for no limit
+   * @return this for chaining
+   */
+  public TieredStorageBackend addTier(StorageBackend backend, int maxValueLength)
+  {
+    tiers.add(backend);
+    maxValueLengths.add(maxValueLength);
+    return this;
+  }
+
+  public int getTierCount()
+  {
+    return tiers.size();
+  }
+
+  public StorageBackend getTier(int tier)
+  {
+    return tiers.get(tier);
+  }
+
+  /**
+   * @return The first tier starting at the given one which accepts the value
+   *         length, -1 if there is none
+   */
+  private int getTier(int length, int fromTier)
+  {
+    for (int i = fromTier; i < tiers.size(); i++)
+    {
+      int maxValueLength = maxValueLengths.get(i);
+      if (maxValueLength <= 0 || length <= maxValueLength) return i;
+    }
+    return -1;
+  }
+
+  public void get(String key, Callback<String, StorageError> callback)
+  {
+    getFromTier(key, 0, callback);
+  }
+
+  private void getFromTier(final String key, final int tier, final Callback<String, StorageError> callback)
+  {
+    if (tier >= tiers.size())
+    {
+      callback.onSuccess(null);
+      return;
+    }
+    tiers.get(tier).get(key, new Callback<String, StorageError>()
+    {
+      public void onSuccess(String value)
+      {
+        if (value == null)
+        {
+          getFromTier(key, tier + 1, callback);
+          return;
+        }
+        promote(key, value, tier);
+        callback.onSuccess(value);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure reading " + key + " from tier " + tier + " : " + error.getErrorCode());
+        getFromTier(key, tier + 1, callback);
+      }
+    });
+  }
+
+  public void getAll(List<String> keys, Callback<Map<String, String>, StorageError> callback)
+  {
+    getAllFromTier(keys, 0, new HashMap<String, String>(), callback);
+  }
+
+  private void getAllFromTier(final List<String> keys, final int tier, final Map<String, String> result, final Callback<Map<String, String>, StorageError> callback)
+  {
+    if (tier >= tiers.size() || keys.isEmpty())
+    {
+      callback.onSuccess(result);
+      return;
+    }
+    tiers.get(tier).getAll(keys, new Callback<Map<String, String>, StorageError>()
+    {
+      public void onSuccess(Map<String, String> values)
+      {
+        List<String> missing = new ArrayList<String>();
+        for (String key : keys)
+        {
+          String value = values.get(key);
+          if (value == null)
+          {
+            missing.add(key);
+          } else
+          {
+            result.put(key, value);
+            promote(key, value, tier);
+          }
+        }
+        getAllFromTier(missing, tier + 1, result, callback);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure reading from tier " + tier + " : " + error.getErrorCode());
+        getAllFromTier(keys, tier + 1, result, callback);
+      }
+    });
+  }
+
+  /**
+   * Move the value found in the given tier to an earlier one if it fits there
+   */
+  private void promote(final String key, String value, final int tier)
+  {
+    int target = getTier(value.length(), 0);
+    if (target < 0 || target >= tier) return;
+    tiers.get(target).put(key, value, new Callback<Void, StorageError>()
+    {
+      public void onSuccess(Void result)
+      {
+        tiers.get(tier).delete(key, null);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        // keep it where it is
+      }
+    });
+  }
+
+  public void put(String key, String value, Callback<Void, StorageError> callback)
+  {
+    putToTier(key, value, getTier(value.length(), 0), null, callback);
+  }
+
+  /**
+   * Write the value to the given tier or the following ones accepting it and
+   * remove it from all other tiers.
+   */
+  private void putToTier(final String key, final String value, final int tier, final StorageError lastError, final Callback<Void, StorageError> callback)
+  {
+    if (tier < 0)
+    {
+      if (callback != null) callback.onFailure(lastError != null ? lastError : new StorageError(FileError.QUOTA_EXCEEDED_ERR, "No tier accepts " + key));
+      return;
+    }
+    tiers.get(tier).put(key, value, new Callback<Void, StorageError>()
+    {
+      public void onSuccess(Void result)
+      {
+        deleteFromOtherTiers(key, tier);
+        if (callback != null) callback.onSuccess(null);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure writing " + key + " to tier " + tier + " : " + error.getErrorCode());
+        putToTier(key, value, getTier(value.length(), tier + 1), error, callback);
+      }
+    });
+  }
+
+  private void deleteFromOtherTiers(String key, int tier)
+  {
+    for (int i = 0; i < tiers.size(); i++)
+    {
+      if (i != tier) tiers.get(i).delete(key, null);
+    }
+  }
+
+  public void putAll(Map<String, String> values, Callback<Void, StorageError> callback)
+  {
+    // batch the values per tier
+    Map<Integer, Map<String, String>> tierValues = new HashMap<Integer, Map<String, String>>();
+    for (Map.Entry<String, String> entry : values.entrySet())
+    {
+      int tier = getTier(entry.getValue().length(), 0);
+      Map<String, String> batch = tierValues.get(tier);
+      if (batch == null)
+      {
+        batch = new HashMap<String, String>();
+        tierValues.put(tier, batch);
+      }
+      batch.put(entry.getKey(), entry.getValue());
+    }
+    final CallbackCounter counter = new CallbackCounter(tierValues.size(), callback);
+    for (Map.Entry<Integer, Map<String, String>> entry : tierValues.entrySet())
+    {
+      final int tier = entry.getKey();
+      final Map<String, String> batch = entry.getValue();
+      if (tier < 0)
+      {
+        putBatchSeparately(batch, -1, null, counter);
+        continue;
+      }
+      tiers.get(tier).putAll(batch, new Callback<Void, StorageError>()
+      {
+        public void onSuccess(Void result)
+        {
+          for (String key : batch.keySet())
+          {
+            deleteFromOtherTiers(key, tier);
+          }
+          counter.onSuccess(null);
+        }
+
+        public void onFailure(StorageError error)
+        {
+          if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure writing " + batch.size() + " values to tier " + tier + " : " + error.getErrorCode());
+          putBatchSeparately(batch, tier + 1, error, counter);
+        }
+      });
+    }
+  }
+
+  /**
+   * Write the values one by one starting at the given tier
+   */
+  private void putBatchSeparately(Map<String, String> batch, int fromTier, StorageError lastError, Callback<Void, StorageError> callback)
+  {
+    CallbackCounter counter = new CallbackCounter(batch.size(), callback);
+    for (Map.Entry<String, String> entry : batch.entrySet())
+    {
+      int tier = fromTier < 0 ? -1 : getTier(entry.getValue().length(), fromTier);
+      putToTier(entry.getKey(), entry.getValue(), tier, lastError, counter);
+    }
+  }
+
+  public void delete(String key, Callback<Void, StorageError> callback)
+  {
+    CallbackCounter counter = new CallbackCounter(tiers.size(), callback);
+    for (StorageBackend tier : tiers)
+    {
+      tier.delete(key, counter);
+    }
+  }
+
+  public void deleteAll(List<String> keys, Callback<Void, StorageError> callback)
+  {
+    CallbackCounter counter = new CallbackCounter(tiers.size(), callback);
+    for (StorageBackend tier : tiers)
+    {
+      tier.deleteAll(keys, counter);
+    }
+  }
+
+  public void iterate(String prefix, StorageBackendVisitor visitor, Callback<Void, StorageError> callback)
+  {
+    iterateTier(prefix, visitor, 0, new HashSet<String>(), new boolean[1], callback);
+  }
+
+  /**
+   * Iterate the tiers one after the other, keys found in an earlier tier are
+   * not visited again.
+   */
+  private void iterateTier(final String prefix, final StorageBackendVisitor visitor, final int tier, final Set<String> visited, final boolean[] stopped, final Callback<Void, StorageError> callback)
+  {
+    if (tier >= tiers.size() || stopped[0])
+    {
+      if (callback != null) callback.onSuccess(null);
+      return;
+    }
+    tiers.get(tier).iterate(prefix, new StorageBackendVisitor()
+    {
+      public boolean visit(String key, String value)
+      {
+        if (!visited.add(key)) return true;
+        if (!visitor.visit(key, value))
+        {
+          stopped[0] = true;
+          return false;
+        }
+        return true;
+      }
+    }, new Callback<Void, StorageError>()
+    {
+      public void onSuccess(Void result)
+      {
+        iterateTier(prefix, visitor, tier + 1, visited, stopped, callback);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        if (StorageLogging.isLoggable(logger, Level.WARNING)) logger.log(Level.WARNING, "Failure iterating tier " + tier + " : " + error.getErrorCode());
+        iterateTier(prefix, visitor, tier + 1, visited, stopped, callback);
+      }
+    });
+  }
+
+  /**
+   * Invokes the callback once the expected number of results arrived, with
+   * the first failure if any.
+   */
+  private static class CallbackCounter implements Callback<Void, StorageError>
+  {
+    private int remaining;
+    private StorageError error;
+    private Callback<Void, StorageError> callback;
+
+    CallbackCounter(int expected, Callback<Void, StorageError> callback)
+    {
+      this.remaining = expected;
+      this.callback = callback;
+      if (expected == 0) complete();
+    }
+
+    public void onSuccess(Void result)
+    {
+      if (--remaining == 0) complete();
+    }
+
+    public void onFailure(StorageError reason)
+    {
+      if (error == null) error = reason;
+      if (--remaining == 0) complete();
+    }
+
+    private void complete()
+    {
+      if (callback == null) return;
+      if (error != null)
+      {
+        callback.onFailure(error);
+      } else
+      {
+        callback.onSuccess(null);
+      }
+    }
+  }
+
+}
@@ -48,6 +48,7 @@ public abstract class StorageItem
 
   private static String STORAGEITEMKEYPREFIX = "item-";
   private static String STORAGEITEMTIMESUFFIX = "-t";
+  private static String STORAGEITEMVALIDATORSUFFIX = "-e";
 
   /**
    * Retrieve a unique key to identify StorageItems in a key/value storage
@@ -58,7 +59,50 @@ public abstract class StorageItem
   public String getStorageItemIdKey()
   {
     // return this.id.toString();
-    return STORAGEITEMKEYPREFIX + this.getTypeName() + "-" + this.getId().toString();
+    return getStorageItemIdKey(this.getTypeName(), this.getId().toString());
+  }
+
+  /**
+   * Build the unique key to identify StorageItems in a key/value storage
+   * 
+   * @param typeName The object-type-name of the item
+   * @param id The id of the item
+   * @return The key build from a prefix + object-type-name + id
+   */
+  @JsonIgnore
+  public static String getStorageItemIdKey(String typeName, String id)
+  {
+    return STORAGEITEMKEYPREFIX + typeName + "-" + id;
+  }
+
+  /**
+   * Extract the object-type-name from a StorageItemIdKey
+   * 
+   * @param key The StorageItemIdKey
+   * @return The type name or null if the key is no StorageItemKey
+   */
+  @JsonIgnore
+  public static String getStorageItemTypeName(String key)
+  {
+    if (!isStorageItemKey(key)) return null;
+    int pos = key.indexOf('-', STORAGEITEMKEYPREFIX.length());
+    if (pos < 0) return null;
+    return key.substring(STORAGEITEMKEYPREFIX.length(), pos);
+  }
+
+  /**
+   * Extract the id from a StorageItemIdKey
+   * 
+   * @param key The StorageItemIdKey
+   * @return The id or null if the key is no StorageItemKey
+   */
+  @JsonIgnore
+  public static String getStorageItemId(String key)
+  {
+    if (!isStorageItemKey(key)) return null;
+    int pos = key.indexOf('-', STORAGEITEMKEYPREFIX.length());
+    if (pos < 0) return null;
+    return key.substring(pos + 1);
   }
 
   /**
@@ -70,7 +114,31 @@ public abstract class StorageItem
   @JsonIgnore
   public String getStorageItemTimeKey()
   {
-    return this.getStorageItemIdKey() + STORAGEITEMTIMESUFFIX;
+    return getStorageItemTimeKey(this.getStorageItemIdKey());
+  }
+
+  @JsonIgnore
+  public static String getStorageItemTimeKey(String itemIdKey)
+  {
+    return itemIdKey + STORAGEITEMTIMESUFFIX;
+  }
+
+  /**
+   * Retrieve a unique key to identify the HTTP cache validators (ETag /
+   * Last-Modified) of StorageItems in a key/value storage
+   * 
+   * @return Retrieve a unique key for this storage item to store the validators. Based on the StorageItemKey + a suffix
+   */
+  @JsonIgnore
+  public String getStorageItemValidatorKey()
+  {
+    return getStorageItemValidatorKey(this.getStorageItemIdKey());
+  }
+
+  @JsonIgnore
+  public static String getStorageItemValidatorKey(String itemIdKey)
+  {
+    return itemIdKey + STORAGEITEMVALIDATORSUFFIX;
   }
 
   @JsonIgnore
@@ -85,7 +153,7 @@ public abstract class StorageItem
   public static boolean isStorageItemIdKey(String key)
   {
     if (key == null) return false;
-    if (isStorageItemKey(key) && !key.endsWith(STORAGEITEMTIMESUFFIX)) return true;
+    if (isStorageItemKey(key) && !key.endsWith(STORAGEITEMTIMESUFFIX) && !key.endsWith(STORAGEITEMVALIDATORSUFFIX)) return true;
     return false;
   }
 
@@ -97,6 +165,14 @@ public abstract class StorageItem
     return false;
   }
 
+  @JsonIgnore
+  public static boolean isStorageItemValidatorKey(String key)
+  {
+    if (key == null) return false;
+    if (isStorageItemKey(key) && key.endsWith(STORAGEITEMVALIDATORSUFFIX)) return true;
+    return false;
+  }
+
   /**
    * Retrieve a unique key to identify StorageItems for log entries
    * 
@@ -26,9 +26,12 @@ public class StorageResource
 {
   private static String RESOURCEKEYPREFIX = "resource-";
   private static String RESOURCEKEYVERSIONSUFFIX = "-v";
+  private static String RESOURCEDOWNLOADKEYPREFIX = "download-";
 
   String resourceUrl;
   Integer version;
+  long expectedSize = -1;
+  String expectedHash;
   FileDownloadCallback downloadNotification;
 
   public StorageResource(String url, Integer version, FileDownloadCallback downloadNotification)
@@ -38,6 +41,22 @@ public class StorageResource
     this.downloadNotification = downloadNotification;
   }
 
+  /**
+   * @param url
+   * @param version
+   * @param expectedSize The size in bytes the downloaded file must have, -1 if
+   *          unknown
+   * @param expectedHash The hex encoded SHA-256 hash the downloaded file must
+   *          have, null if unknown
+   * @param downloadNotification
+   */
+  public StorageResource(String url, Integer version, long expectedSize, String expectedHash, FileDownloadCallback downloadNotification)
+  {
+    this(url, version, downloadNotification);
+    this.expectedSize = expectedSize;
+    this.expectedHash = expectedHash;
+  }
+
   public String getResourceIdKey()
   {
     return RESOURCEKEYPREFIX + resourceUrl;
@@ -53,6 +72,23 @@ public class StorageResource
     return resourceKey + RESOURCEKEYVERSIONSUFFIX;
   }
 
+  /**
+   * @return The key of the progress record of an incomplete download
+   */
+  public String getResourceDownloadKey()
+  {
+    return RESOURCEDOWNLOADKEYPREFIX + resourceUrl;
+  }
+
+  /**
+   * @return The resource url of the given ResourceIdKey
+   */
+  public static String getResourceUrl(String resourceIdKey)
+  {
+    if (resourceIdKey == null || !resourceIdKey.startsWith(RESOURCEKEYPREFIX)) return null;
+    return resourceIdKey.substring(RESOURCEKEYPREFIX.length());
+  }
+
   public static boolean isResourceKey(String key)
   {
     if (key == null) return false;
@@ -84,6 +120,16 @@ public class StorageResource
     return version;
   }
 
+  public long getExpectedSize()
+  {
+    return expectedSize;
+  }
+
+  public String getExpectedHash()
+  {
+    return expectedHash;
+  }
+
   public FileDownloadCallback getDownloadNotification()
   {
     return downloadNotification;
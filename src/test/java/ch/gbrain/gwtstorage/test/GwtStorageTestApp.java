@@ -21,14 +21,59 @@ package ch.gbrain.gwtstorage.test;
  */
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.gbrain.gwtstorage.manager.CachedResourceEntry;
+import ch.gbrain.gwtstorage.manager.LatencyHistogram;
+import ch.gbrain.gwtstorage.manager.LogStructuredFileStore;
+import ch.gbrain.gwtstorage.manager.MemoryStorageBackend;
+import ch.gbrain.gwtstorage.manager.ResourceDownloadPriority;
+import ch.gbrain.gwtstorage.manager.ResourceDownloadScheduler;
+import ch.gbrain.gwtstorage.manager.ResourceFileSupport;
+import ch.gbrain.gwtstorage.manager.ResourceManifestEntry;
+import ch.gbrain.gwtstorage.manager.ResourceSynchronizer;
+import ch.gbrain.gwtstorage.manager.ResumableResourceDownload;
+import ch.gbrain.gwtstorage.manager.StorageBackendVisitor;
+import ch.gbrain.gwtstorage.manager.StorageError;
+import ch.gbrain.gwtstorage.manager.StorageItemCache;
+import ch.gbrain.gwtstorage.manager.StorageItemCacheEntry;
+import ch.gbrain.gwtstorage.manager.StorageItemCompressor;
+import ch.gbrain.gwtstorage.manager.StorageItemEnvelope;
+import ch.gbrain.gwtstorage.manager.StorageItemValidators;
+import ch.gbrain.gwtstorage.manager.StorageKeyIndex;
+import ch.gbrain.gwtstorage.manager.StorageLogging;
 import ch.gbrain.gwtstorage.manager.StorageManager;
+import ch.gbrain.gwtstorage.manager.StorageResourceCollector;
+import ch.gbrain.gwtstorage.manager.StorageStatistics;
+import ch.gbrain.gwtstorage.manager.StorageTrace;
+import ch.gbrain.gwtstorage.manager.TieredStorageBackend;
 import ch.gbrain.gwtstorage.model.StorageItem;
+import ch.gbrain.gwtstorage.model.StorageResource;
 import ch.gbrain.gwtstorage.test.model.TestItem;
 import ch.gbrain.gwtstorage.test.model.TestItemCodec;
 
+import com.google.gwt.core.client.Callback;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.core.shared.GWT;
+import com.google.gwt.json.client.JSONArray;
+import com.google.gwt.json.client.JSONNull;
+import com.google.gwt.json.client.JSONParser;
 import com.google.gwt.json.client.JSONValue;
 import com.google.gwt.junit.client.GWTTestCase;
+import com.google.gwt.storage.client.Storage;
+import com.googlecode.gwtphonegap.client.file.FileDownloadCallback;
+import com.googlecode.gwtphonegap.client.file.FileEntry;
+import com.googlecode.gwtphonegap.client.file.FileError;
+import com.googlecode.gwtphonegap.client.file.FileTransferError;
+import com.googlecode.gwtphonegap.client.file.FileTransferProgressEvent;
 
 /**
  * GWT JUnit <b>integration</b> tests must extend GWTTestCase.
@@ -100,4 +145,1017 @@ public class GwtStorageTestApp extends GWTTestCase
     String res = StorageManager.extractFileNameFromCacheFile(tmp);
     assertTrue(res.equals("filename.jpg"));
   }
+
+  public void testStorageItemCacheEviction()
+  {
+    StorageItemCache cache = new StorageItemCache(2);
+    cache.put("item-a", null, null, 1, 1000);
+    cache.put("item-b", null, null, 1, 1000);
+    assertNotNull(cache.get("item-a"));
+    cache.put("item-c", null, null, 1, 1000);
+    assertNotNull(cache.get("item-a"));
+    assertNull(cache.get("item-b"));
+    assertNotNull(cache.get("item-c"));
+  }
+
+  public void testStorageItemCacheEntryValidity()
+  {
+    StorageItemCacheEntry entry = new StorageItemCacheEntry("item-a", null, null, 2, 10000);
+    assertTrue(entry.isVersionValid(0));
+    assertTrue(entry.isVersionValid(2));
+    assertFalse(entry.isVersionValid(3));
+    assertTrue(entry.isTimeValid(0, 50000));
+    assertTrue(entry.isTimeValid(10, 20000));
+    assertFalse(entry.isTimeValid(10, 20001));
+  }
+
+  public void testStorageKeyIndexRoundTrip()
+  {
+    StorageKeyIndex index = new StorageKeyIndex();
+    index.addKey(new TestItem("1").getStorageItemIdKey());
+    index.addKey(new TestItem("2-a").getStorageItemIdKey());
+    index.addKey(new TestItem("1").getStorageItemTimeKey());
+    index.addKey("resource-content/image.jpg");
+    index.addKey("resource-content/image.jpg-v");
+    index.addKey("foreign-key");
+    StorageKeyIndex read = StorageKeyIndex.fromStorageValue(index.toStorageValue());
+    assertEquals(2, read.getItemCount());
+    assertTrue(read.getItemKeys(new TestItem().getTypeName()).contains(new TestItem("2-a").getStorageItemIdKey()));
+    assertEquals(1, read.getResourceKeys().size());
+    read.clearItems(null);
+    assertEquals(0, read.getItemCount());
+  }
+
+  public void testStorageItemEnvelope()
+  {
+    String value = StorageItemEnvelope.wrap(1234567890123L, 3, "{\"id\":\"1\"}");
+    StorageItemEnvelope envelope = StorageItemEnvelope.parse(value);
+    assertNotNull(envelope);
+    assertEquals(1234567890123L, envelope.getStoreTime());
+    assertEquals(3, envelope.getVersion());
+    assertEquals("{\"id\":\"1\"}", envelope.getPayload());
+    assertEquals(5L, StorageItemEnvelope.parse(envelope.withStoreTime(5)).getStoreTime());
+    assertNull(StorageItemEnvelope.parse("{\"id\":\"1\"}"));
+  }
+
+  public void testStorageItemValidatorsNotModified()
+  {
+    StorageItemCacheEntry entry = new StorageItemCacheEntry("item-a", null, null, 1, 1000);
+    StorageItemValidators validators = new StorageItemValidators("\"v1\"", null, entry);
+    assertTrue(validators.applyResponse(304, null, null));
+    assertTrue(validators.isNotModified());
+    assertEquals("\"v1\"", validators.getEtag());
+    assertFalse(validators.applyResponse(200, "\"v2\"", "Tue, 01 Mar 2016 10:00:00 GMT"));
+    assertFalse(validators.isNotModified());
+    // the new validators are taken over only once the item is stored
+    assertEquals("\"v1\"", validators.getEtag());
+    validators.commitResponse();
+    assertEquals("\"v2\"", validators.getEtag());
+    assertEquals("Tue, 01 Mar 2016 10:00:00 GMT", validators.getLastModified());
+    // without a cached copy there is nothing which could be not modified
+    assertFalse(new StorageItemValidators("\"v1\"", null, null).applyResponse(304, null, null));
+  }
+
+  /**
+   * Answers the application reads with the given item value instead of
+   * requesting it from the server
+   */
+  private static class RevalidatingStorageManager extends StorageManager
+  {
+    private TestItem serverItem;
+
+    private RevalidatingStorageManager(TestItem serverItem)
+    {
+      this.serverItem = serverItem;
+    }
+
+    @Override
+    protected boolean readStorageItemFromApplication(StorageItem item, StorageItemValidators validators, Callback<StorageItem, StorageError> callback)
+    {
+      item.fromJson(serverItem.toJson());
+      storeStorageItem(item, validators);
+      callback.onSuccess(item);
+      return true;
+    }
+  }
+
+  public void testStorageItemStaleWhileRevalidate()
+  {
+    TestItem staleItem = new TestItem("1");
+    staleItem.setTextValue("stale");
+    TestItem serverItem = new TestItem("1");
+    serverItem.setTextValue("updated");
+    MemoryStorageBackend backend = new MemoryStorageBackend();
+    backend.put(staleItem.getStorageItemIdKey(), StorageItemEnvelope.wrap(1, 1, staleItem.toJson().toString()), null);
+    StorageManager manager = new RevalidatingStorageManager(serverItem);
+    manager.setStorageBackend(backend);
+    final List<StorageItem> returned = new ArrayList<StorageItem>();
+    final List<StorageItem> updated = new ArrayList<StorageItem>();
+    TestItem item = new TestItem("1");
+    TestItem updateItem = new TestItem();
+    manager.readStorageItemStaleWhileRevalidate(item, updateItem, 1, 60, new Callback<StorageItem, StorageError>()
+    {
+      public void onSuccess(StorageItem result)
+      {
+        returned.add(result);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        fail();
+      }
+    }, new Callback<StorageItem, StorageError>()
+    {
+      public void onSuccess(StorageItem result)
+      {
+        updated.add(result);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        fail();
+      }
+    });
+    assertEquals(1, returned.size());
+    assertSame(item, returned.get(0));
+    // the returned stale item isn't touched by the background refresh
+    assertEquals("stale", item.getTextValue());
+    assertEquals(1, updated.size());
+    assertSame(updateItem, updated.get(0));
+    assertEquals("1", updateItem.getId());
+    assertEquals("updated", updateItem.getTextValue());
+  }
+
+  /**
+   * Counts the application reads and answers them with the item id as text
+   * value, the reads of the failing ids fail
+   */
+  private static class CountingStorageManager extends StorageManager
+  {
+    private List<String> applicationReads = new ArrayList<String>();
+    private List<String> failingIds = new ArrayList<String>();
+
+    @Override
+    protected boolean readStorageItemFromApplication(StorageItem item, StorageItemValidators validators, Callback<StorageItem, StorageError> callback)
+    {
+      applicationReads.add(item.getId());
+      if (failingIds.contains(item.getId()))
+      {
+        callback.onFailure(new StorageError(FileError.NOT_FOUND_ERR, "Not found"));
+        return true;
+      }
+      TestItem serverItem = new TestItem(item.getId());
+      serverItem.setTextValue("server " + item.getId());
+      item.fromJson(serverItem.toJson());
+      callback.onSuccess(item);
+      return true;
+    }
+  }
+
+  public void testStorageItemBatchFromBackend()
+  {
+    MemoryStorageBackend backend = new MemoryStorageBackend();
+    long now = new Date().getTime();
+    for (String id : Arrays.asList("1", "2"))
+    {
+      TestItem backendItem = new TestItem(id);
+      backendItem.setTextValue("backend " + id);
+      backend.put(backendItem.getStorageItemIdKey(), StorageItemEnvelope.wrap(now, 1, backendItem.toJson().toString()), null);
+    }
+    CountingStorageManager manager = new CountingStorageManager();
+    manager.setStorageBackend(backend);
+    final List<StorageItem> read = new ArrayList<StorageItem>();
+    List<TestItem> items = Arrays.asList(new TestItem("1"), new TestItem("2"), new TestItem("3"));
+    assertTrue(manager.readStorageItems(items, true, 1, 60, new Callback<List<StorageItem>, StorageError>()
+    {
+      public void onSuccess(List<StorageItem> result)
+      {
+        read.addAll(result);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        fail();
+      }
+    }));
+    assertEquals(3, read.size());
+    // only the item missing in the backend is read from the application
+    assertEquals(Arrays.asList("3"), manager.applicationReads);
+    assertEquals("backend 1", items.get(0).getTextValue());
+    assertEquals("backend 2", items.get(1).getTextValue());
+    assertEquals("server 3", items.get(2).getTextValue());
+  }
+
+  /**
+   * Answers the bundle requests with the given response, fails them if there
+   * is none
+   */
+  private static class BundleStorageManager extends CountingStorageManager
+  {
+    private JSONArray bundleResponse;
+    private List<String> bundleRequests = new ArrayList<String>();
+
+    private BundleStorageManager(JSONArray bundleResponse)
+    {
+      this.bundleResponse = bundleResponse;
+      setStorageBundleName("bundle");
+    }
+
+    @Override
+    protected void requestStorageItemBundle(String bundleUrl, JSONArray fileNames, Callback<JSONValue, StorageError> callback)
+    {
+      bundleRequests.add(fileNames.toString());
+      if (bundleResponse == null)
+      {
+        callback.onFailure(new StorageError(FileError.NOT_READABLE_ERR, "Bundle not available"));
+      } else
+      {
+        callback.onSuccess(bundleResponse);
+      }
+    }
+  }
+
+  /**
+   * Collects the result of a batch read
+   */
+  private static class BatchResult implements Callback<List<StorageItem>, StorageError>
+  {
+    private List<StorageItem> items;
+    private StorageError error;
+
+    public void onSuccess(List<StorageItem> result)
+    {
+      items = result;
+    }
+
+    public void onFailure(StorageError error)
+    {
+      this.error = error;
+    }
+  }
+
+  private static JSONValue createServerItemJson(String id)
+  {
+    TestItem serverItem = new TestItem(id);
+    serverItem.setTextValue("bundle " + id);
+    return serverItem.toJson();
+  }
+
+  public void testStorageItemBatchFromBundle()
+  {
+    JSONArray response = new JSONArray();
+    response.set(0, createServerItemJson("1"));
+    response.set(1, JSONNull.getInstance());
+    response.set(2, createServerItemJson("3"));
+    BundleStorageManager manager = new BundleStorageManager(response);
+    List<TestItem> items = Arrays.asList(new TestItem("1"), new TestItem("2"), new TestItem("3"));
+    BatchResult result = new BatchResult();
+    assertTrue(manager.readStorageItems(items, false, 0, 0, result));
+    assertNull(result.error);
+    assertEquals(3, result.items.size());
+    assertEquals(1, manager.bundleRequests.size());
+    // the item unknown to the bundle endpoint is read single
+    assertEquals(Arrays.asList("2"), manager.applicationReads);
+    assertEquals("bundle 1", items.get(0).getTextValue());
+    assertEquals("server 2", items.get(1).getTextValue());
+    assertEquals("bundle 3", items.get(2).getTextValue());
+  }
+
+  public void testStorageItemBatchFallback()
+  {
+    BundleStorageManager manager = new BundleStorageManager(null);
+    manager.failingIds.add("2");
+    List<TestItem> items = Arrays.asList(new TestItem("1"), new TestItem("2"), new TestItem("3"));
+    BatchResult result = new BatchResult();
+    assertTrue(manager.readStorageItems(items, false, 0, 0, result));
+    assertEquals(1, manager.bundleRequests.size());
+    assertEquals(Arrays.asList("1", "2", "3"), manager.applicationReads);
+    // one failing item fails the whole batch, the others are filled in
+    assertNull(result.items);
+    assertNotNull(result.error);
+    assertEquals(FileError.NOT_FOUND_ERR, result.error.getErrorCode());
+    assertEquals("server 1", items.get(0).getTextValue());
+    assertEquals("server 3", items.get(2).getTextValue());
+  }
+
+  /**
+   * Holds the application fetches until the test completes them
+   */
+  private static class HoldingStorageManager extends StorageManager
+  {
+    private List<StorageItem> fetchedItems = new ArrayList<StorageItem>();
+    private List<Callback<StorageItem, StorageError>> fetchCallbacks = new ArrayList<Callback<StorageItem, StorageError>>();
+
+    @Override
+    protected boolean fetchStorageItemFromApplication(StorageItem item, StorageItemValidators validators, Callback<StorageItem, StorageError> callback)
+    {
+      fetchedItems.add(item);
+      fetchCallbacks.add(callback);
+      return true;
+    }
+
+    private boolean read(StorageItem item, Callback<StorageItem, StorageError> callback)
+    {
+      return readStorageItemFromApplication(item, null, callback);
+    }
+
+    private boolean store(StorageItem item)
+    {
+      return storeStorageItem(item, null);
+    }
+  }
+
+  public void testStorageItemReadCoalesced()
+  {
+    HoldingStorageManager manager = new HoldingStorageManager();
+    // a stale cached copy, the completing read doesn't replace it
+    TestItem staleItem = new TestItem("1");
+    staleItem.setTextValue("stale");
+    manager.store(staleItem);
+    final List<StorageItem> results = new ArrayList<StorageItem>();
+    Callback<StorageItem, StorageError> callback = new Callback<StorageItem, StorageError>()
+    {
+      public void onSuccess(StorageItem result)
+      {
+        results.add(result);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        fail();
+      }
+    };
+    TestItem firstItem = new TestItem("1");
+    TestItem secondItem = new TestItem("1");
+    assertTrue(manager.read(firstItem, callback));
+    assertTrue(manager.read(secondItem, callback));
+    assertEquals(1, manager.fetchCallbacks.size());
+    assertSame(firstItem, manager.fetchedItems.get(0));
+    firstItem.setTextValue("fresh");
+    manager.fetchCallbacks.get(0).onSuccess(firstItem);
+    assertEquals(2, results.size());
+    assertSame(firstItem, results.get(0));
+    assertSame(secondItem, results.get(1));
+    assertEquals("fresh", secondItem.getTextValue());
+    // the read is done, a further one fetches again
+    assertTrue(manager.read(new TestItem("1"), callback));
+    assertEquals(2, manager.fetchCallbacks.size());
+  }
+
+  /**
+   * Gives the test access to the item writes and the key index
+   */
+  private static class AccountingStorageManager extends StorageManager
+  {
+    private boolean store(StorageItem item, StorageItemValidators validators)
+    {
+      return storeStorageItem(item, validators);
+    }
+
+    private StorageKeyIndex getIndex()
+    {
+      return getStorageKeyIndex();
+    }
+  }
+
+  private static long getStoredBytes(Storage storage, String key)
+  {
+    String value = storage.getItem(key);
+    return value != null ? 2L * (key.length() + value.length()) : 0;
+  }
+
+  public void testStorageItemValidatorsCommittedOnStore()
+  {
+    MemoryStorageBackend backend = new MemoryStorageBackend();
+    AccountingStorageManager manager = new AccountingStorageManager();
+    manager.setStorageBackend(backend);
+    TestItem item = new TestItem("1");
+    StorageItemValidators validators = new StorageItemValidators("\"v1\"", null, new StorageItemCacheEntry(item.getStorageItemIdKey(), null, null, 1, 1000));
+    assertFalse(validators.applyResponse(200, "\"v2\"", null));
+    assertTrue(manager.store(item, validators));
+    assertEquals("\"v2\"", validators.getEtag());
+    final List<String> stored = new ArrayList<String>();
+    backend.get(item.getStorageItemValidatorKey(), new Callback<String, StorageError>()
+    {
+      public void onSuccess(String result)
+      {
+        stored.add(result);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        fail();
+      }
+    });
+    assertEquals("\"v2\"", StorageItemValidators.fromStorageValue(stored.get(0), null).getEtag());
+  }
+
+  public void testStorageItemValidatorsAccounted()
+  {
+    AccountingStorageManager manager = new AccountingStorageManager();
+    Storage storage = manager.getLocalStorage();
+    TestItem item = new TestItem("accounted");
+    item.setTextValue("value");
+    String key = item.getStorageItemIdKey();
+    assertTrue(manager.store(item, new StorageItemValidators("\"v1\"", "Tue, 01 Mar 2016 10:00:00 GMT", null)));
+    long itemBytes = getStoredBytes(storage, key);
+    long validatorBytes = getStoredBytes(storage, item.getStorageItemValidatorKey());
+    assertTrue(validatorBytes > 0);
+    assertEquals(itemBytes + validatorBytes, manager.getIndex().getItem(key).getSize());
+    // the validators are removed and no longer counted
+    assertTrue(manager.store(item, null));
+    assertEquals(0, getStoredBytes(storage, item.getStorageItemValidatorKey()));
+    assertEquals(itemBytes, manager.getIndex().getItem(key).getSize());
+    manager.clearStorageItems(item.getTypeName());
+  }
+
+  public void testStorageKeyIndexLeastRecentlyUsed()
+  {
+    StorageKeyIndex index = new StorageKeyIndex();
+    String key1 = new TestItem("1").getStorageItemIdKey();
+    String key2 = new TestItem("2").getStorageItemIdKey();
+    index.setItem(key1, 100, 1000);
+    index.setItem(key2, 50, 2000);
+    index.touchItem(key1, 3000);
+    assertEquals(150, index.getItemBytes());
+    assertEquals(key2, index.getLeastRecentlyUsedItemKeys().get(0));
+    StorageKeyIndex read = StorageKeyIndex.fromStorageValue(index.toStorageValue());
+    assertEquals(100, read.getItem(key1).getSize());
+    assertEquals(3000, read.getItem(key1).getLastAccess());
+    assertEquals(150, read.getItemBytes());
+    assertEquals(key2, read.getLeastRecentlyUsedItemKeys().get(0));
+    index.setItem(key1, 70, 4000);
+    index.removeItemKey(key2);
+    assertEquals(70, index.getItemBytes());
+    index.clearItems(null);
+    assertEquals(0, index.getItemBytes());
+  }
+
+
+  public void testStorageKeyIndexResourceLeastRecentlyUsed()
+  {
+    StorageKeyIndex index = new StorageKeyIndex();
+    String key1 = new StorageResource("video/a.mp4", 1, null).getResourceIdKey();
+    String key2 = new StorageResource("video/b.mp4", 1, null).getResourceIdKey();
+    index.setResource(key1, 1000, 1000);
+    index.setResource(key2, 500, 2000);
+    index.touchResource(key1, 3000);
+    assertEquals(Arrays.asList(key2, key1), index.getLeastRecentlyUsedResourceKeys());
+    assertEquals(1500, index.getResourceBytes());
+    StorageKeyIndex read = StorageKeyIndex.fromStorageValue(index.toStorageValue());
+    assertEquals(500, read.getResource(key2).getSize());
+    assertEquals("video/b.mp4", StorageResource.getResourceUrl(key2));
+  }
+
+  public void testStorageItemCompressor()
+  {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < 100; i++)
+    {
+      json.append("{\"id\":\"" + i + "\",\"textValue\":\"Some repeated text \u00e9\u20ac\"},");
+    }
+    json.append("{}]");
+    String compressed = StorageItemCompressor.encode(json.toString());
+    assertTrue(StorageItemCompressor.isCompressed(compressed));
+    assertTrue(compressed.length() < json.length());
+    assertEquals(json.toString(), StorageItemCompressor.decode(compressed));
+    assertEquals("{\"id\":\"1\"}", StorageItemCompressor.decode("{\"id\":\"1\"}"));
+  }
+
+
+  public void testMemoryStorageBackend()
+  {
+    MemoryStorageBackend backend = new MemoryStorageBackend();
+    backend.put("item-a-1", "1", null);
+    backend.put("item-a-2", "2", null);
+    backend.put("item-b-1", "3", null);
+    final List<String> visited = new ArrayList<String>();
+    backend.iterate("item-a-", new StorageBackendVisitor()
+    {
+      public boolean visit(String key, String value)
+      {
+        visited.add(key);
+        return true;
+      }
+    }, null);
+    assertEquals(2, visited.size());
+    backend.deleteAll(visited, null);
+    assertEquals(1, backend.size());
+    final Map<String, String> read = new HashMap<String, String>();
+    backend.getAll(Arrays.asList("item-a-1", "item-b-1"), new Callback<Map<String, String>, StorageError>()
+    {
+      public void onSuccess(Map<String, String> result)
+      {
+        read.putAll(result);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        fail();
+      }
+    });
+    assertEquals(1, read.size());
+    assertEquals("3", read.get("item-b-1"));
+  }
+
+
+  public void testLogStructuredFileStoreRecords()
+  {
+    String complete = LogStructuredFileStore.writeRecord("item-a-1", "{\"text\":\"a:b\"}") + LogStructuredFileStore.writeRecord("item-a-1", null);
+    String segment = complete + "P8:item-a-220:{\"te";
+    final Map<String, String> values = new HashMap<String, String>();
+    final List<String> keys = new ArrayList<String>();
+    int length = LogStructuredFileStore.readRecords(segment, new StorageBackendVisitor()
+    {
+      public boolean visit(String key, String value)
+      {
+        keys.add(key);
+        values.put(key, value);
+        return true;
+      }
+    });
+    assertEquals(complete.length(), length);
+    assertEquals(2, keys.size());
+    assertTrue(values.containsKey("item-a-1"));
+    assertNull(values.get("item-a-1"));
+  }
+
+
+  public void testTieredStorageBackend()
+  {
+    MemoryStorageBackend small = new MemoryStorageBackend();
+    MemoryStorageBackend large = new MemoryStorageBackend();
+    TieredStorageBackend backend = new TieredStorageBackend().addTier(small, 5).addTier(large, 0);
+    backend.put("a", "12345", null);
+    backend.put("b", "123456", null);
+    assertEquals(1, small.size());
+    assertEquals(1, large.size());
+    // a value shrinking below the limit moves to the first tier
+    backend.put("b", "1", null);
+    assertEquals(2, small.size());
+    assertEquals(0, large.size());
+    // values found in a later tier are moved to the tier they fit in
+    large.put("c", "1", null);
+    final List<String> read = new ArrayList<String>();
+    backend.get("c", new Callback<String, StorageError>()
+    {
+      public void onSuccess(String result)
+      {
+        read.add(result);
+      }
+
+      public void onFailure(StorageError error)
+      {
+        fail();
+      }
+    });
+    assertEquals("1", read.get(0));
+    assertEquals(3, small.size());
+    assertEquals(0, large.size());
+  }
+
+
+  public void testResumableDownloadRecord()
+  {
+    String record = ResumableResourceDownload.createProgressRecord(3, "\"etag\"", 2048, 4096);
+    String[] values = ResumableResourceDownload.parseProgressRecord(record);
+    assertEquals("3", values[0]);
+    assertEquals("\"etag\"", values[1]);
+    assertEquals(2048, Double.parseDouble(values[2]), 0);
+    assertEquals(4096, Double.parseDouble(values[3]), 0);
+    assertNull(ResumableResourceDownload.parseProgressRecord("3\netag\n2048"));
+    assertEquals(4096, ResumableResourceDownload.getContentRangeTotal("bytes 0-1023/4096"), 0);
+    assertEquals(-1, ResumableResourceDownload.getContentRangeTotal("bytes 0-1023/*"), 0);
+  }
+
+
+  /**
+   * Runs the chunk requests and the writes to the partial file under the
+   * control of the test, the appends complete only once the test says so.
+   */
+  private static class ControlledResourceDownload extends ResumableResourceDownload
+  {
+    private Map<Double, Integer> requestIds = new HashMap<Double, Integer>();
+    private List<Double> requested = new ArrayList<Double>();
+    private Map<Double, JavaScriptObject> loaded = new HashMap<Double, JavaScriptObject>();
+    private List<JavaScriptObject> appended = new ArrayList<JavaScriptObject>();
+    private List<Callback<Void, StorageError>> pendingAppends = new ArrayList<Callback<Void, StorageError>>();
+    private double length = 0;
+    private int truncates = 0;
+    private boolean truncatedDuringAppend = false;
+
+    private ControlledResourceDownload(String url, FileDownloadCallback callback)
+    {
+      super(new StorageManager(), new StorageResource(url, 1, null), "http://localhost/" + url, StorageManager.convertFilePathToFileName(url), callback, new ScheduledCommand()
+      {
+        public void execute()
+        {
+          fail("No fallback expected");
+        }
+      });
+      setChunkSize(4);
+    }
+
+    @Override
+    protected JavaScriptObject sendChunkRequest(int id, double start, double end, String ifRange)
+    {
+      requestIds.put(start, id);
+      requested.add(start);
+      return JavaScriptObject.createObject();
+    }
+
+    @Override
+    protected void abortChunkRequest(JavaScriptObject request)
+    {
+    }
+
+    @Override
+    protected double getPartialFileLength()
+    {
+      return length;
+    }
+
+    @Override
+    protected void appendToPartialFile(JavaScriptObject data, Callback<Void, StorageError> callback)
+    {
+      appended.add(data);
+      pendingAppends.add(callback);
+    }
+
+    @Override
+    protected void truncatePartialFile(Callback<Void, StorageError> callback)
+    {
+      if (!pendingAppends.isEmpty()) truncatedDuringAppend = true;
+      truncates++;
+      length = 0;
+      callback.onSuccess(null);
+    }
+
+    private void begin()
+    {
+      resume();
+    }
+
+    private boolean respond(double start, String contentRange, String etag)
+    {
+      return onResponseHeaders(requestIds.get(start), start, 206, contentRange, etag, null);
+    }
+
+    private void load(double start, int chunkLength)
+    {
+      JavaScriptObject data = createData(chunkLength);
+      loaded.put(start, data);
+      onChunkLoaded(requestIds.get(start), start, data, chunkLength);
+    }
+
+    private void completeAppend()
+    {
+      JavaScriptObject data = appended.get(appended.size() - pendingAppends.size());
+      length += getDataLength(data);
+      pendingAppends.remove(0).onSuccess(null);
+    }
+
+    private static native JavaScriptObject createData(int length)
+    /*-{
+			return new Uint8Array(length);
+    }-*/;
+
+    private static native int getDataLength(JavaScriptObject data)
+    /*-{
+			return data.length;
+    }-*/;
+  }
+
+  /**
+   * Records the outcome of a download
+   */
+  private static class DownloadResult implements FileDownloadCallback
+  {
+    private int completed = 0;
+    private FileTransferError error = null;
+
+    public void onSuccess(FileEntry entry)
+    {
+      completed++;
+    }
+
+    public void onProgress(FileTransferProgressEvent progress)
+    {
+    }
+
+    public void onFailure(FileTransferError error)
+    {
+      this.error = error;
+    }
+  }
+
+  public void testResumableDownloadRestartDuringWrite()
+  {
+    DownloadResult result = new DownloadResult();
+    ControlledResourceDownload download = new ControlledResourceDownload("test/restart.bin", result);
+    download.begin();
+    assertEquals(Arrays.asList(0.0), download.requested);
+    assertTrue(download.respond(0, "bytes 0-3/12", "\"v1\""));
+    download.load(0, 4);
+    assertEquals(1, download.pendingAppends.size());
+    // the resource changed while the first chunk is still appended
+    assertFalse(download.respond(4, "bytes 4-7/12", "\"v2\""));
+    assertEquals(0, download.truncates);
+    download.completeAppend();
+    assertEquals(1, download.truncates);
+    assertFalse(download.truncatedDuringAppend);
+    assertEquals(0, download.length, 0);
+    // started over with the new content
+    assertEquals(Arrays.asList(0.0, 4.0, 0.0), download.requested);
+    assertTrue(download.respond(0, "bytes 0-3/12", "\"v2\""));
+    download.load(0, 4);
+    download.completeAppend();
+    assertTrue(download.respond(4, "bytes 4-7/12", "\"v2\""));
+    download.load(4, 4);
+    download.completeAppend();
+    assertTrue(download.respond(8, "bytes 8-11/12", "\"v2\""));
+    download.load(8, 4);
+    download.completeAppend();
+    assertEquals(1, result.completed);
+    assertNull(result.error);
+    assertEquals(12, download.length, 0);
+  }
+
+
+  public void testResumableDownloadParallelSegmentsReordered()
+  {
+    DownloadResult result = new DownloadResult();
+    ControlledResourceDownload download = new ControlledResourceDownload("test/segments.bin", result);
+    download.setParallelSegments(3);
+    download.begin();
+    // the total size is unknown until the first chunk answered
+    assertEquals(Arrays.asList(0.0), download.requested);
+    assertTrue(download.respond(0, "bytes 0-3/16", "\"v1\""));
+    download.load(0, 4);
+    assertEquals(Arrays.asList(0.0, 4.0, 8.0, 12.0), download.requested);
+    assertTrue(download.respond(4, "bytes 4-7/16", "\"v1\""));
+    assertTrue(download.respond(8, "bytes 8-11/16", "\"v1\""));
+    assertTrue(download.respond(12, "bytes 12-15/16", "\"v1\""));
+    // the later chunks arrive first and wait for their turn
+    download.load(12, 4);
+    download.load(8, 4);
+    download.load(4, 4);
+    assertEquals(1, download.appended.size());
+    for (int i = 0; i < 4; i++)
+    {
+      download.completeAppend();
+    }
+    assertEquals(4, download.appended.size());
+    for (int i = 0; i < 4; i++)
+    {
+      assertSame(download.loaded.get(i * 4.0), download.appended.get(i));
+    }
+    assertEquals(1, result.completed);
+    assertNull(result.error);
+    assertEquals(16, download.length, 0);
+  }
+
+  public void testResumableDownloadChunkLengthMismatch()
+  {
+    DownloadResult result = new DownloadResult();
+    ControlledResourceDownload download = new ControlledResourceDownload("test/mismatch.bin", result);
+    download.setParallelSegments(3);
+    download.begin();
+    assertTrue(download.respond(0, "bytes 0-3/12", "\"v1\""));
+    download.load(0, 4);
+    assertTrue(download.respond(4, "bytes 4-7/12", "\"v1\""));
+    // a short chunk would shift the following ones
+    download.load(4, 3);
+    assertNotNull(result.error);
+    assertEquals(FileTransferError.CONNECTION_ERR, result.error.getCode());
+    download.completeAppend();
+    assertEquals(1, download.appended.size());
+    assertEquals(0, result.completed);
+  }
+
+  /**
+   * Records the started downloads instead of running them, the test completes
+   * them through the download notification of the resource
+   */
+  private static class RecordingDownloadScheduler extends ResourceDownloadScheduler
+  {
+    private List<StorageResource> started = new ArrayList<StorageResource>();
+
+    private RecordingDownloadScheduler()
+    {
+      super(new StorageManager());
+    }
+
+    @Override
+    protected StorageResourceCollector startCollector(StorageResource resource)
+    {
+      started.add(resource);
+      return null;
+    }
+
+    private List<String> getStartedUrls()
+    {
+      List<String> urls = new ArrayList<String>();
+      for (StorageResource resource : started)
+      {
+        urls.add(resource.getResourceUrl());
+      }
+      return urls;
+    }
+  }
+
+  public void testResourceDownloadSchedulerPriority()
+  {
+    RecordingDownloadScheduler scheduler = new RecordingDownloadScheduler();
+    scheduler.setMaxConcurrentDownloads(1);
+    scheduler.enqueue("test/a.jpg", 1, ResourceDownloadPriority.LOW, null);
+    scheduler.enqueue("test/b.jpg", 1, ResourceDownloadPriority.LOW, null);
+    scheduler.enqueue("test/c.jpg", 1, ResourceDownloadPriority.NORMAL, null);
+    scheduler.enqueue("test/d.jpg", 1, ResourceDownloadPriority.HIGH, null);
+    assertEquals(1, scheduler.getRunningCount());
+    assertEquals(3, scheduler.getQueuedCount());
+    // the highest priority first, in the requested order within a priority
+    for (int i = 0; i < 4; i++)
+    {
+      scheduler.started.get(i).getDownloadNotification().onSuccess(null);
+    }
+    assertEquals(Arrays.asList("test/a.jpg", "test/d.jpg", "test/c.jpg", "test/b.jpg"), scheduler.getStartedUrls());
+    assertEquals(0, scheduler.getRunningCount());
+  }
+
+  public void testResourceDownloadSchedulerDeduplication()
+  {
+    RecordingDownloadScheduler scheduler = new RecordingDownloadScheduler();
+    scheduler.setMaxConcurrentDownloads(1);
+    DownloadResult first = new DownloadResult();
+    DownloadResult second = new DownloadResult();
+    DownloadResult queued = new DownloadResult();
+    DownloadResult upgraded = new DownloadResult();
+    scheduler.enqueue("test/a.jpg", 1, ResourceDownloadPriority.NORMAL, first);
+    scheduler.enqueue("test/a.jpg", 1, ResourceDownloadPriority.NORMAL, second);
+    // a queued download is upgraded to the newer version and raised in
+    // priority
+    scheduler.enqueue("test/b.jpg", 1, ResourceDownloadPriority.LOW, queued);
+    scheduler.enqueue("test/c.jpg", 1, ResourceDownloadPriority.NORMAL, null);
+    scheduler.enqueue("test/b.jpg", 2, ResourceDownloadPriority.HIGH, upgraded);
+    assertEquals(1, scheduler.started.size());
+    assertEquals(2, scheduler.getQueuedCount());
+    scheduler.started.get(0).getDownloadNotification().onSuccess(null);
+    assertEquals(1, first.completed);
+    assertEquals(1, second.completed);
+    assertEquals(Arrays.asList("test/a.jpg", "test/b.jpg"), scheduler.getStartedUrls());
+    assertEquals(Integer.valueOf(2), scheduler.started.get(1).getVersion());
+    scheduler.started.get(1).getDownloadNotification().onSuccess(null);
+    assertEquals(1, queued.completed);
+    assertEquals(1, upgraded.completed);
+  }
+
+  public void testResourceDownloadSchedulerFollowUp()
+  {
+    RecordingDownloadScheduler scheduler = new RecordingDownloadScheduler();
+    DownloadResult running = new DownloadResult();
+    DownloadResult followUp = new DownloadResult();
+    scheduler.enqueue("test/a.jpg", 1, ResourceDownloadPriority.NORMAL, running);
+    scheduler.enqueue("test/a.jpg", 2, ResourceDownloadPriority.NORMAL, followUp);
+    // the running download isn't affected, the new version waits for it
+    assertEquals(1, scheduler.started.size());
+    assertEquals(0, scheduler.getQueuedCount());
+    scheduler.started.get(0).getDownloadNotification().onSuccess(null);
+    assertEquals(1, running.completed);
+    assertEquals(0, followUp.completed);
+    assertEquals(2, scheduler.started.size());
+    assertEquals(Integer.valueOf(2), scheduler.started.get(1).getVersion());
+    assertTrue(scheduler.isPending("test/a.jpg"));
+    scheduler.started.get(1).getDownloadNotification().onSuccess(null);
+    assertEquals(1, followUp.completed);
+    assertFalse(scheduler.isPending("test/a.jpg"));
+  }
+
+  public void testResourceDownloadSchedulerCancel()
+  {
+    RecordingDownloadScheduler scheduler = new RecordingDownloadScheduler();
+    scheduler.setMaxConcurrentDownloads(1);
+    DownloadResult running = new DownloadResult();
+    DownloadResult queued = new DownloadResult();
+    DownloadResult next = new DownloadResult();
+    scheduler.enqueue("test/a.jpg", 1, ResourceDownloadPriority.NORMAL, running);
+    scheduler.enqueue("test/b.jpg", 1, ResourceDownloadPriority.NORMAL, queued);
+    scheduler.enqueue("test/c.jpg", 1, ResourceDownloadPriority.NORMAL, next);
+    assertTrue(scheduler.cancel("test/b.jpg"));
+    assertEquals(ResourceDownloadScheduler.ABORT_ERR, queued.error.getCode());
+    assertTrue(scheduler.cancel("test/a.jpg"));
+    assertEquals(ResourceDownloadScheduler.ABORT_ERR, running.error.getCode());
+    assertFalse(scheduler.cancel("test/a.jpg"));
+    // the free slot is taken by the next queued download
+    assertEquals(Arrays.asList("test/a.jpg", "test/c.jpg"), scheduler.getStartedUrls());
+    // a late answer of the cancelled download is ignored
+    scheduler.started.get(0).getDownloadNotification().onSuccess(null);
+    assertEquals(0, running.completed);
+    assertEquals(1, scheduler.getRunningCount());
+    scheduler.started.get(1).getDownloadNotification().onSuccess(null);
+    assertEquals(1, next.completed);
+  }
+
+  public void testResourceHashKnownAnswers()
+  {
+    assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", ResourceFileSupport.sha256(createBytes(0, 0), 1));
+    assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", ResourceFileSupport.sha256(createAbc(), 1));
+    // the slices end within the 64 byte blocks
+    assertEquals("cdc76e5c9914fb9281a1c7e284d73e67f1809a48a497200e046d39ccc7112cd0", ResourceFileSupport.sha256(createBytes('a', 1000000), 65537));
+  }
+
+  private static native JavaScriptObject createBytes(int value, int length)
+  /*-{
+		var bytes = new Uint8Array(length);
+		for (var i = 0; i < length; i++) {
+			bytes[i] = value;
+		}
+		return bytes;
+  }-*/;
+
+  private static native JavaScriptObject createAbc()
+  /*-{
+		return new Uint8Array([ 0x61, 0x62, 0x63 ]);
+  }-*/;
+
+  public void testResourceManifest()
+  {
+    JSONValue json = JSONParser.parseStrict("{\"resources\":[{\"url\":\"video/a.mp4\",\"version\":3,\"size\":1024,\"hash\":\"ab12\"},{\"version\":1},{\"url\":\"img/b.png\"}]}");
+    List<ResourceManifestEntry> entries = ResourceSynchronizer.parseManifest(json);
+    assertEquals(2, entries.size());
+    assertEquals("video/a.mp4", entries.get(0).getUrl());
+    assertEquals(Integer.valueOf(3), entries.get(0).getVersion());
+    assertEquals(1024, entries.get(0).getSize());
+    assertEquals("ab12", entries.get(0).getHash());
+    assertNull(entries.get(1).getVersion());
+    assertEquals(-1, entries.get(1).getSize());
+    assertNull(ResourceSynchronizer.parseManifest(JSONParser.parseStrict("{}")));
+  }
+
+
+  public void testCachedResourceEntryVersion()
+  {
+    CachedResourceEntry entry = new CachedResourceEntry(Integer.valueOf(200), "file:///cache/video@@a.mp4");
+    assertTrue(entry.isVersionValid(Integer.valueOf(200)));
+    assertTrue(entry.isVersionValid(null));
+    assertTrue(entry.isVersionValid(0));
+    assertFalse(entry.isVersionValid(201));
+    assertFalse(new CachedResourceEntry(null, "file:///cache/a").isVersionValid(1));
+  }
+
+
+  public void testStorageStatistics()
+  {
+    StorageStatistics statistics = new StorageStatistics();
+    statistics.recordHit(StorageStatistics.TIER_LOCALSTORAGE);
+    statistics.recordHit(StorageStatistics.TIER_LOCALSTORAGE);
+    statistics.recordMiss(StorageStatistics.TIER_LOCALSTORAGE);
+    for (int i = 1; i <= 100; i++)
+    {
+      statistics.recordLatency(StorageStatistics.OP_READITEM, i);
+    }
+    statistics.recordError(StorageStatistics.OP_DOWNLOAD, 3);
+    StorageStatistics snapshot = statistics.snapshot();
+    statistics.recordHit(StorageStatistics.TIER_LOCALSTORAGE);
+    assertEquals(2, snapshot.getHits(StorageStatistics.TIER_LOCALSTORAGE));
+    assertEquals(1, snapshot.getMisses(StorageStatistics.TIER_LOCALSTORAGE));
+    LatencyHistogram latency = snapshot.getLatency(StorageStatistics.OP_READITEM);
+    assertEquals(100, latency.getCount());
+    assertEquals(100, latency.getMax());
+    assertEquals(50, latency.getPercentile(0.5));
+    assertEquals(100, latency.getPercentile(0.95));
+    assertEquals(Long.valueOf(1), snapshot.getErrors().get(StorageStatistics.OP_DOWNLOAD + ":3"));
+  }
+
+
+  public void testStorageTrace()
+  {
+    StorageTrace trace = new StorageTrace(2);
+    assertEquals(-1, trace.begin(StorageStatistics.OP_READITEM, "first", null));
+    trace.setEnabled(true);
+    long first = trace.begin(StorageStatistics.OP_READITEM, "first", null);
+    long second = trace.begin(StorageStatistics.OP_FILE, "second", StorageStatistics.TIER_FILE);
+    long third = trace.begin(StorageStatistics.OP_DOWNLOAD, "th\"ird", StorageStatistics.TIER_REMOTE);
+    trace.end(first, true, 0);
+    trace.end(second, true, 0);
+    trace.end(third, false, 3);
+    assertEquals(2, trace.size());
+    String json = trace.toChromeTraceJson();
+    assertTrue(json.startsWith("{\"traceEvents\":[{\"name\":\"" + StorageStatistics.OP_FILE + "\""));
+    assertFalse(json.contains("\"first\""));
+    assertTrue(json.contains("\"subject\":\"th\\\"ird\",\"outcome\":\"failure\",\"error\":3"));
+    JSONParser.parseStrict(json);
+    trace.clear();
+    assertEquals("{\"traceEvents\":[]}", trace.toChromeTraceJson());
+  }
+
+
+  public void testStorageLogging()
+  {
+    assertFalse(StorageLogging.isLoggable(null, Level.SEVERE));
+    Logger logger = Logger.getLogger("StorageLoggingTest");
+    logger.setLevel(Level.OFF);
+    assertFalse(StorageLogging.isLoggable(logger, Level.INFO));
+  }
+
 }